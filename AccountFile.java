@@ -0,0 +1,156 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A list of accounts (screen name and password) read from a file for bulk
+ * registration with <code>Brokerage.addUsers</code>. Two formats are read:
+ * <br>CSV -- one <code>name,password</code> per line, with an optional
+ * <code>name,password</code> header line; blank lines are skipped.
+ * <br>Binary -- the magic number <code>0x53414641</code> ("SAFA"), the
+ * number of accounts (int), then each name and password as modified UTF-8
+ * (see <code>DataOutput.writeUTF</code>).
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class AccountFile
+{
+    /**
+     * The first four bytes of a binary account file.
+     */
+    public static final int MAGIC = 0x53414641;
+
+    private String[] names;
+    private String[] passwords;
+
+    /**
+     * Constructs a list of accounts.
+     * @param names the screen names.
+     * @param passwords the passwords, in the same order.
+     */
+    public AccountFile(String[] names, String[] passwords) {
+        this.names = names;
+        this.passwords = passwords;
+    }
+
+    /**
+     * Reads an account file, telling the binary format from CSV by its
+     * magic number.
+     * @param file the account file.
+     * @return the accounts in the file.
+     * @throws IOException if the file cannot be read.
+     */
+    public static AccountFile read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file), 1 << 16))) {
+            in.mark(4);
+            int magic = 0;
+            try {
+                magic = in.readInt();
+            }
+            catch (EOFException ex) {
+                // too short to be binary
+            }
+            if (magic == MAGIC) {
+                return readBinary(in);
+            }
+            in.reset();
+            return readCsv(new BufferedReader(new InputStreamReader(in,
+                    StandardCharsets.UTF_8), 1 << 16));
+        }
+    }
+
+    /**
+     * Reads accounts in CSV format.
+     * @param in the CSV text.
+     * @return the accounts read.
+     * @throws IOException if the text cannot be read.
+     */
+    public static AccountFile readCsv(BufferedReader in) throws IOException {
+        List<String> names = new ArrayList<String>();
+        List<String> passwords = new ArrayList<String>();
+        String line = in.readLine();
+        if (line != null && line.trim().equalsIgnoreCase("name,password")) {
+            line = in.readLine();
+        }
+        for (; line != null; line = in.readLine()) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int comma = line.indexOf(',');
+            names.add(comma < 0 ? line : line.substring(0, comma));
+            passwords.add(comma < 0 ? "" : line.substring(comma + 1));
+        }
+        return new AccountFile(names.toArray(new String[0]),
+                passwords.toArray(new String[0]));
+    }
+
+    /**
+     * Reads accounts in binary format, after the magic number.
+     * @param in the stream, positioned at the account count.
+     * @return the accounts read.
+     * @throws IOException if the stream cannot be read.
+     */
+    private static AccountFile readBinary(DataInput in) throws IOException {
+        int count = in.readInt();
+        String[] names = new String[count];
+        String[] passwords = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = in.readUTF();
+            passwords[i] = in.readUTF();
+        }
+        return new AccountFile(names, passwords);
+    }
+
+    /**
+     * Writes these accounts to a file in binary format.
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeBinary(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file),
+                        1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(names.length);
+            for (int i = 0; i < names.length; i++) {
+                out.writeUTF(names[i]);
+                out.writeUTF(passwords[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of accounts.
+     * @return the number of accounts.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the screen names, in file order.
+     * @return the screen names.
+     */
+    public String[] getNames() {
+        return names;
+    }
+
+    /**
+     * Returns the passwords, in file order.
+     * @return the passwords.
+     */
+    public String[] getPasswords() {
+        return passwords;
+    }
+
+    /**
+     * Returns the number of accounts, for debugging.
+     * @return a string representation of this list.
+     */
+    public String toString() {
+        return "AccountFile[" + names.length + " accounts]";
+    }
+}
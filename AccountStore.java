@@ -0,0 +1,288 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Keeps registered accounts (screen name and password) in a memory-mapped
+ * file, so a brokerage with millions of accounts holds only the traders
+ * that are in session on the heap. The file is an open-addressing hash
+ * table of fixed-size slots keyed by screen name; a lookup hashes the name
+ * and compares it in place, without creating any objects.
+ * <p>
+ * The file starts with a 16-byte header: the magic number
+ * <code>0x53414653</code> ("SAFS"), the number of slots and the number of
+ * accounts (ints). Each 48-byte slot holds a used flag, the name length,
+ * the name (10 chars), the password length and the password (10 chars).
+ * The table doubles when it is half full, into a new file that replaces
+ * the store only once it is complete.
+ * </p>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class AccountStore implements Closeable
+{
+    /**
+     * The first four bytes of an account store file.
+     */
+    public static final int MAGIC = 0x53414653;
+
+    /**
+     * The longest screen name or password a slot can hold.
+     */
+    public static final int MAX_LENGTH = 10;
+
+    private static final int HEADER = 16;
+    private static final int SLOT = 48;
+    private static final int NAME = 1;
+    private static final int PASSWORD = NAME + 1 + 2 * MAX_LENGTH;
+    private static final int INITIAL_SLOTS = 1024;
+
+    private Path file;
+    private FileChannel channel;
+    private MappedByteBuffer table;
+    private int slots;
+    private int count;
+
+    /**
+     * Opens the store in a given file, creating it if needed.
+     * @param file the file holding the accounts.
+     * @throws IOException if the file cannot be opened or is not an account
+     *         store.
+     */
+    public AccountStore(Path file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            map(INITIAL_SLOTS);
+            table.putInt(0, MAGIC);
+            table.putInt(4, INITIAL_SLOTS);
+            table.putInt(8, 0);
+        }
+        else {
+            MappedByteBuffer header = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            if (header.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException("not an account store: " + file);
+            }
+            map(header.getInt(4));
+            count = table.getInt(8);
+        }
+    }
+
+    /**
+     * Returns the number of accounts in the store.
+     * @return the number of accounts.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns true if an account with a given screen name is stored.
+     * @param name a screen name.
+     * @return true if the name is taken; false otherwise.
+     */
+    public synchronized boolean contains(String name) {
+        return table.get(offset(find(name))) != 0;
+    }
+
+    /**
+     * Returns the password of an account.
+     * @param name a screen name.
+     * @return the password, or null if no account has that name.
+     */
+    public synchronized String getPassword(String name) {
+        int at = offset(find(name));
+        if (table.get(at) == 0) {
+            return null;
+        }
+        return readString(at + PASSWORD);
+    }
+
+    /**
+     * Adds an account. The name and password must be at most
+     * <code>MAX_LENGTH</code> chars long.
+     * @param name the screen name.
+     * @param password the password.
+     * @return 0 if the account was added, or -3 if the name is taken.
+     */
+    public synchronized int add(String name, String password) {
+        if (name.length() > MAX_LENGTH || password.length() > MAX_LENGTH) {
+            throw new IllegalArgumentException("name or password too long");
+        }
+        if ((count + 1) * 2 > slots) {
+            grow();
+        }
+        int at = offset(find(name));
+        if (table.get(at) != 0) {
+            return -3;
+        }
+        table.put(at, (byte)1);
+        writeString(at + NAME, name);
+        writeString(at + PASSWORD, password);
+        count++;
+        table.putInt(8, count);
+        return 0;
+    }
+
+    /**
+     * Writes the mapped table to disk.
+     */
+    public synchronized void force() {
+        table.force();
+    }
+
+    /**
+     * Writes the table to disk and closes the file.
+     * @throws IOException if the file cannot be closed.
+     */
+    public synchronized void close() throws IOException {
+        table.force();
+        channel.close();
+    }
+
+    /**
+     * Returns the slot holding a name, or the empty slot where it would go.
+     */
+    private int find(String name) {
+        int h = name.hashCode();
+        h ^= h >>> 16;
+        int mask = slots - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            int at = offset(i);
+            if (table.get(at) == 0 || nameEquals(at, name)) {
+                return i;
+            }
+        }
+    }
+
+    private boolean nameEquals(int at, String name) {
+        int length = table.get(at + NAME);
+        if (length != name.length()) {
+            return false;
+        }
+        for (int c = 0; c < length; c++) {
+            if (table.getChar(at + NAME + 1 + 2 * c) != name.charAt(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a string stored as a length byte followed by its chars.
+     */
+    private String readString(int at) {
+        int length = table.get(at);
+        char[] chars = new char[length];
+        for (int c = 0; c < length; c++) {
+            chars[c] = table.getChar(at + 1 + 2 * c);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Writes a string as a length byte followed by its chars.
+     */
+    private void writeString(int at, String s) {
+        table.put(at, (byte)s.length());
+        for (int c = 0; c < s.length(); c++) {
+            table.putChar(at + 1 + 2 * c, s.charAt(c));
+        }
+    }
+
+    private int offset(int slot) {
+        return HEADER + slot * SLOT;
+    }
+
+    /**
+     * Doubles the table, reinserting every account. The doubled table is
+     * built in a temporary file next to the store, forced to disk and then
+     * moved over the store in one atomic rename, so a crash while growing
+     * leaves the old table whole.
+     */
+    private void grow() {
+        int oldSlots = slots;
+        MappedByteBuffer old = table;
+        FileChannel previous = channel;
+        Path grown = file.resolveSibling(file.getFileName() + ".grow");
+        try {
+            channel = FileChannel.open(grown, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        try {
+            map(oldSlots * 2);
+            table.putInt(0, MAGIC);
+            table.putInt(4, slots);
+            table.putInt(8, count);
+            for (int i = 0; i < oldSlots; i++) {
+                int at = offset(i);
+                if (old.get(at) == 0) {
+                    continue;
+                }
+                int length = old.get(at + NAME);
+                char[] chars = new char[length];
+                for (int c = 0; c < length; c++) {
+                    chars[c] = old.getChar(at + NAME + 1 + 2 * c);
+                }
+                int to = offset(find(new String(chars)));
+                for (int b = 0; b < SLOT; b++) {
+                    table.put(to + b, old.get(at + b));
+                }
+            }
+            table.force();
+            Files.move(grown, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException | RuntimeException ex) {
+            // not moved: keep the old table, which is still the store's file
+            closeQuietly(channel);
+            channel = previous;
+            table = old;
+            slots = oldSlots;
+            throw ex instanceof IOException
+                    ? new UncheckedIOException((IOException)ex)
+                    : (RuntimeException)ex;
+        }
+        closeQuietly(previous);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        }
+        catch (IOException ex) {
+            // already failing; the first exception is the one reported
+        }
+    }
+
+    private void map(int newSlots) {
+        if ((long)newSlots * SLOT + HEADER > Integer.MAX_VALUE) {
+            throw new IllegalStateException("account store is full: "
+                    + file);
+        }
+        try {
+            table = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER + (long)newSlots * SLOT);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        slots = newSlots;
+    }
+
+    /**
+     * Returns the file and size of this store.
+     * @return a string representation of this store.
+     */
+    public String toString() {
+        return "AccountStore[" + file + ", " + size() + " accounts]";
+    }
+}
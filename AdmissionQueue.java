@@ -0,0 +1,371 @@
+import java.util.*;
+
+/**
+ * A bounded queue of orders and cancels between a brokerage and the stock
+ * exchange. Requests are admitted from any thread and carried out, in
+ * order of arrival, by one draining thread; when requests arrive faster
+ * than they can be matched, the queue sheds load instead of growing
+ * without bound:
+ * <br>A new order is turned away when the queue is full, and dropped when
+ * it has waited longer than the age limit by the time it is drained.
+ * <br>Cancels have priority: they are drained ahead of new orders, are
+ * never dropped for age, and a cancel arriving at a full queue takes the
+ * place of the newest queued order. A cancel for an order that is still
+ * queued withdraws the order at once.
+ * <p>
+ * Every decision is counted, so the load shed can be watched.
+ * </p>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class AdmissionQueue
+{
+    /**
+     * Specifies the methods that carry out or turn away queued requests.
+     */
+    public interface Target
+    {
+        /**
+         * Called on the draining thread to place an order.
+         * @param order the order.
+         */
+        void place(TradeOrder order);
+
+        /**
+         * Called on the draining thread to cancel an order.
+         * @param order the order.
+         */
+        void cancel(TradeOrder order);
+
+        /**
+         * Called when a request is shed after it was admitted.
+         * @param order the order, or the order to be cancelled.
+         * @param cancel true if a cancel was shed; false if an order was.
+         * @param code the reason: <code>FULL</code> or <code>STALE</code>.
+         */
+        void shed(TradeOrder order, boolean cancel, int code);
+    }
+
+    /**
+     * Code: the request was queued.
+     */
+    public static final int QUEUED = 0;
+
+    /**
+     * Code: the cancelled order was still queued and has been withdrawn.
+     */
+    public static final int WITHDRAWN = 1;
+
+    /**
+     * Error code: the queue was full.
+     */
+    public static final int FULL = -1;
+
+    /**
+     * Error code: the order waited longer than the age limit.
+     */
+    public static final int STALE = -2;
+
+    private int maxDepth;
+    private long maxAgeNanos;
+    private Target target;
+    private ArrayDeque<TradeOrder> orders;
+    private IdentityHashMap<TradeOrder, Long> queuedAt;
+    private ArrayDeque<TradeOrder> cancels;
+    private boolean closed;
+    private Thread drainer;
+
+    private long ordersAdmitted;
+    private long cancelsAdmitted;
+    private long ordersFull;
+    private long ordersStale;
+    private long cancelsFull;
+    private long withdrawn;
+    private int peakDepth;
+    private long maxWaitNanos;
+
+    /**
+     * Constructs an empty queue.
+     * @param maxDepth the most requests (orders and cancels) queued at once.
+     * @param maxAgeMillis the longest an order may wait before it is
+     *                     dropped.
+     */
+    public AdmissionQueue(int maxDepth, long maxAgeMillis) {
+        this.maxDepth = maxDepth;
+        maxAgeNanos = maxAgeMillis * 1000000;
+        orders = new ArrayDeque<TradeOrder>();
+        queuedAt = new IdentityHashMap<TradeOrder, Long>();
+        cancels = new ArrayDeque<TradeOrder>();
+    }
+
+    /**
+     * Sets the target that carries out drained requests.
+     * @param target the target.
+     */
+    public synchronized void setTarget(Target target) {
+        this.target = target;
+    }
+
+    /**
+     * Returns the number of requests queued.
+     * @return the queue depth.
+     */
+    public synchronized int getDepth() {
+        return queuedAt.size() + cancels.size();
+    }
+
+    /**
+     * Admits an order unless the queue is full.
+     * @param order the order.
+     * @return <code>QUEUED</code>, or <code>FULL</code> if the order was
+     *         turned away.
+     */
+    public synchronized int submitOrder(TradeOrder order) {
+        if (closed || getDepth() >= maxDepth) {
+            ordersFull++;
+            return FULL;
+        }
+        orders.addLast(order);
+        queuedAt.put(order, System.nanoTime());
+        ordersAdmitted++;
+        admitted();
+        return QUEUED;
+    }
+
+    /**
+     * Admits a cancel. If the order is still queued, it is withdrawn
+     * instead. If the queue is full, the newest queued order is shed to
+     * make room; only when no orders are queued is the cancel turned away.
+     * @param order the order to cancel.
+     * @return <code>QUEUED</code>, <code>WITHDRAWN</code> or
+     *         <code>FULL</code>.
+     */
+    public int submitCancel(TradeOrder order) {
+        TradeOrder newest = null;
+        synchronized (this) {
+            if (queuedAt.remove(order) != null) {
+                withdrawn++;
+                return WITHDRAWN;
+            }
+            if (closed) {
+                cancelsFull++;
+                return FULL;
+            }
+            if (getDepth() >= maxDepth) {
+                newest = orders.pollLast();
+                while (newest != null && queuedAt.remove(newest) == null) {
+                    newest = orders.pollLast();
+                }
+                if (newest == null) {
+                    cancelsFull++;
+                    return FULL;
+                }
+                ordersFull++;
+            }
+            cancels.addLast(order);
+            cancelsAdmitted++;
+            admitted();
+        }
+        if (newest != null) {
+            target.shed(newest, false, FULL);
+        }
+        return QUEUED;
+    }
+
+    private void admitted() {
+        peakDepth = Math.max(peakDepth, getDepth());
+        notifyAll();
+    }
+
+    /**
+     * Carries out every request queued, cancels first, on the calling
+     * thread.
+     * @return the number of requests carried out or shed.
+     */
+    public int drain() {
+        int done = 0;
+        while (drainOne()) {
+            done++;
+        }
+        return done;
+    }
+
+    /**
+     * Carries out or sheds the next request: the oldest cancel, or if there
+     * is none, the oldest order.
+     * @return true if a request was taken; false if the queue was empty.
+     */
+    private boolean drainOne() {
+        TradeOrder order;
+        boolean stale = false;
+        synchronized (this) {
+            order = cancels.pollFirst();
+        }
+        if (order != null) {
+            target.cancel(order);
+            return true;
+        }
+        synchronized (this) {
+            Long time = null;
+            while (time == null) {
+                order = orders.pollFirst();
+                if (order == null) {
+                    return false;
+                }
+                time = queuedAt.remove(order);
+            }
+            long wait = System.nanoTime() - time;
+            maxWaitNanos = Math.max(maxWaitNanos, wait);
+            if (wait > maxAgeNanos) {
+                ordersStale++;
+                stale = true;
+            }
+        }
+        if (stale) {
+            target.shed(order, false, STALE);
+        }
+        else {
+            target.place(order);
+        }
+        return true;
+    }
+
+    /**
+     * Starts draining the queue on a background thread.
+     */
+    public void start() {
+        drainer = new Thread(this::run, "admission-queue");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (!closed && getDepth() == 0) {
+                        wait();
+                    }
+                    if (closed && getDepth() == 0) {
+                        return;
+                    }
+                }
+                drain();
+            }
+        }
+        catch (InterruptedException ex) {
+            // stop draining
+        }
+    }
+
+    /**
+     * Stops admitting requests and waits for the background thread, if
+     * any, to carry out those already queued.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (drainer != null) {
+            drainer.join();
+        }
+    }
+
+    /**
+     * Returns the number of orders admitted.
+     * @return the number of orders queued.
+     */
+    public synchronized long getOrdersAdmitted() {
+        return ordersAdmitted;
+    }
+
+    /**
+     * Returns the number of cancels admitted.
+     * @return the number of cancels queued.
+     */
+    public synchronized long getCancelsAdmitted() {
+        return cancelsAdmitted;
+    }
+
+    /**
+     * Returns the number of orders shed because the queue was full: turned
+     * away on arrival or displaced by a cancel.
+     * @return the number of orders shed for depth.
+     */
+    public synchronized long getOrdersShedFull() {
+        return ordersFull;
+    }
+
+    /**
+     * Returns the number of orders dropped for waiting too long.
+     * @return the number of orders shed for age.
+     */
+    public synchronized long getOrdersShedStale() {
+        return ordersStale;
+    }
+
+    /**
+     * Returns the number of cancels turned away because the queue was full
+     * of cancels.
+     * @return the number of cancels shed.
+     */
+    public synchronized long getCancelsShed() {
+        return cancelsFull;
+    }
+
+    /**
+     * Returns the number of queued orders withdrawn by a cancel.
+     * @return the number of withdrawn orders.
+     */
+    public synchronized long getWithdrawn() {
+        return withdrawn;
+    }
+
+    /**
+     * Returns the greatest number of requests queued at once.
+     * @return the peak depth.
+     */
+    public synchronized int getPeakDepth() {
+        return peakDepth;
+    }
+
+    /**
+     * Returns the longest time an order waited in the queue.
+     * @return the longest wait in nanoseconds.
+     */
+    public synchronized long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * Returns a short description of an error code.
+     * @param code <code>FULL</code> or <code>STALE</code>.
+     * @return the reason a request was shed.
+     */
+    public static String reason(int code) {
+        switch (code) {
+            case FULL:
+                return "queue full";
+            case STALE:
+                return "queue timeout";
+            default:
+                return "queued";
+        }
+    }
+
+    /**
+     * Returns the depth and shedding counts of this queue.
+     * @return a string representation of this queue.
+     */
+    public synchronized String toString() {
+        return "AdmissionQueue[depth " + getDepth() + "/" + maxDepth
+                + ", peak " + peakDepth + ", orders " + ordersAdmitted
+                + " (" + ordersFull + " full, " + ordersStale + " stale, "
+                + withdrawn + " withdrawn), cancels " + cancelsAdmitted
+                + " (" + cancelsFull + " full), max wait "
+                + maxWaitNanos / 1000 + " us]";
+    }
+}
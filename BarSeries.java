@@ -0,0 +1,167 @@
+/**
+ * Keeps the most recent open/high/low/close/volume bars (candles) of one
+ * stock for one bar interval. Bars are built incrementally as trades print
+ * and are stored in fixed-size ring buffers of primitives, so recording a
+ * trade is constant work and allocates nothing. When the ring is full the
+ * oldest bar is overwritten.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class BarSeries
+{
+    private long interval;
+    private long[] startTimes;
+    private double[] opens;
+    private double[] highs;
+    private double[] lows;
+    private double[] closes;
+    private long[] volumes;
+    private long count;
+    private int mask;
+
+    /**
+     * Constructs an empty series of bars.
+     * @param intervalMillis the length of one bar in milliseconds.
+     * @param capacity the number of bars to keep (rounded up to a power of
+     *                 two).
+     */
+    public BarSeries(long intervalMillis, int capacity) {
+        if (intervalMillis <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException(
+                "interval and capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size *= 2;
+        }
+        interval = intervalMillis;
+        startTimes = new long[size];
+        opens = new double[size];
+        highs = new double[size];
+        lows = new double[size];
+        closes = new double[size];
+        volumes = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds a trade to the bar covering its time, starting a new bar if the
+     * trade falls past the end of the current one. A trade time-stamped
+     * before the current bar (a clock step backwards) is added to the
+     * current bar.
+     * @param timeMillis the time of the trade.
+     * @param price the trade price.
+     * @param shares the number of shares traded.
+     */
+    public void add(long timeMillis, double price, int shares) {
+        long start = timeMillis - Math.floorMod(timeMillis, interval);
+        int i = (int)((count - 1) & mask);
+        if (count == 0 || start > startTimes[i]) {
+            i = (int)(count & mask);
+            startTimes[i] = start;
+            opens[i] = price;
+            highs[i] = price;
+            lows[i] = price;
+            closes[i] = price;
+            volumes[i] = shares;
+            count++;
+        }
+        else {
+            highs[i] = Math.max(highs[i], price);
+            lows[i] = Math.min(lows[i], price);
+            closes[i] = price;
+            volumes[i] += shares;
+        }
+    }
+
+    /**
+     * Returns the length of one bar in milliseconds.
+     * @return the bar interval.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Returns the number of bars available, at most the capacity.
+     * @return the number of bars kept.
+     */
+    public int size() {
+        return (int)Math.min(count, startTimes.length);
+    }
+
+    /**
+     * Returns the start time of a bar.
+     * @param ago 0 for the latest bar, 1 for the one before, and so on.
+     * @return the start time of that bar in milliseconds.
+     */
+    public long getStartTime(int ago) {
+        return startTimes[index(ago)];
+    }
+
+    /**
+     * Returns the opening price of a bar.
+     * @param ago 0 for the latest bar, 1 for the one before, and so on.
+     * @return the first trade price in that bar.
+     */
+    public double getOpen(int ago) {
+        return opens[index(ago)];
+    }
+
+    /**
+     * Returns the high price of a bar.
+     * @param ago 0 for the latest bar, 1 for the one before, and so on.
+     * @return the highest trade price in that bar.
+     */
+    public double getHigh(int ago) {
+        return highs[index(ago)];
+    }
+
+    /**
+     * Returns the low price of a bar.
+     * @param ago 0 for the latest bar, 1 for the one before, and so on.
+     * @return the lowest trade price in that bar.
+     */
+    public double getLow(int ago) {
+        return lows[index(ago)];
+    }
+
+    /**
+     * Returns the closing price of a bar.
+     * @param ago 0 for the latest bar, 1 for the one before, and so on.
+     * @return the last trade price in that bar.
+     */
+    public double getClose(int ago) {
+        return closes[index(ago)];
+    }
+
+    /**
+     * Returns the volume of a bar.
+     * @param ago 0 for the latest bar, 1 for the one before, and so on.
+     * @return the number of shares traded in that bar.
+     */
+    public long getVolume(int ago) {
+        return volumes[index(ago)];
+    }
+
+    private int index(int ago) {
+        if (ago < 0 || ago >= size()) {
+            throw new IndexOutOfBoundsException("no bar " + ago + " ago");
+        }
+        return (int)((count - 1 - ago) & mask);
+    }
+
+    /**
+     * Returns the latest bar, for debugging.
+     * @return a string representation of this series.
+     */
+    public String toString() {
+        if (count == 0) {
+            return "BarSeries[" + interval + "ms, empty]";
+        }
+        return "BarSeries[" + interval + "ms, " + size() + " bars, last O "
+                + getOpen(0) + " H " + getHigh(0) + " L " + getLow(0)
+                + " C " + getClose(0) + " V " + getVolume(0) + "]";
+    }
+}
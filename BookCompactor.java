@@ -0,0 +1,170 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Shrinks the books of idle stocks in the background. A stock is idle when
+ * no order has been placed or cancelled for it for a given time; its price
+ * levels are trimmed to what their live orders need (see
+ * <code>Stock.compact</code>). A stock that is being matched is skipped and
+ * tried again on the next pass, so the compactor never waits for matching.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class BookCompactor implements Runnable
+{
+    private StockExchange exchange;
+    private long idleMillis;
+    private int minCapacity;
+    private double slack;
+    private long passes;
+    private long compacted;
+    private long skipped;
+    private long bytesFreed;
+
+    /**
+     * Constructs a compactor for the stocks of an exchange.
+     * @param exchange the stock exchange.
+     * @param idleMillis how long a stock must go without orders before it
+     *                   is compacted.
+     * @param minCapacity the smallest level capacity to keep.
+     * @param slack how many times the needed capacity a level may hold
+     *              before it is trimmed.
+     */
+    public BookCompactor(StockExchange exchange, long idleMillis,
+                         int minCapacity, double slack) {
+        this.exchange = exchange;
+        this.idleMillis = idleMillis;
+        this.minCapacity = minCapacity;
+        this.slack = slack;
+    }
+
+    /**
+     * Runs one compaction pass.
+     */
+    public void run() {
+        compactOnce();
+    }
+
+    /**
+     * Compacts every idle stock once.
+     * @return the estimated number of bytes freed by this pass.
+     */
+    public synchronized long compactOnce() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        long freed = 0;
+        for (Stock stock : exchange.getStocks()) {
+            if (stock.getLastActivity() > cutoff) {
+                continue;
+            }
+            long bytes = stock.compact(minCapacity, slack);
+            if (bytes < 0) {
+                skipped++;
+            }
+            else {
+                compacted++;
+                freed += bytes;
+            }
+        }
+        passes++;
+        bytesFreed += freed;
+        return freed;
+    }
+
+    /**
+     * Runs a compaction pass periodically.
+     * @param timer the executor to run the passes on.
+     * @param periodMillis the time between passes.
+     * @return the handle to cancel the passes.
+     */
+    public ScheduledFuture<?> start(ScheduledExecutorService timer,
+                                    long periodMillis) {
+        return timer.scheduleWithFixedDelay(this, periodMillis, periodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the number of stocks compacted so far.
+     * @return the number of compactions.
+     */
+    public synchronized long getCompacted() {
+        return compacted;
+    }
+
+    /**
+     * Returns the number of times an idle stock was skipped because it was
+     * being matched.
+     * @return the number of skipped stocks.
+     */
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Returns the estimated number of bytes freed so far.
+     * @return the bytes freed.
+     */
+    public synchronized long getBytesFreed() {
+        return bytesFreed;
+    }
+
+    /**
+     * Returns a report of the estimated book footprint of the stocks on the
+     * exchange: the total, and the largest books. Busy books are left out.
+     * For example:
+     *   Books: 2 stocks, 4,528 bytes (1 busy)
+     *   GGGL 4,032 bytes, 3 levels, 512 slots
+     * @param top the number of largest books to list.
+     * @return the report.
+     */
+    public String footprintReport(int top) {
+        List<Stock> stocks = exchange.getStocks();
+        long[][] details = new long[stocks.size()][];
+        long[] bytes = new long[stocks.size()];
+        long total = 0;
+        int busy = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            details[i] = stocks.get(i).getBookFootprintDetails();
+            if (details[i] == null) {
+                bytes[i] = -1;
+                busy++;
+            }
+            else {
+                bytes[i] = details[i][0];
+                total += bytes[i];
+            }
+        }
+        Integer[] order = new Integer[bytes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(bytes[b], bytes[a]));
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Books: %d stocks, %,d bytes",
+                bytes.length, total));
+        if (busy > 0) {
+            report.append(" (").append(busy).append(" busy)");
+        }
+        for (int i = 0; i < Math.min(top, order.length); i++) {
+            if (bytes[order[i]] < 0) {
+                break;
+            }
+            long[] book = details[order[i]];
+            report.append(String.format("%n%s %,d bytes, %d levels, %d slots",
+                    stocks.get(order[i]).getStockSymbol(), book[0], book[1],
+                    book[2]));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Returns the settings and counts of this compactor.
+     * @return a string representation of this compactor.
+     */
+    public synchronized String toString() {
+        return "BookCompactor[idle " + idleMillis + " ms, " + passes
+                + " passes, " + compacted + " compacted, " + skipped
+                + " skipped, " + bytesFreed + " bytes freed]";
+    }
+}
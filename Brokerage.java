@@ -1,5 +1,8 @@
+import java.io.IOException;
 import java.lang.reflect.*;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 /**
  * Represents a brokerage.
  * @author William Li
@@ -14,6 +17,14 @@ public class Brokerage implements Login
     private Map<String, Trader> traders;
     private Set<Trader> loggedTraders;
     private StockExchange exchange;
+    private StockExchange[] venues;
+    private SmartOrderRouter router;
+    private RiskLimits defaultLimits;
+    private OrderEventListener eventListener;
+    private AtomicLong lastOrderId;
+    private AccountStore accounts;
+    private AdmissionQueue admission;
+    private boolean cancelOnLogout;
 
     /**
      * Constructs new brokerage affiliated with a given stock exchange.
@@ -24,19 +35,148 @@ public class Brokerage implements Login
      */
     public Brokerage(StockExchange exchange) {
         this.exchange = exchange;
+        venues = new StockExchange[] { exchange };
         loggedTraders = new TreeSet<>();
         traders = new TreeMap<>();
+        defaultLimits = RiskLimits.NONE;
+        lastOrderId = new AtomicLong();
+    }
+
+    /**
+     * Constructs new brokerage affiliated with a given stock exchange that
+     * keeps its accounts in a given account store. A trader is created only
+     * when it logs in (or is otherwise needed) and is kept in the map of
+     * traders until <code>evictIdle</code> finds it idle, so memory grows
+     * with the traders in session rather than with all accounts.
+     * @param exchange a stock exchange.
+     * @param accounts the store holding the registered accounts.
+     */
+    public Brokerage(StockExchange exchange, AccountStore accounts) {
+        this(exchange);
+        this.accounts = accounts;
+    }
+
+    /**
+     * Constructs new brokerage affiliated with several stock exchanges
+     * (venues) that share a symbol table. Orders are routed across the
+     * venues by a <code>SmartOrderRouter</code> with default settings;
+     * quotes come from the first (primary) venue.
+     * @param venues the stock exchanges; the first is the primary venue.
+     */
+    public Brokerage(StockExchange... venues) {
+        this(new SmartOrderRouter(venues));
+    }
+
+    /**
+     * Constructs new brokerage that routes orders with a given smart order
+     * router. Quotes come from the router's first (primary) venue.
+     * @param router the router over this brokerage's venues.
+     */
+    public Brokerage(SmartOrderRouter router) {
+        this(router.getVenues()[0]);
+        this.router = router;
+        venues = router.getVenues();
     }
 
     /**
      * Tries to register a new trader with a given screen name and password.
      * If successful, creates a Trader object for this trader and adds this
      * trader to the map of all traders (using the screen name as the key).
+     * The new trader starts with the brokerage's default risk limits.
+     * With an account store, the account is written to the store instead
+     * and the Trader object is created when the trader logs in.
      * @param name the screen name of the trader.
      * @param password the password for the trader.
      * @return an error code or 0 for success.
      */
     public int addUser(String name, String password) {
+        int code = checkUser(name, password);
+        if (code != 0) {
+            return code;
+        }
+        if (accounts != null) {
+            if (accounts.add(name, password) != 0) {
+                return -3;
+            }
+        }
+        else {
+            if (traders.containsKey(name)) {
+                return -3;
+            }
+            traders.put(name, newTrader(name, password));
+        }
+        if (eventListener != null) {
+            eventListener.userAdded(name, password);
+        }
+        return 0;
+    }
+
+    /**
+     * Creates a trader with the default risk limits.
+     * @param name the screen name of the trader.
+     * @param password the password for the trader.
+     * @return the new trader.
+     */
+    private Trader newTrader(String name, String password) {
+        Trader trader = new Trader(this, name, password);
+        trader.getRisk().setLimits(defaultLimits);
+        return trader;
+    }
+
+    /**
+     * Returns the trader with a given screen name, creating it from the
+     * account store if it is registered but not in memory.
+     * @param name the screen name of the trader.
+     * @return the trader, or null if no such trader is registered.
+     */
+    Trader getTrader(String name) {
+        Trader trader = traders.get(name);
+        if (trader == null && accounts != null) {
+            String password = accounts.getPassword(name);
+            if (password != null) {
+                trader = newTrader(name, password);
+                traders.put(name, trader);
+            }
+        }
+        return trader;
+    }
+
+    /**
+     * Drops the traders that have been logged out for at least a given time
+     * and hold nothing but their account (no open orders, shares, waiting
+     * messages, quotes, subscriptions or risk limits of their own). They
+     * are created again from the account store when next needed. Does
+     * nothing without an account store.
+     * @param idleMillis the least time since logout.
+     * @return the number of traders dropped.
+     */
+    public int evictIdle(long idleMillis) {
+        if (accounts == null) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        int evicted = 0;
+        Iterator<Trader> it = traders.values().iterator();
+        while (it.hasNext()) {
+            Trader trader = it.next();
+            if (trader.getLastActive() <= cutoff &&
+                    !loggedTraders.contains(trader) && trader.isIdle() &&
+                    trader.getRisk().getLimits() == defaultLimits) {
+                it.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Checks the lengths of a screen name and password.
+     * @param name the screen name of the trader.
+     * @param password the password for the trader.
+     * @return 0 if both are valid, -1 for an invalid screen name (must be
+     *         4-10 chars) or -2 for an invalid password (must be 2-10 chars).
+     */
+    private static int checkUser(String name, String password) {
         int l1 = name.length();
         int l2 = password.length();
         if (l1 < 4 || l1 > 10) {
@@ -45,10 +185,301 @@ public class Brokerage implements Login
         if (l2 < 2 || l2 > 10) {
             return -2;
         }
-        if (traders.containsKey(name)) {
-            return -3;
+        return 0;
+    }
+
+    /**
+     * Registers the traders listed in an account file (see
+     * <code>AccountFile</code>).
+     * @param file a CSV or binary account file.
+     * @return the code of each row, as <code>addUser</code> would return it.
+     * @throws IOException if the file cannot be read.
+     */
+    public ImportReport importUsers(Path file) throws IOException {
+        AccountFile accounts = AccountFile.read(file);
+        return addUsers(accounts.getNames(), accounts.getPasswords());
+    }
+
+    /**
+     * Registers many traders at once, with the same rules as
+     * <code>addUser</code>.
+     * 1. Checks the lengths of all names and passwords in parallel.
+     * 2. Finds names that are taken, by an existing trader or by an earlier
+     * row, in one pass over the rows.
+     * 3. Creates the new traders in parallel and sorts them by name.
+     * 4. Rebuilds the map of traders from the sorted existing and new
+     * traders in one linear-time construction, instead of inserting the
+     * new traders one at a time.
+     * With an account store, steps 3 and 4 are replaced by writing the new
+     * accounts to the store.
+     * @param names the screen names.
+     * @param passwords the passwords, in the same order.
+     * @return the code of each row: 0 if registered, or -1, -2 or -3.
+     */
+    public ImportReport addUsers(String[] names, String[] passwords) {
+        int n = names.length;
+        int[] codes = new int[n];
+        Arrays.parallelSetAll(codes, i -> checkUser(names[i], passwords[i]));
+
+        Set<String> seen = new HashSet<>(Math.max(16, n * 4 / 3 + 1));
+        int accepted = 0;
+        for (int i = 0; i < n; i++) {
+            if (codes[i] == 0) {
+                if (traders.containsKey(names[i]) || !seen.add(names[i])
+                        || (accounts != null && accounts.contains(names[i]))) {
+                    codes[i] = -3;
+                }
+                else {
+                    accepted++;
+                }
+            }
+        }
+        if (accounts != null) {
+            for (int i = 0; i < n; i++) {
+                if (codes[i] == 0) {
+                    accounts.add(names[i], passwords[i]);
+                    if (eventListener != null) {
+                        eventListener.userAdded(names[i], passwords[i]);
+                    }
+                }
+            }
+            return new ImportReport(names, codes);
+        }
+
+        int[] rows = new int[accepted];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (codes[i] == 0) {
+                rows[j++] = i;
+            }
+        }
+        Trader[] added = new Trader[accepted];
+        Arrays.parallelSetAll(added,
+                j -> newTrader(names[rows[j]], passwords[rows[j]]));
+        Arrays.parallelSort(added, (a, b) -> a.getName().compareTo(
+                b.getName()));
+
+        String[] keys = new String[traders.size() + accepted];
+        Trader[] values = new Trader[keys.length];
+        Iterator<Map.Entry<String, Trader>> existing =
+                traders.entrySet().iterator();
+        Map.Entry<String, Trader> next = existing.hasNext() ?
+                existing.next() : null;
+        int a = 0;
+        for (int k = 0; k < keys.length; k++) {
+            if (next != null && (a == accepted ||
+                    next.getKey().compareTo(added[a].getName()) < 0)) {
+                keys[k] = next.getKey();
+                values[k] = next.getValue();
+                next = existing.hasNext() ? existing.next() : null;
+            }
+            else {
+                keys[k] = added[a].getName();
+                values[k] = added[a];
+                a++;
+            }
+        }
+        traders = new TreeMap<>(new SortedRun(keys, values));
+
+        if (eventListener != null) {
+            for (int row : rows) {
+                eventListener.userAdded(names[row], passwords[row]);
+            }
+        }
+        return new ImportReport(names, codes);
+    }
+
+    /**
+     * A read-only sorted map over a range of parallel arrays of sorted keys
+     * and values. The <code>TreeMap</code> copy constructor builds a
+     * balanced tree from it in linear time; its sub-maps are ranges of the
+     * same arrays.
+     */
+    private static class SortedRun extends AbstractMap<String, Trader>
+            implements SortedMap<String, Trader>
+    {
+        private String[] keys;
+        private Trader[] values;
+        private int from;
+        private int to;
+
+        SortedRun(String[] keys, Trader[] values) {
+            this(keys, values, 0, keys.length);
+        }
+
+        private SortedRun(String[] keys, Trader[] values, int from, int to) {
+            this.keys = keys;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        public Set<Map.Entry<String, Trader>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Trader>>() {
+                public int size() {
+                    return to - from;
+                }
+
+                public Iterator<Map.Entry<String, Trader>> iterator() {
+                    return new Iterator<Map.Entry<String, Trader>>() {
+                        private int i = from;
+
+                        public boolean hasNext() {
+                            return i < to;
+                        }
+
+                        public Map.Entry<String, Trader> next() {
+                            if (i == to) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, Trader> entry =
+                                    new AbstractMap.SimpleImmutableEntry<>(
+                                            keys[i], values[i]);
+                            i++;
+                            return entry;
+                        }
+                    };
+                }
+            };
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        public boolean containsKey(Object key) {
+            return key instanceof String && find((String)key) >= 0;
+        }
+
+        public Trader get(Object key) {
+            int i = key instanceof String ? find((String)key) : -1;
+            return i < 0 ? null : values[i];
+        }
+
+        private int find(String key) {
+            return Arrays.binarySearch(keys, from, to, key);
+        }
+
+        /**
+         * Returns the index of the first key in this run at or after a given
+         * key.
+         */
+        private int ceiling(String key) {
+            int i = find(key);
+            return i < 0 ? -i - 1 : i;
+        }
+
+        public Comparator<? super String> comparator() {
+            return null;
+        }
+
+        public String firstKey() {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return keys[from];
+        }
+
+        public String lastKey() {
+            if (from == to) {
+                throw new NoSuchElementException();
+            }
+            return keys[to - 1];
+        }
+
+        public SortedMap<String, Trader> subMap(String fromKey,
+                                                String toKey) {
+            if (fromKey.compareTo(toKey) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            return new SortedRun(keys, values, ceiling(fromKey),
+                    ceiling(toKey));
+        }
+
+        public SortedMap<String, Trader> headMap(String toKey) {
+            return new SortedRun(keys, values, from, ceiling(toKey));
         }
-        traders.put(name, new Trader(this, name, password));
+
+        public SortedMap<String, Trader> tailMap(String fromKey) {
+            return new SortedRun(keys, values, ceiling(fromKey), to);
+        }
+    }
+
+    /**
+     * Sets the listener told about every registration at this brokerage, in
+     * the order they happen (for example, an <code>EventLogWriter</code> or
+     * a <code>ReplicationPrimary</code>). The orders and cancels of this
+     * brokerage are told by the stock exchange (see
+     * <code>StockExchange.setOrderEventListener</code>). The slices a smart
+     * order router sends to other venues are not orders of this brokerage
+     * and are never told, so a brokerage with several venues cannot have a
+     * listener: a log or standby built from its events would miss those
+     * trades.
+     * @param listener the listener, or null for none.
+     * @throws IllegalStateException if this brokerage routes orders across
+     *         several venues.
+     */
+    public void setOrderEventListener(OrderEventListener listener) {
+        if (listener != null && venues.length > 1) {
+            throw new IllegalStateException(
+                    "orders routed across several venues are not sequenced");
+        }
+        eventListener = listener;
+    }
+
+    /**
+     * Sends orders and cancels to the stock exchange through a bounded
+     * admission queue, which sheds load when they arrive faster than they
+     * can be matched (see <code>AdmissionQueue</code>). Whoever drains the
+     * queue (its own thread after <code>start</code>, or a caller of
+     * <code>drain</code>) does the matching.
+     * @param queue the admission queue, or null to send requests straight
+     *              to the exchange.
+     */
+    public void setAdmissionQueue(AdmissionQueue queue) {
+        admission = queue;
+        if (queue != null) {
+            queue.setTarget(new Gateway());
+        }
+    }
+
+    /**
+     * Carries out the requests drained from the admission queue.
+     */
+    private class Gateway implements AdmissionQueue.Target
+    {
+        public void place(TradeOrder order) {
+            route(order);
+        }
+
+        public void cancel(TradeOrder order) {
+            routeCancel(order);
+        }
+
+        public void shed(TradeOrder order, boolean cancel, int code) {
+            Brokerage.this.shed(order, cancel, code);
+        }
+    }
+
+    /**
+     * Sets the risk limits given to traders registered from now on.
+     * @param limits the default risk limits.
+     */
+    public void setDefaultRiskLimits(RiskLimits limits) {
+        defaultLimits = limits;
+    }
+
+    /**
+     * Sets the risk limits of a registered trader.
+     * @param name the screen name of the trader.
+     * @param limits the new risk limits.
+     * @return 0 if successful, or -1 if the screen name is not found.
+     */
+    public int setRiskLimits(String name, RiskLimits limits) {
+        Trader trader = getTrader(name);
+        if (trader == null) {
+            return -1;
+        }
+        trader.getRisk().setLimits(limits);
         return 0;
     }
 
@@ -62,6 +493,60 @@ public class Brokerage implements Login
         trader.receiveMessage(exchange.getQuote(symbol));
     }
 
+    /**
+     * Subscribes a trader to top-of-book updates for a given stock from the
+     * stock exchange. If the stock (ex. XYZ) is not listed, the trader gets
+     * the message "XYZ not found." instead.
+     * @param symbol the stock symbol.
+     * @param trader the subscribing trader.
+     */
+    public void subscribe(String symbol, Trader trader) {
+        if (!exchange.subscribe(symbol, trader)) {
+            trader.receiveMessage(symbol + " not found.");
+        }
+        else {
+            trader.subscribed(symbol);
+        }
+    }
+
+    /**
+     * Cancels a trader's subscription to a given stock.
+     * @param symbol the stock symbol.
+     * @param trader the subscribed trader.
+     */
+    public void unsubscribe(String symbol, Trader trader) {
+        exchange.unsubscribe(symbol, trader);
+        trader.unsubscribed(symbol);
+    }
+
+    /**
+     * Returns the last sale price of a given stock at the stock exchange.
+     * @param symbol the stock symbol.
+     * @return the last sale price, or NaN if the stock is not listed.
+     */
+    public double getLastPrice(String symbol) {
+        return exchange.getLastPrice(symbol);
+    }
+
+    /**
+     * Returns the last sale price of the stock with a given symbol id.
+     * @param symbolId a symbol id assigned by the stock exchange.
+     * @return the last sale price, or NaN if no stock has that id.
+     */
+    public double getLastPrice(int symbolId) {
+        return exchange.getLastPrice(symbolId);
+    }
+
+    /**
+     * Returns the stock exchange's symbol id for a given stock, so that a
+     * client can resolve a symbol once and stamp the id on its orders.
+     * @param symbol the stock symbol.
+     * @return the symbol id, or -1 if the stock is not listed.
+     */
+    public int getSymbolId(String symbol) {
+        return exchange.getSymbolId(symbol);
+    }
+
     /**
      * Tries to login a trader with a given screen name and password. If no
      * messages are waiting for the trader, sends a "Welcome to SafeTrade!"
@@ -73,13 +558,13 @@ public class Brokerage implements Login
      * @return an error code or 0 for success.
      */
     public int login(String name, String password) {
-        if (!traders.containsKey(name)) {
+        Trader trader = getTrader(name);
+        if (trader == null) {
             return -1;
         }
-        if (!traders.get(name).getPassword().equals(password)) {
+        if (!trader.getPassword().equals(password)) {
             return -2;
         }
-        Trader trader = traders.get(name);
         if (loggedTraders.contains(trader)) {
             return -3;
         }
@@ -91,19 +576,189 @@ public class Brokerage implements Login
 
     /**
      * Removes a specified trader from the set of logged-in traders.
-     * The trader may be assumed to logged in already.
+     * The trader may be assumed to logged in already. With cancel on logout
+     * set, all of the trader's open orders are cancelled.
      * @param trader the trader that logs out.
      */
     public void logout(Trader trader) {
         loggedTraders.remove(trader);
+        if (cancelOnLogout) {
+            cancelAll(trader, null);
+        }
+        trader.setLastActive(System.currentTimeMillis());
     }
 
     /**
-     * Places an order at the stock exchange.
+     * Sets whether a trader's open orders are cancelled when the trader
+     * logs out (cancel on disconnect). Off by default.
+     * @param cancel true to cancel open orders on logout.
+     */
+    public void setCancelOnLogout(boolean cancel) {
+        cancelOnLogout = cancel;
+    }
+
+    /**
+     * Cancels all of a trader's open orders, or those in one stock. The
+     * orders are found in the trader's own index of open orders (see
+     * <code>TraderRisk.getLiveOrders</code>), so the work is in proportion
+     * to the trader's order count, not to the size of the books.
+     * @param trader the trader.
+     * @param symbol a stock symbol, or null for every stock.
+     * @return the number of orders cancelled (with an admission queue, the
+     *         number of cancels admitted).
+     */
+    public int cancelAll(Trader trader, String symbol) {
+        TraderRisk risk = trader.getRisk();
+        List<TradeOrder> orders = symbol == null ? risk.getLiveOrders()
+                : risk.getLiveOrders(symbol);
+        int cancelled = 0;
+        for (TradeOrder order : orders) {
+            if (cancel(order)) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Places an order at the stock exchange after checking its limit price
+     * against the stock's tick size and the order against the trader's risk
+     * limits (order rate, order size, order notional, open orders and
+     * position). If the order fails a check, it is not sent to the exchange
+     * and the trader gets a message instead. For example:
+     *   Order rejected: GGGL price not on tick
+     *   Order rejected: GGGL position limit
+     *   Order rejected: GGGL rate limit
+     * With several venues, the order is routed (and possibly split) by the
+     * smart order router. An accepted order gets the next order id.
+     * With an admission queue, the order is queued instead and the trader
+     * gets a message if it is shed. For example:
+     *   Order rejected: GGGL queue full
      * @param order an order to be placed at the stock exchange.
      */
     public void placeOrder(TradeOrder order) {
-        exchange.placeOrder(order);
+        Trader trader = order.getTrader();
+        TraderRisk risk = trader.getRisk();
+        Stock stock = exchange.getStock(order);
+        if (stock != null && order.isLimit()
+                && !stock.isOnTick(order.getPrice())) {
+            trader.receiveMessage("Order rejected: " + order.getSymbol()
+                    + " price not on tick");
+            return;
+        }
+        int code = risk.accept(order, stock == null ? Double.NaN
+                : stock.getLastPrice());
+        if (code != 0) {
+            trader.receiveMessage("Order rejected: " + order.getSymbol() +
+                    " " + TraderRisk.reason(code));
+            return;
+        }
+        order.setId(lastOrderId.incrementAndGet());
+        if (admission != null) {
+            int queued = admission.submitOrder(order);
+            if (queued != AdmissionQueue.QUEUED) {
+                shed(order, false, queued);
+            }
+            return;
+        }
+        route(order);
+    }
+
+    /**
+     * Sends an accepted order to the stock exchange, or to the router.
+     * @param order an accepted order.
+     */
+    private void route(TradeOrder order) {
+        boolean placed = router == null ? exchange.placeOrder(order)
+                : router.placeOrder(order);
+        if (!placed) {
+            order.getTrader().getRisk().orderCancelled(order);
+        }
+    }
+
+    /**
+     * Tells a trader that an order or cancel was shed by the admission
+     * queue, releasing a shed order's open order slot.
+     * @param order the order, or the order to be cancelled.
+     * @param cancel true if a cancel was shed; false if an order was.
+     * @param code the reason, an <code>AdmissionQueue</code> error code.
+     */
+    private void shed(TradeOrder order, boolean cancel, int code) {
+        Trader trader = order.getTrader();
+        if (!cancel) {
+            trader.getRisk().orderCancelled(order);
+        }
+        trader.receiveMessage((cancel ? "Cancel" : "Order") + " rejected: "
+                + order.getSymbol() + " " + AdmissionQueue.reason(code));
+    }
+
+    /**
+     * Places an order that was accepted by another brokerage (a primary
+     * being replicated) under the id it was given there. The risk checks
+     * are not repeated; the order only takes its open order slot.
+     * @param order an order to be placed at the stock exchange.
+     * @param id the order id given by the primary brokerage.
+     */
+    void applyOrder(TradeOrder order, long id) {
+        order.setId(id);
+        lastOrderId.accumulateAndGet(id, Math::max);
+        TraderRisk risk = order.getTrader().getRisk();
+        risk.addOpenOrder(order);
+        boolean placed = router == null ? exchange.placeOrder(order)
+                : router.placeOrder(order);
+        if (!placed) {
+            risk.orderCancelled(order);
+        }
+    }
+
+    /**
+     * Cancels a resting order at whichever venue it rests on and releases
+     * its slot in the trader's open order count. With an admission queue,
+     * the cancel is queued ahead of new orders, and an order still waiting
+     * in the queue is withdrawn at once.
+     * @param order an order placed at the stock exchange.
+     */
+    public void cancelOrder(TradeOrder order) {
+        cancel(order);
+    }
+
+    /**
+     * Cancels an order, through the admission queue if there is one.
+     * @param order an order placed at the stock exchange.
+     * @return true if the order was cancelled or the cancel admitted; false
+     *         otherwise.
+     */
+    private boolean cancel(TradeOrder order) {
+        if (admission == null) {
+            return routeCancel(order);
+        }
+        int queued = admission.submitCancel(order);
+        if (queued == AdmissionQueue.WITHDRAWN) {
+            order.getTrader().getRisk().orderCancelled(order);
+            order.getTrader().receiveMessage("Cancelled: "
+                    + (order.isBuy() ? "Buy " : "Sell ") + order.getSymbol()
+                    + "\n" + order.getTotalShares() + " shares (not placed)");
+        }
+        else if (queued != AdmissionQueue.QUEUED) {
+            shed(order, true, queued);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Cancels a resting order at the venue it rests on.
+     * @param order an order placed at the stock exchange.
+     * @return true if the order was found and cancelled; false otherwise.
+     */
+    private boolean routeCancel(TradeOrder order) {
+        for (StockExchange venue : venues) {
+            if (venue.cancelOrder(order)) {
+                order.getTrader().getRisk().orderCancelled(order);
+                return true;
+            }
+        }
+        return false;
     }
 
     //
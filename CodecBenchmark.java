@@ -0,0 +1,186 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares <code>MessageCodec</code> with Java serialization for encoding
+ * and decoding orders. For each it measures the time and heap allocated
+ * per round trip (encode then decode one order) and the encoded size.
+ * Serialization is given a plain serializable copy of the order's fields,
+ * since an order itself refers to its trader and its place in a book.
+ * <pre>java CodecBenchmark [seconds per run]</pre>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class CodecBenchmark
+{
+    /**
+     * The fields of an order, for Java serialization.
+     */
+    private static class OrderFields implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        long orderId;
+        long priceTicks;
+        int traderId;
+        int symbolId;
+        int shares;
+        int displayShares;
+        String symbol;
+        boolean buy;
+        boolean market;
+    }
+
+    private long runNanos;
+    private TradeOrder order;
+    private SymbolTable accounts;
+
+    /**
+     * Constructs a benchmark.
+     * @param runMillis how long each measurement lasts.
+     */
+    public CodecBenchmark(long runMillis) {
+        runNanos = runMillis * 1000000;
+        order = new TradeOrder(new Trader(null, "bench", "pass"), "ABCD",
+                true, false, 500, 10.25, 100);
+        order.setId(123456789L);
+        order.setSymbolId(7, "ABCD");
+        accounts = new SymbolTable();
+    }
+
+    /**
+     * Measures round trips through the flyweight codec.
+     * @return the nanoseconds and bytes allocated per round trip, and the
+     *         encoded size.
+     */
+    public double[] measureCodec() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+        MessageCodec.Order encoder = new MessageCodec.Order();
+        MessageCodec.Order decoder = new MessageCodec.Order();
+        long trips = 0;
+        long sink = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start + runNanos;
+        long now;
+        do {
+            for (int i = 0; i < 1000; i++) {
+                encoder.encode(buffer, 0).set(order, accounts);
+                decoder.decode(buffer, 0);
+                sink += decoder.getOrderId() + decoder.getPriceTicks()
+                        + decoder.getShares() + decoder.getDisplayShares()
+                        + decoder.getSymbolId() + decoder.getTraderId()
+                        + (decoder.isBuy() ? 1 : 0)
+                        + (decoder.symbolEquals("ABCD") ? 1 : 0);
+            }
+            trips += 1000;
+            now = System.nanoTime();
+        } while (now < end);
+        bytes = allocatedBytes() - bytes;
+        if (sink == 42) {
+            System.out.print("");
+        }
+        return new double[] { (double)(now - start) / trips,
+                (double)bytes / trips, encoder.length() };
+    }
+
+    /**
+     * Measures round trips through Java serialization.
+     * @return the nanoseconds and bytes allocated per round trip, and the
+     *         encoded size.
+     * @throws IOException if serialization fails.
+     */
+    public double[] measureSerialization() throws IOException {
+        long trips = 0;
+        long sink = 0;
+        int size = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start + runNanos;
+        long now;
+        try {
+            do {
+                for (int i = 0; i < 1000; i++) {
+                    ByteArrayOutputStream bytesOut =
+                            new ByteArrayOutputStream(256);
+                    try (ObjectOutputStream out =
+                            new ObjectOutputStream(bytesOut)) {
+                        out.writeObject(copy(order));
+                    }
+                    byte[] encoded = bytesOut.toByteArray();
+                    size = encoded.length;
+                    try (ObjectInputStream in = new ObjectInputStream(
+                            new ByteArrayInputStream(encoded))) {
+                        OrderFields fields = (OrderFields)in.readObject();
+                        sink += fields.orderId + fields.priceTicks
+                                + fields.shares + fields.symbol.length();
+                    }
+                }
+                trips += 1000;
+                now = System.nanoTime();
+            } while (now < end);
+        }
+        catch (ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+        bytes = allocatedBytes() - bytes;
+        if (sink == 42) {
+            System.out.print("");
+        }
+        return new double[] { (double)(now - start) / trips,
+                (double)bytes / trips, size };
+    }
+
+    private OrderFields copy(TradeOrder order) {
+        OrderFields fields = new OrderFields();
+        fields.orderId = order.getId();
+        fields.priceTicks = OrderBook.toTicks(order.getPrice());
+        fields.traderId = accounts.intern(order.getTrader().getName());
+        fields.symbolId = order.getSymbolId();
+        fields.shares = order.getTotalShares();
+        fields.displayShares = order.getDisplayShares();
+        fields.symbol = order.getSymbol();
+        fields.buy = order.isBuy();
+        fields.market = order.isMarket();
+        return fields;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads =
+                ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the measurements, once to warm up and once to report.
+     * @param args optional seconds per measurement (default 1).
+     * @throws IOException if serialization fails.
+     */
+    public static void main(String[] args) throws IOException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        CodecBenchmark benchmark = new CodecBenchmark(seconds * 1000);
+        benchmark.measureCodec();
+        benchmark.measureSerialization();
+        report("flyweight", benchmark.measureCodec());
+        report("serialize", benchmark.measureSerialization());
+    }
+
+    private static void report(String name, double[] result) {
+        System.out.printf("%-10s %10.1f ns %10.1f B/op %5.0f bytes%n", name,
+                result[0], result[1], result[2]);
+    }
+
+    /**
+     * Returns the settings of this benchmark.
+     * @return a string representation of this benchmark.
+     */
+    public String toString() {
+        return "CodecBenchmark[" + runNanos / 1000000 + " ms]";
+    }
+}
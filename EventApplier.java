@@ -0,0 +1,263 @@
+import java.util.*;
+
+/**
+ * Applies the records of an event log to a brokerage and its stock
+ * exchange, rebuilding the accounts and books of the brokerage that wrote
+ * the log. Orders are placed under the ids they were given by the writer,
+ * so later cancels can find them. Each FILL record is checked against the
+ * next fill this applier's own exchange produced for the same stock (the
+ * records of different stocks may interleave, since each stock sequences
+ * its own under its book lock); any difference is counted as a mismatch,
+ * and so is each BOOK record that does not match the state of this
+ * applier's book. A POLICY record naming a policy other than the three in
+ * <code>MatchingPolicy</code> cannot be applied and counts as a mismatch
+ * too.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class EventApplier implements MarketListener
+{
+    private static final int FILL_FIELDS = 4;
+
+    private Brokerage brokerage;
+    private StockExchange exchange;
+    private Map<Long, TradeOrder> liveOrders;
+    private Map<Integer, FillQueue> localFills;
+    private long applied;
+    private long fillsChecked;
+    private long mismatches;
+    private long booksChecked;
+
+    /**
+     * Constructs an applier for a given brokerage and the exchange behind
+     * it, and registers it for the exchange's fills.
+     * @param brokerage the brokerage to apply registrations and orders to.
+     * @param exchange the exchange to apply listings to.
+     */
+    public EventApplier(Brokerage brokerage, StockExchange exchange) {
+        this.brokerage = brokerage;
+        this.exchange = exchange;
+        liveOrders = new HashMap<>();
+        localFills = new HashMap<>();
+        exchange.addMarketListener(this);
+    }
+
+    /**
+     * Applies one record.
+     * @param record a record read from an event log.
+     */
+    public void apply(EventRecord record) {
+        switch (record.type) {
+            case EventRecord.LIST:
+            case EventRecord.LIST2:
+                exchange.listStock(record.symbol, record.name, record.price,
+                        record.tickSize);
+                break;
+            case EventRecord.USER:
+                brokerage.addUser(record.name, record.password);
+                break;
+            case EventRecord.ORDER:
+                Trader trader = brokerage.getTrader(record.name);
+                TradeOrder order = record.displayShares > 0 ?
+                        new TradeOrder(trader, record.symbol, record.buy,
+                                record.market, record.shares, record.price,
+                                record.displayShares) :
+                        new TradeOrder(trader, record.symbol, record.buy,
+                                record.market, record.shares, record.price);
+                liveOrders.put(record.orderId, order);
+                brokerage.applyOrder(order, record.orderId);
+                if (order.getTotalShares() == 0 || order.getLevel() == null) {
+                    liveOrders.remove(record.orderId);
+                }
+                break;
+            case EventRecord.CANCEL:
+                TradeOrder resting = liveOrders.remove(record.orderId);
+                if (resting != null) {
+                    brokerage.cancelOrder(resting);
+                }
+                break;
+            case EventRecord.AUCTION:
+                exchange.getListedStocks().get(record.symbol).startAuction();
+                break;
+            case EventRecord.UNCROSS:
+                exchange.getListedStocks().get(record.symbol).uncross();
+                break;
+            case EventRecord.POLICY:
+                MatchingPolicy policy = policyNamed(record.name);
+                if (policy == null) {
+                    mismatches++;
+                }
+                else {
+                    exchange.setMatchingPolicy(record.symbol, policy);
+                }
+                break;
+            case EventRecord.FILL:
+                checkFill(record);
+                break;
+            case EventRecord.BOOK:
+                checkBook(record);
+                break;
+        }
+        applied = record.sequence;
+    }
+
+    /**
+     * Records a fill produced by this applier's exchange, to be checked
+     * against the next FILL record for the same stock, and forgets orders
+     * that are done.
+     * @param stock the stock that traded.
+     * @param buy the buy order.
+     * @param sell the sell order.
+     * @param price the execution price.
+     * @param shares the number of shares traded.
+     */
+    public void tradeExecuted(Stock stock, TradeOrder buy, TradeOrder sell,
+                              double price, int shares) {
+        FillQueue fills = localFills.get(stock.getSymbolId());
+        if (fills == null) {
+            fills = new FillQueue();
+            localFills.put(stock.getSymbolId(), fills);
+        }
+        fills.add(buy.getId(), sell.getId(), OrderBook.toTicks(price),
+                shares);
+        if (buy.getTotalShares() == 0) {
+            liveOrders.remove(buy.getId());
+        }
+        if (sell.getTotalShares() == 0) {
+            liveOrders.remove(sell.getId());
+        }
+    }
+
+    private static MatchingPolicy policyNamed(String name) {
+        MatchingPolicy[] known = { MatchingPolicy.FIFO,
+                MatchingPolicy.PRO_RATA, MatchingPolicy.PRICE_SIZE };
+        for (MatchingPolicy policy : known) {
+            if (policy.getName().equals(name)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    private void checkFill(EventRecord record) {
+        fillsChecked++;
+        FillQueue fills = localFills.get(record.symbolId);
+        if (fills == null || fills.count == 0) {
+            mismatches++;
+            return;
+        }
+        int s = fills.head * FILL_FIELDS;
+        if (fills.fields[s] != record.buyOrderId
+                || fills.fields[s + 1] != record.sellOrderId
+                || fills.fields[s + 2] != record.priceTicks
+                || fills.fields[s + 3] != record.shares) {
+            mismatches++;
+        }
+        fills.head = (fills.head + 1) % (fills.fields.length / FILL_FIELDS);
+        fills.count--;
+    }
+
+    private void checkBook(EventRecord record) {
+        booksChecked++;
+        Stock stock = exchange.getListedStocks().get(record.symbol);
+        if (stock == null) {
+            mismatches++;
+            return;
+        }
+        TopOfBook top = stock.getTopOfBook();
+        if (stock.getBuyOrders().size() != record.buyCount
+                || stock.getSellOrders().size() != record.sellCount
+                || (top.hasBid() ? OrderBook.toTicks(top.getBidPrice()) : 0)
+                        != record.bidTicks
+                || top.getBidSize() != record.bidSize
+                || (top.hasAsk() ? OrderBook.toTicks(top.getAskPrice()) : 0)
+                        != record.askTicks
+                || top.getAskSize() != record.askSize
+                || stock.getVolume() != record.volume) {
+            mismatches++;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last record applied.
+     * @return the last applied sequence number.
+     */
+    public long getAppliedSequence() {
+        return applied;
+    }
+
+    /**
+     * Returns the number of FILL records checked so far.
+     * @return the number of fills checked.
+     */
+    public long getFillsChecked() {
+        return fillsChecked;
+    }
+
+    /**
+     * Returns the number of BOOK records checked so far.
+     * @return the number of book states checked.
+     */
+    public long getBooksChecked() {
+        return booksChecked;
+    }
+
+    /**
+     * Returns the number of FILL and BOOK records that did not match the
+     * fills and books of this applier's exchange.
+     * @return the number of mismatches.
+     */
+    public long getMismatches() {
+        return mismatches;
+    }
+
+    /**
+     * Returns the number of orders this applier still tracks as resting.
+     * @return the number of live orders.
+     */
+    public int getLiveOrderCount() {
+        return liveOrders.size();
+    }
+
+    /**
+     * Returns the applied sequence number and the check counts.
+     * @return a string representation of this applier.
+     */
+    public String toString() {
+        return "EventApplier[seq " + applied + ", fills " + fillsChecked
+                + ", books " + booksChecked + ", mismatches " + mismatches
+                + "]";
+    }
+
+    /**
+     * The fills one stock of this applier's exchange produced that have not
+     * been checked yet, oldest first, in a ring of FILL_FIELDS longs each.
+     */
+    private static class FillQueue {
+        long[] fields = new long[16 * FILL_FIELDS];
+        int head;
+        int count;
+
+        void add(long buyId, long sellId, long priceTicks, long shares) {
+            int capacity = fields.length / FILL_FIELDS;
+            if (count == capacity) {
+                long[] grown = new long[fields.length * 2];
+                for (int i = 0; i < count; i++) {
+                    System.arraycopy(fields, ((head + i) % capacity)
+                            * FILL_FIELDS, grown, i * FILL_FIELDS,
+                            FILL_FIELDS);
+                }
+                fields = grown;
+                head = 0;
+                capacity *= 2;
+            }
+            int s = ((head + count) % capacity) * FILL_FIELDS;
+            fields[s] = buyId;
+            fields[s + 1] = sellId;
+            fields[s + 2] = priceTicks;
+            fields[s + 3] = shares;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.*;
+
+/**
+ * Writes the sequenced events of a brokerage and its stock exchange, and
+ * the fills they produce, as an event log (see <code>EventRecord</code> for
+ * the layout). Register a writer with
+ * <code>Brokerage.setOrderEventListener</code>,
+ * <code>StockExchange.setOrderEventListener</code> and
+ * <code>StockExchange.addMarketListener</code>. The writer never flushes its
+ * stream; that is left to its owner, so records can be batched. A writer
+ * can also append to a <code>SegmentedJournal</code>, which it tells where
+ * each record begins, or collect records in memory for another thread to
+ * send with <code>drainTo</code>.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class EventLogWriter implements OrderEventListener, MarketListener
+{
+    private DataOutputStream out;
+    private SegmentedJournal journal;
+    private SwapBuffer buffer;
+    private byte[] spare;
+    private final Object drainLock = new Object();
+    private long sequence;
+
+    /**
+     * A byte array stream whose contents can be taken without copying, by
+     * swapping in another array.
+     */
+    private static class SwapBuffer extends ByteArrayOutputStream
+    {
+        SwapBuffer(int size) {
+            super(size);
+        }
+
+        /**
+         * Takes the bytes written so far and starts again on a given array.
+         * @param empty the array to write to next.
+         * @return the array holding the bytes written so far, of which the
+         *         first <code>size()</code> (before the swap) are used.
+         */
+        byte[] swap(byte[] empty) {
+            byte[] full = buf;
+            buf = empty;
+            count = 0;
+            return full;
+        }
+    }
+
+    /**
+     * Constructs a writer that appends records to a given stream.
+     * @param out the stream to write to.
+     */
+    public EventLogWriter(DataOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Constructs a writer that collects records in memory until they are
+     * sent with <code>drainTo</code>.
+     * @param bufferSize the initial size of the buffer, in bytes.
+     */
+    public EventLogWriter(int bufferSize) {
+        buffer = new SwapBuffer(bufferSize);
+        spare = new byte[bufferSize];
+        out = new DataOutputStream(buffer);
+    }
+
+    /**
+     * Constructs a writer that appends records to a segmented journal.
+     * @param journal the journal to write to.
+     */
+    public EventLogWriter(SegmentedJournal journal) {
+        this.journal = journal;
+        out = journal.getOutput();
+    }
+
+    /**
+     * Returns the sequence number of the last record written.
+     * @return the last sequence number, or 0 if nothing was written.
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Flushes the records written so far to the underlying stream.
+     * @throws IOException if the stream cannot be written.
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Sends the records collected by an in-memory writer to a given stream
+     * and flushes it. Only the exchange of the full buffer for an empty one
+     * holds this writer's lock; the records are written after it is
+     * released, so a stream that blocks never holds up the threads writing
+     * records.
+     * @param to the stream to send the records to.
+     * @throws IOException if the stream cannot be written.
+     * @throws IllegalStateException if this writer does not write to
+     *         memory.
+     */
+    public void drainTo(OutputStream to) throws IOException {
+        if (buffer == null) {
+            throw new IllegalStateException("not an in-memory writer");
+        }
+        synchronized (drainLock) {
+            byte[] records;
+            int length;
+            synchronized (this) {
+                length = buffer.size();
+                if (length == 0) {
+                    return;
+                }
+                records = buffer.swap(spare);
+            }
+            to.write(records, 0, length);
+            to.flush();
+            spare = records;
+        }
+    }
+
+    /**
+     * Writes a LIST2 record.
+     * @param symbol stock symbol.
+     * @param name full company name.
+     * @param price opening stock price.
+     * @param tickSize the smallest price increment of the stock.
+     */
+    public synchronized void stockListed(String symbol, String name,
+                                         double price, double tickSize) {
+        try {
+            header(EventRecord.LIST2);
+            out.writeUTF(symbol);
+            out.writeUTF(name);
+            out.writeDouble(price);
+            out.writeDouble(tickSize);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes a USER record.
+     * @param name the screen name of the trader.
+     * @param password the password for the trader.
+     */
+    public synchronized void userAdded(String name, String password) {
+        try {
+            header(EventRecord.USER);
+            out.writeUTF(name);
+            out.writeUTF(password);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes an ORDER record.
+     * @param order the accepted order.
+     */
+    public synchronized void orderPlaced(TradeOrder order) {
+        try {
+            header(EventRecord.ORDER);
+            out.writeLong(order.getId());
+            out.writeUTF(order.getTrader().getName());
+            out.writeUTF(order.getSymbol());
+            out.writeBoolean(order.isBuy());
+            out.writeBoolean(order.isMarket());
+            out.writeInt(order.getTotalShares());
+            out.writeDouble(order.getPrice());
+            out.writeInt(order.getDisplayShares());
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes a CANCEL record.
+     * @param order the cancelled order.
+     */
+    public synchronized void orderCancelled(TradeOrder order) {
+        try {
+            header(EventRecord.CANCEL);
+            out.writeLong(order.getId());
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes an AUCTION record.
+     * @param symbol the stock symbol.
+     */
+    public synchronized void auctionStarted(String symbol) {
+        try {
+            header(EventRecord.AUCTION);
+            out.writeUTF(symbol);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes an UNCROSS record.
+     * @param symbol the stock symbol.
+     */
+    public synchronized void auctionUncrossed(String symbol) {
+        try {
+            header(EventRecord.UNCROSS);
+            out.writeUTF(symbol);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes a POLICY record.
+     * @param symbol the stock symbol.
+     * @param policy the name of the matching policy.
+     */
+    public synchronized void matchingPolicySet(String symbol,
+                                               String policy) {
+        try {
+            header(EventRecord.POLICY);
+            out.writeUTF(symbol);
+            out.writeUTF(policy);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes a FILL record.
+     * @param stock the stock that traded.
+     * @param buy the buy order.
+     * @param sell the sell order.
+     * @param price the execution price.
+     * @param shares the number of shares traded.
+     */
+    public synchronized void tradeExecuted(Stock stock, TradeOrder buy,
+                                           TradeOrder sell, double price,
+                                           int shares) {
+        try {
+            header(EventRecord.FILL);
+            out.writeInt(stock.getSymbolId());
+            out.writeLong(buy.getId());
+            out.writeLong(sell.getId());
+            out.writeLong(OrderBook.toTicks(price));
+            out.writeInt(shares);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes a BOOK record with the order counts, best bid and ask and
+     * volume of a stock, so that a replay can check its book against it.
+     * @param stock a stock.
+     */
+    public synchronized void bookState(Stock stock) {
+        TopOfBook top = stock.getTopOfBook();
+        try {
+            header(EventRecord.BOOK);
+            out.writeUTF(stock.getStockSymbol());
+            out.writeInt(stock.getBuyOrders().size());
+            out.writeInt(stock.getSellOrders().size());
+            out.writeLong(top.hasBid() ? OrderBook.toTicks(top.getBidPrice())
+                    : 0);
+            out.writeLong(top.getBidSize());
+            out.writeLong(top.hasAsk() ? OrderBook.toTicks(top.getAskPrice())
+                    : 0);
+            out.writeLong(top.getAskSize());
+            out.writeLong(stock.getVolume());
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Writes a BOOK record for every stock listed on an exchange, typically
+     * at the end of a recorded session.
+     * @param exchange a stock exchange.
+     */
+    public synchronized void bookStates(StockExchange exchange) {
+        for (Stock stock : exchange.getListedStocks().values()) {
+            bookState(stock);
+        }
+    }
+
+    private void header(byte type) throws IOException {
+        if (journal != null) {
+            journal.beginRecord(sequence + 1);
+        }
+        out.writeByte(type);
+        out.writeLong(++sequence);
+        out.writeLong(System.nanoTime());
+    }
+
+    /**
+     * Returns the last sequence number, for debugging.
+     * @return a string representation of this writer.
+     */
+    public String toString() {
+        return "EventLogWriter[seq " + getSequence() + "]";
+    }
+}
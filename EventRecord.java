@@ -0,0 +1,215 @@
+import java.io.*;
+
+/**
+ * One record of an event log: a listing, registration, order, cancel,
+ * auction, policy change, fill or book state, with its sequence number
+ * and the time it was written. A record is reused for every read, so
+ * reading a log creates no objects other than the strings in the record.
+ * <p>
+ * Each record is a type byte, the sequence number and the
+ * <code>System.nanoTime</code> of the writer, then the fields of its type:
+ * <br>LIST -- symbol, name, price (written by older versions; the stock
+ * has the default tick size)
+ * <br>LIST2 -- symbol, name, price, tick size
+ * <br>USER -- name, password
+ * <br>ORDER -- order id, trader name, symbol, buy, market, shares, price,
+ * display shares
+ * <br>CANCEL -- order id
+ * <br>AUCTION, UNCROSS -- symbol
+ * <br>POLICY -- symbol, matching policy name
+ * <br>FILL -- symbol id, buy order id, sell order id, price in cents, shares
+ * <br>BOOK -- symbol, buy and sell order counts, best bid and ask in cents
+ * with their displayed sizes, volume
+ * </p>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class EventRecord
+{
+    /**
+     * Record type of a stock listing.
+     */
+    public static final byte LIST = 1;
+
+    /**
+     * Record type of a trader registration.
+     */
+    public static final byte USER = 2;
+
+    /**
+     * Record type of an accepted order.
+     */
+    public static final byte ORDER = 3;
+
+    /**
+     * Record type of a cancel.
+     */
+    public static final byte CANCEL = 4;
+
+    /**
+     * Record type of a fill.
+     */
+    public static final byte FILL = 5;
+
+    /**
+     * Record type of the state of a stock's book.
+     */
+    public static final byte BOOK = 6;
+
+    /**
+     * Record type of a stock listing with its tick size. It replaces LIST,
+     * which is still read from older logs.
+     */
+    public static final byte LIST2 = 7;
+
+    /**
+     * Record type of the start of a call auction.
+     */
+    public static final byte AUCTION = 8;
+
+    /**
+     * Record type of the uncross that ends a call auction.
+     */
+    public static final byte UNCROSS = 9;
+
+    /**
+     * Record type of a change of a stock's matching policy.
+     */
+    public static final byte POLICY = 10;
+
+    byte type;
+    long sequence;
+    long nanos;
+    String symbol;
+    String name;
+    String password;
+    double price;
+    double tickSize;
+    long orderId;
+    boolean buy;
+    boolean market;
+    int shares;
+    int displayShares;
+    int symbolId;
+    long buyOrderId;
+    long sellOrderId;
+    long priceTicks;
+    int buyCount;
+    int sellCount;
+    long bidTicks;
+    long bidSize;
+    long askTicks;
+    long askSize;
+    long volume;
+
+    /**
+     * Reads the next record from a stream into this record.
+     * @param in the stream to read from.
+     * @return true if a record was read; false at the end of the stream.
+     * @throws IOException if the stream cannot be read or holds a record of
+     *         unknown type.
+     */
+    public boolean readFrom(DataInput in) throws IOException {
+        try {
+            type = in.readByte();
+        }
+        catch (EOFException ex) {
+            return false;
+        }
+        sequence = in.readLong();
+        nanos = in.readLong();
+        switch (type) {
+            case LIST:
+                symbol = in.readUTF();
+                name = in.readUTF();
+                price = in.readDouble();
+                tickSize = Stock.DEFAULT_TICK_SIZE;
+                break;
+            case LIST2:
+                symbol = in.readUTF();
+                name = in.readUTF();
+                price = in.readDouble();
+                tickSize = in.readDouble();
+                break;
+            case USER:
+                name = in.readUTF();
+                password = in.readUTF();
+                break;
+            case ORDER:
+                orderId = in.readLong();
+                name = in.readUTF();
+                symbol = in.readUTF();
+                buy = in.readBoolean();
+                market = in.readBoolean();
+                shares = in.readInt();
+                price = in.readDouble();
+                displayShares = in.readInt();
+                break;
+            case CANCEL:
+                orderId = in.readLong();
+                break;
+            case AUCTION:
+            case UNCROSS:
+                symbol = in.readUTF();
+                break;
+            case POLICY:
+                symbol = in.readUTF();
+                name = in.readUTF();
+                break;
+            case FILL:
+                symbolId = in.readInt();
+                buyOrderId = in.readLong();
+                sellOrderId = in.readLong();
+                priceTicks = in.readLong();
+                shares = in.readInt();
+                break;
+            case BOOK:
+                symbol = in.readUTF();
+                buyCount = in.readInt();
+                sellCount = in.readInt();
+                bidTicks = in.readLong();
+                bidSize = in.readLong();
+                askTicks = in.readLong();
+                askSize = in.readLong();
+                volume = in.readLong();
+                break;
+            default:
+                throw new IOException("unknown record type " + type);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the type of this record.
+     * @return one of LIST, LIST2, USER, ORDER, CANCEL, AUCTION, UNCROSS,
+     *         POLICY, FILL or BOOK.
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * Returns the sequence number of this record.
+     * @return the sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the time this record was written.
+     * @return the writer's <code>System.nanoTime</code>.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns the type and sequence number of this record.
+     * @return a string representation of this record.
+     */
+    public String toString() {
+        return "EventRecord[type " + type + ", seq " + sequence + "]";
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Fills the orders at a price level in time priority: each order is filled
+ * as far as it can be before the next order in line gets anything.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class FifoPolicy implements MatchingPolicy
+{
+    /**
+     * Fills the orders at a level in the order they arrived.
+     * @param level the price level being traded with.
+     * @param shares the number of shares to divide.
+     * @param orders receives the orders to fill.
+     * @param fills receives the shares for each order.
+     * @return the number of orders to fill.
+     */
+    public int allocate(PriceLevel level, int shares, TradeOrder[] orders,
+                        int[] fills) {
+        int count = 0;
+        int slots = level.getSlotCount();
+        for (int i = 0; i < slots && shares > 0; i++) {
+            TradeOrder order = level.getSlot(i);
+            if (order != null) {
+                int fill = Math.min(shares, order.getShares());
+                orders[count] = order;
+                fills[count] = fill;
+                count++;
+                shares -= fill;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the name of this policy.
+     * @return "FIFO".
+     */
+    public String getName() {
+        return "FIFO";
+    }
+
+    /**
+     * Returns the name of this policy.
+     * @return a string representation of this policy.
+     */
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.*;
+
+/**
+ * The result of registering accounts in bulk: the code
+ * <code>Login.addUser</code> would have returned for each row. For example:
+ *   row 7: bob -1 (invalid screen name)
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class ImportReport
+{
+    private String[] names;
+    private int[] codes;
+    private int accepted;
+
+    /**
+     * Constructs a report.
+     * @param names the screen names, in row order.
+     * @param codes the code of each row: 0, -1, -2 or -3.
+     */
+    public ImportReport(String[] names, int[] codes) {
+        this.names = names;
+        this.codes = codes;
+        for (int code : codes) {
+            if (code == 0) {
+                accepted++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows.
+     * @return the number of rows.
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * Returns the code of a row.
+     * @param row a row number, from 0.
+     * @return 0 if the account was registered; -1 for an invalid screen
+     *         name, -2 for an invalid password, -3 if the screen name was
+     *         taken (by an existing trader or an earlier row).
+     */
+    public int getCode(int row) {
+        return codes[row];
+    }
+
+    /**
+     * Returns the number of accounts registered.
+     * @return the number of rows with code 0.
+     */
+    public int getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * Returns the number of rows rejected.
+     * @return the number of rows with a negative code.
+     */
+    public int getRejected() {
+        return codes.length - accepted;
+    }
+
+    /**
+     * Returns a line for each rejected row, in row order. Rows are numbered
+     * from 1.
+     * @return the error lines.
+     */
+    public List<String> getErrors() {
+        List<String> errors = new ArrayList<String>();
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] != 0) {
+                errors.add("row " + (i + 1) + ": " + names[i] + " "
+                        + codes[i] + " (" + reason(codes[i]) + ")");
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Returns a short description of a registration error code.
+     * @param code -1, -2 or -3.
+     * @return the reason the row was rejected.
+     */
+    public static String reason(int code) {
+        switch (code) {
+            case -1:
+                return "invalid screen name";
+            case -2:
+                return "invalid password";
+            case -3:
+                return "screen name taken";
+            default:
+                return "ok";
+        }
+    }
+
+    /**
+     * Returns the counts of this report.
+     * @return a string representation of this report.
+     */
+    public String toString() {
+        return "ImportReport[" + accepted + " accepted, " + getRejected()
+                + " rejected]";
+    }
+}
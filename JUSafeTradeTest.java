@@ -204,6 +204,37 @@ public class JUSafeTradeTest
                 .contains( "ABCD" ) );
     }
 
+    @Test
+    public void traderPositionsAndPnL()
+    {
+        StockExchange safe = new StockExchange();
+        safe.listStock( "ABCD", "wxyz", 10.0 );
+        Brokerage broke = new Brokerage( safe );
+        Trader trader = new Trader( broke, "goodName", "pass" );
+        Trader other = new Trader( broke, "otherName", "pass" );
+
+        broke.placeOrder( new TradeOrder( other, "ABCD", false, false, 100,
+                10.0 ) );
+        broke.placeOrder( new TradeOrder( trader, "ABCD", true, true, 100,
+                0 ) );
+        broke.placeOrder( new TradeOrder( other, "ABCD", false, false, 100,
+                12.0 ) );
+        broke.placeOrder( new TradeOrder( trader, "ABCD", true, true, 100,
+                0 ) );
+        assertEquals( 200, trader.getPosition( "ABCD" ) );
+        assertEquals( 11.0, trader.getAverageCost( "ABCD" ), 1e-9 );
+        assertEquals( 200.0, trader.getUnrealizedPnL(), 1e-9 );
+
+        broke.placeOrder( new TradeOrder( other, "ABCD", true, false, 50,
+                13.0 ) );
+        broke.placeOrder( new TradeOrder( trader, "ABCD", false, true, 50,
+                0 ) );
+        assertEquals( 150, trader.getPosition( "ABCD" ) );
+        assertEquals( 100.0, trader.getRealizedPnL(), 1e-9 );
+        assertEquals( 300.0, trader.getUnrealizedPnL(), 1e-9 );
+        assertEquals( -100.0, other.getRealizedPnL(), 1e-9 );
+    }
+
     @Test
     public void TraderToString()
     {
@@ -230,6 +261,1400 @@ public class JUSafeTradeTest
         assertNotNull(b.toString());
     }
 
+    @Test
+    public void brokerageRiskLimits()
+    {
+        StockExchange se = new StockExchange();
+        se.listStock( "ABCD", "ABCD Company", 10.0 );
+        Brokerage b = new Brokerage( se );
+        b.addUser( "name1", "password1" );
+        b.addUser( "name2", "password2" );
+        assertEquals( 0, b.setRiskLimits( "name1",
+                new RiskLimits( 500, 4000.0, 1, 600 ) ) );
+        Trader trader = b.getTraders().get( "name1" );
+        Trader other = b.getTraders().get( "name2" );
+
+        b.placeOrder( new TradeOrder( trader, "ABCD", true, false, 501,
+                1.0 ) );
+        assertTrue( trader.mailbox().remove().contains( "order size" ) );
+        b.placeOrder( new TradeOrder( trader, "ABCD", true, true, 450,
+                0 ) );
+        assertTrue( trader.mailbox().remove().contains( "notional" ) );
+
+        TradeOrder resting = new TradeOrder( trader, "ABCD", true, false,
+                300, 9.0 );
+        b.placeOrder( resting );
+        assertEquals( 1, trader.getRisk().getOpenOrders() );
+        b.placeOrder( new TradeOrder( trader, "ABCD", true, false, 10,
+                9.0 ) );
+        assertTrue( "<< Brokerage.placeOrder open orders limit >>",
+                trader.mailbox().contains( "Order rejected: ABCD open "
+                        + "orders limit" ) );
+
+        b.placeOrder( new TradeOrder( other, "ABCD", false, true, 300, 0 ) );
+        assertEquals( 0, trader.getRisk().getOpenOrders() );
+        assertEquals( 300, trader.getRisk().getPosition( "ABCD" ) );
+        assertEquals( -300, other.getRisk().getPosition( "ABCD" ) );
+
+        b.placeOrder( new TradeOrder( trader, "ABCD", true, false, 301,
+                9.0 ) );
+        assertTrue( trader.mailbox().contains( "Order rejected: ABCD "
+                + "position limit" ) );
+
+        TradeOrder cancel = new TradeOrder( trader, "ABCD", false, false, 10,
+                20.0 );
+        b.placeOrder( cancel );
+        assertEquals( 1, trader.getRisk().getOpenOrders() );
+        b.cancelOrder( cancel );
+        assertEquals( 0, trader.getRisk().getOpenOrders() );
+        assertTrue( se.getListedStocks().get( "ABCD" ).getSellOrders()
+                .isEmpty() );
+    }
+
+    @Test
+    public void traderRiskCountsOpenShares()
+    {
+        StockExchange se = new StockExchange();
+        se.listStock( "ABCD", "ABCD Company", 10.0 );
+        Brokerage b = new Brokerage( se );
+        b.addUser( "name1", "password1" );
+        b.setRiskLimits( "name1", new RiskLimits( 1000, 1e6, 10, 500 ) );
+        Trader trader = b.getTraders().get( "name1" );
+        TraderRisk risk = trader.getRisk();
+
+        TradeOrder first = new TradeOrder( trader, "ABCD", true, false, 300,
+                9.0 );
+        b.placeOrder( first );
+        assertEquals( 300, risk.getOpenShares( "ABCD", true ) );
+        b.placeOrder( new TradeOrder( trader, "ABCD", true, false, 300,
+                9.0 ) );
+        assertTrue( trader.mailbox().contains( "Order rejected: ABCD "
+                + "position limit" ) );
+        assertEquals( 300, risk.getOpenShares( "ABCD", true ) );
+        assertEquals( 1, risk.getOpenOrders() );
+
+        b.cancelOrder( first );
+        assertEquals( 0, risk.getOpenShares( "ABCD", true ) );
+        b.placeOrder( new TradeOrder( trader, "ABCD", true, false, 300,
+                9.0 ) );
+        assertEquals( 1, risk.getOpenOrders() );
+
+        TraderRisk fresh = new TraderRisk( new RiskLimits( 1000, 1e6, 10,
+                500 ) );
+        assertEquals( TraderRisk.NO_PRICE, fresh.accept( new TradeOrder(
+                trader, "WXYZ", true, true, 100, 0 ), Double.NaN ) );
+
+        TradeOrder direct = new TradeOrder( trader, "ABCD", false, false,
+                100, 9.0 );
+        fresh.orderFilled( direct, 100 );
+        fresh.orderCancelled( direct );
+        assertEquals( 0, fresh.getOpenOrders() );
+        assertEquals( -100, fresh.getPosition( "ABCD" ) );
+    }
+
+    @Test
+    public void brokerageSmartOrderRouting()
+    {
+        SymbolTable symbols = new SymbolTable();
+        StockExchange primary = new StockExchange( symbols );
+        StockExchange other = new StockExchange( symbols );
+        primary.listStock( "ABCD", "ABCD Company", 10.0 );
+        other.listStock( "ABCD", "ABCD Company", 10.0 );
+        Trader maker = new Trader( null, "maker", "pass" );
+        primary.placeOrder( new TradeOrder( maker, "ABCD", false, false, 100,
+                10.05 ) );
+        other.placeOrder( new TradeOrder( maker, "ABCD", false, false, 100,
+                10.00 ) );
+
+        SmartOrderRouter router = new SmartOrderRouter(
+                new StockExchange[] { primary, other }, Runnable::run,
+                Long.MAX_VALUE / 1000 );
+        Brokerage b = new Brokerage( router );
+        b.addUser( "name1", "password1" );
+        Trader trader = b.getTraders().get( "name1" );
+
+        b.placeOrder( new TradeOrder( trader, "ABCD", true, false, 10,
+                10.10 ) );
+        assertEquals( "<< no quotes cached: primary venue >>", 10,
+                primary.getListedStocks().get( "ABCD" ).getVolume() );
+
+        router.refresh( "ABCD" ).join();
+        TradeOrder order = new TradeOrder( trader, "ABCD", true, false, 250,
+                10.10 );
+        b.placeOrder( order );
+        assertEquals( 100, other.getListedStocks().get( "ABCD" )
+                .getVolume() );
+        assertEquals( 100, primary.getListedStocks().get( "ABCD" )
+                .getVolume() );
+        assertEquals( 60, order.getShares() );
+        assertSame( order, other.getListedStocks().get( "ABCD" )
+                .getBuyOrders().peek() );
+        assertEquals( 1, trader.getRisk().getOpenOrders() );
+        assertEquals( 200, trader.getRisk().getPosition( "ABCD" ) );
+
+        b.cancelOrder( order );
+        assertEquals( 0, trader.getRisk().getOpenOrders() );
+
+        try
+        {
+            b.setOrderEventListener( new EventLogWriter(
+                    new java.io.DataOutputStream(
+                            new java.io.ByteArrayOutputStream() ) ) );
+            fail( "<< slices to other venues cannot be sequenced >>" );
+        }
+        catch ( IllegalStateException ex )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void brokerageReplicatesToStandby() throws Exception
+    {
+        ReplicationStandby standby = new ReplicationStandby( 0 );
+        standby.start();
+        StockExchange exchange = new StockExchange();
+        Brokerage b = new Brokerage( exchange );
+        ReplicationPrimary primary = new ReplicationPrimary( "localhost",
+                standby.getPort(), 16 );
+        primary.attach( b, exchange );
+
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        exchange.listStock( "WXYZ", "WXYZ Company", 20.0, 0.05 );
+        b.addUser( "buyer", "pass" );
+        b.addUser( "seller", "pass" );
+        Trader buyer = b.getTraders().get( "buyer" );
+        Trader seller = b.getTraders().get( "seller" );
+        for ( int i = 0; i < 100; i++ )
+        {
+            b.placeOrder( new TradeOrder( seller, "ABCD", false, false, 10,
+                    10.0 + i % 5 / 100.0 ) );
+        }
+        TradeOrder sweep = new TradeOrder( buyer, "ABCD", true, false, 250,
+                10.02 );
+        b.placeOrder( sweep );
+        TradeOrder resting = new TradeOrder( buyer, "ABCD", true, false, 40,
+                9.50 );
+        b.placeOrder( resting );
+        b.cancelOrder( resting );
+        b.placeOrder( new TradeOrder( buyer, "ABCD", true, false, 70, 9.90,
+                20 ) );
+
+        assertTrue( primary.awaitCaughtUp( 5000 ) );
+        assertEquals( 0, primary.getLag() );
+        primary.close();
+        Brokerage takenOver = standby.takeOver( 5000 );
+        assertNull( standby.getFailure() );
+        assertEquals( primary.getSequence(), standby.getAppliedSequence() );
+        assertEquals( 0, standby.getMismatches() );
+
+        Stock original = exchange.getListedStocks().get( "ABCD" );
+        Stock copy = standby.getExchange().getListedStocks().get( "ABCD" );
+        assertEquals( original.getVolume(), copy.getVolume() );
+        assertEquals( original.getQuote(), copy.getQuote() );
+        assertEquals( original.getSellOrders().size(),
+                copy.getSellOrders().size() );
+        assertEquals( original.getBuyOrders().size(),
+                copy.getBuyOrders().size() );
+        assertEquals( sweep.getId(), copy.getBuyOrders().peek().getId() - 2 );
+        assertEquals( 0.05, standby.getExchange().getListedStocks()
+                .get( "WXYZ" ).getTickSize(), 0 );
+        assertEquals( buyer.getRisk().getOpenOrders(),
+                takenOver.getTraders().get( "buyer" ).getRisk()
+                        .getOpenOrders() );
+    }
+
+    @Test
+    public void brokerageReplicatesConcurrentOrders() throws Exception
+    {
+        ReplicationStandby standby = new ReplicationStandby( 0 );
+        standby.start();
+        StockExchange exchange = new StockExchange();
+        Brokerage b = new Brokerage( exchange );
+        ReplicationPrimary primary = new ReplicationPrimary( "localhost",
+                standby.getPort(), 1 << 20 );
+        primary.attach( b, exchange );
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        exchange.listStock( "WXYZ", "WXYZ Company", 20.0 );
+
+        Thread[] threads = new Thread[4];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            b.addUser( "thread" + t, "pass" );
+            Trader trader = b.getTraders().get( "thread" + t );
+            java.util.Random random = new java.util.Random( t );
+            threads[t] = new Thread( () -> {
+                for ( int i = 0; i < 2000; i++ )
+                {
+                    boolean abcd = random.nextBoolean();
+                    TradeOrder order = new TradeOrder( trader,
+                            abcd ? "ABCD" : "WXYZ", random.nextBoolean(),
+                            false, 1 + random.nextInt( 100 ),
+                            ( abcd ? 9.95 : 19.95 )
+                                    + random.nextInt( 10 ) / 100.0 );
+                    b.placeOrder( order );
+                    if ( i % 3 == 0 )
+                    {
+                        b.cancelOrder( order );
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertTrue( primary.awaitCaughtUp( 10000 ) );
+        primary.close();
+        standby.takeOver( 5000 );
+        assertNull( standby.getFailure() );
+        assertEquals( 0, standby.getMismatches() );
+        for ( String symbol : new String[] { "ABCD", "WXYZ" } )
+        {
+            Stock original = exchange.getListedStocks().get( symbol );
+            Stock copy = standby.getExchange().getListedStocks()
+                    .get( symbol );
+            assertEquals( original.getVolume(), copy.getVolume() );
+            assertEquals( original.getQuote(), copy.getQuote() );
+            assertEquals( original.getBuyOrders().size(),
+                    copy.getBuyOrders().size() );
+            assertEquals( original.getSellOrders().size(),
+                    copy.getSellOrders().size() );
+        }
+    }
+
+    @Test
+    public void brokerageReplicatesAuction() throws Exception
+    {
+        ReplicationStandby standby = new ReplicationStandby( 0 );
+        standby.start();
+        StockExchange exchange = new StockExchange();
+        Brokerage b = new Brokerage( exchange );
+        ReplicationPrimary primary = new ReplicationPrimary( "localhost",
+                standby.getPort(), 16 );
+        primary.attach( b, exchange );
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        b.addUser( "buyer", "pass" );
+        b.addUser( "seller", "pass" );
+        Trader buyer = b.getTraders().get( "buyer" );
+        Trader seller = b.getTraders().get( "seller" );
+
+        exchange.startAuction();
+        for ( int i = 0; i < 5; i++ )
+        {
+            b.placeOrder( new TradeOrder( buyer, "ABCD", true, false, 100,
+                    10.00 + i / 100.0 ) );
+            b.placeOrder( new TradeOrder( seller, "ABCD", false, false, 100,
+                    9.98 + i / 100.0 ) );
+        }
+        assertTrue( exchange.uncrossAll() > 0 );
+        b.placeOrder( new TradeOrder( seller, "ABCD", false, false, 50,
+                9.90 ) );
+
+        assertTrue( primary.awaitCaughtUp( 5000 ) );
+        primary.close();
+        standby.takeOver( 5000 );
+        assertNull( standby.getFailure() );
+        assertEquals( 0, standby.getMismatches() );
+        Stock original = exchange.getListedStocks().get( "ABCD" );
+        Stock copy = standby.getExchange().getListedStocks().get( "ABCD" );
+        assertFalse( copy.isInAuction() );
+        assertEquals( original.getVolume(), copy.getVolume() );
+        assertEquals( original.getQuote(), copy.getQuote() );
+        assertEquals( original.getBuyOrders().size(),
+                copy.getBuyOrders().size() );
+        assertEquals( original.getSellOrders().size(),
+                copy.getSellOrders().size() );
+    }
+
+    @Test
+    public void brokerageReplicatesMatchingPolicy() throws Exception
+    {
+        ReplicationStandby standby = new ReplicationStandby( 0 );
+        standby.start();
+        StockExchange exchange = new StockExchange();
+        Brokerage b = new Brokerage( exchange );
+        ReplicationPrimary primary = new ReplicationPrimary( "localhost",
+                standby.getPort(), 16 );
+        primary.attach( b, exchange );
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        b.addUser( "small", "pass" );
+        b.addUser( "large", "pass" );
+        b.addUser( "seller", "pass" );
+        assertTrue( exchange.setMatchingPolicy( "ABCD",
+                MatchingPolicy.PRO_RATA ) );
+        b.placeOrder( new TradeOrder( b.getTraders().get( "small" ), "ABCD",
+                true, false, 100, 10.00 ) );
+        b.placeOrder( new TradeOrder( b.getTraders().get( "large" ), "ABCD",
+                true, false, 300, 10.00 ) );
+        b.placeOrder( new TradeOrder( b.getTraders().get( "seller" ), "ABCD",
+                false, false, 200, 10.00 ) );
+
+        assertTrue( primary.awaitCaughtUp( 5000 ) );
+        primary.close();
+        standby.takeOver( 5000 );
+        assertNull( standby.getFailure() );
+        assertEquals( 0, standby.getMismatches() );
+        Stock original = exchange.getListedStocks().get( "ABCD" );
+        Stock copy = standby.getExchange().getListedStocks().get( "ABCD" );
+        assertSame( MatchingPolicy.PRO_RATA, copy.getMatchingPolicy() );
+        assertEquals( original.getBuyOrders().peek().getTotalShares(),
+                copy.getBuyOrders().peek().getTotalShares() );
+    }
+
+    @Test
+    public void journalReplayMatchesRecording() throws Exception
+    {
+        java.nio.file.Path journal = java.nio.file.Files.createTempFile(
+                "session", ".journal" );
+        StockExchange exchange = new StockExchange();
+        Brokerage b = new Brokerage( exchange );
+        SessionRecorder recorder = new SessionRecorder( journal, b,
+                exchange );
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        exchange.listStock( "WXYZ", "WXYZ Company", 20.0 );
+        b.addUser( "buyer", "pass" );
+        b.addUser( "seller", "pass" );
+        Trader buyer = b.getTraders().get( "buyer" );
+        Trader seller = b.getTraders().get( "seller" );
+        for ( int i = 0; i < 50; i++ )
+        {
+            String symbol = i % 2 == 0 ? "ABCD" : "WXYZ";
+            b.placeOrder( new TradeOrder( seller, symbol, false, false, 10,
+                    ( i % 2 == 0 ? 10.0 : 20.0 ) + i % 3 / 100.0 ) );
+            b.placeOrder( new TradeOrder( buyer, symbol, true, i % 7 == 0,
+                    15, ( i % 2 == 0 ? 10.0 : 20.0 ) + i % 4 / 100.0 ) );
+        }
+        TradeOrder resting = new TradeOrder( buyer, "ABCD", true, false, 5,
+                9.0 );
+        b.placeOrder( resting );
+        b.cancelOrder( resting );
+        recorder.close();
+
+        JournalReplay replay = new JournalReplay( journal, 0 );
+        EventApplier applier = replay.run();
+        assertEquals( recorder.getSequence(), replay.getRecords() );
+        assertEquals( 101, replay.getOrders() );
+        assertTrue( applier.getFillsChecked() > 0 );
+        assertEquals( 2, applier.getBooksChecked() );
+        assertEquals( 0, applier.getMismatches() );
+
+        applier = new JournalReplay( journal,
+                JournalReplay.parseSpeed( "1000x" ) ).run();
+        assertEquals( 0, applier.getMismatches() );
+        assertEquals( 0.0, JournalReplay.parseSpeed( "max" ), 0.0 );
+        java.nio.file.Files.delete( journal );
+    }
+
+    @Test
+    public void marketDataRecoversDroppedPackets() throws Exception
+    {
+        int basePort = 20000 + new java.util.Random().nextInt( 30000 );
+        MarketDataPublisher publisher = new MarketDataPublisher(
+                java.net.InetAddress.getLoopbackAddress(), null, basePort, 2,
+                0 );
+        final long[] last = new long[6];
+        final int[] trades = new int[1];
+        MarketDataReceiver.Handler handler = new MarketDataReceiver.Handler()
+                {
+                    public synchronized void quote( int symbolId,
+                            long bidTicks, long bidSize, long askTicks,
+                            long askSize, long lastTicks )
+                    {
+                        if ( symbolId == 0 )
+                        {
+                            last[0] = bidTicks;
+                            last[1] = bidSize;
+                            last[2] = askTicks;
+                            last[3] = askSize;
+                            last[4] = lastTicks;
+                        }
+                    }
+
+                    public synchronized void trade( int symbolId,
+                            long priceTicks, int shares, long time )
+                    {
+                        trades[0]++;
+                    }
+                };
+        MarketDataReceiver receiver = MarketDataReceiver.open( publisher,
+                basePort, handler );
+        receiver.start();
+        StockExchange exchange = new StockExchange();
+        exchange.addMarketListener( publisher );
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        Trader trader = new Trader( null, "trader", "pass" );
+        exchange.placeOrder( new TradeOrder( trader, "ABCD", true, false,
+                100, 9.95 ) );
+        publisher.dropNext( 2 );
+        exchange.placeOrder( new TradeOrder( trader, "ABCD", false, false,
+                40, 9.95 ) );
+        exchange.placeOrder( new TradeOrder( trader, "ABCD", false, false,
+                70, 10.05 ) );
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( receiver.getExpected( 0 ) <= publisher.getSequence( 0 )
+                && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 5 );
+        }
+        assertEquals( 4, publisher.getSequence( 0 ) );
+        assertEquals( 5, receiver.getExpected( 0 ) );
+        assertEquals( 1, receiver.getGaps() );
+        assertEquals( 2, receiver.getRetransmitted() );
+        synchronized ( handler )
+        {
+            assertEquals( 1, trades[0] );
+            assertEquals( 995, last[0] );
+            assertEquals( 60, last[1] );
+            assertEquals( 1005, last[2] );
+            assertEquals( 70, last[3] );
+            assertEquals( 995, last[4] );
+        }
+
+        Object[] channels = (Object[])getField( publisher, "channels" );
+        java.util.concurrent.CountDownLatch held =
+                new java.util.concurrent.CountDownLatch( 1 );
+        java.util.concurrent.CountDownLatch release =
+                new java.util.concurrent.CountDownLatch( 1 );
+        Thread holder = new Thread( () -> {
+            synchronized ( channels[1] )
+            {
+                held.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException ex )
+                {
+                    // done
+                }
+            }
+        } );
+        holder.start();
+        held.await();
+        Thread placer = new Thread( () -> exchange.placeOrder(
+                new TradeOrder( trader, "ABCD", true, false, 10, 9.90 ) ) );
+        placer.start();
+        placer.join( 5000 );
+        assertFalse( "<< channel 0 waited for channel 1 >>",
+                placer.isAlive() );
+        assertEquals( 5, publisher.getSequence( 0 ) );
+        release.countDown();
+        holder.join();
+        receiver.close();
+        publisher.close();
+    }
+
+    @Test
+    public void traderSubscribesToQuotes() throws Exception
+    {
+        StockExchange exchange = new StockExchange();
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        exchange.listStock( "WXYZ", "WXYZ Company", 20.0 );
+        Brokerage b = new Brokerage( exchange );
+        b.addUser( "watcher", "pass" );
+        b.addUser( "other", "pass" );
+        Trader watcher = b.getTraders().get( "watcher" );
+        Trader other = b.getTraders().get( "other" );
+
+        watcher.subscribe( "ABCD" );
+        watcher.subscribe( "ABCD" );
+        watcher.subscribe( "WXYZ" );
+        assertEquals( 1, exchange.getListedStocks().get( "ABCD" )
+                .getSubscriberCount() );
+        java.util.List<TopOfBook> first = watcher.pollQuotes();
+        assertEquals( 2, first.size() );
+        assertSame( exchange.getListedStocks().get( "ABCD" )
+                .getPublishedTopOfBook(), first.get( 0 ) );
+        assertFalse( watcher.hasQuotes() );
+
+        other.placeOrder( new TradeOrder( other, "ABCD", true, false, 100,
+                9.90 ) );
+        other.placeOrder( new TradeOrder( other, "ABCD", true, false, 50,
+                9.95 ) );
+        other.placeOrder( new TradeOrder( other, "ABCD", true, false, 50,
+                9.00 ) );
+        java.util.List<TopOfBook> quotes = watcher.pollQuotes();
+        assertEquals( 1, quotes.size() );
+        assertEquals( 9.95, quotes.get( 0 ).getBidPrice(), 0.0 );
+        assertEquals( 50, quotes.get( 0 ).getBidSize() );
+
+        other.placeOrder( new TradeOrder( other, "ABCD", true, false, 50,
+                9.00 ) );
+        assertFalse( watcher.hasQuotes() );
+
+        watcher.unsubscribe( "ABCD" );
+        other.placeOrder( new TradeOrder( other, "ABCD", false, true, 50,
+                0 ) );
+        assertFalse( watcher.hasQuotes() );
+        watcher.subscribe( "XYZ" );
+        assertEquals( "XYZ not found.", watcher.mailbox().peek() );
+
+        for ( int round = 0; round < 50; round++ )
+        {
+            String symbol = "R" + round;
+            exchange.listStock( symbol, "Round " + round, 10.0 );
+            Stock stock = exchange.getListedStocks().get( symbol );
+            Trader late = new Trader( b, "late" + round, "pass" );
+            Thread bidder = new Thread( () -> {
+                for ( int i = 1; i <= 200; i++ )
+                {
+                    stock.placeOrder( new TradeOrder( other, symbol, true,
+                            false, 1, 10.00 + i / 100.0 ) );
+                }
+            } );
+            bidder.start();
+            stock.subscribe( late );
+            bidder.join();
+            java.util.List<TopOfBook> seen = late.pollQuotes();
+            assertSame( stock.getPublishedTopOfBook(),
+                    seen.get( seen.size() - 1 ) );
+        }
+    }
+
+    @Test
+    public void messageModelCoalescesUpdates() throws Exception
+    {
+        final java.util.List<String> display = new java.util.ArrayList<>();
+        java.util.concurrent.ScheduledExecutorService timer =
+            java.util.concurrent.Executors.newSingleThreadScheduledExecutor();
+        MessageModel model = new MessageModel( 100, 200, Runnable::run,
+                timer, ( added, removed ) -> {
+                    synchronized ( display )
+                    {
+                        display.subList( 0, removed ).clear();
+                        display.addAll( added );
+                    }
+                } );
+        for ( int i = 0; i < 500; i++ )
+        {
+            model.post( "msg " + i );
+        }
+        assertEquals( 1, model.getRenderCount() );
+        assertEquals( 499, model.getPendingCount() );
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( System.currentTimeMillis() < deadline )
+        {
+            synchronized ( display )
+            {
+                if ( display.size() == 100 )
+                {
+                    break;
+                }
+            }
+            Thread.sleep( 10 );
+        }
+        assertEquals( 0, model.getPendingCount() );
+        assertEquals( 2, model.getRenderCount() );
+        assertEquals( 100, model.getLines().size() );
+        assertEquals( "msg 400", model.getLines().get( 0 ) );
+        synchronized ( display )
+        {
+            assertEquals( model.getLines(), display );
+        }
+        timer.shutdown();
+
+        Trader trader = new Trader( null, "trader", "pass" );
+        trader.receiveMessage( "Before login" );
+        trader.openWindow();
+        trader.receiveMessage( "After login" );
+        assertFalse( trader.hasMessages() );
+    }
+
+    @Test
+    public void brokerageImportsUsersInBulk() throws Exception
+    {
+        Brokerage b = new Brokerage( new StockExchange() );
+        assertEquals( 0, b.addUser( "mmmm", "pass" ) );
+        java.nio.file.Path csv = java.nio.file.Files.createTempFile(
+                "accounts", ".csv" );
+        java.nio.file.Files.write( csv, java.util.Arrays.asList(
+                "name,password", "zeta", "bob,pass", "alpha,pw", "",
+                "mmmm,pass", "beta,toolongpassword", "alpha,other",
+                "gamma,pw" ) );
+        ImportReport report = b.importUsers( csv );
+        assertEquals( 7, report.size() );
+        assertEquals( -2, report.getCode( 0 ) );
+        assertEquals( -1, report.getCode( 1 ) );
+        assertEquals( 0, report.getCode( 2 ) );
+        assertEquals( -3, report.getCode( 3 ) );
+        assertEquals( -2, report.getCode( 4 ) );
+        assertEquals( -3, report.getCode( 5 ) );
+        assertEquals( 2, report.getAccepted() );
+        assertEquals( "row 2: bob -1 (invalid screen name)",
+                report.getErrors().get( 1 ) );
+        assertEquals( java.util.Arrays.asList( "alpha", "gamma", "mmmm" ),
+                new java.util.ArrayList<>( b.getTraders().keySet() ) );
+        assertEquals( -3, b.addUser( "gamma", "pw" ) );
+        assertEquals( 0, b.login( "alpha", "pw" ) );
+
+        String[] names = new String[10000];
+        String[] passwords = new String[names.length];
+        for ( int i = 0; i < names.length; i++ )
+        {
+            names[i] = "user" + ( names.length - i );
+            passwords[i] = "pw";
+        }
+        java.nio.file.Path binary = java.nio.file.Files.createTempFile(
+                "accounts", ".bin" );
+        new AccountFile( names, passwords ).writeBinary( binary );
+        report = b.importUsers( binary );
+        assertEquals( names.length, report.getAccepted() );
+        assertEquals( names.length + 3, b.getTraders().size() );
+        assertTrue( b.getTraders().containsKey( "user5000" ) );
+        assertEquals( 0, b.addUser( "user0", "pw" ) );
+        java.nio.file.Files.delete( csv );
+        java.nio.file.Files.delete( binary );
+    }
+
+    @Test
+    public void brokerageLoadsTradersLazily() throws Exception
+    {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile(
+                "accounts", ".store" );
+        java.nio.file.Files.delete( file );
+        java.nio.file.Path grown = file.resolveSibling( file.getFileName()
+                + ".grow" );
+        java.nio.file.Files.write( grown, "left by a crash".getBytes() );
+        AccountStore store = new AccountStore( file );
+        StockExchange exchange = new StockExchange();
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        Brokerage b = new Brokerage( exchange, store );
+        for ( int i = 0; i < 2000; i++ )
+        {
+            assertEquals( 0, b.addUser( "user" + i, "pw" + i % 10 ) );
+        }
+        assertEquals( -3, b.addUser( "user7", "pw" ) );
+        assertEquals( 2000, store.size() );
+        assertEquals( 0, b.getTraders().size() );
+        assertFalse( java.nio.file.Files.exists( grown ) );
+
+        assertEquals( -1, b.login( "nobody", "pw" ) );
+        assertEquals( -2, b.login( "user42", "pw0" ) );
+        assertEquals( 0, b.login( "user42", "pw2" ) );
+        assertEquals( 0, b.login( "user43", "pw3" ) );
+        Trader busy = b.getTraders().get( "user42" );
+        Trader idle = b.getTraders().get( "user43" );
+        assertEquals( 2, b.getTraders().size() );
+        busy.placeOrder( new TradeOrder( busy, "ABCD", true, false, 10,
+                9.0 ) );
+        busy.quit();
+        idle.quit();
+        assertEquals( 0, b.evictIdle( 60000 ) );
+        assertEquals( 1, b.evictIdle( 0 ) );
+        assertSame( busy, b.getTraders().get( "user42" ) );
+        assertNull( b.getTraders().get( "user43" ) );
+
+        assertEquals( 0, b.login( "user44", "pw4" ) );
+        Trader watcher = b.getTraders().get( "user44" );
+        watcher.subscribe( "ABCD" );
+        watcher.pollQuotes();
+        watcher.receiveFill( new TradeOrder( watcher, "ABCD", true, true, 10,
+                0 ), 9.0, 10 );
+        watcher.receiveFill( new TradeOrder( watcher, "ABCD", false, true,
+                10, 0 ), 9.5, 10 );
+        watcher.quit();
+        assertEquals( "<< subscribed trader kept >>", 0, b.evictIdle( 0 ) );
+        watcher.unsubscribe( "ABCD" );
+        assertEquals( "<< flat position evicted >>", 1, b.evictIdle( 0 ) );
+
+        store.close();
+        store = new AccountStore( file );
+        assertEquals( 2000, store.size() );
+        assertEquals( "pw9", store.getPassword( "user1999" ) );
+        assertTrue( store.contains( "user0" ) );
+        assertFalse( store.contains( "user2000" ) );
+        store.close();
+        java.nio.file.Files.delete( file );
+
+        Trader fresh = new Trader( null, "fresh", "pass" );
+        assertFalse( fresh.hasMessages() );
+        assertNull( getField( fresh, "mailbox" ) );
+    }
+
+    @Test
+    public void bookCompactorShrinksIdleBooks()
+    {
+        StockExchange exchange = new StockExchange();
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        exchange.listStock( "WXYZ", "WXYZ Company", 20.0 );
+        Stock stock = exchange.getStock( 0 );
+        Trader trader = new Trader( null, "goodName", "pass" );
+        TradeOrder[] orders = new TradeOrder[5000];
+        for ( int i = 0; i < orders.length; i++ )
+        {
+            orders[i] = new TradeOrder( trader, "ABCD", true, false, 1,
+                    9.0 + ( i % 4 ) / 100.0 );
+            stock.placeOrder( orders[i] );
+        }
+        for ( int i = 1; i < orders.length; i++ )
+        {
+            assertTrue( stock.cancelOrder( orders[i] ) );
+        }
+        OrderBook buys = stock.getBuyOrders();
+        long before = stock.getBookFootprint();
+        assertTrue( buys.getSlotCapacity() >= 4096 );
+        assertTrue( buys.getPooledLevelCount() > 0 );
+
+        BookCompactor compactor = new BookCompactor( exchange, 60000, 4,
+                2.0 );
+        assertEquals( 0, compactor.compactOnce() );
+        compactor = new BookCompactor( exchange, 0, 4, 2.0 );
+        long freed = compactor.compactOnce();
+        assertTrue( freed > 0 );
+        assertEquals( before - freed, stock.getBookFootprint() );
+        assertTrue( buys.getSlotCapacity() <= 8 );
+        assertEquals( 0, buys.getPooledLevelCount() );
+        assertEquals( 2, compactor.getCompacted() );
+        assertEquals( 0, compactor.compactOnce() );
+        assertTrue( compactor.footprintReport( 1 ).startsWith(
+                "Books: 2 stocks" ) );
+        long[] details = stock.getBookFootprintDetails();
+        assertEquals( before - freed, details[0] );
+        assertEquals( buys.getSlotCapacity()
+                + stock.getSellOrders().getSlotCapacity(), details[2] );
+
+        stock.placeOrder( new TradeOrder( trader, "ABCD", false, false, 1,
+                9.0 ) );
+        assertEquals( 0, buys.size() );
+        assertEquals( 9.0, stock.getTopOfBook().getLastPrice(), 0.001 );
+    }
+
+    @Test
+    public void brokerageThrottlesOrderRate()
+    {
+        TokenBucket bucket = new TokenBucket( 1000, 3 );
+        long now = System.nanoTime();
+        assertTrue( bucket.tryAcquire( now ) );
+        assertTrue( bucket.tryAcquire( now ) );
+        assertTrue( bucket.tryAcquire( now ) );
+        assertFalse( bucket.tryAcquire( now ) );
+        assertEquals( 0, bucket.getAvailable( now ) );
+        assertTrue( bucket.tryAcquire( now + 1000000 ) );
+        assertFalse( bucket.tryAcquire( now + 1000000 ) );
+        assertEquals( 3, bucket.getAvailable( now + 10000000 ) );
+        assertEquals( 2, bucket.getRejected() );
+
+        StockExchange exchange = new StockExchange();
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        Brokerage b = new Brokerage( exchange );
+        b.addUser( "flooder", "pw" );
+        b.addUser( "polite", "pw" );
+        assertEquals( 0, b.setRiskLimits( "flooder", new RiskLimits( 1000,
+                1e9, 1000, 100000, 0.001, 2 ) ) );
+        Trader flooder = b.getTraders().get( "flooder" );
+        Trader polite = b.getTraders().get( "polite" );
+        for ( int i = 0; i < 5; i++ )
+        {
+            b.placeOrder( new TradeOrder( flooder, "ABCD", true, false, 10,
+                    9.0 ) );
+            b.placeOrder( new TradeOrder( polite, "ABCD", true, false, 10,
+                    9.0 ) );
+        }
+        assertEquals( 2, flooder.getRisk().getOpenOrders() );
+        assertEquals( 5, polite.getRisk().getOpenOrders() );
+        assertEquals( 3, flooder.getRisk().getThrottle().getRejected() );
+        assertNull( polite.getRisk().getThrottle() );
+        assertTrue( flooder.mailbox().contains(
+                "Order rejected: ABCD rate limit" ) );
+        assertEquals( 7, exchange.getStock( 0 ).getBuyOrders().size() );
+    }
+
+    @Test
+    public void admissionQueueShedsOrdersBeforeCancels()
+        throws InterruptedException
+    {
+        StockExchange exchange = new StockExchange();
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        Brokerage b = new Brokerage( exchange );
+        b.addUser( "trader", "pw" );
+        Trader trader = b.getTraders().get( "trader" );
+        OrderBook buys = exchange.getStock( 0 ).getBuyOrders();
+        TradeOrder resting = new TradeOrder( trader, "ABCD", true, false,
+                10, 9.0 );
+        b.placeOrder( resting );
+        AdmissionQueue queue = new AdmissionQueue( 3, 50 );
+        b.setAdmissionQueue( queue );
+
+        TradeOrder[] orders = new TradeOrder[5];
+        for ( int i = 0; i < orders.length; i++ )
+        {
+            orders[i] = new TradeOrder( trader, "ABCD", true, false, 10,
+                    9.0 );
+            if ( i < 4 )
+            {
+                b.placeOrder( orders[i] );
+            }
+        }
+        assertEquals( 3, queue.getDepth() );
+        assertEquals( 1, queue.getOrdersShedFull() );
+        assertEquals( 4, trader.getRisk().getOpenOrders() );
+        assertTrue( trader.mailbox().contains(
+                "Order rejected: ABCD queue full" ) );
+
+        b.cancelOrder( orders[1] );
+        assertEquals( 1, queue.getWithdrawn() );
+        assertEquals( 3, trader.getRisk().getOpenOrders() );
+        b.placeOrder( orders[4] );
+        b.cancelOrder( resting );
+        assertEquals( 3, queue.getDepth() );
+        assertEquals( 2, queue.getOrdersShedFull() );
+        assertEquals( 1, buys.size() );
+
+        assertEquals( 3, queue.drain() );
+        assertEquals( 2, buys.size() );
+        assertSame( orders[0], buys.peek() );
+        assertEquals( 2, trader.getRisk().getOpenOrders() );
+
+        TradeOrder late = new TradeOrder( trader, "ABCD", true, false, 10,
+                9.0 );
+        b.placeOrder( late );
+        Thread.sleep( 60 );
+        queue.start();
+        queue.close();
+        assertEquals( 1, queue.getOrdersShedStale() );
+        assertEquals( 2, buys.size() );
+        assertEquals( 2, trader.getRisk().getOpenOrders() );
+        assertTrue( trader.mailbox().contains(
+                "Order rejected: ABCD queue timeout" ) );
+        assertEquals( 3, queue.getPeakDepth() );
+    }
+
+    @Test
+    public void stockExchangeQuoteSnapshotIsConsistent() throws Exception
+    {
+        StockExchange exchange = new StockExchange();
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        exchange.listStock( "WXYZ", "WXYZ Company", 20.0 );
+        Trader trader = new Trader( null, "goodName", "pass" );
+        java.util.List<String> symbols = java.util.Arrays.asList( "ABCD",
+                "WXYZ", "NONE" );
+        QuoteSnapshot first = exchange.getQuotes( symbols );
+        assertEquals( 3, first.size() );
+        assertNull( first.get( "NONE" ) );
+        assertFalse( first.get( "ABCD" ).hasBid() );
+        assertEquals( 20.0, first.get( "WXYZ" ).getLastPrice(), 0.001 );
+
+        int steps = 20000;
+        Thread writer = new Thread( () -> {
+            for ( int k = 1; k <= steps; k++ )
+            {
+                trader.mailbox().clear();
+                exchange.placeOrder( new TradeOrder( trader, "ABCD", true,
+                        false, 1, k / 100.0 ) );
+                exchange.placeOrder( new TradeOrder( trader, "WXYZ", true,
+                        false, 1, k / 100.0 ) );
+            }
+        } );
+        writer.start();
+        int bad = 0;
+        long lastVersion = first.getVersion();
+        while ( writer.isAlive() )
+        {
+            QuoteSnapshot snapshot = exchange.getQuotes( symbols );
+            long a = Math.round( snapshot.get( "ABCD" ).getBidPrice() * 100 );
+            long w = Math.round( snapshot.get( "WXYZ" ).getBidPrice() * 100 );
+            if ( snapshot.get( "WXYZ" ).hasBid()
+                && ( a - w < 0 || a - w > 1 ) )
+            {
+                bad++;
+            }
+            assertTrue( snapshot.getVersion() >= lastVersion );
+            lastVersion = snapshot.getVersion();
+        }
+        writer.join();
+        assertEquals( 0, bad );
+        QuoteSnapshot last = exchange.getQuotes( symbols );
+        assertEquals( steps / 100.0, last.get( "WXYZ" ).getBidPrice(),
+                0.001 );
+        assertEquals( 2 * steps, last.getVersion() - first.getVersion() );
+        assertEquals( 1, last.getAttempts() );
+        assertFalse( last.isLocked() );
+
+        QuoteSnapshot.Clock clock = (QuoteSnapshot.Clock)getField( exchange,
+                "quoteClock" );
+        clock.beginWrite();
+        QuoteSnapshot stuck = exchange.getQuotes( symbols );
+        clock.endWrite();
+        assertTrue( stuck.isLocked() );
+        assertEquals( StockExchange.QUOTE_ATTEMPTS + 1, stuck.getAttempts() );
+        assertEquals( steps / 100.0, stuck.get( "WXYZ" ).getBidPrice(),
+                0.001 );
+        assertNull( stuck.get( "NONE" ) );
+    }
+
+    @Test
+    public void stockQuoteIsConsistentWhileMatching()
+        throws InterruptedException
+    {
+        Stock stock = new Stock( "ABCD", "ABCD Company", 0.0 );
+        Trader trader = new Trader( null, "goodName", "pass" );
+        int steps = 20000;
+        Thread writer = new Thread( () -> {
+            for ( int k = 1; k <= steps; k++ )
+            {
+                trader.mailbox().clear();
+                stock.placeOrder( new TradeOrder( trader, "ABCD", false,
+                        false, 1, k / 100.0 ) );
+                stock.placeOrder( new TradeOrder( trader, "ABCD", true, true,
+                        1, 0 ) );
+            }
+        } );
+        int[] bad = new int[1];
+        int[] reads = new int[1];
+        Thread[] readers = new Thread[2];
+        for ( int r = 0; r < readers.length; r++ )
+        {
+            readers[r] = new Thread( () -> {
+                do
+                {
+                    String[] words = stock.getQuote().split( "\\s+" );
+                    double last = Double.parseDouble( words[4] );
+                    double hi = Double.parseDouble( words[6] );
+                    int vol = Integer.parseInt( words[10] );
+                    boolean asked = !words[12].equals( "none" );
+                    synchronized ( bad )
+                    {
+                        reads[0]++;
+                        if ( last != hi || Math.round( last * 100 ) != vol
+                            || asked && Math.round( Double.parseDouble(
+                                words[12] ) * 100 ) != vol + 1 )
+                        {
+                            bad[0]++;
+                        }
+                    }
+                } while ( writer.isAlive() );
+            } );
+        }
+        writer.start();
+        for ( Thread reader : readers )
+        {
+            reader.start();
+        }
+        writer.join();
+        for ( Thread reader : readers )
+        {
+            reader.join();
+        }
+        assertEquals( 0, bad[0] );
+        assertTrue( reads[0] > 0 );
+        assertEquals( steps, stock.getVolume() );
+        assertTrue( stock.getQuote().contains( "vol: " + steps ) );
+    }
+
+    @Test
+    public void stockMatchingPolicies()
+    {
+        StockExchange exchange = new StockExchange();
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        assertFalse( exchange.setMatchingPolicy( "XYZ",
+                MatchingPolicy.PRO_RATA ) );
+        Stock stock = exchange.getStock( 0 );
+        assertSame( MatchingPolicy.FIFO, stock.getMatchingPolicy() );
+        Trader trader = new Trader( null, "goodName", "pass" );
+        int[][] expected = { { 0, 0, 500 }, { 89, 270, 540 },
+                { 100, 200, 0 } };
+        int[] incoming = { 500, 101, 700 };
+        MatchingPolicy[] policies = { MatchingPolicy.FIFO,
+                MatchingPolicy.PRO_RATA, MatchingPolicy.PRICE_SIZE };
+        for ( int p = 0; p < policies.length; p++ )
+        {
+            assertTrue( exchange.setMatchingPolicy( "ABCD", policies[p] ) );
+            boolean buy = p % 2 == 0;
+            TradeOrder[] resting = new TradeOrder[3];
+            int[] sizes = { 100, 300, 600 };
+            for ( int i = 0; i < resting.length; i++ )
+            {
+                resting[i] = new TradeOrder( trader, "ABCD", !buy, false,
+                        sizes[i], 10.0 );
+                stock.placeOrder( resting[i] );
+            }
+            stock.placeOrder( new TradeOrder( trader, "ABCD", buy, true,
+                    incoming[p], 0 ) );
+            for ( int i = 0; i < resting.length; i++ )
+            {
+                assertEquals( policies[p].getName() + " " + i,
+                        expected[p][i], resting[i].getShares() );
+                stock.cancelOrder( resting[i] );
+            }
+            assertEquals( 0, stock.getBuyOrders().size()
+                    + stock.getSellOrders().size() );
+        }
+
+        stock.setMatchingPolicy( MatchingPolicy.PRO_RATA );
+        TradeOrder iceberg = new TradeOrder( trader, "ABCD", false, false,
+                300, 10.0, 100 );
+        TradeOrder plain = new TradeOrder( trader, "ABCD", false, false, 100,
+                10.0 );
+        stock.placeOrder( plain );
+        stock.placeOrder( iceberg );
+        stock.placeOrder( new TradeOrder( trader, "ABCD", true, false, 200,
+                10.0 ) );
+        assertEquals( 100, iceberg.getShares() );
+        assertEquals( 100, iceberg.getHiddenShares() );
+        assertSame( iceberg, stock.getSellOrders().peek() );
+        assertEquals( 10.0, stock.getLastPrice(), 0.001 );
+    }
+
+    @Test
+    public void priceSizePolicyFillsLargestFirst()
+    {
+        Trader trader = new Trader( null, "goodName", "pass" );
+        PriceLevel level = new PriceLevel( 10.0, 1000 );
+        java.util.Random random = new java.util.Random( 7 );
+        TradeOrder[] arrived = new TradeOrder[500];
+        for ( int i = 0; i < arrived.length; i++ )
+        {
+            arrived[i] = new TradeOrder( trader, "ABCD", false, false,
+                    100 * ( 1 + random.nextInt( 5 ) ), 10.0 );
+            level.add( arrived[i] );
+        }
+        TradeOrder[] expected = arrived.clone();
+        java.util.Arrays.sort( expected, ( a, b ) -> b.getShares()
+                - a.getShares() );
+        TradeOrder[] orders = new TradeOrder[arrived.length];
+        int[] fills = new int[arrived.length];
+        int[] sizes = { 1, 250, 30000, (int)level.getVisibleShares() };
+        for ( int shares : sizes )
+        {
+            int count = MatchingPolicy.PRICE_SIZE.allocate( level, shares,
+                    orders, fills );
+            int left = shares;
+            for ( int k = 0; k < count; k++ )
+            {
+                assertTrue( shares + " " + k, expected[k] == orders[k] );
+                assertEquals( Math.min( left, expected[k].getShares() ),
+                        fills[k] );
+                left -= fills[k];
+            }
+            assertEquals( 0, left );
+            assertTrue( count == arrived.length
+                    || orders[count] == null );
+        }
+    }
+
+    @Test
+    public void brokerageCancelsTraderOrdersInBulk()
+    {
+        StockExchange exchange = new StockExchange();
+        for ( int s = 0; s < 500; s++ )
+        {
+            exchange.listStock( "S" + s, "Stock " + s, 10.0 );
+        }
+        Brokerage b = new Brokerage( exchange );
+        b.addUser( "busy", "pw" );
+        b.addUser( "other", "pw" );
+        Trader busy = b.getTraders().get( "busy" );
+        Trader other = b.getTraders().get( "other" );
+        for ( int i = 0; i < 5000; i++ )
+        {
+            b.placeOrder( new TradeOrder( busy, "S" + ( i % 500 ), true,
+                    false, 10, 9.0 + ( i / 500 ) * 0.01 ) );
+        }
+        b.placeOrder( new TradeOrder( other, "S7", true, false, 10, 9.0 ) );
+        assertEquals( 5000, busy.getRisk().getOpenOrders() );
+        assertEquals( 10, busy.getRisk().getLiveOrders( "S7" ).size() );
+
+        assertEquals( 10, busy.cancelAll( "S7" ) );
+        assertEquals( 4990, busy.getRisk().getOpenOrders() );
+        assertEquals( 1, exchange.getStock( 7 ).getBuyOrders().size() );
+        assertEquals( 0, busy.cancelAll( "S7" ) );
+
+        assertEquals( 4990, busy.cancelAll( null ) );
+        assertEquals( 0, busy.getRisk().getOpenOrders() );
+        assertTrue( busy.getRisk().getLiveOrders().isEmpty() );
+        assertEquals( 0, exchange.getStock( 499 ).getBuyOrders().size() );
+        assertEquals( 1, other.getRisk().getOpenOrders() );
+        assertEquals( 1, exchange.getStock( 7 ).getBuyOrders().size() );
+
+        b.setCancelOnLogout( true );
+        assertEquals( 0, b.login( "other", "pw" ) );
+        other.quit();
+        assertEquals( 0, other.getRisk().getOpenOrders() );
+        assertEquals( 0, exchange.getStock( 7 ).getBuyOrders().size() );
+    }
+
+    @Test
+    public void messageCodecRoundTrips()
+    {
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate( 512 );
+        Trader trader = new Trader( null, "goodName", "pass" );
+        TradeOrder order = new TradeOrder( trader, "ABCD", false, false, 500,
+                10.25, 100 );
+        order.setId( 42 );
+        order.setSymbolId( 3, "ABCD" );
+        MessageCodec.Order orderOut = new MessageCodec.Order();
+        SymbolTable accounts = new SymbolTable();
+        accounts.intern( "someoneElse" );
+        int at = orderOut.encode( buffer, 0 ).set( order, accounts ).limit();
+        assertEquals( MessageCodec.HEADER_SIZE + 42, at );
+        at = new MessageCodec.Ack().encode( buffer, at ).orderId( 42 )
+                .nanos( 99 ).code( TraderRisk.THROTTLED ).limit();
+        at = new MessageCodec.Cancel().encode( buffer, at ).set( order )
+                .limit();
+        Stock stock = new Stock( "ABCD", "ABCD Company", 10.0 );
+        TradeOrder buy = new TradeOrder( trader, "ABCD", true, true, 100,
+                0 );
+        buy.setId( 43 );
+        at = new MessageCodec.Fill().encode( buffer, at )
+                .set( stock, buy, order, 10.25, 100 ).limit();
+        at = new MessageCodec.Quote().encode( buffer, at )
+                .set( 3, new TopOfBook( "ABCD", Double.NaN, 0, 10.25, 100,
+                        10.0 ) ).limit();
+
+        MessageCodec.Order orderIn = new MessageCodec.Order();
+        orderIn.decode( buffer, 0 );
+        assertEquals( 42, orderIn.getOrderId() );
+        assertEquals( 1025, orderIn.getPriceTicks() );
+        assertEquals( 1, orderIn.getTraderId() );
+        assertEquals( "goodName", orderIn.getTraderName( accounts ) );
+        assertEquals( 3, orderIn.getSymbolId() );
+        assertEquals( 500, orderIn.getShares() );
+        assertEquals( 100, orderIn.getDisplayShares() );
+        assertTrue( orderIn.symbolEquals( "ABCD" ) );
+        assertFalse( orderIn.symbolEquals( "ABC" ) );
+        assertFalse( orderIn.symbolEquals( "ABCDE" ) );
+        assertFalse( orderIn.isBuy() );
+        assertFalse( orderIn.isMarket() );
+        TradeOrder copy = orderIn.toOrder( trader );
+        assertEquals( 42, copy.getId() );
+        assertEquals( "ABCD", copy.getSymbol() );
+        assertEquals( 100, copy.getShares() );
+        assertEquals( 400, copy.getHiddenShares() );
+        assertEquals( 10.25, copy.getPrice(), 0 );
+
+        int next = MessageCodec.getLength( buffer, 0 );
+        assertEquals( MessageCodec.ACK,
+                MessageCodec.getTemplateId( buffer, next ) );
+        MessageCodec.Ack ack = new MessageCodec.Ack().decode( buffer, next );
+        assertEquals( 42, ack.getOrderId() );
+        assertEquals( 99, ack.getNanos() );
+        assertEquals( TraderRisk.THROTTLED, ack.getCode() );
+        next = ack.limit();
+        MessageCodec.Cancel cancel = new MessageCodec.Cancel().decode(
+                buffer, next );
+        assertEquals( 42, cancel.getOrderId() );
+        assertEquals( 3, cancel.getSymbolId() );
+        next = cancel.limit();
+        MessageCodec.Fill fill = new MessageCodec.Fill().decode( buffer,
+                next );
+        assertEquals( 43, fill.getBuyOrderId() );
+        assertEquals( 42, fill.getSellOrderId() );
+        assertEquals( 1025, fill.getPriceTicks() );
+        assertEquals( 100, fill.getShares() );
+        next = fill.limit();
+        MessageCodec.Quote quote = new MessageCodec.Quote().decode( buffer,
+                next );
+        assertEquals( 3, quote.getSymbolId() );
+        assertEquals( 0, quote.getBidTicks() );
+        assertEquals( 1025, quote.getAskTicks() );
+        assertEquals( 100, quote.getAskSize() );
+        assertEquals( 1000, quote.getLastTicks() );
+        assertEquals( at, quote.limit() );
+
+        try
+        {
+            new MessageCodec.Fill().decode( buffer, 0 );
+            fail( "<< decoded an ORDER as a FILL >>" );
+        }
+        catch ( IllegalArgumentException ex )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void segmentedJournalRotatesAndSeeks() throws Exception
+    {
+        java.nio.file.Path dir = java.nio.file.Files
+                .createTempDirectory( "journal" );
+        SegmentedJournal journal = new SegmentedJournal( dir, 200000 );
+        StockExchange exchange = new StockExchange();
+        Brokerage b = new Brokerage( exchange );
+        SessionRecorder recorder = new SessionRecorder( journal, b,
+                exchange );
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        b.addUser( "buyer", "pass" );
+        b.addUser( "seller", "pass" );
+        Trader buyer = b.getTraders().get( "buyer" );
+        Trader seller = b.getTraders().get( "seller" );
+        for ( int i = 0; i < 10500; i++ )
+        {
+            b.placeOrder( new TradeOrder( seller, "ABCD", false, false, 10,
+                    10.0 + i % 5 / 100.0 ) );
+            b.placeOrder( new TradeOrder( buyer, "ABCD", true, false, 10,
+                    10.0 + i % 3 / 100.0 ) );
+        }
+        long live = 0;
+        try ( java.io.DataInputStream in = SegmentedJournal.read( dir, 1 ) )
+        {
+            EventRecord record = new EventRecord();
+            while ( record.readFrom( in ) )
+            {
+                assertEquals( ++live, record.getSequence() );
+            }
+        }
+        assertTrue( "<< read the active segment >>", live > 0
+                && live <= recorder.getSequence() );
+        recorder.close();
+        assertTrue( journal.getSegmentCount() > 2 );
+        assertEquals( journal.getSegmentCount(),
+                journal.getCompressedCount() );
+        assertTrue( journal.getCompressedBytes() < journal.getPlainBytes() );
+        int logs = 0;
+        int indexes = 0;
+        try ( java.nio.file.DirectoryStream<java.nio.file.Path> files =
+                java.nio.file.Files.newDirectoryStream( dir ) )
+        {
+            for ( java.nio.file.Path file : files )
+            {
+                logs += file.toString().endsWith( ".log" ) ? 1 : 0;
+                indexes += file.toString().endsWith( ".idx" ) ? 1 : 0;
+            }
+        }
+        assertEquals( 0, logs );
+        assertEquals( journal.getSegmentCount(), indexes );
+
+        long middle = recorder.getSequence() * 2 / 3;
+        EventRecord record = new EventRecord();
+        try ( java.io.DataInputStream in = SegmentedJournal.read( dir,
+                middle ) )
+        {
+            assertTrue( record.readFrom( in ) );
+            assertEquals( middle, record.getSequence() );
+            long last = middle;
+            while ( record.readFrom( in ) )
+            {
+                assertEquals( ++last, record.getSequence() );
+            }
+            assertEquals( recorder.getSequence(), last );
+        }
+
+        JournalReplay replay = new JournalReplay( dir, 0 );
+        EventApplier applier = replay.run();
+        assertEquals( recorder.getSequence(), replay.getRecords() );
+        assertEquals( 21000, replay.getOrders() );
+        assertEquals( 0, applier.getMismatches() );
+    }
+
+    @Test
+    public void symbolMasterListsStocksInBulk() throws Exception
+    {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile(
+                "symbols", ".csv" );
+        StringBuilder text = new StringBuilder(
+                "symbol,name,price,tick\n# reference data\n\n" );
+        text.append( "BRK,\"Berkshire, Inc.\",322.45,0.05\r\n" );
+        for ( int i = 1; i < 12000; i++ )
+        {
+            text.append( "S" ).append( i ).append( ",Company " )
+                    .append( i ).append( "," ).append( i % 500 )
+                    .append( ".25,0.01\n" );
+        }
+        java.nio.file.Files.write( file, text.toString().getBytes(
+                java.nio.charset.StandardCharsets.UTF_8 ) );
+
+        SymbolMaster master = SymbolMaster.read( file );
+        assertEquals( 12000, master.size() );
+        assertEquals( "BRK", master.getSymbol( 0 ) );
+        assertEquals( "\"Berkshire, Inc.\"", master.getName( 0 ) );
+        assertEquals( 322.45, master.getPrice( 0 ), 0 );
+        assertEquals( 0.05, master.getTickSize( 0 ), 0 );
+        assertEquals( 7.25, master.getPrice( 7 ), 0 );
+
+        StockExchange exchange = new StockExchange( master.size() );
+        assertEquals( 12000, exchange.listStocks( master ) );
+        assertEquals( 12000, exchange.getListedStocks().size() );
+        Stock brk = exchange.getListedStocks().get( "BRK" );
+        assertEquals( 0, brk.getSymbolId() );
+        assertEquals( 0.05, brk.getTickSize(), 0 );
+        assertEquals( "Company 11999", exchange.getStock( 11999 )
+                .getCompanyName() );
+        StockExchange unsized = new StockExchange();
+        unsized.listStocks( master );
+        assertEquals( 12000, ( (String[])getField(
+                unsized.getSymbolTable(), "symbols" ) ).length );
+
+        Brokerage b = new Brokerage( exchange );
+        b.addUser( "trader", "pw" );
+        Trader trader = b.getTraders().get( "trader" );
+        b.placeOrder( new TradeOrder( trader, "BRK", true, false, 10,
+                322.42 ) );
+        assertTrue( trader.mailbox().contains(
+                "Order rejected: BRK price not on tick" ) );
+        b.placeOrder( new TradeOrder( trader, "BRK", true, false, 10,
+                322.40 ) );
+        assertEquals( 1, brk.getBuyOrders().size() );
+        assertEquals( 1, trader.getRisk().getOpenOrders() );
+
+        java.nio.file.Files.write( file, "X,Bad line,1.00\n".getBytes() );
+        try
+        {
+            SymbolMaster.read( file );
+            fail( "<< read a line without a tick size >>" );
+        }
+        catch ( java.io.IOException ex )
+        {
+            assertTrue( ex.getMessage().contains( "line 1" ) );
+        }
+        java.nio.file.Files.write( file, "X,Half cent,1.00,0.005\n"
+                .getBytes() );
+        try
+        {
+            SymbolMaster.read( file );
+            fail( "<< read a tick size below a cent >>" );
+        }
+        catch ( java.io.IOException ex )
+        {
+            assertTrue( ex.getMessage().contains( "tick size" ) );
+        }
+        java.nio.file.Files.delete( file );
+
+        int listed = exchange.getListedStocks().size();
+        double[] badTicks = { 0.005, 0.015, 0, -0.01 };
+        for ( double tick : badTicks )
+        {
+            try
+            {
+                exchange.listStock( "HALF", "Half Cent", 1.00, tick );
+                fail( "<< listed a tick size of " + tick + " >>" );
+            }
+            catch ( IllegalArgumentException ex )
+            {
+                // expected
+            }
+            try
+            {
+                brk.setTickSize( tick );
+                fail( "<< set a tick size of " + tick + " >>" );
+            }
+            catch ( IllegalArgumentException ex )
+            {
+                // expected
+            }
+        }
+        assertEquals( listed, exchange.getListedStocks().size() );
+        assertEquals( 0.05, brk.getTickSize(), 0 );
+        brk.setTickSize( 0.10 );
+        assertEquals( 0.10, brk.getTickSize(), 0 );
+    }
+
+    private static Object getField( Object target, String name )
+        throws Exception
+    {
+        java.lang.reflect.Field field = target.getClass().getDeclaredField(
+                name );
+        field.setAccessible( true );
+        return field.get( target );
+    }
+
     @Test
     public void StockTest() {
         Stock stock = new Stock("ABCD", "ABCD Company", 5.5);
@@ -239,6 +1664,206 @@ public class JUSafeTradeTest
         assertNotNull(stock.getSellOrders());
     }
     
+    @Test
+    public void stockIcebergReplenish()
+    {
+        Stock stock = new Stock( "ABCD", "ABCD Company", 10.0 );
+        Trader seller = new Trader( null, "seller", "pass" );
+        Trader other = new Trader( null, "other", "pass" );
+        Trader buyer = new Trader( null, "buyer", "pass" );
+        TradeOrder iceberg = new TradeOrder( seller, "ABCD", false, false,
+                500, 10.0, 100 );
+        TradeOrder plain = new TradeOrder( other, "ABCD", false, false, 100,
+                10.0 );
+        stock.placeOrder( iceberg );
+        stock.placeOrder( plain );
+
+        assertTrue( "<< Stock.getQuote shows hidden shares >>",
+                stock.getQuote().contains( "size: 100" ) );
+        assertEquals( 200, stock.getSellOrders().bestLevel()
+                .getVisibleShares() );
+
+        stock.placeOrder( new TradeOrder( buyer, "ABCD", true, true, 150,
+                0 ) );
+
+        assertSame( plain, stock.getSellOrders().peek() );
+        assertEquals( 50, plain.getShares() );
+        assertEquals( 100, iceberg.getShares() );
+        assertEquals( 300, iceberg.getHiddenShares() );
+        assertEquals( 150, stock.getVolume() );
+    }
+
+    @Test
+    public void priceLevelReusesCancelledSlots()
+    {
+        PriceLevel level = new PriceLevel( 10.0, 1000 );
+        Trader trader = new Trader( null, "goodName", "pass" );
+        TradeOrder head = new TradeOrder( trader, "ABCD", true, false, 10,
+                10.0 );
+        level.add( head );
+        for ( int i = 0; i < 10000; i++ )
+        {
+            TradeOrder order = new TradeOrder( trader, "ABCD", true, false,
+                    10, 10.0 );
+            level.add( order );
+            level.remove( order );
+        }
+        assertTrue( "<< PriceLevel grew with cancelled orders >>",
+                level.getCapacity() <= 4 );
+        assertSame( head, level.peek() );
+        assertEquals( 1, level.getOrderCount() );
+        assertEquals( 10, level.getVisibleShares() );
+    }
+
+    @Test
+    public void stockUncross()
+    {
+        StockExchange exchange = new StockExchange();
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        Stock stock = exchange.getListedStocks().get( "ABCD" );
+        Trader trader = new Trader( null, "goodName", "pass" );
+        exchange.startAuction();
+        stock.placeOrder( new TradeOrder( trader, "ABCD", true, false, 100,
+                10.10 ) );
+        stock.placeOrder( new TradeOrder( trader, "ABCD", true, false, 200,
+                10.00 ) );
+        stock.placeOrder( new TradeOrder( trader, "ABCD", false, false, 150,
+                9.90 ) );
+        stock.placeOrder( new TradeOrder( trader, "ABCD", false, false, 100,
+                10.05 ) );
+        assertEquals( "<< Stock matched during auction >>", 0,
+                stock.getVolume() );
+
+        assertEquals( 150, exchange.uncrossAll() );
+        assertFalse( stock.isInAuction() );
+        assertEquals( 10.00, stock.getLastPrice(), 0.001 );
+        assertEquals( 150, stock.getBuyOrders().peek().getShares() );
+        assertEquals( 10.05, stock.getSellOrders().peek().getPrice(), 0.001 );
+    }
+
+    @Test
+    public void barSeriesAggregation()
+    {
+        BarSeries bars = new BarSeries( 60000, 3 );
+        bars.add( 120500, 10.0, 100 );
+        bars.add( 130000, 11.0, 50 );
+        bars.add( 179999, 9.5, 10 );
+        bars.add( 180000, 10.5, 5 );
+        assertEquals( 2, bars.size() );
+        assertEquals( 180000, bars.getStartTime( 0 ) );
+        assertEquals( 120000, bars.getStartTime( 1 ) );
+        assertEquals( 10.0, bars.getOpen( 1 ), 0 );
+        assertEquals( 11.0, bars.getHigh( 1 ), 0 );
+        assertEquals( 9.5, bars.getLow( 1 ), 0 );
+        assertEquals( 9.5, bars.getClose( 1 ), 0 );
+        assertEquals( 160, bars.getVolume( 1 ) );
+
+        bars.add( 240000, 1.0, 1 );
+        bars.add( 300000, 2.0, 1 );
+        bars.add( 360000, 3.0, 1 );
+        assertEquals( 4, bars.size() );
+        assertEquals( 180000, bars.getStartTime( 3 ) );
+
+        StockExchange exchange = new StockExchange();
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        assertNull( exchange.getBars( "ABCD", 1000 ) );
+        Trader trader = new Trader( null, "goodName", "pass" );
+        exchange.placeOrder( new TradeOrder( trader, "ABCD", false, false,
+                100, 10.0 ) );
+        exchange.placeOrder( new TradeOrder( trader, "ABCD", true, true, 40,
+                0 ) );
+        assertEquals( 40, exchange.getBars( "ABCD", 3600000 )
+                .getVolume( 0 ) );
+    }
+
+    @Test
+    public void tradeTapeRecordsAndScans() throws java.io.IOException
+    {
+        java.nio.file.Path dir = java.nio.file.Files
+                .createTempDirectory( "tape" );
+        StockExchange exchange = new StockExchange();
+        exchange.listStock( "ABCD", "ABCD Company", 10.0 );
+        exchange.listStock( "WXYZ", "WXYZ Company", 20.0 );
+        TradeTape tape = new TradeTape( dir );
+        exchange.addMarketListener( tape );
+        Trader buyer = new Trader( null, "buyer", "pass" );
+        Trader seller = new Trader( null, "seller", "pass" );
+        exchange.placeOrder( new TradeOrder( seller, "WXYZ", false, false,
+                100, 20.5 ) );
+        exchange.placeOrder( new TradeOrder( buyer, "WXYZ", true, true, 60,
+                0 ) );
+        assertEquals( 1, tape.size() );
+        assertEquals( 2050, tape.getPriceTicks( 0 ) );
+        assertEquals( "buyer", tape.getTraderName( tape.getBuyerId( 0 ) ) );
+        assertEquals( "seller",
+                tape.getTraderName( tape.getSellerId( 0 ) ) );
+        int buyerId = tape.getBuyerId( 0 );
+        assertEquals( "WXYZ", tape.getSymbol( tape.getSymbolIdAt( 0 ) ) );
+
+        int abcd = tape.getSymbolId( "ABCD" );
+        tape.append( 5000, abcd, 1000, 10, 1, 2 );
+        tape.append( 6000, abcd, 1001, 20, 1, 2 );
+        tape.close();
+
+        TradeTape reopened = new TradeTape( dir );
+        assertEquals( 3, reopened.size() );
+        assertEquals( abcd, reopened.getSymbolId( "ABCD" ) );
+        long now = System.currentTimeMillis();
+        assertEquals( 30, reopened.getVolume( 0, now + 1, abcd ) );
+        int[] count = new int[1];
+        reopened.scan( 0, now + 1, reopened.getSymbolId( "WXYZ" ),
+                row -> count[0] += reopened.getShares( row ) );
+        assertEquals( 60, count[0] );
+
+        StockExchange restarted = new StockExchange();
+        restarted.listStock( "WXYZ", "WXYZ Company", 20.0 );
+        restarted.addMarketListener( reopened );
+        Trader again = new Trader( null, "buyer", "pass" );
+        assertTrue( again.getId() != buyer.getId() );
+        restarted.placeOrder( new TradeOrder( seller, "WXYZ", false, false,
+                40, 20.5 ) );
+        restarted.placeOrder( new TradeOrder( again, "WXYZ", true, true, 40,
+                0 ) );
+        assertEquals( 4, reopened.size() );
+        assertEquals( buyerId, reopened.getBuyerId( 3 ) );
+        assertEquals( buyerId, reopened.getTraderId( "buyer" ) );
+        reopened.close();
+    }
+
+    @Test
+    public void stockExchangeSymbolIds()
+    {
+        StockExchange exchange = new StockExchange();
+        for ( int i = 0; i < 40; i++ )
+        {
+            exchange.listStock( "S" + i, "Company " + i, 10.0 + i );
+        }
+        assertEquals( 0, exchange.getSymbolId( "S0" ) );
+        assertEquals( 39, exchange.getSymbolId( "S39" ) );
+        assertEquals( -1, exchange.getSymbolId( "XYZ" ) );
+        assertEquals( "S7", exchange.getStock( 7 ).getStockSymbol() );
+
+        Trader trader = new Trader( null, "goodName", "pass" );
+        TradeOrder order = new TradeOrder( trader, new String( "S12" ), true,
+                false, 10, 1.0 );
+        assertTrue( exchange.placeOrder( order ) );
+        assertEquals( 12, order.getSymbolId() );
+        assertSame( exchange.getStock( 12 ).getStockSymbol(),
+                order.getSymbol() );
+
+        TradeOrder stale = new TradeOrder( trader, "S3", true, false, 10,
+                1.0 );
+        stale.setSymbolId( 5, "S3" );
+        assertTrue( exchange.placeOrder( stale ) );
+        assertEquals( 3, stale.getSymbolId() );
+        assertEquals( 1, exchange.getStock( 3 ).getBuyOrders().size() );
+
+        exchange.listStock( "S3", "Relisted", 3.0 );
+        assertEquals( 3, exchange.getSymbolId( "S3" ) );
+        assertFalse( exchange.placeOrder( new TradeOrder( trader, "XYZ",
+                true, true, 1, 0 ) ) );
+    }
+
     @Test
     public void tradeOrderTest()
     {
@@ -0,0 +1,156 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recorded session (see <code>SessionRecorder</code>) through a
+ * new brokerage and stock exchange, at the recorded speed, a multiple of
+ * it, or as fast as possible. Every fill and the final state of every book
+ * are checked against the recording, so a replay is both a benchmark and a
+ * regression test of the matching engine. The journal is a file, or the
+ * directory of a <code>SegmentedJournal</code>.
+ * <pre>java JournalReplay journal [1x | 10x | max]</pre>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class JournalReplay
+{
+    private Path journal;
+    private double speed;
+    private long records;
+    private long orders;
+    private long elapsedNanos;
+
+    /**
+     * Constructs a replay of a given journal.
+     * @param journal the recorded session.
+     * @param speed the replay speed as a multiple of the recorded speed, or
+     *              0 (or infinity) to replay as fast as possible.
+     */
+    public JournalReplay(Path journal, double speed) {
+        this.journal = journal;
+        this.speed = speed;
+    }
+
+    /**
+     * Replays the journal into a new brokerage and stock exchange.
+     * @return the applier that rebuilt them, holding the check counts.
+     * @throws IOException if the journal cannot be read.
+     */
+    public EventApplier run() throws IOException {
+        StockExchange exchange = new StockExchange();
+        Brokerage brokerage = new Brokerage(exchange);
+        EventApplier applier = new EventApplier(brokerage, exchange);
+        boolean paced = speed > 0 && !Double.isInfinite(speed);
+
+        try (DataInputStream in = Files.isDirectory(journal)
+                ? SegmentedJournal.read(journal, 1)
+                : new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(journal), 1 << 16))) {
+            EventRecord record = new EventRecord();
+            long start = System.nanoTime();
+            long firstNanos = 0;
+            records = 0;
+            orders = 0;
+            while (record.readFrom(in)) {
+                if (records == 0) {
+                    firstNanos = record.getNanos();
+                }
+                if (paced) {
+                    long due = start + (long)((record.getNanos() - firstNanos)
+                            / speed);
+                    for (long wait = due - System.nanoTime(); wait > 0;
+                            wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                applier.apply(record);
+                records++;
+                if (record.getType() == EventRecord.ORDER) {
+                    orders++;
+                }
+            }
+            elapsedNanos = System.nanoTime() - start;
+        }
+        return applier;
+    }
+
+    /**
+     * Returns the number of records replayed by the last run.
+     * @return the number of records.
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Returns the number of orders replayed by the last run.
+     * @return the number of orders.
+     */
+    public long getOrders() {
+        return orders;
+    }
+
+    /**
+     * Returns the wall-clock time of the last run.
+     * @return the elapsed time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Parses a replay speed: "max" for as fast as possible, otherwise a
+     * multiple of the recorded speed such as "1x" or "10".
+     * @param arg the speed argument.
+     * @return the speed, or 0 for as fast as possible.
+     */
+    public static double parseSpeed(String arg) {
+        if (arg.equalsIgnoreCase("max")) {
+            return 0;
+        }
+        if (arg.endsWith("x") || arg.endsWith("X")) {
+            arg = arg.substring(0, arg.length() - 1);
+        }
+        return Double.parseDouble(arg);
+    }
+
+    /**
+     * Replays a journal and prints the throughput and check results. Exits
+     * with status 1 if any fill or book differs from the recording.
+     * @param args the journal file and an optional speed (default max).
+     * @throws IOException if the journal cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: java JournalReplay journal"
+                    + " [1x | 10x | max]");
+            System.exit(2);
+        }
+        JournalReplay replay = new JournalReplay(Paths.get(args[0]),
+                args.length > 1 ? parseSpeed(args[1]) : 0);
+        EventApplier applier = replay.run();
+        double seconds = replay.getElapsedNanos() / 1e9;
+        System.out.println(replay.getRecords() + " records, "
+                + replay.getOrders() + " orders in "
+                + Stock.money.format(seconds) + " s ("
+                + (long)(replay.getOrders() / Math.max(seconds, 1e-9))
+                + " orders/s)");
+        System.out.println(applier.getFillsChecked() + " fills and "
+                + applier.getBooksChecked() + " books checked, "
+                + applier.getMismatches() + " mismatches");
+        if (applier.getMismatches() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the journal and speed of this replay.
+     * @return a string representation of this replay.
+     */
+    public String toString() {
+        return "JournalReplay[" + journal + ", "
+                + (speed > 0 ? speed + "x" : "max") + "]";
+    }
+}
@@ -0,0 +1,454 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the top of book and the trades of every stock on an exchange as
+ * compact binary UDP datagrams. Stocks are spread over a number of channels
+ * by symbol id; channel <i>c</i> is sent to port <code>basePort + c</code>.
+ * Where the host has a multicast interface the datagrams go to a multicast
+ * group, so any number of local consumers (see
+ * <code>MarketDataReceiver</code>) can listen at no extra cost to the
+ * publisher; otherwise they are sent to the loopback address.
+ * <p>
+ * Every packet starts with its channel (short) and a sequence number (long)
+ * that counts the packets of that channel from 1, then a type byte and the
+ * symbol id (int):
+ * <br>QUOTE -- bid and ask in cents with their displayed sizes, and the
+ * last price in cents (5 longs)
+ * <br>TRADE -- price in cents (long), shares (int), time in milliseconds
+ * (long)
+ * </p>
+ * <p>
+ * A TCP service on <code>retransmitPort</code> fills gaps. A request is an
+ * op byte, a channel (short) and a range of sequence numbers (two longs).
+ * RETRANSMIT returns the count of packets still held (int) and each packet
+ * as a length (short) and its bytes. SNAPSHOT ignores the range and returns
+ * the channel's current sequence number (long) and the latest QUOTE packet
+ * of each of its stocks, in the same form.
+ * </p>
+ * <p>
+ * Each channel has its own socket, packet buffer, history and lock, so
+ * stocks on different channels are published in parallel; only stocks
+ * that share a channel wait for each other, which keeps a channel's packets
+ * in sequence order.
+ * </p>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class MarketDataPublisher implements MarketListener, Closeable
+{
+    /**
+     * Packet type of a top-of-book update.
+     */
+    public static final byte QUOTE = 1;
+
+    /**
+     * Packet type of a trade.
+     */
+    public static final byte TRADE = 2;
+
+    /**
+     * Retransmit request for a range of sequence numbers.
+     */
+    public static final byte RETRANSMIT = 1;
+
+    /**
+     * Snapshot request for the latest quotes of a channel.
+     */
+    public static final byte SNAPSHOT = 2;
+
+    /**
+     * The largest packet this publisher sends.
+     */
+    public static final int PACKET_SIZE = 64;
+
+    /**
+     * The multicast group used where the host supports multicast.
+     */
+    public static final String GROUP = "239.255.19.24";
+
+    /**
+     * The size of the packet header: channel, sequence, type and symbol id.
+     */
+    static final int HEADER_SIZE = 15;
+
+    /**
+     * The size of a QUOTE packet.
+     */
+    static final int QUOTE_SIZE = HEADER_SIZE + 40;
+
+    private static final int HISTORY = 4096;
+
+    /**
+     * The state of one channel, guarded by its own monitor.
+     */
+    private static class Channel
+    {
+        int number;
+        DatagramChannel datagrams;
+        InetSocketAddress destination;
+        long sequence;
+        byte[] history = new byte[HISTORY * PACKET_SIZE];
+        int[] historyLengths = new int[HISTORY];
+        byte[][] lastQuotes = new byte[16][];
+        byte[] packet = new byte[PACKET_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(packet);
+    }
+
+    private Channel[] channels;
+    private boolean multicast;
+    private ServerSocket retransmitServer;
+    private volatile boolean closed;
+    private AtomicInteger dropNext;
+
+    /**
+     * Constructs a publisher sending to a given address.
+     * @param address a multicast group, or a unicast (loopback) address.
+     * @param multicastInterface the interface to send multicast on, or null
+     *                           to send unicast.
+     * @param basePort the port of channel 0.
+     * @param channels the number of channels.
+     * @param retransmitPort the port of the retransmit service, or 0 for
+     *                       any free port.
+     * @throws IOException if the sockets cannot be opened.
+     */
+    public MarketDataPublisher(InetAddress address,
+                               NetworkInterface multicastInterface,
+                               int basePort, int channels,
+                               int retransmitPort) throws IOException {
+        multicast = multicastInterface != null;
+        this.channels = new Channel[channels];
+        for (int c = 0; c < channels; c++) {
+            Channel channel = new Channel();
+            channel.number = c;
+            channel.datagrams = DatagramChannel.open(
+                    StandardProtocolFamily.INET);
+            if (multicast) {
+                channel.datagrams.setOption(
+                        StandardSocketOptions.IP_MULTICAST_IF,
+                        multicastInterface);
+                channel.datagrams.setOption(
+                        StandardSocketOptions.IP_MULTICAST_LOOP, true);
+                channel.datagrams.setOption(
+                        StandardSocketOptions.IP_MULTICAST_TTL, 0);
+            }
+            channel.destination = new InetSocketAddress(address,
+                    basePort + c);
+            this.channels[c] = channel;
+        }
+        dropNext = new AtomicInteger();
+
+        retransmitServer = new ServerSocket(retransmitPort, 50,
+                InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop,
+                "market-data-retransmit");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Opens a publisher on the multicast group if the host has an interface
+     * that is up and supports multicast, or on the loopback address if not.
+     * @param basePort the port of channel 0.
+     * @param channels the number of channels.
+     * @param retransmitPort the port of the retransmit service.
+     * @return the publisher.
+     * @throws IOException if the sockets cannot be opened.
+     */
+    public static MarketDataPublisher open(int basePort, int channels,
+                                           int retransmitPort)
+            throws IOException {
+        NetworkInterface multicastInterface = findMulticastInterface();
+        if (multicastInterface != null) {
+            return new MarketDataPublisher(InetAddress.getByName(GROUP),
+                    multicastInterface, basePort, channels, retransmitPort);
+        }
+        return new MarketDataPublisher(InetAddress.getLoopbackAddress(),
+                null, basePort, channels, retransmitPort);
+    }
+
+    /**
+     * Finds an interface that can carry multicast between local processes.
+     * @return such an interface, or null if there is none.
+     */
+    public static NetworkInterface findMulticastInterface() {
+        try {
+            Enumeration<NetworkInterface> all =
+                    NetworkInterface.getNetworkInterfaces();
+            while (all != null && all.hasMoreElements()) {
+                NetworkInterface ni = all.nextElement();
+                if (ni.isUp() && ni.supportsMulticast()
+                        && ni.inetAddresses().anyMatch(
+                                a -> a instanceof Inet4Address)) {
+                    return ni;
+                }
+            }
+        }
+        catch (SocketException ex) {
+            // no usable interface
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if this publisher sends to a multicast group.
+     * @return true for multicast; false for loopback unicast.
+     */
+    public boolean isMulticast() {
+        return multicast;
+    }
+
+    /**
+     * Returns the number of channels.
+     * @return the number of channels.
+     */
+    public int getChannelCount() {
+        return channels.length;
+    }
+
+    /**
+     * Returns the channel a stock is published on.
+     * @param symbolId the symbol id of the stock.
+     * @return the channel number.
+     */
+    public int getChannel(int symbolId) {
+        return symbolId < 0 ? 0 : symbolId % channels.length;
+    }
+
+    /**
+     * Returns the sequence number of the last packet of a channel.
+     * @param channel a channel number.
+     * @return the last sequence number, or 0 if nothing was sent.
+     */
+    public long getSequence(int channel) {
+        Channel ch = channels[channel];
+        synchronized (ch) {
+            return ch.sequence;
+        }
+    }
+
+    /**
+     * Returns the port of the retransmit service.
+     * @return the TCP port.
+     */
+    public int getRetransmitPort() {
+        return retransmitServer.getLocalPort();
+    }
+
+    /**
+     * Publishes the top of book of a stock after its book changed.
+     * @param stock the stock whose book changed.
+     */
+    public void bookChanged(Stock stock) {
+        int symbolId = stock.getSymbolId();
+        Channel ch = channels[getChannel(symbolId)];
+        PriceLevel bid = stock.getBuyOrders().bestLimitLevel();
+        PriceLevel ask = stock.getSellOrders().bestLimitLevel();
+        synchronized (ch) {
+            ByteBuffer buffer = header(ch, QUOTE, symbolId);
+            buffer.putLong(bid == null ? 0 : bid.getPriceTicks());
+            buffer.putLong(bid == null ? 0 : bid.getVisibleShares());
+            buffer.putLong(ask == null ? 0 : ask.getPriceTicks());
+            buffer.putLong(ask == null ? 0 : ask.getVisibleShares());
+            buffer.putLong(OrderBook.toTicks(stock.getLastPrice()));
+            if (symbolId >= 0) {
+                int index = symbolId / channels.length;
+                if (index >= ch.lastQuotes.length) {
+                    ch.lastQuotes = Arrays.copyOf(ch.lastQuotes,
+                            Math.max(index + 1, ch.lastQuotes.length * 2));
+                }
+                if (ch.lastQuotes[index] == null) {
+                    ch.lastQuotes[index] = new byte[PACKET_SIZE];
+                }
+                System.arraycopy(ch.packet, 0, ch.lastQuotes[index], 0,
+                        buffer.position());
+            }
+            send(ch);
+        }
+    }
+
+    /**
+     * Publishes a trade.
+     * @param stock the stock that traded.
+     * @param buy the buy order.
+     * @param sell the sell order.
+     * @param price the execution price.
+     * @param shares the number of shares traded.
+     */
+    public void tradeExecuted(Stock stock, TradeOrder buy, TradeOrder sell,
+                              double price, int shares) {
+        Channel ch = channels[getChannel(stock.getSymbolId())];
+        synchronized (ch) {
+            ByteBuffer buffer = header(ch, TRADE, stock.getSymbolId());
+            buffer.putLong(OrderBook.toTicks(price));
+            buffer.putInt(shares);
+            buffer.putLong(System.currentTimeMillis());
+            send(ch);
+        }
+    }
+
+    private ByteBuffer header(Channel ch, byte type, int symbolId) {
+        ByteBuffer buffer = ch.buffer;
+        buffer.clear();
+        buffer.putShort((short)ch.number);
+        buffer.putLong(++ch.sequence);
+        buffer.put(type);
+        buffer.putInt(symbolId);
+        return buffer;
+    }
+
+    private void send(Channel ch) {
+        ByteBuffer buffer = ch.buffer;
+        int length = buffer.position();
+        int slot = (int)(ch.sequence % HISTORY);
+        System.arraycopy(ch.packet, 0, ch.history, slot * PACKET_SIZE,
+                length);
+        ch.historyLengths[slot] = length;
+        if (dropNext.get() > 0
+                && dropNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            ch.datagrams.send(buffer, ch.destination);
+        }
+        catch (IOException ex) {
+            // a lost datagram is recovered through the retransmit service
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = retransmitServer.accept();
+                Thread session = new Thread(() -> serve(socket),
+                        "market-data-retransmit-session");
+                session.setDaemon(true);
+                session.start();
+            }
+            catch (IOException ex) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(s.getOutputStream()));
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                }
+                catch (EOFException ex) {
+                    return;
+                }
+                int channel = in.readShort();
+                long from = in.readLong();
+                long to = in.readLong();
+                byte[] reply = op == RETRANSMIT
+                        ? retransmit(channel, from, to) : snapshot(channel);
+                out.write(reply);
+                out.flush();
+            }
+        }
+        catch (IOException ex) {
+            // the receiver went away
+        }
+    }
+
+    /**
+     * Copies the packets of a range of sequence numbers into a reply. The
+     * reply is built under the channel's lock, which publishing takes, and
+     * sent after it is released, so a slow receiver never holds up
+     * publishing.
+     */
+    private byte[] retransmit(int channel, long from, long to)
+            throws IOException {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(reply);
+        Channel ch = channels[channel];
+        synchronized (ch) {
+            long oldest = Math.max(1, ch.sequence - HISTORY + 1);
+            from = Math.max(from, oldest);
+            to = Math.min(to, ch.sequence);
+            out.writeInt((int)Math.max(0, to - from + 1));
+            for (long seq = from; seq <= to; seq++) {
+                int slot = (int)(seq % HISTORY);
+                out.writeShort(ch.historyLengths[slot]);
+                out.write(ch.history, slot * PACKET_SIZE,
+                        ch.historyLengths[slot]);
+            }
+        }
+        return reply.toByteArray();
+    }
+
+    /**
+     * Copies the latest quotes of a channel into a reply, like
+     * <code>retransmit</code>.
+     */
+    private byte[] snapshot(int channel) throws IOException {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(reply);
+        Channel ch = channels[channel];
+        synchronized (ch) {
+            out.writeLong(ch.sequence);
+            int count = 0;
+            for (byte[] quote : ch.lastQuotes) {
+                if (quote != null) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            for (byte[] quote : ch.lastQuotes) {
+                if (quote != null) {
+                    out.writeShort(QUOTE_SIZE);
+                    out.write(quote, 0, QUOTE_SIZE);
+                }
+            }
+        }
+        return reply.toByteArray();
+    }
+
+    /**
+     * Closes the datagram socket and the retransmit service.
+     * @throws IOException if the sockets cannot be closed.
+     */
+    public void close() throws IOException {
+        closed = true;
+        retransmitServer.close();
+        for (Channel ch : channels) {
+            ch.datagrams.close();
+        }
+    }
+
+    //
+    // The following are for test purposes only
+    //
+    /**
+     * Testing purposes only
+     * @param packets testing only
+     */
+    protected void dropNext(int packets)
+    {
+        dropNext.set(packets);
+    }
+
+    /**
+     * Returns where this publisher sends, for debugging.
+     * @return a string representation of this publisher.
+     */
+    public String toString() {
+        return "MarketDataPublisher[" + channels[0].destination + ", "
+                + channels.length + " channels, "
+                + (multicast ? "multicast" : "unicast") + "]";
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Receives the datagrams of a <code>MarketDataPublisher</code> and passes
+ * the quotes and trades in them to a handler, in sequence order per
+ * channel. When a packet arrives with a sequence number past the next one
+ * expected, the missing packets are fetched from the publisher's retransmit
+ * service first; if they are no longer held, the channel is resynchronized
+ * from a snapshot of its latest quotes. Packets seen before are dropped.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class MarketDataReceiver implements Closeable
+{
+    /**
+     * Specifies methods for receiving decoded market data.
+     */
+    public interface Handler
+    {
+        /**
+         * Called with a top-of-book update.
+         * @param symbolId the symbol id of the stock.
+         * @param bidTicks the best bid in cents, or 0 if there is none.
+         * @param bidSize the displayed size at the best bid.
+         * @param askTicks the best ask in cents, or 0 if there is none.
+         * @param askSize the displayed size at the best ask.
+         * @param lastTicks the last sale price in cents.
+         */
+        void quote(int symbolId, long bidTicks, long bidSize, long askTicks,
+                   long askSize, long lastTicks);
+
+        /**
+         * Called with a trade.
+         * @param symbolId the symbol id of the stock.
+         * @param priceTicks the trade price in cents.
+         * @param shares the number of shares traded.
+         * @param time the trade time in milliseconds.
+         */
+        void trade(int symbolId, long priceTicks, int shares, long time);
+    }
+
+    private Handler handler;
+    private Selector selector;
+    private DatagramChannel[] datagrams;
+    private InetSocketAddress retransmitAddress;
+    private Socket retransmitSocket;
+    private DataInputStream retransmitIn;
+    private DataOutputStream retransmitOut;
+    private AtomicLongArray expected;
+    private ByteBuffer buffer;
+    private byte[] recovered;
+    private volatile boolean closed;
+    private volatile long gaps;
+    private volatile long retransmitted;
+    private volatile long snapshots;
+    private Thread reader;
+
+    /**
+     * Constructs a receiver for a publisher's channels.
+     * @param address the publisher's multicast group, or the loopback
+     *                address if it sends unicast.
+     * @param multicastInterface the interface to join the group on, or null
+     *                           for unicast.
+     * @param basePort the port of channel 0.
+     * @param channels the number of channels.
+     * @param retransmitAddress the publisher's retransmit service.
+     * @param handler the handler for decoded quotes and trades.
+     * @throws IOException if the channels cannot be opened.
+     */
+    public MarketDataReceiver(InetAddress address,
+                              NetworkInterface multicastInterface,
+                              int basePort, int channels,
+                              InetSocketAddress retransmitAddress,
+                              Handler handler) throws IOException {
+        this.handler = handler;
+        this.retransmitAddress = retransmitAddress;
+        selector = Selector.open();
+        datagrams = new DatagramChannel[channels];
+        for (int c = 0; c < channels; c++) {
+            DatagramChannel datagram =
+                    DatagramChannel.open(StandardProtocolFamily.INET);
+            if (multicastInterface != null) {
+                datagram.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                datagram.bind(new InetSocketAddress(basePort + c));
+                datagram.join(address, multicastInterface);
+            }
+            else {
+                datagram.bind(new InetSocketAddress(address, basePort + c));
+            }
+            datagram.configureBlocking(false);
+            datagram.register(selector, SelectionKey.OP_READ, c);
+            datagrams[c] = datagram;
+        }
+        expected = new AtomicLongArray(channels);
+        for (int c = 0; c < channels; c++) {
+            expected.set(c, 1);
+        }
+        buffer = ByteBuffer.allocate(MarketDataPublisher.PACKET_SIZE);
+        recovered = new byte[MarketDataPublisher.PACKET_SIZE];
+    }
+
+    /**
+     * Constructs a receiver for a given publisher in this process, on the
+     * same address, ports and interface it sends to.
+     * @param publisher the publisher.
+     * @param basePort the publisher's base port.
+     * @param handler the handler for decoded quotes and trades.
+     * @return the receiver.
+     * @throws IOException if the channels cannot be opened.
+     */
+    public static MarketDataReceiver open(MarketDataPublisher publisher,
+                                          int basePort, Handler handler)
+            throws IOException {
+        InetSocketAddress retransmit = new InetSocketAddress(
+                InetAddress.getLoopbackAddress(),
+                publisher.getRetransmitPort());
+        if (publisher.isMulticast()) {
+            return new MarketDataReceiver(
+                    InetAddress.getByName(MarketDataPublisher.GROUP),
+                    MarketDataPublisher.findMulticastInterface(), basePort,
+                    publisher.getChannelCount(), retransmit, handler);
+        }
+        return new MarketDataReceiver(InetAddress.getLoopbackAddress(), null,
+                basePort, publisher.getChannelCount(), retransmit, handler);
+    }
+
+    /**
+     * Starts receiving on a background thread.
+     */
+    public void start() {
+        reader = new Thread(this::run, "market-data-receiver");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Returns the number of gaps detected.
+     * @return the number of gaps.
+     */
+    public long getGaps() {
+        return gaps;
+    }
+
+    /**
+     * Returns the number of packets recovered from the retransmit service.
+     * @return the number of retransmitted packets.
+     */
+    public long getRetransmitted() {
+        return retransmitted;
+    }
+
+    /**
+     * Returns the number of times a channel was resynchronized from a
+     * snapshot.
+     * @return the number of snapshots.
+     */
+    public long getSnapshots() {
+        return snapshots;
+    }
+
+    /**
+     * Returns the next sequence number expected on a channel.
+     * @param channel a channel number.
+     * @return the next sequence number.
+     */
+    public long getExpected(int channel) {
+        return expected.get(channel);
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select(100);
+                Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    DatagramChannel datagram = (DatagramChannel)key.channel();
+                    buffer.clear();
+                    while (datagram.receive(buffer) != null) {
+                        buffer.flip();
+                        receive(buffer);
+                        buffer.clear();
+                    }
+                }
+            }
+        }
+        catch (ClosedSelectorException | ClosedChannelException ex) {
+            // closed
+        }
+        catch (IOException ex) {
+            if (!closed) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    private void receive(ByteBuffer packet) throws IOException {
+        int channel = packet.getShort(0);
+        long seq = packet.getLong(2);
+        if (channel < 0 || channel >= expected.length()
+                || seq < expected.get(channel)) {
+            return;
+        }
+        if (seq > expected.get(channel)) {
+            gaps++;
+            recover(channel, expected.get(channel), seq - 1);
+            if (seq < expected.get(channel)) {
+                return;
+            }
+        }
+        decode(packet);
+        expected.set(channel, seq + 1);
+    }
+
+    private void recover(int channel, long from, long to) throws IOException {
+        connect();
+        retransmitOut.writeByte(MarketDataPublisher.RETRANSMIT);
+        retransmitOut.writeShort(channel);
+        retransmitOut.writeLong(from);
+        retransmitOut.writeLong(to);
+        retransmitOut.flush();
+        int count = retransmitIn.readInt();
+        ByteBuffer packet = ByteBuffer.wrap(recovered);
+        boolean complete = true;
+        for (int i = 0; i < count; i++) {
+            readPacket(packet);
+            long seq = packet.getLong(2);
+            if (seq != expected.get(channel)) {
+                complete = false;
+                continue;
+            }
+            decode(packet);
+            expected.set(channel, seq + 1);
+            retransmitted++;
+        }
+        if (!complete || expected.get(channel) <= to) {
+            resynchronize(channel);
+        }
+    }
+
+    private void resynchronize(int channel) throws IOException {
+        retransmitOut.writeByte(MarketDataPublisher.SNAPSHOT);
+        retransmitOut.writeShort(channel);
+        retransmitOut.writeLong(0);
+        retransmitOut.writeLong(0);
+        retransmitOut.flush();
+        long seq = retransmitIn.readLong();
+        int count = retransmitIn.readInt();
+        ByteBuffer packet = ByteBuffer.wrap(recovered);
+        for (int i = 0; i < count; i++) {
+            readPacket(packet);
+            decode(packet);
+        }
+        expected.set(channel, seq + 1);
+        snapshots++;
+    }
+
+    private void readPacket(ByteBuffer packet) throws IOException {
+        int length = retransmitIn.readShort();
+        retransmitIn.readFully(recovered, 0, length);
+        packet.clear();
+        packet.limit(length);
+    }
+
+    private void connect() throws IOException {
+        if (retransmitSocket == null || retransmitSocket.isClosed()) {
+            retransmitSocket = new Socket(retransmitAddress.getAddress(),
+                    retransmitAddress.getPort());
+            retransmitSocket.setTcpNoDelay(true);
+            retransmitIn = new DataInputStream(new BufferedInputStream(
+                    retransmitSocket.getInputStream()));
+            retransmitOut = new DataOutputStream(new BufferedOutputStream(
+                    retransmitSocket.getOutputStream()));
+        }
+    }
+
+    private void decode(ByteBuffer packet) {
+        byte type = packet.get(10);
+        int symbolId = packet.getInt(11);
+        int body = MarketDataPublisher.HEADER_SIZE;
+        if (type == MarketDataPublisher.QUOTE) {
+            handler.quote(symbolId, packet.getLong(body),
+                    packet.getLong(body + 8), packet.getLong(body + 16),
+                    packet.getLong(body + 24), packet.getLong(body + 32));
+        }
+        else if (type == MarketDataPublisher.TRADE) {
+            handler.trade(symbolId, packet.getLong(body),
+                    packet.getInt(body + 8), packet.getLong(body + 12));
+        }
+    }
+
+    /**
+     * Stops receiving and closes the channels and the retransmit
+     * connection.
+     * @throws IOException if a channel cannot be closed.
+     */
+    public void close() throws IOException {
+        closed = true;
+        selector.close();
+        for (DatagramChannel datagram : datagrams) {
+            datagram.close();
+        }
+        if (retransmitSocket != null) {
+            retransmitSocket.close();
+        }
+    }
+
+    /**
+     * Returns the gap counts, for debugging.
+     * @return a string representation of this receiver.
+     */
+    public String toString() {
+        return "MarketDataReceiver[" + datagrams.length + " channels, gaps "
+                + gaps + ", retransmitted " + retransmitted + ", snapshots "
+                + snapshots + "]";
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Specifies methods for receiving market events from a stock. Listeners are
+ * called on the thread that is matching the stock, right after each event,
+ * so they should do little work and never block.
+ */
+public interface MarketListener
+{
+    /**
+     * Called after each trade (fill) in a stock.
+     * @param stock the stock that traded.
+     * @param buy the buy order (already reduced by the traded shares).
+     * @param sell the sell order (already reduced by the traded shares).
+     * @param price the execution price.
+     * @param shares the number of shares traded.
+     */
+    void tradeExecuted(Stock stock, TradeOrder buy, TradeOrder sell,
+                       double price, int shares);
+
+    /**
+     * Called once after each order placed, cancelled or matched in a stock
+     * (and after an auction uncross), when the top of its book may have
+     * changed. Does nothing by default.
+     * @param stock the stock whose book changed.
+     */
+    default void bookChanged(Stock stock) {
+    }
+}
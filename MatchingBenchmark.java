@@ -0,0 +1,152 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Compares the matching policies. For each policy it measures:
+ * <br>allocate -- the time and heap allocated per call of
+ * <code>MatchingPolicy.allocate</code> on a price level of a given number
+ * of orders;
+ * <br>sweep -- the number of orders per second a stock matches when market
+ * orders sweep price levels of that many resting orders.
+ * <pre>java MatchingBenchmark [orders per level] [seconds per run]</pre>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class MatchingBenchmark
+{
+    private static final MatchingPolicy[] POLICIES = { MatchingPolicy.FIFO,
+            MatchingPolicy.PRO_RATA, MatchingPolicy.PRICE_SIZE };
+
+    private int levelSize;
+    private long runNanos;
+    private Trader trader;
+    private int[] sizes;
+
+    /**
+     * Constructs a benchmark.
+     * @param levelSize the number of orders resting at a level.
+     * @param runMillis how long each measurement lasts.
+     */
+    public MatchingBenchmark(int levelSize, long runMillis) {
+        this.levelSize = levelSize;
+        runNanos = runMillis * 1000000;
+        trader = new Trader(null, "bench", "pass");
+        sizes = new int[levelSize];
+        Random random = new Random(42);
+        for (int i = 0; i < levelSize; i++) {
+            sizes[i] = 100 * (1 + random.nextInt(10));
+        }
+    }
+
+    /**
+     * Measures one call of a policy's <code>allocate</code> on a level of
+     * orders that is never changed.
+     * @param policy the matching policy.
+     * @return the nanoseconds and bytes allocated per call.
+     */
+    public double[] measureAllocate(MatchingPolicy policy) {
+        PriceLevel level = new PriceLevel(10.0, 1000);
+        for (int size : sizes) {
+            level.add(new TradeOrder(trader, "ABCD", false, false, size,
+                    10.0));
+        }
+        TradeOrder[] orders = new TradeOrder[levelSize];
+        int[] fills = new int[levelSize];
+        int shares = (int)(level.getVisibleShares() / 2);
+        long calls = 0;
+        long sink = 0;
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        long end = start + runNanos;
+        long now;
+        do {
+            for (int i = 0; i < 1000; i++) {
+                sink += policy.allocate(level, shares, orders, fills);
+            }
+            calls += 1000;
+            now = System.nanoTime();
+        } while (now < end);
+        bytes = allocatedBytes() - bytes;
+        if (sink == 42) {
+            System.out.print("");
+        }
+        return new double[] { (double)(now - start) / calls,
+                (double)bytes / calls };
+    }
+
+    /**
+     * Measures how fast a stock matches market orders that each sweep one
+     * full price level.
+     * @param policy the matching policy.
+     * @return the number of orders (resting and incoming) matched per
+     *         second.
+     */
+    public double measureSweep(MatchingPolicy policy) {
+        Stock stock = new Stock("ABCD", "ABCD Company", 10.0);
+        stock.setMatchingPolicy(policy);
+        long total = 0;
+        for (int size : sizes) {
+            total += size;
+        }
+        long orders = 0;
+        long start = System.nanoTime();
+        long end = start + runNanos;
+        long now;
+        do {
+            for (int size : sizes) {
+                stock.placeOrder(new TradeOrder(trader, "ABCD", false, false,
+                        size, 10.0));
+            }
+            stock.placeOrder(new TradeOrder(trader, "ABCD", true, true,
+                    (int)total, 0));
+            trader.mailbox().clear();
+            orders += levelSize + 1;
+            now = System.nanoTime();
+        } while (now < end);
+        return orders / ((now - start) / 1e9);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads =
+                ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the measurements for every policy, once to warm up and once to
+     * report.
+     * @param args optional number of orders per level (default 64) and
+     *             seconds per measurement (default 1).
+     */
+    public static void main(String[] args) {
+        int levelSize = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        MatchingBenchmark benchmark = new MatchingBenchmark(levelSize,
+                seconds * 1000);
+        for (MatchingPolicy policy : POLICIES) {
+            benchmark.measureAllocate(policy);
+            benchmark.measureSweep(policy);
+        }
+        for (MatchingPolicy policy : POLICIES) {
+            double[] allocate = benchmark.measureAllocate(policy);
+            double sweep = benchmark.measureSweep(policy);
+            System.out.printf("%-10s allocate %8.1f ns %6.1f B/op, sweep"
+                    + " %,12.0f orders/s%n", policy.getName(), allocate[0],
+                    allocate[1], sweep);
+        }
+    }
+
+    /**
+     * Returns the settings of this benchmark.
+     * @return a string representation of this benchmark.
+     */
+    public String toString() {
+        return "MatchingBenchmark[" + levelSize + " orders per level, "
+                + runNanos / 1000000 + " ms]";
+    }
+}
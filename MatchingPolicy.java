@@ -0,0 +1,50 @@
+/**
+ * Specifies how the shares of an incoming order are divided among the
+ * orders resting at the price level it trades with. A stock asks its
+ * policy once per level it trades with, handing it arrays to fill in; a
+ * policy keeps no state and allocates nothing, so one instance can serve
+ * any number of stocks.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public interface MatchingPolicy
+{
+    /**
+     * Price-time priority: the level's orders are filled in the order they
+     * arrived.
+     */
+    MatchingPolicy FIFO = new FifoPolicy();
+
+    /**
+     * Pro-rata: each order at the level gets a share of the fill in
+     * proportion to its displayed size.
+     */
+    MatchingPolicy PRO_RATA = new ProRataPolicy();
+
+    /**
+     * Price-size priority: the level's largest orders are filled first.
+     */
+    MatchingPolicy PRICE_SIZE = new PriceSizePolicy();
+
+    /**
+     * Divides shares among the orders resting at a price level.
+     * @param level the price level being traded with.
+     * @param shares the number of shares to divide, at least 1 and at most
+     *               the displayed size of the level.
+     * @param orders receives the orders to fill, in the order the fills are
+     *               to be made; it has room for every order at the level.
+     * @param fills receives the number of shares for each of those orders;
+     *              the numbers add up to <code>shares</code>, and none is
+     *              more than the displayed shares of its order.
+     * @return the number of orders to fill.
+     */
+    int allocate(PriceLevel level, int shares, TradeOrder[] orders,
+                 int[] fills);
+
+    /**
+     * Returns the name of this policy.
+     * @return a short name, such as "FIFO".
+     */
+    String getName();
+}
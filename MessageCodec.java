@@ -0,0 +1,973 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed-layout binary encoding of orders, acks, cancels, fills and
+ * quotes, for moving them between processes, journals or sockets. Each
+ * message type has a flyweight that reads and writes its fields in place in
+ * a <code>ByteBuffer</code>, so a flyweight can be reused for every message
+ * and decoding creates no objects (except the symbol string, when asked
+ * for it).
+ * <p>
+ * Every message starts with an 8-byte header: the block length, the
+ * template id, the schema id and the schema version (shorts). The block
+ * that follows has its fields at fixed offsets, longs first; prices are in
+ * cents, booleans are bytes and a symbol is up to <code>SYMBOL_LENGTH</code>
+ * ASCII bytes padded with zeros:
+ * <br>ORDER -- order id, price, trader id, symbol id, shares, display
+ * shares, symbol, buy, market (42 bytes)
+ * <br>ACK -- order id, time in nanoseconds, code (20 bytes)
+ * <br>CANCEL -- order id, symbol id (12 bytes)
+ * <br>FILL -- buy order id, sell order id, price, symbol id, shares
+ * (32 bytes)
+ * <br>QUOTE -- bid, bid size, ask, ask size, last price, symbol id
+ * (44 bytes)
+ * <br>Fields are in the buffer's byte order: big-endian, as in SafeTrade's
+ * other binary formats, unless the buffer says otherwise.
+ * <br>A trader id is not <code>Trader.getId</code>, which is handed out per
+ * process: it is the trader's screen name numbered in a
+ * <code>SymbolTable</code> that the two ends of a session share (or keep in
+ * step), so it means the same account on both sides.
+ * </p>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class MessageCodec
+{
+    /**
+     * Template id of an order.
+     */
+    public static final short ORDER = 1;
+
+    /**
+     * Template id of an order acknowledgement.
+     */
+    public static final short ACK = 2;
+
+    /**
+     * Template id of a cancel.
+     */
+    public static final short CANCEL = 3;
+
+    /**
+     * Template id of a fill.
+     */
+    public static final short FILL = 4;
+
+    /**
+     * Template id of a top-of-book quote.
+     */
+    public static final short QUOTE = 5;
+
+    /**
+     * The schema id written in every header.
+     */
+    public static final short SCHEMA_ID = 0x5354;
+
+    /**
+     * The schema version written in every header.
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * The size of the message header.
+     */
+    public static final int HEADER_SIZE = 8;
+
+    /**
+     * The longest symbol a message can hold.
+     */
+    public static final int SYMBOL_LENGTH = 8;
+
+    /**
+     * Returns the template id of the message at a given offset.
+     * @param buffer the buffer holding the message.
+     * @param offset the offset of the message header.
+     * @return the template id.
+     */
+    public static int getTemplateId(ByteBuffer buffer, int offset) {
+        return buffer.getShort(offset + 2);
+    }
+
+    /**
+     * Returns the length of the message at a given offset, header included,
+     * so that a reader can step over messages it does not know.
+     * @param buffer the buffer holding the message.
+     * @param offset the offset of the message header.
+     * @return the message length in bytes.
+     */
+    public static int getLength(ByteBuffer buffer, int offset) {
+        return HEADER_SIZE + (buffer.getShort(offset) & 0xffff);
+    }
+
+    /**
+     * The part common to every flyweight: the buffer and offset it is
+     * wrapped around, and the header.
+     */
+    abstract static class Flyweight
+    {
+        ByteBuffer buffer;
+        int offset;
+        int block;
+
+        private final short templateId;
+        private final int blockLength;
+
+        Flyweight(short templateId, int blockLength) {
+            this.templateId = templateId;
+            this.blockLength = blockLength;
+        }
+
+        /**
+         * Writes the header at a given offset and wraps this flyweight
+         * around the message for its fields to be set.
+         */
+        void wrapForEncode(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            block = offset + HEADER_SIZE;
+            buffer.putShort(offset, (short)blockLength);
+            buffer.putShort(offset + 2, templateId);
+            buffer.putShort(offset + 4, SCHEMA_ID);
+            buffer.putShort(offset + 6, VERSION);
+        }
+
+        /**
+         * Checks the header at a given offset and wraps this flyweight
+         * around the message for its fields to be read.
+         */
+        void wrapForDecode(ByteBuffer buffer, int offset) {
+            int id = buffer.getShort(offset + 2);
+            if (id != templateId || buffer.getShort(offset + 4) != SCHEMA_ID) {
+                throw new IllegalArgumentException("expected template "
+                        + templateId + ", found " + id + " at " + offset);
+            }
+            this.buffer = buffer;
+            this.offset = offset;
+            block = offset + HEADER_SIZE;
+        }
+
+        /**
+         * Returns the length of the message, header included.
+         * @return the message length in bytes.
+         */
+        public int length() {
+            return HEADER_SIZE + blockLength;
+        }
+
+        /**
+         * Returns the offset just past the message.
+         * @return the offset of the next message.
+         */
+        public int limit() {
+            return offset + length();
+        }
+
+        /**
+         * Returns the message type and where it is, for debugging.
+         * @return a string representation of this flyweight.
+         */
+        public String toString() {
+            return getClass().getSimpleName() + "[offset " + offset + ", "
+                    + length() + " bytes]";
+        }
+    }
+
+    /**
+     * A flyweight for an ORDER message.
+     */
+    public static class Order extends Flyweight
+    {
+        private static final int ORDER_ID = 0;
+        private static final int PRICE = 8;
+        private static final int TRADER_ID = 16;
+        private static final int SYMBOL_ID = 20;
+        private static final int SHARES = 24;
+        private static final int DISPLAY_SHARES = 28;
+        private static final int SYMBOL = 32;
+        private static final int BUY = SYMBOL + SYMBOL_LENGTH;
+        private static final int MARKET = BUY + 1;
+
+        /**
+         * Constructs a flyweight that is not yet wrapped around a message.
+         */
+        public Order() {
+            super(ORDER, MARKET + 1);
+        }
+
+        /**
+         * Writes the header of an ORDER message and wraps this flyweight
+         * around it.
+         * @param buffer the buffer to write to.
+         * @param offset the offset of the message.
+         * @return this flyweight.
+         */
+        public Order encode(ByteBuffer buffer, int offset) {
+            wrapForEncode(buffer, offset);
+            return this;
+        }
+
+        /**
+         * Wraps this flyweight around an ORDER message.
+         * @param buffer the buffer to read from.
+         * @param offset the offset of the message.
+         * @return this flyweight.
+         * @throws IllegalArgumentException if the message is not an ORDER.
+         */
+        public Order decode(ByteBuffer buffer, int offset) {
+            wrapForDecode(buffer, offset);
+            return this;
+        }
+
+        /**
+         * Sets every field from an order: its id, trader id, symbol, side,
+         * type, total and display shares and price. The trader id is the
+         * trader's screen name numbered in the session's account table,
+         * which numbers it the first time it is seen.
+         * @param order the order.
+         * @param accounts the session's table of trader screen names.
+         * @return this flyweight.
+         */
+        public Order set(TradeOrder order, SymbolTable accounts) {
+            int trader = -1;
+            if (order.getTrader() != null) {
+                String name = order.getTrader().getName();
+                trader = accounts.getId(name);
+                if (trader < 0) {
+                    trader = accounts.intern(name);
+                }
+            }
+            return orderId(order.getId()).traderId(trader)
+                    .symbolId(order.getSymbolId()).symbol(order.getSymbol())
+                    .buy(order.isBuy()).market(order.isMarket())
+                    .shares(order.getTotalShares())
+                    .displayShares(order.getDisplayShares())
+                    .priceTicks(order.isMarket() ? 0
+                            : OrderBook.toTicks(order.getPrice()));
+        }
+
+        /**
+         * Creates the order this message describes, for a given trader.
+         * @param trader the trader who placed the order.
+         * @return a new order with this message's id and fields.
+         */
+        public TradeOrder toOrder(Trader trader) {
+            String symbol = getSymbol();
+            double price = getPriceTicks() / 100.0;
+            TradeOrder order = getDisplayShares() > 0
+                    ? new TradeOrder(trader, symbol, isBuy(), isMarket(),
+                            getShares(), price, getDisplayShares())
+                    : new TradeOrder(trader, symbol, isBuy(), isMarket(),
+                            getShares(), price);
+            order.setId(getOrderId());
+            return order;
+        }
+
+        /**
+         * Sets the order id.
+         * @param id the order id.
+         * @return this flyweight.
+         */
+        public Order orderId(long id) {
+            buffer.putLong(block + ORDER_ID, id);
+            return this;
+        }
+
+        /**
+         * Returns the order id.
+         * @return the order id.
+         */
+        public long getOrderId() {
+            return buffer.getLong(block + ORDER_ID);
+        }
+
+        /**
+         * Sets the limit price.
+         * @param ticks the price in cents, or 0 for a market order.
+         * @return this flyweight.
+         */
+        public Order priceTicks(long ticks) {
+            buffer.putLong(block + PRICE, ticks);
+            return this;
+        }
+
+        /**
+         * Returns the limit price.
+         * @return the price in cents.
+         */
+        public long getPriceTicks() {
+            return buffer.getLong(block + PRICE);
+        }
+
+        /**
+         * Sets the id of the trader who placed the order.
+         * @param id the trader's id in the session's account table, or -1
+         *           for none.
+         * @return this flyweight.
+         */
+        public Order traderId(int id) {
+            buffer.putInt(block + TRADER_ID, id);
+            return this;
+        }
+
+        /**
+         * Returns the id of the trader who placed the order.
+         * @return the trader's id in the session's account table, or -1 for
+         *         none.
+         */
+        public int getTraderId() {
+            return buffer.getInt(block + TRADER_ID);
+        }
+
+        /**
+         * Returns the screen name of the trader who placed the order.
+         * @param accounts the session's table of trader screen names.
+         * @return the screen name, or null if the table has no such id.
+         */
+        public String getTraderName(SymbolTable accounts) {
+            return accounts.getSymbol(getTraderId());
+        }
+
+        /**
+         * Sets the symbol id.
+         * @param id the symbol id, or -1 if not resolved.
+         * @return this flyweight.
+         */
+        public Order symbolId(int id) {
+            buffer.putInt(block + SYMBOL_ID, id);
+            return this;
+        }
+
+        /**
+         * Returns the symbol id.
+         * @return the symbol id, or -1 if not resolved.
+         */
+        public int getSymbolId() {
+            return buffer.getInt(block + SYMBOL_ID);
+        }
+
+        /**
+         * Sets the total number of shares.
+         * @param shares the number of shares.
+         * @return this flyweight.
+         */
+        public Order shares(int shares) {
+            buffer.putInt(block + SHARES, shares);
+            return this;
+        }
+
+        /**
+         * Returns the total number of shares.
+         * @return the number of shares.
+         */
+        public int getShares() {
+            return buffer.getInt(block + SHARES);
+        }
+
+        /**
+         * Sets the number of shares displayed at a time.
+         * @param shares the display size, or 0 if all shares are shown.
+         * @return this flyweight.
+         */
+        public Order displayShares(int shares) {
+            buffer.putInt(block + DISPLAY_SHARES, shares);
+            return this;
+        }
+
+        /**
+         * Returns the number of shares displayed at a time.
+         * @return the display size, or 0 if all shares are shown.
+         */
+        public int getDisplayShares() {
+            return buffer.getInt(block + DISPLAY_SHARES);
+        }
+
+        /**
+         * Sets the symbol.
+         * @param symbol the symbol, at most <code>SYMBOL_LENGTH</code>
+         *               ASCII chars.
+         * @return this flyweight.
+         * @throws IllegalArgumentException if the symbol is too long.
+         */
+        public Order symbol(String symbol) {
+            putSymbol(buffer, block + SYMBOL, symbol);
+            return this;
+        }
+
+        /**
+         * Returns the symbol. This creates a string; use
+         * <code>symbolEquals</code> or the symbol id to avoid it.
+         * @return the symbol.
+         */
+        public String getSymbol() {
+            return readSymbol(buffer, block + SYMBOL);
+        }
+
+        /**
+         * Returns true if the symbol equals a given string, without creating
+         * any objects.
+         * @param symbol a symbol.
+         * @return true if the symbols are equal; false otherwise.
+         */
+        public boolean symbolEquals(String symbol) {
+            return MessageCodec.symbolEquals(buffer, block + SYMBOL, symbol);
+        }
+
+        /**
+         * Sets the side.
+         * @param buy true for a buy order; false for a sell order.
+         * @return this flyweight.
+         */
+        public Order buy(boolean buy) {
+            buffer.put(block + BUY, (byte)(buy ? 1 : 0));
+            return this;
+        }
+
+        /**
+         * Returns true if this is a buy order.
+         * @return true for a buy order; false for a sell order.
+         */
+        public boolean isBuy() {
+            return buffer.get(block + BUY) != 0;
+        }
+
+        /**
+         * Sets the order type.
+         * @param market true for a market order; false for a limit order.
+         * @return this flyweight.
+         */
+        public Order market(boolean market) {
+            buffer.put(block + MARKET, (byte)(market ? 1 : 0));
+            return this;
+        }
+
+        /**
+         * Returns true if this is a market order.
+         * @return true for a market order; false for a limit order.
+         */
+        public boolean isMarket() {
+            return buffer.get(block + MARKET) != 0;
+        }
+    }
+
+    /**
+     * A flyweight for an ACK message: the brokerage's answer to an order.
+     */
+    public static class Ack extends Flyweight
+    {
+        private static final int ORDER_ID = 0;
+        private static final int NANOS = 8;
+        private static final int CODE = 16;
+
+        /**
+         * Constructs a flyweight that is not yet wrapped around a message.
+         */
+        public Ack() {
+            super(ACK, CODE + 4);
+        }
+
+        /**
+         * Writes the header of an ACK message and wraps this flyweight
+         * around it.
+         * @param buffer the buffer to write to.
+         * @param offset the offset of the message.
+         * @return this flyweight.
+         */
+        public Ack encode(ByteBuffer buffer, int offset) {
+            wrapForEncode(buffer, offset);
+            return this;
+        }
+
+        /**
+         * Wraps this flyweight around an ACK message.
+         * @param buffer the buffer to read from.
+         * @param offset the offset of the message.
+         * @return this flyweight.
+         * @throws IllegalArgumentException if the message is not an ACK.
+         */
+        public Ack decode(ByteBuffer buffer, int offset) {
+            wrapForDecode(buffer, offset);
+            return this;
+        }
+
+        /**
+         * Sets the id of the order acknowledged.
+         * @param id the order id, or 0 if the order was rejected.
+         * @return this flyweight.
+         */
+        public Ack orderId(long id) {
+            buffer.putLong(block + ORDER_ID, id);
+            return this;
+        }
+
+        /**
+         * Returns the id of the order acknowledged.
+         * @return the order id, or 0 if the order was rejected.
+         */
+        public long getOrderId() {
+            return buffer.getLong(block + ORDER_ID);
+        }
+
+        /**
+         * Sets the time of the acknowledgement.
+         * @param nanos the sender's <code>System.nanoTime</code>.
+         * @return this flyweight.
+         */
+        public Ack nanos(long nanos) {
+            buffer.putLong(block + NANOS, nanos);
+            return this;
+        }
+
+        /**
+         * Returns the time of the acknowledgement.
+         * @return the sender's <code>System.nanoTime</code>.
+         */
+        public long getNanos() {
+            return buffer.getLong(block + NANOS);
+        }
+
+        /**
+         * Sets the result.
+         * @param code 0 if the order was accepted, or a negative error code
+         *             (see <code>TraderRisk.reason</code>).
+         * @return this flyweight.
+         */
+        public Ack code(int code) {
+            buffer.putInt(block + CODE, code);
+            return this;
+        }
+
+        /**
+         * Returns the result.
+         * @return 0 if the order was accepted, or a negative error code.
+         */
+        public int getCode() {
+            return buffer.getInt(block + CODE);
+        }
+    }
+
+    /**
+     * A flyweight for a CANCEL message.
+     */
+    public static class Cancel extends Flyweight
+    {
+        private static final int ORDER_ID = 0;
+        private static final int SYMBOL_ID = 8;
+
+        /**
+         * Constructs a flyweight that is not yet wrapped around a message.
+         */
+        public Cancel() {
+            super(CANCEL, SYMBOL_ID + 4);
+        }
+
+        /**
+         * Writes the header of a CANCEL message and wraps this flyweight
+         * around it.
+         * @param buffer the buffer to write to.
+         * @param offset the offset of the message.
+         * @return this flyweight.
+         */
+        public Cancel encode(ByteBuffer buffer, int offset) {
+            wrapForEncode(buffer, offset);
+            return this;
+        }
+
+        /**
+         * Wraps this flyweight around a CANCEL message.
+         * @param buffer the buffer to read from.
+         * @param offset the offset of the message.
+         * @return this flyweight.
+         * @throws IllegalArgumentException if the message is not a CANCEL.
+         */
+        public Cancel decode(ByteBuffer buffer, int offset) {
+            wrapForDecode(buffer, offset);
+            return this;
+        }
+
+        /**
+         * Sets the fields from the order to be cancelled.
+         * @param order the order.
+         * @return this flyweight.
+         */
+        public Cancel set(TradeOrder order) {
+            return orderId(order.getId()).symbolId(order.getSymbolId());
+        }
+
+        /**
+         * Sets the id of the order to cancel.
+         * @param id the order id.
+         * @return this flyweight.
+         */
+        public Cancel orderId(long id) {
+            buffer.putLong(block + ORDER_ID, id);
+            return this;
+        }
+
+        /**
+         * Returns the id of the order to cancel.
+         * @return the order id.
+         */
+        public long getOrderId() {
+            return buffer.getLong(block + ORDER_ID);
+        }
+
+        /**
+         * Sets the symbol id of the order to cancel.
+         * @param id the symbol id.
+         * @return this flyweight.
+         */
+        public Cancel symbolId(int id) {
+            buffer.putInt(block + SYMBOL_ID, id);
+            return this;
+        }
+
+        /**
+         * Returns the symbol id of the order to cancel.
+         * @return the symbol id.
+         */
+        public int getSymbolId() {
+            return buffer.getInt(block + SYMBOL_ID);
+        }
+    }
+
+    /**
+     * A flyweight for a FILL message.
+     */
+    public static class Fill extends Flyweight
+    {
+        private static final int BUY_ORDER_ID = 0;
+        private static final int SELL_ORDER_ID = 8;
+        private static final int PRICE = 16;
+        private static final int SYMBOL_ID = 24;
+        private static final int SHARES = 28;
+
+        /**
+         * Constructs a flyweight that is not yet wrapped around a message.
+         */
+        public Fill() {
+            super(FILL, SHARES + 4);
+        }
+
+        /**
+         * Writes the header of a FILL message and wraps this flyweight
+         * around it.
+         * @param buffer the buffer to write to.
+         * @param offset the offset of the message.
+         * @return this flyweight.
+         */
+        public Fill encode(ByteBuffer buffer, int offset) {
+            wrapForEncode(buffer, offset);
+            return this;
+        }
+
+        /**
+         * Wraps this flyweight around a FILL message.
+         * @param buffer the buffer to read from.
+         * @param offset the offset of the message.
+         * @return this flyweight.
+         * @throws IllegalArgumentException if the message is not a FILL.
+         */
+        public Fill decode(ByteBuffer buffer, int offset) {
+            wrapForDecode(buffer, offset);
+            return this;
+        }
+
+        /**
+         * Sets every field from a trade, as reported to
+         * <code>MarketListener.tradeExecuted</code>.
+         * @param stock the stock that traded.
+         * @param buy the buy order.
+         * @param sell the sell order.
+         * @param price the execution price.
+         * @param shares the number of shares traded.
+         * @return this flyweight.
+         */
+        public Fill set(Stock stock, TradeOrder buy, TradeOrder sell,
+                        double price, int shares) {
+            return symbolId(stock.getSymbolId()).buyOrderId(buy.getId())
+                    .sellOrderId(sell.getId())
+                    .priceTicks(OrderBook.toTicks(price)).shares(shares);
+        }
+
+        /**
+         * Sets the id of the buy order.
+         * @param id the order id.
+         * @return this flyweight.
+         */
+        public Fill buyOrderId(long id) {
+            buffer.putLong(block + BUY_ORDER_ID, id);
+            return this;
+        }
+
+        /**
+         * Returns the id of the buy order.
+         * @return the order id.
+         */
+        public long getBuyOrderId() {
+            return buffer.getLong(block + BUY_ORDER_ID);
+        }
+
+        /**
+         * Sets the id of the sell order.
+         * @param id the order id.
+         * @return this flyweight.
+         */
+        public Fill sellOrderId(long id) {
+            buffer.putLong(block + SELL_ORDER_ID, id);
+            return this;
+        }
+
+        /**
+         * Returns the id of the sell order.
+         * @return the order id.
+         */
+        public long getSellOrderId() {
+            return buffer.getLong(block + SELL_ORDER_ID);
+        }
+
+        /**
+         * Sets the execution price.
+         * @param ticks the price in cents.
+         * @return this flyweight.
+         */
+        public Fill priceTicks(long ticks) {
+            buffer.putLong(block + PRICE, ticks);
+            return this;
+        }
+
+        /**
+         * Returns the execution price.
+         * @return the price in cents.
+         */
+        public long getPriceTicks() {
+            return buffer.getLong(block + PRICE);
+        }
+
+        /**
+         * Sets the symbol id of the stock that traded.
+         * @param id the symbol id.
+         * @return this flyweight.
+         */
+        public Fill symbolId(int id) {
+            buffer.putInt(block + SYMBOL_ID, id);
+            return this;
+        }
+
+        /**
+         * Returns the symbol id of the stock that traded.
+         * @return the symbol id.
+         */
+        public int getSymbolId() {
+            return buffer.getInt(block + SYMBOL_ID);
+        }
+
+        /**
+         * Sets the number of shares traded.
+         * @param shares the number of shares.
+         * @return this flyweight.
+         */
+        public Fill shares(int shares) {
+            buffer.putInt(block + SHARES, shares);
+            return this;
+        }
+
+        /**
+         * Returns the number of shares traded.
+         * @return the number of shares.
+         */
+        public int getShares() {
+            return buffer.getInt(block + SHARES);
+        }
+    }
+
+    /**
+     * A flyweight for a QUOTE message: the top of book of one stock.
+     */
+    public static class Quote extends Flyweight
+    {
+        private static final int BID = 0;
+        private static final int BID_SIZE = 8;
+        private static final int ASK = 16;
+        private static final int ASK_SIZE = 24;
+        private static final int LAST = 32;
+        private static final int SYMBOL_ID = 40;
+
+        /**
+         * Constructs a flyweight that is not yet wrapped around a message.
+         */
+        public Quote() {
+            super(QUOTE, SYMBOL_ID + 4);
+        }
+
+        /**
+         * Writes the header of a QUOTE message and wraps this flyweight
+         * around it.
+         * @param buffer the buffer to write to.
+         * @param offset the offset of the message.
+         * @return this flyweight.
+         */
+        public Quote encode(ByteBuffer buffer, int offset) {
+            wrapForEncode(buffer, offset);
+            return this;
+        }
+
+        /**
+         * Wraps this flyweight around a QUOTE message.
+         * @param buffer the buffer to read from.
+         * @param offset the offset of the message.
+         * @return this flyweight.
+         * @throws IllegalArgumentException if the message is not a QUOTE.
+         */
+        public Quote decode(ByteBuffer buffer, int offset) {
+            wrapForDecode(buffer, offset);
+            return this;
+        }
+
+        /**
+         * Sets every field from a top-of-book snapshot. A side with no
+         * orders is written with a price of 0.
+         * @param symbolId the symbol id of the stock.
+         * @param top the top of book.
+         * @return this flyweight.
+         */
+        public Quote set(int symbolId, TopOfBook top) {
+            return symbolId(symbolId)
+                    .bid(top.hasBid() ? OrderBook.toTicks(top.getBidPrice())
+                            : 0, top.getBidSize())
+                    .ask(top.hasAsk() ? OrderBook.toTicks(top.getAskPrice())
+                            : 0, top.getAskSize())
+                    .lastTicks(OrderBook.toTicks(top.getLastPrice()));
+        }
+
+        /**
+         * Sets the best bid.
+         * @param ticks the bid price in cents, or 0 if there is no bid.
+         * @param size the displayed shares at the bid.
+         * @return this flyweight.
+         */
+        public Quote bid(long ticks, long size) {
+            buffer.putLong(block + BID, ticks);
+            buffer.putLong(block + BID_SIZE, size);
+            return this;
+        }
+
+        /**
+         * Returns the best bid price.
+         * @return the price in cents, or 0 if there is no bid.
+         */
+        public long getBidTicks() {
+            return buffer.getLong(block + BID);
+        }
+
+        /**
+         * Returns the displayed shares at the best bid.
+         * @return the bid size.
+         */
+        public long getBidSize() {
+            return buffer.getLong(block + BID_SIZE);
+        }
+
+        /**
+         * Sets the best ask.
+         * @param ticks the ask price in cents, or 0 if there is no ask.
+         * @param size the displayed shares at the ask.
+         * @return this flyweight.
+         */
+        public Quote ask(long ticks, long size) {
+            buffer.putLong(block + ASK, ticks);
+            buffer.putLong(block + ASK_SIZE, size);
+            return this;
+        }
+
+        /**
+         * Returns the best ask price.
+         * @return the price in cents, or 0 if there is no ask.
+         */
+        public long getAskTicks() {
+            return buffer.getLong(block + ASK);
+        }
+
+        /**
+         * Returns the displayed shares at the best ask.
+         * @return the ask size.
+         */
+        public long getAskSize() {
+            return buffer.getLong(block + ASK_SIZE);
+        }
+
+        /**
+         * Sets the last sale price.
+         * @param ticks the price in cents.
+         * @return this flyweight.
+         */
+        public Quote lastTicks(long ticks) {
+            buffer.putLong(block + LAST, ticks);
+            return this;
+        }
+
+        /**
+         * Returns the last sale price.
+         * @return the price in cents.
+         */
+        public long getLastTicks() {
+            return buffer.getLong(block + LAST);
+        }
+
+        /**
+         * Sets the symbol id of the stock.
+         * @param id the symbol id.
+         * @return this flyweight.
+         */
+        public Quote symbolId(int id) {
+            buffer.putInt(block + SYMBOL_ID, id);
+            return this;
+        }
+
+        /**
+         * Returns the symbol id of the stock.
+         * @return the symbol id.
+         */
+        public int getSymbolId() {
+            return buffer.getInt(block + SYMBOL_ID);
+        }
+    }
+
+    private static void putSymbol(ByteBuffer buffer, int at, String symbol) {
+        if (symbol.length() > SYMBOL_LENGTH) {
+            throw new IllegalArgumentException("symbol too long: " + symbol);
+        }
+        for (int c = 0; c < SYMBOL_LENGTH; c++) {
+            buffer.put(at + c, c < symbol.length()
+                    ? (byte)symbol.charAt(c) : 0);
+        }
+    }
+
+    private static String readSymbol(ByteBuffer buffer, int at) {
+        char[] chars = new char[SYMBOL_LENGTH];
+        int length = 0;
+        while (length < SYMBOL_LENGTH && buffer.get(at + length) != 0) {
+            chars[length] = (char)buffer.get(at + length);
+            length++;
+        }
+        return new String(chars, 0, length);
+    }
+
+    private static boolean symbolEquals(ByteBuffer buffer, int at,
+                                        String symbol) {
+        if (symbol.length() > SYMBOL_LENGTH) {
+            return false;
+        }
+        for (int c = 0; c < SYMBOL_LENGTH; c++) {
+            int b = buffer.get(at + c);
+            if (c == symbol.length()) {
+                return b == 0;
+            }
+            if (b != symbol.charAt(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,192 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Holds the messages shown in a trader's window, apart from any display.
+ * Messages may be posted from any thread; they are collected in a pending
+ * batch and handed to the view together, on the UI thread, at most once per
+ * frame interval. A burst of fills therefore costs the UI one update per
+ * frame instead of one per message. The model keeps at most a given number
+ * of lines of scrollback; older lines are dropped and the view is told how
+ * many to remove.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class MessageModel
+{
+    /**
+     * Specifies the method a display implements to show a model.
+     */
+    public interface View
+    {
+        /**
+         * Called on the UI thread with the messages posted since the last
+         * call.
+         * @param added the new messages, oldest first.
+         * @param removed the number of the oldest lines to remove from the
+         *                display to keep within the scrollback limit.
+         */
+        void render(List<String> added, int removed);
+    }
+
+    /**
+     * The default number of lines of scrollback.
+     */
+    public static final int DEFAULT_SCROLLBACK = 1000;
+
+    /**
+     * The default frame interval in milliseconds (about 60 frames a second).
+     */
+    public static final long DEFAULT_FRAME_MILLIS = 16;
+
+    private static ScheduledExecutorService sharedTimer;
+
+    private int scrollback;
+    private long frameNanos;
+    private Executor uiExecutor;
+    private ScheduledExecutorService timer;
+    private View view;
+    private ArrayDeque<String> lines;
+    private List<String> pending;
+    private int shown;
+    private boolean scheduled;
+    private long lastRender;
+    private long renders;
+
+    /**
+     * Constructs a model.
+     * @param scrollback the most lines to keep.
+     * @param frameMillis the shortest time between two updates of the view.
+     * @param uiExecutor runs updates on the UI thread (for Swing,
+     *                   <code>SwingUtilities::invokeLater</code>).
+     * @param timer delays an update that comes too soon after the last one.
+     * @param view the display, or null for none.
+     */
+    public MessageModel(int scrollback, long frameMillis, Executor uiExecutor,
+                        ScheduledExecutorService timer, View view) {
+        this.scrollback = scrollback;
+        frameNanos = TimeUnit.MILLISECONDS.toNanos(frameMillis);
+        this.uiExecutor = uiExecutor;
+        this.timer = timer;
+        this.view = view;
+        lines = new ArrayDeque<String>();
+        pending = new ArrayList<String>();
+        lastRender = System.nanoTime() - frameNanos;
+    }
+
+    /**
+     * Constructs a model with the default scrollback and frame interval,
+     * sharing one daemon timer thread with other such models.
+     * @param uiExecutor runs updates on the UI thread.
+     * @param view the display, or null for none.
+     */
+    public MessageModel(Executor uiExecutor, View view) {
+        this(DEFAULT_SCROLLBACK, DEFAULT_FRAME_MILLIS, uiExecutor,
+                getSharedTimer(), view);
+    }
+
+    private static synchronized ScheduledExecutorService getSharedTimer() {
+        if (sharedTimer == null) {
+            sharedTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "message-model-timer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return sharedTimer;
+    }
+
+    /**
+     * Adds a message. Schedules an update of the view unless one is
+     * already scheduled.
+     * @param msg the message.
+     */
+    public void post(String msg) {
+        long delay;
+        synchronized (this) {
+            pending.add(msg);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+            delay = lastRender + frameNanos - System.nanoTime();
+        }
+        if (delay <= 0) {
+            uiExecutor.execute(this::flush);
+        }
+        else {
+            timer.schedule(() -> uiExecutor.execute(this::flush), delay,
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Moves the pending messages into the scrollback and hands them to the
+     * view. Runs on the UI thread.
+     */
+    void flush() {
+        List<String> added;
+        int removed;
+        synchronized (this) {
+            scheduled = false;
+            lastRender = System.nanoTime();
+            if (pending.isEmpty()) {
+                return;
+            }
+            added = pending;
+            pending = new ArrayList<String>();
+            int skip = Math.max(0, added.size() - scrollback);
+            if (skip > 0) {
+                added = added.subList(skip, added.size());
+            }
+            for (String msg : added) {
+                lines.addLast(msg);
+            }
+            while (lines.size() > scrollback) {
+                lines.removeFirst();
+            }
+            removed = Math.max(0, shown + added.size() - scrollback);
+            shown += added.size() - removed;
+            renders++;
+        }
+        if (view != null) {
+            view.render(added, removed);
+        }
+    }
+
+    /**
+     * Returns the lines in the scrollback, oldest first. Messages still
+     * pending are not included.
+     * @return a copy of the scrollback.
+     */
+    public synchronized List<String> getLines() {
+        return new ArrayList<String>(lines);
+    }
+
+    /**
+     * Returns the number of messages waiting for the next update.
+     * @return the number of pending messages.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of times the view has been updated.
+     * @return the number of updates.
+     */
+    public synchronized long getRenderCount() {
+        return renders;
+    }
+
+    /**
+     * Returns the number of lines, pending messages and updates, for
+     * debugging.
+     * @return a string representation of this model.
+     */
+    public synchronized String toString() {
+        return "MessageModel[" + lines.size() + " lines, " + pending.size()
+                + " pending, " + renders + " renders]";
+    }
+}
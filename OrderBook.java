@@ -0,0 +1,317 @@
+import java.util.*;
+
+/**
+ * Represents one side (buy or sell) of a stock's order book. Market orders
+ * rest in their own level ahead of all limit orders; limit orders are kept in
+ * price levels (rounded to the nearest cent, as in
+ * <code>PriceComparator</code>), best price first, and in time priority
+ * within a level.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class OrderBook
+{
+    private static final int MAX_POOLED_LEVELS = 16;
+
+    /**
+     * Estimated heap bytes of an empty price level: the object, its ring
+     * array header and its tree map entry.
+     */
+    static final int LEVEL_BYTES = 56 + 16 + 40;
+
+    /**
+     * Estimated heap bytes of one slot of a level's ring array.
+     */
+    static final int SLOT_BYTES = 4;
+
+    private boolean buySide;
+    private PriceLevel marketLevel;
+    private TreeMap<Long, PriceLevel> limitLevels;
+    private PriceLevel bestLimit;
+    private ArrayDeque<PriceLevel> freeLevels;
+    private int size;
+
+    /**
+     * Constructs an empty book side.
+     * @param buySide true for the buy (bid) side, where higher prices come
+     *                first; false for the sell (ask) side, where lower prices
+     *                come first.
+     */
+    public OrderBook(boolean buySide) {
+        this.buySide = buySide;
+        marketLevel = new PriceLevel(0.0, 0);
+        limitLevels = buySide ? new TreeMap<>(Collections.reverseOrder())
+                : new TreeMap<>();
+        freeLevels = new ArrayDeque<>();
+    }
+
+    /**
+     * Returns true if this is the buy side of the book.
+     * @return true if this is the buy side; false otherwise.
+     */
+    public boolean isBuySide() {
+        return buySide;
+    }
+
+    /**
+     * Returns true if no orders rest on this side of the book.
+     * @return true if this book side is empty; false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of live orders on this side of the book.
+     * @return the number of live orders.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the order with the highest priority on this side of the book,
+     * or null if it is empty.
+     * @return the first order in line.
+     */
+    public TradeOrder peek() {
+        PriceLevel level = bestLevel();
+        return level == null ? null : level.peek();
+    }
+
+    /**
+     * Returns the level holding the highest priority order: the market level
+     * if any market orders rest, otherwise the best priced limit level.
+     * @return the best level, or null if the book side is empty.
+     */
+    public PriceLevel bestLevel() {
+        if (!marketLevel.isEmpty()) {
+            return marketLevel;
+        }
+        return bestLimit;
+    }
+
+    /**
+     * Returns the best priced limit level, ignoring any market orders.
+     * @return the best limit level, or null if there are no limit orders.
+     */
+    public PriceLevel bestLimitLevel() {
+        return bestLimit;
+    }
+
+    /**
+     * Returns the level that holds market orders.
+     * @return the market level.
+     */
+    public PriceLevel getMarketLevel() {
+        return marketLevel;
+    }
+
+    /**
+     * Returns the limit price levels, best price first.
+     * @return a read-only view of the limit levels.
+     */
+    public Collection<PriceLevel> getLimitLevels() {
+        return Collections.unmodifiableCollection(limitLevels.values());
+    }
+
+    /**
+     * Returns the limit price levels, worst price first.
+     * @return a read-only view of the limit levels in reverse order.
+     */
+    public Collection<PriceLevel> getLimitLevelsWorstFirst() {
+        return Collections.unmodifiableCollection(
+                limitLevels.descendingMap().values());
+    }
+
+    /**
+     * Adds an order to the back of the line at its price level.
+     * @param order the order to add.
+     */
+    public void add(TradeOrder order) {
+        if (order.isMarket()) {
+            marketLevel.add(order);
+        }
+        else {
+            long ticks = toTicks(order.getPrice());
+            PriceLevel level = limitLevels.get(ticks);
+            if (level == null) {
+                level = newLevel(order.getPrice(), ticks);
+                limitLevels.put(ticks, level);
+                if (bestLimit == null || isBetter(ticks, bestLimit)) {
+                    bestLimit = level;
+                }
+            }
+            level.add(order);
+        }
+        size++;
+    }
+
+    /**
+     * Removes a resting order from this side of the book in constant time
+     * (plus dropping its level if the level becomes empty).
+     * @param order the order to remove.
+     * @return true if the order was resting on this side; false otherwise.
+     */
+    public boolean remove(TradeOrder order) {
+        PriceLevel level = order.getLevel();
+        if (level == null || (level != marketLevel
+                && limitLevels.get(level.getPriceTicks()) != level)) {
+            return false;
+        }
+        level.remove(order);
+        size--;
+        dropIfEmpty(level);
+        return true;
+    }
+
+    /**
+     * Records a fill against an order resting on this side of the book
+     * (usually the order at the head). If the displayed shares are used up,
+     * the order either refills from its hidden reserve and moves to the back
+     * of its level, or leaves the book.
+     * @param order an order resting on this side of the book.
+     * @param shares the number of shares traded.
+     */
+    public void fill(TradeOrder order, int shares) {
+        PriceLevel level = order.getLevel();
+        level.fill(order, shares);
+        if (order.getShares() == 0) {
+            if (order.getHiddenShares() > 0) {
+                level.replenish(order);
+            }
+            else {
+                level.remove(order);
+                size--;
+                dropIfEmpty(level);
+            }
+        }
+    }
+
+    /**
+     * Trims the backing arrays of price levels that hold more than
+     * <code>slack</code> times the slots their live orders need, and drops
+     * the pooled empty levels.
+     * @param minCapacity the smallest level capacity to keep.
+     * @param slack how many times the needed capacity a level may hold
+     *              before it is trimmed.
+     * @return the number of levels trimmed.
+     */
+    public int compact(int minCapacity, double slack) {
+        int trimmed = 0;
+        if (trim(marketLevel, minCapacity, slack)) {
+            trimmed++;
+        }
+        for (PriceLevel level : limitLevels.values()) {
+            if (trim(level, minCapacity, slack)) {
+                trimmed++;
+            }
+        }
+        freeLevels.clear();
+        return trimmed;
+    }
+
+    private static boolean trim(PriceLevel level, int minCapacity,
+                                double slack) {
+        int needed = Math.max(minCapacity, level.getOrderCount());
+        if (level.getCapacity() <= needed * slack
+                && level.getSlotCount() == level.getOrderCount()) {
+            return false;
+        }
+        level.trimToSize(minCapacity);
+        return true;
+    }
+
+    /**
+     * Returns the number of empty levels kept for reuse.
+     * @return the number of pooled levels.
+     */
+    public int getPooledLevelCount() {
+        return freeLevels.size();
+    }
+
+    /**
+     * Returns the total capacity of the ring arrays of the levels on this
+     * side, pooled levels included.
+     * @return the number of order slots allocated.
+     */
+    public long getSlotCapacity() {
+        long slots = marketLevel.getCapacity();
+        for (PriceLevel level : limitLevels.values()) {
+            slots += level.getCapacity();
+        }
+        for (PriceLevel level : freeLevels) {
+            slots += level.getCapacity();
+        }
+        return slots;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the levels on this side, not
+     * counting the orders themselves.
+     * @return the estimated footprint in bytes.
+     */
+    public long getFootprintBytes() {
+        return (1 + limitLevels.size() + freeLevels.size()) * LEVEL_BYTES
+                + getSlotCapacity() * SLOT_BYTES;
+    }
+
+    /**
+     * Converts a price to whole cents.
+     * @param price a price in dollars.
+     * @return the price rounded to the nearest cent.
+     */
+    public static long toTicks(double price) {
+        return Math.round(price * 100);
+    }
+
+    /**
+     * Returns true if an amount is a whole number of cents, so that prices
+     * on a grid of that step never round together in <code>toTicks</code>.
+     * @param amount an amount in dollars, such as a tick size.
+     * @return true if the amount is a positive whole number of cents; false
+     *         otherwise.
+     */
+    public static boolean isWholeCents(double amount) {
+        double cents = amount * 100;
+        return cents >= 1 - 1e-6 && Math.abs(cents - Math.rint(cents)) < 1e-6;
+    }
+
+    private boolean isBetter(long ticks, PriceLevel than) {
+        return buySide ? ticks > than.getPriceTicks()
+                : ticks < than.getPriceTicks();
+    }
+
+    private void dropIfEmpty(PriceLevel level) {
+        if (level == marketLevel || !level.isEmpty()) {
+            return;
+        }
+        limitLevels.remove(level.getPriceTicks());
+        if (level == bestLimit) {
+            Map.Entry<Long, PriceLevel> first = limitLevels.firstEntry();
+            bestLimit = first == null ? null : first.getValue();
+        }
+        if (freeLevels.size() < MAX_POOLED_LEVELS) {
+            freeLevels.push(level);
+        }
+    }
+
+    private PriceLevel newLevel(double price, long ticks) {
+        PriceLevel level = freeLevels.poll();
+        if (level == null) {
+            return new PriceLevel(price, ticks);
+        }
+        level.reset(price, ticks);
+        return level;
+    }
+
+    /**
+     * Returns a short description of the best level on this side.
+     * @return a string representation of this book side.
+     */
+    public String toString() {
+        return (buySide ? "bids" : "asks") + "[" + size + " orders, best "
+                + bestLevel() + "]";
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Specifies methods for receiving the sequenced input events of a brokerage
+ * and its stock exchange: listings, registrations, accepted orders,
+ * cancels, call auctions and matching policies. Applying the same events in
+ * the same order to an empty brokerage and exchange rebuilds the same
+ * accounts and books. Orders and cancels are reported by the stock they are
+ * for, and so are its auctions and policy changes, while it holds its book
+ * lock, so the events of each stock arrive in the order the stock matched
+ * them however many threads place orders.
+ */
+public interface OrderEventListener
+{
+    /**
+     * Called after a stock is listed.
+     * @param symbol stock symbol.
+     * @param name full company name.
+     * @param price opening stock price.
+     * @param tickSize the smallest price increment of the stock.
+     */
+    void stockListed(String symbol, String name, double price,
+                     double tickSize);
+
+    /**
+     * Called after a trader is registered.
+     * @param name the screen name of the trader.
+     * @param password the password for the trader.
+     */
+    void userAdded(String name, String password);
+
+    /**
+     * Called when an order that passed the brokerage's checks and got its
+     * id reaches its stock, before it is matched.
+     * @param order the accepted order.
+     */
+    void orderPlaced(TradeOrder order);
+
+    /**
+     * Called after a resting order with an id is cancelled.
+     * @param order the cancelled order.
+     */
+    void orderCancelled(TradeOrder order);
+
+    /**
+     * Called when a stock starts a call auction, after which its orders are
+     * collected without being matched.
+     * @param symbol the stock symbol.
+     */
+    void auctionStarted(String symbol);
+
+    /**
+     * Called when a stock uncrosses, before the orders that can trade at
+     * its equilibrium price are executed.
+     * @param symbol the stock symbol.
+     */
+    void auctionUncrossed(String symbol);
+
+    /**
+     * Called when a stock's matching policy is set, before any order is
+     * matched under it.
+     * @param symbol the stock symbol.
+     * @param policy the name of the policy (see
+     *               <code>MatchingPolicy.getName</code>).
+     */
+    void matchingPolicySet(String symbol, String policy);
+}
@@ -0,0 +1,254 @@
+/**
+ * Keeps a trader's position, average cost and realized profit and loss in
+ * each stock. Positions are kept in an open-addressing table keyed by the
+ * exchange's int symbol id, with the values in parallel primitive arrays, so
+ * recording a fill does not hash a string, box or allocate anything once the
+ * stock has been seen. Costs use the average cost method:
+ * buying into a long (or selling into a short) position averages the price
+ * in; trading against the position realizes the difference between the
+ * trade price and the average cost.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class Positions
+{
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] ids;
+    private String[] symbols;
+    private long[] shares;
+    private double[] averageCost;
+    private double[] realized;
+    private int size;
+    private double realizedTotal;
+
+    /**
+     * Constructs an empty set of positions.
+     */
+    public Positions() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Records a fill and updates the position, average cost and realized
+     * profit and loss in the stock.
+     * @param symbolId the exchange's id for the stock.
+     * @param symbol stock symbol, kept for reports.
+     * @param buy true if shares were bought; false if they were sold.
+     * @param num the number of shares traded.
+     * @param price the execution price.
+     */
+    public void fill(int symbolId, String symbol, boolean buy, int num,
+                     double price) {
+        int i = slot(symbolId, symbol);
+        long held = shares[i];
+        long traded = buy ? num : -num;
+        if (held == 0 || (held > 0) == buy) {
+            averageCost[i] = (averageCost[i] * Math.abs(held)
+                    + price * num) / (Math.abs(held) + num);
+        }
+        else {
+            long closed = Math.min(num, Math.abs(held));
+            double pnl = closed * (price - averageCost[i])
+                    * (held > 0 ? 1 : -1);
+            realized[i] += pnl;
+            realizedTotal += pnl;
+            if (num > Math.abs(held)) {
+                averageCost[i] = price;
+            }
+            else if (num == Math.abs(held)) {
+                averageCost[i] = 0;
+            }
+        }
+        shares[i] = held + traded;
+    }
+
+    /**
+     * Returns the net number of shares held in a stock (negative if short).
+     * @param symbolId the exchange's id for the stock.
+     * @return the position in that stock.
+     */
+    public long getShares(int symbolId) {
+        int i = find(symbolId);
+        return i < 0 ? 0 : shares[i];
+    }
+
+    /**
+     * Returns the average cost per share of the position in a stock.
+     * @param symbolId the exchange's id for the stock.
+     * @return the average cost, or 0 if there is no position.
+     */
+    public double getAverageCost(int symbolId) {
+        int i = find(symbolId);
+        return i < 0 ? 0 : averageCost[i];
+    }
+
+    /**
+     * Returns the profit and loss realized so far in a stock.
+     * @param symbolId the exchange's id for the stock.
+     * @return the realized profit and loss in that stock.
+     */
+    public double getRealized(int symbolId) {
+        int i = find(symbolId);
+        return i < 0 ? 0 : realized[i];
+    }
+
+    /**
+     * Returns the profit and loss realized so far across all stocks.
+     * @return the total realized profit and loss.
+     */
+    public double getRealizedTotal() {
+        return realizedTotal;
+    }
+
+    /**
+     * Returns the profit or loss on the open position in a stock if it were
+     * closed at a given price.
+     * @param symbolId the exchange's id for the stock.
+     * @param markPrice the price to mark the position to.
+     * @return the unrealized profit and loss in that stock.
+     */
+    public double getUnrealized(int symbolId, double markPrice) {
+        int i = find(symbolId);
+        return i < 0 || shares[i] == 0 ? 0
+                : shares[i] * (markPrice - averageCost[i]);
+    }
+
+    /**
+     * Returns the number of stocks this trader has traded.
+     * @return the number of stocks with a position entry.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of stocks in which this trader holds shares (long
+     * or short); stocks traded back to flat are not counted.
+     * @return the number of non-zero positions.
+     */
+    public int getOpenCount() {
+        int open = 0;
+        for (int i = 0; i < symbols.length; i++) {
+            if (symbols[i] != null && shares[i] != 0) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Returns the number of slots in the table; used with
+     * <code>getSymbolIdAt</code> and <code>getSymbolAt</code> to walk all
+     * positions without allocating.
+     * @return the table capacity.
+     */
+    public int getCapacity() {
+        return symbols.length;
+    }
+
+    /**
+     * Returns the symbol id kept in a given table slot.
+     * @param slot a slot, 0 &lt;= slot &lt; getCapacity().
+     * @return the symbol id in that slot (meaningful only if
+     *         <code>getSymbolAt(slot)</code> is not null).
+     */
+    public int getSymbolIdAt(int slot) {
+        return ids[slot];
+    }
+
+    /**
+     * Returns the stock symbol kept in a given table slot.
+     * @param slot a slot, 0 &lt;= slot &lt; getCapacity().
+     * @return the symbol in that slot, or null if the slot is empty.
+     */
+    public String getSymbolAt(int slot) {
+        return symbols[slot];
+    }
+
+    private int find(int symbolId) {
+        int mask = ids.length - 1;
+        int i = mix(symbolId) & mask;
+        while (symbols[i] != null) {
+            if (ids[i] == symbolId) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slot(int symbolId, String symbol) {
+        int mask = ids.length - 1;
+        int i = mix(symbolId) & mask;
+        while (symbols[i] != null) {
+            if (ids[i] == symbolId) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        if ((size + 1) * 4 > ids.length * 3) {
+            grow();
+            return slot(symbolId, symbol);
+        }
+        ids[i] = symbolId;
+        symbols[i] = symbol;
+        size++;
+        return i;
+    }
+
+    private void grow() {
+        int[] oldIds = ids;
+        String[] oldSymbols = symbols;
+        long[] oldShares = shares;
+        double[] oldCost = averageCost;
+        double[] oldRealized = realized;
+        allocate(oldIds.length * 2);
+        int mask = ids.length - 1;
+        for (int j = 0; j < oldIds.length; j++) {
+            if (oldSymbols[j] != null) {
+                int i = mix(oldIds[j]) & mask;
+                while (symbols[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                ids[i] = oldIds[j];
+                symbols[i] = oldSymbols[j];
+                shares[i] = oldShares[j];
+                averageCost[i] = oldCost[j];
+                realized[i] = oldRealized[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        symbols = new String[capacity];
+        shares = new long[capacity];
+        averageCost = new double[capacity];
+        realized = new double[capacity];
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the positions held, for debugging.
+     * @return a string representation of these positions.
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder("Positions[");
+        String separator = "";
+        for (int i = 0; i < symbols.length; i++) {
+            if (symbols[i] != null) {
+                str.append(separator).append(symbols[i]).append(' ')
+                        .append(shares[i]).append(" @ ")
+                        .append(Stock.money.format(averageCost[i]));
+                separator = ", ";
+            }
+        }
+        return str.append("]").toString();
+    }
+}
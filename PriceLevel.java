@@ -0,0 +1,288 @@
+/**
+ * Represents all resting orders at one price on one side of a stock's book.
+ * Orders are kept in time priority in an array-backed ring. Every order
+ * remembers the absolute slot it was appended at, so it can be found (and
+ * cancelled) in constant time, and the order at the head can be moved to
+ * the back of the line in place, without shifting anything else.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class PriceLevel
+{
+    private static final int INITIAL_CAPACITY = 4;
+
+    private double price;
+    private long priceTicks;
+    private TradeOrder[] orders;
+    private long headSlot;
+    private long tailSlot;
+    private int liveOrders;
+    private long visibleShares;
+    private long hiddenShares;
+
+    /**
+     * Constructs an empty price level.
+     * @param price the limit price of the orders at this level (ignored for
+     *              the market level).
+     * @param priceTicks the price in whole cents.
+     */
+    public PriceLevel(double price, long priceTicks) {
+        this.price = price;
+        this.priceTicks = priceTicks;
+        orders = new TradeOrder[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Returns the limit price of this level.
+     * @return the limit price of this level.
+     */
+    public double getPrice() {
+        return price;
+    }
+
+    /**
+     * Returns the price of this level in whole cents.
+     * @return the price of this level in whole cents.
+     */
+    public long getPriceTicks() {
+        return priceTicks;
+    }
+
+    /**
+     * Returns the number of live orders resting at this level.
+     * @return the number of live orders at this level.
+     */
+    public int getOrderCount() {
+        return liveOrders;
+    }
+
+    /**
+     * Returns the sum of the displayed shares of all orders at this level.
+     * Hidden iceberg reserves are not included.
+     * @return the displayed size of this level.
+     */
+    public long getVisibleShares() {
+        return visibleShares;
+    }
+
+    /**
+     * Returns the sum of the displayed and hidden shares of all orders at
+     * this level.
+     * @return the full size of this level.
+     */
+    public long getTotalShares() {
+        return visibleShares + hiddenShares;
+    }
+
+    /**
+     * Returns true if no live orders rest at this level.
+     * @return true if this level is empty; false otherwise.
+     */
+    public boolean isEmpty() {
+        return liveOrders == 0;
+    }
+
+    /**
+     * Returns the order with the highest time priority at this level, or
+     * null if the level is empty.
+     * @return the first order in line at this level.
+     */
+    public TradeOrder peek() {
+        skipRemoved();
+        return liveOrders == 0 ? null : orders[index(headSlot)];
+    }
+
+    /**
+     * Returns the i-th slot of this level counting from the head, including
+     * slots of removed orders (which are null). Used for walking the level in
+     * time priority without allocating an iterator.
+     * @param i offset from the head, 0 &lt;= i &lt; getSlotCount().
+     * @return the order in that slot, or null if it was removed.
+     */
+    TradeOrder getSlot(int i) {
+        return orders[index(headSlot + i)];
+    }
+
+    /**
+     * Returns the number of slots between the head and the tail of this
+     * level, including the slots of removed orders.
+     * @return the number of occupied and removed slots.
+     */
+    int getSlotCount() {
+        return (int)(tailSlot - headSlot);
+    }
+
+    /**
+     * Returns the length of the backing array of this level.
+     * @return the capacity of this level.
+     */
+    int getCapacity() {
+        return orders.length;
+    }
+
+    /**
+     * Appends an order to the back of the line at this level.
+     * @param order the order to add.
+     */
+    void add(TradeOrder order) {
+        if (tailSlot - headSlot == orders.length) {
+            // Mostly slots of cancelled orders behind a head order that has
+            // not traded: close the gaps instead of growing.
+            resize(liveOrders <= orders.length / 2 ? orders.length
+                    : orders.length * 2);
+        }
+        orders[index(tailSlot)] = order;
+        order.setLevel(this, tailSlot);
+        tailSlot++;
+        liveOrders++;
+        visibleShares += order.getShares();
+        hiddenShares += order.getHiddenShares();
+    }
+
+    /**
+     * Removes the order at the head of this level.
+     * @return the removed order, or null if the level is empty.
+     */
+    TradeOrder poll() {
+        TradeOrder order = peek();
+        if (order != null) {
+            remove(order);
+        }
+        return order;
+    }
+
+    /**
+     * Removes a given order from this level in constant time. The slot is
+     * left empty and is skipped when it reaches the head.
+     * @param order an order resting at this level.
+     */
+    void remove(TradeOrder order) {
+        orders[index(order.getSlot())] = null;
+        order.setLevel(null, -1);
+        liveOrders--;
+        visibleShares -= order.getShares();
+        hiddenShares -= order.getHiddenShares();
+        skipRemoved();
+    }
+
+    /**
+     * Records that shares were traded from an order resting at this level.
+     * @param order an order resting at this level.
+     * @param shares the number of shares traded.
+     */
+    void fill(TradeOrder order, int shares) {
+        order.subtractShares(shares);
+        visibleShares -= shares;
+    }
+
+    /**
+     * Refills the displayed slice of the iceberg order at the head of this
+     * level from its hidden reserve and sends it to the back of the line.
+     * The order stays in the same array; only the head and tail move.
+     * @param order the order at the head of this level.
+     */
+    void replenishHead(TradeOrder order) {
+        int hiddenBefore = order.getHiddenShares();
+        order.replenish();
+        visibleShares += order.getShares();
+        hiddenShares -= hiddenBefore - order.getHiddenShares();
+        if (tailSlot - headSlot == orders.length) {
+            // A full ring: the head slot is also the next tail slot, so the
+            // order is already in place at the back of the line.
+            headSlot++;
+        }
+        else {
+            orders[index(headSlot)] = null;
+            orders[index(tailSlot)] = order;
+            headSlot++;
+        }
+        order.setLevel(this, tailSlot);
+        tailSlot++;
+        skipRemoved();
+    }
+
+    /**
+     * Refills the displayed slice of an iceberg order resting anywhere at
+     * this level and sends it to the back of the line. An order that is not
+     * at the head leaves an empty slot behind, as a cancel does.
+     * @param order an iceberg order resting at this level with no displayed
+     *              shares left.
+     */
+    void replenish(TradeOrder order) {
+        if (peek() == order) {
+            replenishHead(order);
+            return;
+        }
+        remove(order);
+        order.replenish();
+        add(order);
+    }
+
+    /**
+     * Shrinks the backing array of this level so that it is no larger than
+     * needed for the live orders, dropping the slots of removed orders.
+     * @param minCapacity the smallest capacity to keep.
+     */
+    void trimToSize(int minCapacity) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < Math.max(liveOrders, minCapacity)) {
+            capacity *= 2;
+        }
+        if (capacity < orders.length || liveOrders < getSlotCount()) {
+            resize(capacity);
+        }
+    }
+
+    /**
+     * Resets this level so it can be reused for another price.
+     * @param newPrice the new limit price.
+     * @param newTicks the new price in whole cents.
+     */
+    void reset(double newPrice, long newTicks) {
+        price = newPrice;
+        priceTicks = newTicks;
+        headSlot = 0;
+        tailSlot = 0;
+        liveOrders = 0;
+        visibleShares = 0;
+        hiddenShares = 0;
+        java.util.Arrays.fill(orders, null);
+    }
+
+    private void skipRemoved() {
+        while (headSlot < tailSlot && orders[index(headSlot)] == null) {
+            headSlot++;
+        }
+    }
+
+    private void resize(int capacity) {
+        TradeOrder[] old = orders;
+        long oldHead = headSlot;
+        long oldTail = tailSlot;
+        orders = new TradeOrder[capacity];
+        headSlot = 0;
+        tailSlot = 0;
+        for (long s = oldHead; s < oldTail; s++) {
+            TradeOrder order = old[(int)(s & (old.length - 1))];
+            if (order != null) {
+                orders[index(tailSlot)] = order;
+                order.setLevel(this, tailSlot);
+                tailSlot++;
+            }
+        }
+    }
+
+    private int index(long slot) {
+        return (int)(slot & (orders.length - 1));
+    }
+
+    /**
+     * Returns a short description of this level.
+     * @return the price, order count and displayed size of this level.
+     */
+    public String toString() {
+        return Stock.money.format(price) + " x " + visibleShares + " ("
+                + liveOrders + " orders)";
+    }
+}
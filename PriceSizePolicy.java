@@ -0,0 +1,118 @@
+/**
+ * Fills the orders at a price level largest first: an order with more
+ * displayed shares is filled before a smaller one, and orders of the same
+ * size are filled in time priority.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class PriceSizePolicy implements MatchingPolicy
+{
+    /**
+     * Fills the orders at a level in order of size, largest first. The
+     * orders are gathered in time priority and heapified by size, then
+     * taken off the heap only until <code>shares</code> is used up, so a
+     * small fill at a long level costs O(n + k log n) for k orders filled
+     * rather than a full sort. <code>fills</code> holds each order's
+     * arrival index while the heap is built, to break ties by time.
+     * @param level the price level being traded with.
+     * @param shares the number of shares to divide.
+     * @param orders receives the orders to fill.
+     * @param fills receives the shares for each order.
+     * @return the number of orders to fill.
+     */
+    public int allocate(PriceLevel level, int shares, TradeOrder[] orders,
+                        int[] fills) {
+        int slots = level.getSlotCount();
+        int count = 0;
+        for (int i = 0; i < slots; i++) {
+            TradeOrder order = level.getSlot(i);
+            if (order != null) {
+                orders[count] = order;
+                fills[count] = count;
+                count++;
+            }
+        }
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(orders, fills, i, count);
+        }
+        // take the largest off the heap into the slot freed at its end
+        int heap = count;
+        int left = shares;
+        while (heap > 0 && left > 0) {
+            left -= Math.min(left, orders[0].getShares());
+            heap--;
+            swap(orders, fills, 0, heap);
+            siftDown(orders, fills, 0, heap);
+        }
+        int filled = count - heap;
+        // the taken orders sit at the end, largest last; move them to the
+        // front largest first
+        for (int a = heap, b = count - 1; a < b; a++, b--) {
+            swap(orders, fills, a, b);
+        }
+        System.arraycopy(orders, heap, orders, 0, filled);
+        for (int k = 0; k < filled; k++) {
+            int fill = Math.min(shares, orders[k].getShares());
+            fills[k] = fill;
+            shares -= fill;
+        }
+        for (int k = filled; k < count; k++) {
+            orders[k] = null;
+        }
+        return filled;
+    }
+
+    // true if the order at a comes before the one at b: more shares, or as
+    // many shares and an earlier arrival
+    private static boolean before(TradeOrder[] orders, int[] arrival, int a,
+                                  int b) {
+        int sa = orders[a].getShares();
+        int sb = orders[b].getShares();
+        return sa > sb || (sa == sb && arrival[a] < arrival[b]);
+    }
+
+    private static void siftDown(TradeOrder[] orders, int[] arrival, int i,
+                                 int size) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && before(orders, arrival, child + 1, child)) {
+                child++;
+            }
+            if (!before(orders, arrival, child, i)) {
+                return;
+            }
+            swap(orders, arrival, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(TradeOrder[] orders, int[] arrival, int a,
+                             int b) {
+        TradeOrder order = orders[a];
+        orders[a] = orders[b];
+        orders[b] = order;
+        int index = arrival[a];
+        arrival[a] = arrival[b];
+        arrival[b] = index;
+    }
+
+    /**
+     * Returns the name of this policy.
+     * @return "price-size".
+     */
+    public String getName() {
+        return "price-size";
+    }
+
+    /**
+     * Returns the name of this policy.
+     * @return a string representation of this policy.
+     */
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Fills the orders at a price level in proportion to their displayed size.
+ * Each order first gets its proportional share rounded down; the shares
+ * left over by rounding go to the orders in time priority, each up to its
+ * displayed size.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class ProRataPolicy implements MatchingPolicy
+{
+    /**
+     * Divides shares among the orders at a level in proportion to their
+     * displayed size.
+     * @param level the price level being traded with.
+     * @param shares the number of shares to divide.
+     * @param orders receives the orders to fill.
+     * @param fills receives the shares for each order.
+     * @return the number of orders to fill.
+     */
+    public int allocate(PriceLevel level, int shares, TradeOrder[] orders,
+                        int[] fills) {
+        long size = level.getVisibleShares();
+        int slots = level.getSlotCount();
+        int count = 0;
+        int left = shares;
+        for (int i = 0; i < slots; i++) {
+            TradeOrder order = level.getSlot(i);
+            if (order != null) {
+                int fill = (int)((long)shares * order.getShares() / size);
+                orders[count] = order;
+                fills[count] = fill;
+                count++;
+                left -= fill;
+            }
+        }
+        for (int k = 0; k < count && left > 0; k++) {
+            int extra = Math.min(left, orders[k].getShares() - fills[k]);
+            fills[k] += extra;
+            left -= extra;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the name of this policy.
+     * @return "pro-rata".
+     */
+    public String getName() {
+        return "pro-rata";
+    }
+
+    /**
+     * Returns the name of this policy.
+     * @return a string representation of this policy.
+     */
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,209 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The top of the book of several stocks at one point in time, as returned
+ * by <code>StockExchange.getQuotes</code>. Each stock publishes an
+ * immutable <code>TopOfBook</code> whenever its top of the book changes;
+ * a snapshot collects the published quotes while no stock is publishing,
+ * so it never mixes a quote from before some change with one from after a
+ * later change. If publications keep overlapping the collection, the
+ * exchange stops retrying and collects the quotes while holding the book
+ * locks of the requested stocks instead; such a snapshot reports
+ * <code>isLocked</code>.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class QuoteSnapshot
+{
+    /**
+     * Counts the quote publications of the stocks on one exchange. A stock
+     * calls <code>beginWrite</code> before it replaces its published quote
+     * and <code>endWrite</code> after; neither ever waits. A reader that
+     * collects quotes between <code>beginRead</code> and a successful
+     * <code>validate</code> saw no publication in progress.
+     */
+    public static class Clock
+    {
+        private final AtomicLong started = new AtomicLong();
+        private final AtomicLong finished = new AtomicLong();
+
+        /**
+         * Marks the start of a publication.
+         */
+        public void beginWrite() {
+            started.incrementAndGet();
+        }
+
+        /**
+         * Marks the end of a publication.
+         */
+        public void endWrite() {
+            finished.incrementAndGet();
+        }
+
+        /**
+         * Waits until no publication is in progress.
+         * @return the number of publications started so far, to pass to
+         *         <code>validate</code>.
+         */
+        public long beginRead() {
+            while (true) {
+                long version = started.get();
+                if (finished.get() == version) {
+                    return version;
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        /**
+         * Returns the number of publications started so far, without
+         * waiting, if no publication is in progress.
+         * @return the value to pass to <code>validate</code>, or -1 if a
+         *         publication is in progress.
+         */
+        public long tryBeginRead() {
+            long version = started.get();
+            return finished.get() == version ? version : -1;
+        }
+
+        /**
+         * Returns the number of publications started so far.
+         * @return the number of publications started.
+         */
+        public long getStarted() {
+            return started.get();
+        }
+
+        /**
+         * Returns true if no publication started since
+         * <code>beginRead</code>.
+         * @param version the value returned by <code>beginRead</code>.
+         * @return true if the quotes read since are consistent; false if
+         *         they must be read again.
+         */
+        public boolean validate(long version) {
+            return started.get() == version;
+        }
+    }
+
+    private Map<String, TopOfBook> quotes;
+    private long version;
+    private int attempts;
+    private boolean locked;
+
+    /**
+     * Constructs a snapshot collected without locks.
+     * @param symbols the requested symbols.
+     * @param quotes the quote for each symbol, in the same order, or null
+     *               for a symbol that is not listed.
+     * @param version the number of quote publications on the exchange
+     *                before the snapshot.
+     * @param attempts the number of times the quotes were collected.
+     */
+    public QuoteSnapshot(String[] symbols, TopOfBook[] quotes, long version,
+                         int attempts) {
+        this(symbols, quotes, version, attempts, false);
+    }
+
+    /**
+     * Constructs a snapshot.
+     * @param symbols the requested symbols.
+     * @param quotes the quote for each symbol, in the same order, or null
+     *               for a symbol that is not listed.
+     * @param version the number of quote publications on the exchange
+     *                before the snapshot.
+     * @param attempts the number of times the quotes were collected.
+     * @param locked true if the quotes were collected under the book locks
+     *               of the stocks, after the lock-free attempts failed.
+     */
+    public QuoteSnapshot(String[] symbols, TopOfBook[] quotes, long version,
+                         int attempts, boolean locked) {
+        this.quotes = new LinkedHashMap<String, TopOfBook>(
+                symbols.length * 4 / 3 + 1);
+        for (int i = 0; i < symbols.length; i++) {
+            this.quotes.put(symbols[i], quotes[i]);
+        }
+        this.version = version;
+        this.attempts = attempts;
+        this.locked = locked;
+    }
+
+    /**
+     * Returns the quote for a given stock.
+     * @param symbol a stock symbol.
+     * @return the top of the book, or null if the stock was not requested or
+     *         is not listed.
+     */
+    public TopOfBook get(String symbol) {
+        return quotes.get(symbol);
+    }
+
+    /**
+     * Returns the requested symbols, in request order.
+     * @return the symbols.
+     */
+    public Set<String> getSymbols() {
+        return Collections.unmodifiableSet(quotes.keySet());
+    }
+
+    /**
+     * Returns the quotes, in request order, with null for a stock that is
+     * not listed.
+     * @return the quotes.
+     */
+    public Collection<TopOfBook> getQuotes() {
+        return Collections.unmodifiableCollection(quotes.values());
+    }
+
+    /**
+     * Returns the number of symbols requested.
+     * @return the number of symbols.
+     */
+    public int size() {
+        return quotes.size();
+    }
+
+    /**
+     * Returns the number of quote publications on the exchange before this
+     * snapshot. A later snapshot with the same version saw the same quotes.
+     * @return the version of this snapshot.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of times the quotes were collected before a
+     * consistent set was found.
+     * @return the number of attempts.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Returns true if the quotes were collected under the book locks of the
+     * stocks, because publications kept overlapping every lock-free
+     * attempt.
+     * @return true if this snapshot fell back to locking; false otherwise.
+     */
+    public boolean isLocked() {
+        return locked;
+    }
+
+    /**
+     * Returns the quotes in this snapshot, one per line.
+     * @return a string representation of this snapshot.
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder("Quotes at " + version);
+        for (Map.Entry<String, TopOfBook> entry : quotes.entrySet()) {
+            str.append("\n").append(entry.getValue() == null ? entry.getKey()
+                    + " not found." : entry.getValue().toString());
+        }
+        return str.toString();
+    }
+}
@@ -0,0 +1,326 @@
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams the sequenced events of a brokerage and its stock exchange to a
+ * hot standby (see <code>ReplicationStandby</code>) over TCP. Records are
+ * written to a buffer in memory on the matching thread and sent in batches
+ * by a background thread, which swaps the full buffer for an empty one and
+ * writes it to the socket without holding the writer's lock, so the
+ * matching thread never waits for the network, even if the socket stalls.
+ * The standby acknowledges the sequence number it has applied
+ * on the same connection, so several batches can be in flight at once.
+ * If the standby falls more than a given number of records behind, new
+ * orders wait until it catches up, which bounds the standby's lag.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class ReplicationPrimary implements OrderEventListener, MarketListener,
+        Closeable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long FLUSH_INTERVAL_NANOS = 200_000;
+
+    private Socket socket;
+    private OutputStream out;
+    private EventLogWriter writer;
+    private long maxLag;
+    private volatile long acked;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private Thread flusher;
+    private Thread ackReader;
+
+    /**
+     * Connects to a standby and starts streaming to it.
+     * @param host the standby's host.
+     * @param port the standby's port.
+     * @param maxLag the largest number of records the standby may be
+     *               behind before new orders wait for it.
+     * @throws IOException if the standby cannot be reached.
+     */
+    public ReplicationPrimary(String host, int port, long maxLag)
+            throws IOException {
+        this.maxLag = maxLag;
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        out = socket.getOutputStream();
+        writer = new EventLogWriter(BUFFER_SIZE);
+
+        flusher = new Thread(this::flushLoop, "replication-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+        ackReader = new Thread(this::ackLoop, "replication-ack");
+        ackReader.setDaemon(true);
+        ackReader.start();
+    }
+
+    /**
+     * Registers this primary with a brokerage and its stock exchange, so
+     * that every listing, registration, order, cancel, auction, policy and
+     * fill is streamed.
+     * Attach before listing any stocks or adding any users.
+     * @param brokerage the brokerage to replicate.
+     * @param exchange the stock exchange behind the brokerage.
+     * @throws IllegalStateException if the brokerage routes orders across
+     *         several venues, whose slices are not sequenced.
+     */
+    public void attach(Brokerage brokerage, StockExchange exchange) {
+        brokerage.setOrderEventListener(this);
+        exchange.setOrderEventListener(this);
+        exchange.addMarketListener(this);
+    }
+
+    /**
+     * Streams a listing.
+     * @param symbol stock symbol.
+     * @param name full company name.
+     * @param price opening stock price.
+     * @param tickSize the smallest price increment of the stock.
+     */
+    public void stockListed(String symbol, String name, double price,
+                            double tickSize) {
+        writer.stockListed(symbol, name, price, tickSize);
+    }
+
+    /**
+     * Streams a registration.
+     * @param name the screen name of the trader.
+     * @param password the password for the trader.
+     */
+    public void userAdded(String name, String password) {
+        writer.userAdded(name, password);
+    }
+
+    /**
+     * Streams an accepted order, first waiting for the standby if it is too
+     * far behind.
+     * @param order the accepted order.
+     */
+    public void orderPlaced(TradeOrder order) {
+        while (!closed && writer.getSequence() - acked >= maxLag) {
+            LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+        }
+        writer.orderPlaced(order);
+    }
+
+    /**
+     * Streams a cancel.
+     * @param order the cancelled order.
+     */
+    public void orderCancelled(TradeOrder order) {
+        writer.orderCancelled(order);
+    }
+
+    /**
+     * Streams the start of a call auction.
+     * @param symbol the stock symbol.
+     */
+    public void auctionStarted(String symbol) {
+        writer.auctionStarted(symbol);
+    }
+
+    /**
+     * Streams an uncross.
+     * @param symbol the stock symbol.
+     */
+    public void auctionUncrossed(String symbol) {
+        writer.auctionUncrossed(symbol);
+    }
+
+    /**
+     * Streams a change of matching policy.
+     * @param symbol the stock symbol.
+     * @param policy the name of the matching policy.
+     */
+    public void matchingPolicySet(String symbol, String policy) {
+        writer.matchingPolicySet(symbol, policy);
+    }
+
+    /**
+     * Streams a fill, so the standby can check its own.
+     * @param stock the stock that traded.
+     * @param buy the buy order.
+     * @param sell the sell order.
+     * @param price the execution price.
+     * @param shares the number of shares traded.
+     */
+    public void tradeExecuted(Stock stock, TradeOrder buy, TradeOrder sell,
+                              double price, int shares) {
+        writer.tradeExecuted(stock, buy, sell, price, shares);
+    }
+
+    /**
+     * Returns the sequence number of the last record streamed.
+     * @return the last sequence number.
+     */
+    public long getSequence() {
+        return writer.getSequence();
+    }
+
+    /**
+     * Returns the sequence number the standby last acknowledged.
+     * @return the last acknowledged sequence number.
+     */
+    public long getAcknowledged() {
+        return acked;
+    }
+
+    /**
+     * Returns the number of records the standby has not yet acknowledged.
+     * @return the standby's lag in records.
+     */
+    public long getLag() {
+        return writer.getSequence() - acked;
+    }
+
+    /**
+     * Waits until the standby has acknowledged every record streamed so far.
+     * @param timeoutMillis the longest time to wait.
+     * @return true if the standby caught up; false on timeout or failure.
+     */
+    public boolean awaitCaughtUp(long timeoutMillis) {
+        long target = writer.getSequence();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (acked < target) {
+            if (closed || System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the error that stopped replication, if any.
+     * @return the failure, or null if replication is running.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Flushes the remaining records and closes the connection. The standby
+     * sees the end of the stream and may take over.
+     * @throws IOException if the last records cannot be sent.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writer.drainTo(out);
+            socket.shutdownOutput();
+        }
+        finally {
+            closed = true;
+            flusher.interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            try {
+                writer.drainTo(out);
+            }
+            catch (IOException ex) {
+                fail(ex);
+                return;
+            }
+            LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+        }
+    }
+
+    private void ackLoop() {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                acked = in.readLong();
+            }
+        }
+        catch (EOFException ex) {
+            // the standby closed its side
+        }
+        catch (IOException ex) {
+            fail(ex);
+        }
+        finally {
+            closed = true;
+            try {
+                socket.close();
+            }
+            catch (IOException ex) {
+                // already closing
+            }
+        }
+    }
+
+    private void fail(IOException ex) {
+        if (!closed) {
+            failure = ex;
+        }
+        closed = true;
+    }
+
+    /**
+     * Runs a primary against a standby on another JVM: lists a few stocks,
+     * registers traders, streams a number of random limit orders and
+     * reports the throughput and the standby's lag.
+     * <pre>java ReplicationPrimary host port [orders]</pre>
+     * @param args the standby's host and port, and the number of orders.
+     * @throws IOException if the standby cannot be reached.
+     */
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+        int orders = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+
+        StockExchange exchange = new StockExchange();
+        Brokerage brokerage = new Brokerage(exchange);
+        ReplicationPrimary primary = new ReplicationPrimary(host, port,
+                65536);
+        primary.attach(brokerage, exchange);
+
+        String[] symbols = { "DS", "NSTL", "GGGL", "MATI", "DDLC", "SAFT" };
+        for (String symbol : symbols) {
+            exchange.listStock(symbol, symbol + " Inc.", 50.00);
+        }
+        Trader[] traders = new Trader[8];
+        for (int i = 0; i < traders.length; i++) {
+            brokerage.addUser("trader" + i, "pw" + i);
+            traders[i] = brokerage.getTraders().get("trader" + i);
+        }
+
+        java.util.Random random = new java.util.Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            brokerage.placeOrder(new TradeOrder(
+                    traders[random.nextInt(traders.length)],
+                    symbols[random.nextInt(symbols.length)],
+                    random.nextBoolean(), false, 1 + random.nextInt(500),
+                    49.00 + random.nextInt(200) / 100.0));
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(orders + " orders in " + elapsed / 1_000_000
+                + " ms, standby lag " + primary.getLag() + " records");
+        primary.awaitCaughtUp(10_000);
+        System.out.println("standby acknowledged " + primary.getAcknowledged()
+                + " of " + primary.getSequence() + " records");
+        for (String symbol : symbols) {
+            System.out.println(exchange.getQuote(symbol));
+        }
+        primary.close();
+    }
+
+    /**
+     * Returns the replication state, for debugging.
+     * @return a string representation of this primary.
+     */
+    public String toString() {
+        return "ReplicationPrimary[" + socket.getRemoteSocketAddress()
+                + ", seq " + getSequence() + ", acked " + acked + "]";
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.*;
+import java.net.*;
+
+/**
+ * A hot standby for a brokerage and its stock exchange. The standby accepts
+ * one connection from a <code>ReplicationPrimary</code>, applies its event
+ * stream to a local brokerage and exchange (see <code>EventApplier</code>)
+ * and acknowledges what it has applied. Acknowledgements are sent once per
+ * batch of records received, not once per record. When the primary goes
+ * away, <code>takeOver</code> returns the standby's brokerage, whose books
+ * are the same as the primary's were.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class ReplicationStandby implements Closeable
+{
+    private ServerSocket server;
+    private volatile Socket connection;
+    private StockExchange exchange;
+    private Brokerage brokerage;
+    private EventApplier applier;
+    private volatile long appliedSequence;
+    private volatile IOException failure;
+    private Thread reader;
+
+    /**
+     * Constructs a standby listening on a given local port, with an empty
+     * exchange and brokerage.
+     * @param port the port to listen on, or 0 for any free port.
+     * @throws IOException if the port cannot be opened.
+     */
+    public ReplicationStandby(int port) throws IOException {
+        server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress());
+        exchange = new StockExchange();
+        brokerage = new Brokerage(exchange);
+        applier = new EventApplier(brokerage, exchange);
+    }
+
+    /**
+     * Returns the port this standby listens on.
+     * @return the local port.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Starts waiting for the primary on a background thread and applying
+     * its stream once it connects.
+     */
+    public void start() {
+        reader = new Thread(this::run, "replication-standby");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Returns the sequence number of the last record applied.
+     * @return the last applied sequence number.
+     */
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    /**
+     * Returns the number of fills from the primary that did not match the
+     * standby's own fills.
+     * @return the number of mismatched fills.
+     */
+    public long getMismatches() {
+        return applier.getMismatches();
+    }
+
+    /**
+     * Returns true while the primary is connected and streaming.
+     * @return true if the stream is being applied; false otherwise.
+     */
+    public boolean isReplicating() {
+        return reader != null && reader.isAlive();
+    }
+
+    /**
+     * Returns the error that stopped replication, if any.
+     * @return the failure, or null if the stream ended normally.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stops replicating and returns the standby's brokerage, ready to take
+     * orders. Waits for the records already received to be applied.
+     * @param timeoutMillis the longest time to wait for the primary to
+     *                      close its stream before cutting it off.
+     * @return the brokerage that takes over from the primary.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws IOException if the connection cannot be closed.
+     */
+    public Brokerage takeOver(long timeoutMillis)
+            throws InterruptedException, IOException {
+        if (reader != null) {
+            reader.join(timeoutMillis);
+            if (reader.isAlive()) {
+                close();
+                reader.join();
+            }
+        }
+        return brokerage;
+    }
+
+    /**
+     * Returns the standby's stock exchange.
+     * @return the exchange the stream is applied to.
+     */
+    public StockExchange getExchange() {
+        return exchange;
+    }
+
+    /**
+     * Stops listening and drops the connection to the primary.
+     * @throws IOException if the socket cannot be closed.
+     */
+    public void close() throws IOException {
+        server.close();
+        Socket socket = connection;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    private void run() {
+        try (Socket socket = server.accept()) {
+            connection = socket;
+            server.close();
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(),
+                            1 << 16));
+            DataOutputStream acks = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            EventRecord record = new EventRecord();
+            while (record.readFrom(in)) {
+                applier.apply(record);
+                appliedSequence = record.getSequence();
+                if (in.available() == 0) {
+                    acks.writeLong(appliedSequence);
+                    acks.flush();
+                }
+            }
+            acks.writeLong(appliedSequence);
+            acks.flush();
+        }
+        catch (SocketException ex) {
+            // closed by takeOver
+        }
+        catch (IOException ex) {
+            failure = ex;
+        }
+    }
+
+    /**
+     * Runs a standby for a primary on another JVM (see
+     * <code>ReplicationPrimary.main</code>). When the primary's stream ends
+     * the standby takes over and prints its quotes.
+     * <pre>java ReplicationStandby [port]</pre>
+     * @param args the port to listen on.
+     * @throws Exception if the port cannot be opened.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7070;
+        ReplicationStandby standby = new ReplicationStandby(port);
+        System.out.println("standby listening on " + standby.getPort());
+        standby.start();
+        standby.takeOver(Long.MAX_VALUE);
+        System.out.println("took over at seq " + standby.getAppliedSequence()
+                + ", " + standby.applier);
+        for (Stock stock : standby.exchange.getListedStocks().values()) {
+            System.out.println(stock.getQuote());
+        }
+    }
+
+    /**
+     * Returns the replication state, for debugging.
+     * @return a string representation of this standby.
+     */
+    public String toString() {
+        return "ReplicationStandby[port " + getPort() + ", " + applier + "]";
+    }
+}
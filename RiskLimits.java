@@ -0,0 +1,129 @@
+/**
+ * Represents the pre-trade risk limits of one trader. Limits are immutable;
+ * to change a trader's limits, give the trader a new <code>RiskLimits</code>.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class RiskLimits
+{
+    /**
+     * Limits that never reject an order.
+     */
+    public static final RiskLimits NONE = new RiskLimits(Integer.MAX_VALUE,
+            Double.POSITIVE_INFINITY, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private final int maxOrderShares;
+    private final double maxNotional;
+    private final int maxOpenOrders;
+    private final long maxPosition;
+    private final double maxOrderRate;
+    private final int maxBurst;
+
+    /**
+     * Constructs a new set of risk limits.
+     * @param maxOrderShares the largest number of shares in one order.
+     * @param maxNotional the largest value (shares times limit price, or
+     *                    times last sale price for a market order) of one
+     *                    order.
+     * @param maxOpenOrders the largest number of orders resting at once.
+     * @param maxPosition the largest number of shares held long or short in
+     *                    any one stock.
+     */
+    public RiskLimits(int maxOrderShares, double maxNotional,
+                      int maxOpenOrders, long maxPosition) {
+        this(maxOrderShares, maxNotional, maxOpenOrders, maxPosition,
+                Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a new set of risk limits that also throttles the rate at
+     * which orders are placed.
+     * @param maxOrderShares the largest number of shares in one order.
+     * @param maxNotional the largest value of one order.
+     * @param maxOpenOrders the largest number of orders resting at once.
+     * @param maxPosition the largest number of shares held long or short in
+     *                    any one stock.
+     * @param maxOrderRate the most orders placed per second, on average, or
+     *                     infinity for no limit.
+     * @param maxBurst the most orders placed at once after a quiet period.
+     */
+    public RiskLimits(int maxOrderShares, double maxNotional,
+                      int maxOpenOrders, long maxPosition,
+                      double maxOrderRate, int maxBurst) {
+        this.maxOrderShares = maxOrderShares;
+        this.maxNotional = maxNotional;
+        this.maxOpenOrders = maxOpenOrders;
+        this.maxPosition = maxPosition;
+        this.maxOrderRate = maxOrderRate;
+        this.maxBurst = maxBurst;
+    }
+
+    /**
+     * Returns the largest number of shares allowed in one order.
+     * @return the maximum order size.
+     */
+    public int getMaxOrderShares() {
+        return maxOrderShares;
+    }
+
+    /**
+     * Returns the largest value allowed for one order.
+     * @return the maximum order notional.
+     */
+    public double getMaxNotional() {
+        return maxNotional;
+    }
+
+    /**
+     * Returns the largest number of orders allowed to rest at once.
+     * @return the maximum number of open orders.
+     */
+    public int getMaxOpenOrders() {
+        return maxOpenOrders;
+    }
+
+    /**
+     * Returns the largest position allowed in any one stock.
+     * @return the maximum absolute position.
+     */
+    public long getMaxPosition() {
+        return maxPosition;
+    }
+
+    /**
+     * Returns the most orders allowed per second, on average.
+     * @return the maximum order rate, or infinity if orders are not
+     *         throttled.
+     */
+    public double getMaxOrderRate() {
+        return maxOrderRate;
+    }
+
+    /**
+     * Returns the most orders allowed at once after a quiet period.
+     * @return the maximum burst.
+     */
+    public int getMaxBurst() {
+        return maxBurst;
+    }
+
+    /**
+     * Returns true if these limits throttle the order rate.
+     * @return true if the order rate is finite; false otherwise.
+     */
+    public boolean isThrottled() {
+        return maxOrderRate < Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns a short description of these limits.
+     * @return a string representation of these limits.
+     */
+    public String toString() {
+        return "RiskLimits[size " + maxOrderShares + ", notional "
+                + maxNotional + ", open " + maxOpenOrders + ", position "
+                + maxPosition + (isThrottled() ? ", rate " + maxOrderRate
+                + "/s burst " + maxBurst : "") + "]";
+    }
+}
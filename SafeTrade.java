@@ -1,21 +1,66 @@
+import java.io.*;
+import java.nio.file.*;
 import javax.swing.*;
 
 /**
- * The main class for the <i>SafeTrade</i> application.
+ * The main class for the <i>SafeTrade</i> application. With a file name
+ * argument, the session is recorded to that file for
+ * <code>JournalReplay</code>. With <code>--symbols</code> and a symbol
+ * master file (see <code>SymbolMaster</code>), the stocks in the file are
+ * listed instead of the sample stocks.
+ * <pre>java SafeTrade [--symbols file] [journal]</pre>
  */
 public class SafeTrade
 {
-    public static void main( String[] args )
+    public static void main( String[] args ) throws IOException
     {
-        StockExchange exchange = new StockExchange();
-        exchange.listStock( "DS", "DanceStudios.com", 12.33 );
-        exchange.listStock( "NSTL", "Nasty Loops Inc.", 0.25 );
-        exchange.listStock( "GGGL", "Giggle.com", 10.00 );
-        exchange.listStock( "MATI", "M and A Travel Inc.", 28.20 );
-        exchange.listStock( "DDLC", "Dulce De Leche Corp.", 57.50 );
-        exchange.listStock( "SAFT", "SafeTrade.com Inc.", 322.45 );
+        SymbolMaster master = null;
+        String journal = null;
+        for ( int i = 0; i < args.length; i++ )
+        {
+            if ( args[i].equals( "--symbols" ) && i + 1 < args.length )
+            {
+                master = SymbolMaster.read( Paths.get( args[++i] ) );
+            }
+            else
+            {
+                journal = args[i];
+            }
+        }
 
+        StockExchange exchange = master == null ? new StockExchange()
+            : new StockExchange( master.size() );
         Brokerage safeTrade = new Brokerage( exchange );
+        if ( journal != null )
+        {
+            SessionRecorder recorder = new SessionRecorder(
+                Paths.get( journal ), safeTrade, exchange );
+            Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+                try
+                {
+                    recorder.close();
+                }
+                catch ( IOException ex )
+                {
+                    System.out.println( ex );
+                }
+            } ) );
+        }
+
+        if ( master != null )
+        {
+            exchange.listStocks( master );
+        }
+        else
+        {
+            exchange.listStock( "DS", "DanceStudios.com", 12.33 );
+            exchange.listStock( "NSTL", "Nasty Loops Inc.", 0.25 );
+            exchange.listStock( "GGGL", "Giggle.com", 10.00 );
+            exchange.listStock( "MATI", "M and A Travel Inc.", 28.20 );
+            exchange.listStock( "DDLC", "Dulce De Leche Corp.", 57.50 );
+            exchange.listStock( "SAFT", "SafeTrade.com Inc.", 322.45 );
+        }
+
         safeTrade.addUser( "stockman", "sesame" );
         safeTrade.login( "stockman", "sesame" );
         safeTrade.addUser( "mstrade", "bigsecret" );
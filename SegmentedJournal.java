@@ -0,0 +1,591 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.*;
+
+/**
+ * An event log kept as a directory of fixed-size segments instead of one
+ * file, for journals of a full trading day. Records are appended to the
+ * active segment; when it reaches the segment size it is sealed and a new
+ * one is started, and sealed segments are compressed with Deflate on a
+ * background thread. Replay and audit can then start at any sequence
+ * number by reading one chunk of one segment, without decompressing the
+ * rest of the day.
+ * <p>
+ * A segment is named for the sequence number of its first record, so
+ * <code>segment-00000000000000000001.log</code> holds the records from 1.
+ * While being written it is a plain event log (see
+ * <code>EventRecord</code>), divided into chunks of about
+ * <code>CHUNK_BYTES</code> that begin on record boundaries. Compression
+ * deflates each chunk on its own into a <code>.dz</code> file and writes a
+ * <code>.idx</code> file: the magic number <code>0x53414649</code>
+ * ("SAFI"), the number of chunks (int), then for each chunk its first
+ * sequence number and offset in the <code>.dz</code> file (longs) and its
+ * compressed and uncompressed lengths (ints). The plain segment is deleted
+ * once both are written.
+ * </p>
+ * <p>
+ * A journal may be read while it is written. A reader that finds a plain
+ * segment gone reads its compressed form instead, and stops cleanly before
+ * a record of the active segment that is not yet completely written.
+ * </p>
+ * Register a journal with an <code>EventLogWriter</code> (or use
+ * <code>SessionRecorder</code>), which tells the journal where each record
+ * begins.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class SegmentedJournal implements Closeable
+{
+    /**
+     * The first four bytes of a segment index file.
+     */
+    public static final int MAGIC = 0x53414649;
+
+    /**
+     * The default segment size: 64 MB of records.
+     */
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+    /**
+     * The uncompressed size at which a new chunk is started.
+     */
+    public static final int CHUNK_BYTES = 1 << 16;
+
+    private static final String PREFIX = "segment-";
+    private static final String PLAIN = ".log";
+    private static final String COMPRESSED = ".dz";
+    private static final String INDEX = ".idx";
+
+    private Path directory;
+    private long segmentBytes;
+    private ExecutorService compressor;
+    private DataOutputStream output;
+
+    private OutputStream segment;
+    private Path segmentFile;
+    private long segmentSize;
+    private long[] chunkSequences;
+    private long[] chunkOffsets;
+    private int chunks;
+    private int sealed;
+
+    private AtomicLong compressed;
+    private AtomicLong plainBytes;
+    private AtomicLong compressedBytes;
+    private volatile IOException failure;
+
+    /**
+     * Opens a journal in a given directory, creating the directory if
+     * needed. The directory should hold no other journal.
+     * @param directory the directory to write segments to.
+     * @param segmentBytes the size at which a segment is sealed.
+     * @throws IOException if the directory cannot be created.
+     */
+    public SegmentedJournal(Path directory, long segmentBytes)
+            throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        compressor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "journal-compressor");
+            t.setDaemon(true);
+            return t;
+        });
+        output = new DataOutputStream(new SegmentOutput());
+        chunkSequences = new long[16];
+        chunkOffsets = new long[16];
+        compressed = new AtomicLong();
+        plainBytes = new AtomicLong();
+        compressedBytes = new AtomicLong();
+    }
+
+    /**
+     * Returns the stream records are written to. Call
+     * <code>beginRecord</code> before writing each record.
+     * @return the journal's stream.
+     */
+    public DataOutputStream getOutput() {
+        return output;
+    }
+
+    /**
+     * Writes to the active segment, counting its size.
+     */
+    private class SegmentOutput extends OutputStream
+    {
+        public void write(int b) throws IOException {
+            synchronized (SegmentedJournal.this) {
+                active().write(b);
+                segmentSize++;
+            }
+        }
+
+        public void write(byte[] bytes, int offset, int length)
+                throws IOException {
+            synchronized (SegmentedJournal.this) {
+                active().write(bytes, offset, length);
+                segmentSize += length;
+            }
+        }
+
+        public void flush() throws IOException {
+            synchronized (SegmentedJournal.this) {
+                if (segment != null) {
+                    segment.flush();
+                }
+            }
+        }
+
+        private OutputStream active() {
+            if (segment == null) {
+                throw new IllegalStateException("no record begun");
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * Marks the start of a record. Seals the active segment first if it
+     * is full, and starts a new chunk if the current one is.
+     * @param sequence the sequence number of the record.
+     * @throws IOException if a segment cannot be sealed or created, or an
+     *         earlier compression failed.
+     */
+    public synchronized void beginRecord(long sequence) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (segment != null && segmentSize >= segmentBytes) {
+            seal();
+        }
+        if (segment == null) {
+            segmentFile = directory.resolve(name(sequence, PLAIN));
+            segment = new BufferedOutputStream(
+                    Files.newOutputStream(segmentFile), 1 << 16);
+            segmentSize = 0;
+            chunks = 0;
+        }
+        if (chunks == 0
+                || segmentSize - chunkOffsets[chunks - 1] >= CHUNK_BYTES) {
+            if (chunks == chunkOffsets.length) {
+                chunkSequences = Arrays.copyOf(chunkSequences, chunks * 2);
+                chunkOffsets = Arrays.copyOf(chunkOffsets, chunks * 2);
+            }
+            chunkSequences[chunks] = sequence;
+            chunkOffsets[chunks] = segmentSize;
+            chunks++;
+        }
+    }
+
+    /**
+     * Closes the active segment and hands it to the compressor.
+     */
+    private void seal() throws IOException {
+        segment.close();
+        segment = null;
+        sealed++;
+        Path file = segmentFile;
+        long[] sequences = Arrays.copyOf(chunkSequences, chunks);
+        long[] offsets = Arrays.copyOf(chunkOffsets, chunks);
+        long size = segmentSize;
+        compressor.execute(() -> {
+            try {
+                compress(file, sequences, offsets, size);
+            }
+            catch (IOException ex) {
+                failure = ex;
+            }
+        });
+    }
+
+    /**
+     * Deflates each chunk of a sealed segment, writes its index and
+     * deletes the plain segment.
+     */
+    private void compress(Path file, long[] sequences, long[] offsets,
+                          long size) throws IOException {
+        String base = file.getFileName().toString();
+        base = base.substring(0, base.length() - PLAIN.length());
+        Path data = directory.resolve(base + COMPRESSED);
+        Path index = directory.resolve(base + INDEX);
+        Path partial = directory.resolve(base + COMPRESSED + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        int[] lengths = new int[offsets.length];
+        long[] at = new long[offsets.length];
+        long written = 0;
+        try (InputStream in = new BufferedInputStream(
+                     Files.newInputStream(file), 1 << 16);
+             OutputStream out = new BufferedOutputStream(
+                     Files.newOutputStream(partial), 1 << 16)) {
+            byte[] chunk = new byte[CHUNK_BYTES];
+            byte[] deflated = new byte[CHUNK_BYTES];
+            for (int i = 0; i < offsets.length; i++) {
+                long end = i + 1 < offsets.length ? offsets[i + 1] : size;
+                int length = (int)(end - offsets[i]);
+                if (chunk.length < length) {
+                    chunk = new byte[length];
+                }
+                readFully(in, chunk, length);
+                deflater.reset();
+                deflater.setInput(chunk, 0, length);
+                deflater.finish();
+                at[i] = written;
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(deflated);
+                    out.write(deflated, 0, n);
+                    written += n;
+                }
+                lengths[i] = (int)(written - at[i]);
+            }
+        }
+        finally {
+            deflater.end();
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(index)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                long end = i + 1 < offsets.length ? offsets[i + 1] : size;
+                out.writeLong(sequences[i]);
+                out.writeLong(at[i]);
+                out.writeInt(lengths[i]);
+                out.writeInt((int)(end - offsets[i]));
+            }
+        }
+        Files.move(partial, data, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(file);
+        compressed.incrementAndGet();
+        plainBytes.addAndGet(size);
+        compressedBytes.addAndGet(written);
+    }
+
+    private static void readFully(InputStream in, byte[] bytes, int length)
+            throws IOException {
+        for (int n = 0; n < length; ) {
+            int read = in.read(bytes, n, length - n);
+            if (read < 0) {
+                throw new EOFException("segment shorter than its chunks");
+            }
+            n += read;
+        }
+    }
+
+    /**
+     * Returns the number of segments started, including the active one.
+     * @return the number of segments.
+     */
+    public synchronized int getSegmentCount() {
+        return sealed + (segment == null ? 0 : 1);
+    }
+
+    /**
+     * Returns the number of sealed segments compressed so far.
+     * @return the number of compressed segments.
+     */
+    public long getCompressedCount() {
+        return compressed.get();
+    }
+
+    /**
+     * Returns the uncompressed size of the segments compressed so far.
+     * @return the size in bytes.
+     */
+    public long getPlainBytes() {
+        return plainBytes.get();
+    }
+
+    /**
+     * Returns the compressed size of the segments compressed so far.
+     * @return the size in bytes.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * Seals the active segment and waits for every sealed segment to be
+     * compressed.
+     * @throws IOException if a segment cannot be written or compressed.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            output.flush();
+            if (segment != null) {
+                seal();
+            }
+        }
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("journal compression");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Opens a journal directory for reading from a given sequence number.
+     * Only the chunk holding that record is decompressed to find it; the
+     * segments that follow are read as the stream is read. A segment that
+     * is not yet compressed is read from its start.
+     * @param directory the journal directory.
+     * @param sequence the sequence number of the first record wanted.
+     * @return a stream positioned at the first record with that sequence
+     *         number or later, to be read with <code>EventRecord</code>.
+     * @throws IOException if the journal cannot be read.
+     */
+    public static DataInputStream read(Path directory, long sequence)
+            throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<Long, Path>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(
+                directory, PREFIX + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                boolean plain = name.endsWith(PLAIN);
+                if (!plain && !name.endsWith(COMPRESSED)) {
+                    continue;
+                }
+                long first = Long.parseLong(name.substring(PREFIX.length(),
+                        name.lastIndexOf('.')));
+                if (!plain || !segments.containsKey(first)) {
+                    segments.put(first, file);
+                }
+            }
+        }
+        Long start = segments.floorKey(sequence);
+        Collection<Path> files = start == null ? segments.values()
+                : segments.tailMap(start, true).values();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new SequenceInputStream(new Chunks(files, sequence)),
+                1 << 16));
+        EventRecord record = new EventRecord();
+        while (true) {
+            in.mark(1 << 16);
+            if (!record.readFrom(in) || record.getSequence() >= sequence) {
+                break;
+            }
+        }
+        in.reset();
+        return in;
+    }
+
+    /**
+     * The chunks of a run of segments, as streams, opened one at a time.
+     */
+    private static class Chunks implements Enumeration<InputStream>
+    {
+        private Iterator<Path> segments;
+        private long sequence;
+        private Path data;
+        private long[] positions;
+        private int[] lengths;
+        private int[] plainLengths;
+        private int next;
+
+        Chunks(Collection<Path> segments, long sequence) {
+            this.segments = segments.iterator();
+            this.sequence = sequence;
+        }
+
+        public boolean hasMoreElements() {
+            return (positions != null && next < positions.length)
+                    || segments.hasNext();
+        }
+
+        public InputStream nextElement() {
+            try {
+                if (positions == null || next == positions.length) {
+                    positions = null;
+                    Path file = segments.next();
+                    String name = file.toString();
+                    if (name.endsWith(PLAIN)) {
+                        try {
+                            return new WholeRecords(Files.newInputStream(file));
+                        }
+                        catch (NoSuchFileException ex) {
+                            // compressed since the directory was listed
+                            file = Paths.get(name.substring(0,
+                                    name.length() - PLAIN.length())
+                                    + COMPRESSED);
+                        }
+                    }
+                    openIndex(file);
+                }
+                return nextChunk();
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        /**
+         * Reads the index of a compressed segment and starts at the last
+         * chunk beginning at or before the wanted sequence number.
+         */
+        private void openIndex(Path file) throws IOException {
+            String name = file.toString();
+            Path indexFile = Paths.get(name.substring(0,
+                    name.length() - COMPRESSED.length()) + INDEX);
+            try (DataInputStream index = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(indexFile)))) {
+                if (index.readInt() != MAGIC) {
+                    throw new IOException("not a segment index: " + indexFile);
+                }
+                int count = index.readInt();
+                positions = new long[count];
+                lengths = new int[count];
+                plainLengths = new int[count];
+                next = 0;
+                for (int i = 0; i < count; i++) {
+                    if (index.readLong() <= sequence) {
+                        next = i;
+                    }
+                    positions[i] = index.readLong();
+                    lengths[i] = index.readInt();
+                    plainLengths[i] = index.readInt();
+                }
+            }
+            data = file;
+            sequence = Long.MIN_VALUE;
+        }
+
+        private InputStream nextChunk() throws IOException {
+            ByteBuffer deflated = ByteBuffer.allocate(lengths[next]);
+            try (FileChannel channel = FileChannel.open(data)) {
+                while (deflated.hasRemaining()) {
+                    if (channel.read(deflated, positions[next]
+                            + deflated.position()) < 0) {
+                        throw new EOFException("truncated segment: " + data);
+                    }
+                }
+            }
+            byte[] plain = new byte[plainLengths[next]];
+            next++;
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(deflated.array());
+                int n = 0;
+                while (n < plain.length && !inflater.finished()) {
+                    n += inflater.inflate(plain, n, plain.length - n);
+                }
+            }
+            catch (DataFormatException ex) {
+                throw new IOException("corrupt segment: " + data, ex);
+            }
+            finally {
+                inflater.end();
+            }
+            return new ByteArrayInputStream(plain);
+        }
+    }
+
+    /**
+     * The whole records of a plain segment. The active segment is written
+     * through a buffer, so it may end partway through a record; this stream
+     * ends before such a record instead. Each record is parsed once to find
+     * its length, then its bytes are passed on.
+     */
+    private static class WholeRecords extends InputStream
+    {
+        private static final int MAX_RECORD = 1 << 18;
+
+        private BufferedInputStream in;
+        private DataInputStream parser;
+        private EventRecord record;
+        private long counted;
+        private long remaining;
+
+        WholeRecords(InputStream file) {
+            in = new BufferedInputStream(file, 1 << 16);
+            parser = new DataInputStream(new FilterInputStream(in) {
+                public int read() throws IOException {
+                    int b = super.read();
+                    counted += b < 0 ? 0 : 1;
+                    return b;
+                }
+
+                public int read(byte[] bytes, int offset, int length)
+                        throws IOException {
+                    int n = super.read(bytes, offset, length);
+                    counted += Math.max(n, 0);
+                    return n;
+                }
+            });
+            record = new EventRecord();
+        }
+
+        /**
+         * Finds the length of the next record if the current one has been
+         * passed on.
+         * @return false if no whole record is left.
+         */
+        private boolean fill() throws IOException {
+            if (remaining > 0) {
+                return true;
+            }
+            in.mark(MAX_RECORD);
+            counted = 0;
+            boolean whole;
+            try {
+                whole = record.readFrom(parser);
+            }
+            catch (EOFException ex) {
+                whole = false;
+            }
+            in.reset();
+            remaining = whole ? counted : 0;
+            return whole;
+        }
+
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            remaining--;
+            return in.read();
+        }
+
+        public int read(byte[] bytes, int offset, int length)
+                throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = in.read(bytes, offset,
+                    (int)Math.min(length, remaining));
+            remaining -= n;
+            return n;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static String name(long sequence, String suffix) {
+        return String.format("%s%020d%s", PREFIX, sequence, suffix);
+    }
+
+    /**
+     * Returns the directory and segment counts of this journal.
+     * @return a string representation of this journal.
+     */
+    public String toString() {
+        return "SegmentedJournal[" + directory + ", " + getSegmentCount()
+                + " segments, " + getCompressedCount() + " compressed, "
+                + getPlainBytes() + " -> " + getCompressedBytes()
+                + " bytes]";
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Records a trading session to a journal file: every listing, registration,
+ * accepted order, cancel and fill, in order, followed by the state of every
+ * book when the recorder is closed. The journal can be played back with
+ * <code>JournalReplay</code>. A session can also be recorded to a
+ * <code>SegmentedJournal</code>.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class SessionRecorder implements Closeable
+{
+    private StockExchange exchange;
+    private Closeable out;
+    private EventLogWriter writer;
+
+    /**
+     * Starts recording a brokerage and its stock exchange to a given file,
+     * replacing the file if it exists. Start recording before listing any
+     * stocks or adding any users.
+     * @param journal the file to record to.
+     * @param brokerage the brokerage to record.
+     * @param exchange the stock exchange behind the brokerage.
+     * @throws IOException if the file cannot be created.
+     */
+    public SessionRecorder(Path journal, Brokerage brokerage,
+                           StockExchange exchange) throws IOException {
+        DataOutputStream stream = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(journal),
+                        1 << 16));
+        out = stream;
+        start(new EventLogWriter(stream), brokerage, exchange);
+    }
+
+    /**
+     * Starts recording a brokerage and its stock exchange to a segmented
+     * journal. Start recording before listing any stocks or adding any
+     * users.
+     * @param journal the journal to record to.
+     * @param brokerage the brokerage to record.
+     * @param exchange the stock exchange behind the brokerage.
+     */
+    public SessionRecorder(SegmentedJournal journal, Brokerage brokerage,
+                           StockExchange exchange) {
+        out = journal;
+        start(new EventLogWriter(journal), brokerage, exchange);
+    }
+
+    private void start(EventLogWriter writer, Brokerage brokerage,
+                       StockExchange exchange) {
+        this.writer = writer;
+        this.exchange = exchange;
+        exchange.setOrderEventListener(writer);
+        exchange.addMarketListener(writer);
+        brokerage.setOrderEventListener(writer);
+    }
+
+    /**
+     * Returns the sequence number of the last record written.
+     * @return the number of records written so far.
+     */
+    public long getSequence() {
+        return writer.getSequence();
+    }
+
+    /**
+     * Writes the state of every book and closes the journal.
+     * @throws IOException if the journal cannot be written.
+     */
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.bookStates(exchange);
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the number of records written, for debugging.
+     * @return a string representation of this recorder.
+     */
+    public String toString() {
+        return "SessionRecorder[" + getSequence() + " records]";
+    }
+}
@@ -0,0 +1,254 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Routes orders across several stock exchanges (venues) that list the same
+ * symbols. A marketable order is split across the venues showing the best
+ * prices, up to the displayed size at each; the rest of the order goes to
+ * the venue with the best price (or, if no venue is marketable, to the
+ * primary venue, the first one) and rests there.
+ * <p>
+ * Venue quotes are fetched in parallel on an executor and cached for a short
+ * time. Routing only ever reads the cache: a stale or missing entry starts a
+ * refresh in the background, and the order is routed on what is cached (or
+ * sent whole to the primary venue), so routing never waits for a venue.
+ * </p>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class SmartOrderRouter
+{
+    /**
+     * The default time, in microseconds, a venue quote is used for routing.
+     */
+    public static final long DEFAULT_QUOTE_AGE_MICROS = 500;
+
+    private StockExchange[] venues;
+    private Executor executor;
+    private long maxQuoteAgeNanos;
+    private ConcurrentHashMap<String, VenueQuotes> quotes;
+    private ConcurrentHashMap<String, Boolean> refreshing;
+
+    /**
+     * Quotes from every venue for one symbol, and when they were taken.
+     */
+    private static class VenueQuotes
+    {
+        private final TopOfBook[] quotes;
+        private final long takenAt;
+
+        VenueQuotes(TopOfBook[] quotes, long takenAt) {
+            this.quotes = quotes;
+            this.takenAt = takenAt;
+        }
+    }
+
+    /**
+     * Constructs a router over given venues that fetches quotes on the
+     * common ForkJoin pool and uses them for
+     * <code>DEFAULT_QUOTE_AGE_MICROS</code>.
+     * @param venues the venues; the first is the primary venue.
+     */
+    public SmartOrderRouter(StockExchange[] venues) {
+        this(venues, ForkJoinPool.commonPool(), DEFAULT_QUOTE_AGE_MICROS);
+    }
+
+    /**
+     * Constructs a router over given venues.
+     * @param venues the venues; the first is the primary venue.
+     * @param executor the executor that fetches venue quotes.
+     * @param maxQuoteAgeMicros how long, in microseconds, a venue quote is
+     *                          used before it is refreshed.
+     * @throws IllegalArgumentException if there are no venues or the venues
+     *         do not share one symbol table.
+     */
+    public SmartOrderRouter(StockExchange[] venues, Executor executor,
+                            long maxQuoteAgeMicros) {
+        if (venues.length == 0) {
+            throw new IllegalArgumentException("no venues");
+        }
+        for (StockExchange venue : venues) {
+            if (venue.getSymbolTable() != venues[0].getSymbolTable()) {
+                throw new IllegalArgumentException(
+                    "venues must share a symbol table");
+            }
+        }
+        this.venues = venues.clone();
+        this.executor = executor;
+        maxQuoteAgeNanos = maxQuoteAgeMicros * 1000;
+        quotes = new ConcurrentHashMap<>();
+        refreshing = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the venues of this router.
+     * @return the venues; the first is the primary venue.
+     */
+    public StockExchange[] getVenues() {
+        return venues.clone();
+    }
+
+    /**
+     * Returns the cached quotes of every venue for a given symbol. If they
+     * are missing or older than the maximum quote age, a refresh is started
+     * in the background; this method never waits for it.
+     * @param symbol stock symbol.
+     * @return the quote of each venue (null for a venue that does not list
+     *         the symbol), or null if nothing is cached yet.
+     */
+    public TopOfBook[] getQuotes(String symbol) {
+        VenueQuotes cached = quotes.get(symbol);
+        if (cached == null ||
+                System.nanoTime() - cached.takenAt > maxQuoteAgeNanos) {
+            if (refreshing.putIfAbsent(symbol, Boolean.TRUE) == null) {
+                refresh(symbol);
+            }
+        }
+        return cached == null ? null : cached.quotes;
+    }
+
+    /**
+     * Fetches the quotes of every venue for a given symbol in parallel and
+     * caches them. The quotes are the snapshots each venue publishes, so
+     * they are read without touching the venues' books.
+     * @param symbol stock symbol.
+     * @return a future that completes with the quote of each venue.
+     */
+    public CompletableFuture<TopOfBook[]> refresh(String symbol) {
+        List<CompletableFuture<TopOfBook>> futures =
+                new ArrayList<>(venues.length);
+        for (StockExchange venue : venues) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> venue.getPublishedTopOfBook(symbol), executor));
+        }
+        CompletableFuture<?>[] all =
+                futures.toArray(new CompletableFuture<?>[0]);
+        return CompletableFuture.allOf(all).thenApply(done -> {
+            TopOfBook[] fetched = new TopOfBook[futures.size()];
+            for (int i = 0; i < fetched.length; i++) {
+                fetched[i] = futures.get(i).join();
+            }
+            quotes.put(symbol, new VenueQuotes(fetched, System.nanoTime()));
+            return fetched;
+        }).whenComplete((fetched, ex) -> refreshing.remove(symbol));
+    }
+
+    /**
+     * Routes an order that has passed the trader's risk checks.
+     * 1. Ranks the venues whose cached quote is marketable for the order
+     * (an ask at or below a buy's limit, a bid at or above a sell's limit,
+     * or any price for a market order) from the best price down.
+     * 2. Allocates the order's shares to those venues, up to the displayed
+     * size at each.
+     * 3. Sends each allocation, except the one for the best venue, as a
+     * separate order that takes liquidity immediately; whatever of it does
+     * not trade at once (because the quote had moved) is cancelled.
+     * 4. Sends the order itself, reduced by the shares traded in step 3, to
+     * the best venue, where any remainder rests.
+     * An iceberg order, or an order for a symbol with no cached quotes, is
+     * sent whole to the best (or primary) venue.
+     * @param order the order to route.
+     * @return true if the order was placed; false if the symbol is not
+     *         listed.
+     */
+    public boolean placeOrder(TradeOrder order) {
+        TopOfBook[] venueQuotes = getQuotes(order.getSymbol());
+        if (venueQuotes == null) {
+            return venues[0].placeOrder(order);
+        }
+
+        int[] allocation = new int[venues.length];
+        boolean[] ranked = new boolean[venues.length];
+        int remaining = order.getShares();
+        int best = -1;
+        while (remaining > 0 && !order.isIceberg()) {
+            int next = -1;
+            for (int i = 0; i < venues.length; i++) {
+                if (!ranked[i] && isMarketable(order, venueQuotes[i]) &&
+                        (next < 0 || isBetter(order, venueQuotes[i],
+                                venueQuotes[next]))) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            ranked[next] = true;
+            if (best < 0) {
+                best = next;
+            }
+            long size = order.isBuy() ? venueQuotes[next].getAskSize()
+                    : venueQuotes[next].getBidSize();
+            allocation[next] = (int)Math.min(remaining, size);
+            remaining -= allocation[next];
+        }
+        if (best < 0) {
+            best = 0;
+        }
+
+        TraderRisk risk = order.getTrader().getRisk();
+        int traded = 0;
+        for (int i = 0; i < venues.length; i++) {
+            if (i == best || allocation[i] == 0) {
+                continue;
+            }
+            TradeOrder slice = new TradeOrder(order.getTrader(),
+                    order.getSymbol(), order.isBuy(), order.isMarket(),
+                    allocation[i], order.getPrice());
+            slice.setSymbolId(order.getSymbolId(), order.getSymbol());
+            risk.addOpenOrder(slice);
+            if (!venues[i].placeOrder(slice)) {
+                risk.orderCancelled(slice);
+                continue;
+            }
+            if (slice.getTotalShares() > 0 && venues[i].cancelOrder(slice)) {
+                risk.orderCancelled(slice);
+            }
+            traded += allocation[i] - slice.getTotalShares();
+        }
+
+        if (traded > 0) {
+            order.subtractShares(traded);
+            risk.orderReduced(order, traded);
+            if (order.getTotalShares() == 0) {
+                risk.orderCancelled(order);
+                return true;
+            }
+        }
+        return venues[best].placeOrder(order);
+    }
+
+    private static boolean isMarketable(TradeOrder order, TopOfBook quote) {
+        if (quote == null) {
+            return false;
+        }
+        if (order.isBuy()) {
+            return quote.hasAsk() &&
+                    (order.isMarket() || quote.getAskPrice() <= order.getPrice());
+        }
+        return quote.hasBid() &&
+                (order.isMarket() || quote.getBidPrice() >= order.getPrice());
+    }
+
+    private static boolean isBetter(TradeOrder order, TopOfBook quote,
+                                    TopOfBook than) {
+        if (order.isBuy()) {
+            return quote.getAskPrice() < than.getAskPrice() ||
+                    (quote.getAskPrice() == than.getAskPrice() &&
+                     quote.getAskSize() > than.getAskSize());
+        }
+        return quote.getBidPrice() > than.getBidPrice() ||
+                (quote.getBidPrice() == than.getBidPrice() &&
+                 quote.getBidSize() > than.getBidSize());
+    }
+
+    /**
+     * Returns the number of venues, for debugging.
+     * @return a string representation of this router.
+     */
+    public String toString() {
+        return "SmartOrderRouter[" + venues.length + " venues, "
+                + quotes.size() + " symbols cached]";
+    }
+}
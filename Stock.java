@@ -1,6 +1,8 @@
 import java.util.*;
+import java.lang.invoke.*;
 import java.lang.reflect.*;
 import java.text.DecimalFormat;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents a stock in the SafeTrade project
@@ -18,42 +20,118 @@ public class Stock
      */
     public static DecimalFormat money = new DecimalFormat( "0.00" );
 
+    /**
+     * Lengths, in milliseconds, of the bars kept for every stock: one
+     * second, one minute, five minutes and one hour.
+     */
+    public static final long[] BAR_INTERVALS = { 1000L, 60000L, 300000L,
+            3600000L };
+
+    /**
+     * Number of bars kept for each bar interval.
+     */
+    public static final int BAR_CAPACITY = 256;
+
+    /**
+     * The price increment of a stock listed without a tick size: one cent.
+     */
+    public static final double DEFAULT_TICK_SIZE = 0.01;
+
+    private static final VarHandle QUOTE_VERSION;
+
+    static {
+        try {
+            QUOTE_VERSION = MethodHandles.lookup().findVarHandle(Stock.class,
+                    "quoteVersion", long.class);
+        }
+        catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private int symbolId;
     private String stockSymbol;
     private String companyName;
+    private double tickSize;
     private double loPrice;
     private double hiPrice;
     private double lastPrice;
     private int volume;
-    private PriorityQueue<TradeOrder> buyOrders;
-    private PriorityQueue<TradeOrder> sellOrders;
+    private OrderBook buyOrders;
+    private OrderBook sellOrders;
+    private volatile boolean inAuction;
+    private BarSeries[] bars;
+    private volatile MarketListener[] listeners;
+    private volatile OrderEventListener eventListener;
+    private volatile Trader[] subscribers;
+    private volatile TopOfBook published;
+    private QuoteSnapshot.Clock quoteClock;
+    private final ReentrantLock bookLock = new ReentrantLock();
+    private volatile long lastActivity;
+    private MatchingPolicy policy;
+    private TradeOrder[] allocOrders;
+    private int[] allocFills;
+
+    // A copy of the day's statistics and the head of each side, for
+    // getQuote, guarded by a seqlock: quoteVersion is odd while the one
+    // writer (the thread holding bookLock) updates the copy.
+    private long quoteVersion;
+    private double quoteLast;
+    private double quoteHi;
+    private double quoteLo;
+    private int quoteVolume;
+    private double quoteAsk;
+    private int quoteAskShares;
+    private double quoteBid;
+    private int quoteBidShares;
 
     /**
      * Constructs a new stock with a given symbol, company name, and starting
      * price. Sets low price, high price, and last price to the same opening
-     * price. Sets "day" volume to zero. Initializes a priority qieue for sell
-     * orders to an empty PriorityQueue with a PriceComparator configured for
-     * comparing orders in ascending order; initializes a priority qieue for
-     * buy orders to an empty PriorityQueue with a PriceComparator configured
-     * for comparing orders in descending order.
+     * price. Sets "day" volume to zero. Initializes the sell side of the book
+     * to an empty OrderBook with the lowest price first; initializes the buy
+     * side of the book to an empty OrderBook with the highest price first.
      * @param symbol the stock symbol.
      * @param name full company name.
      * @param price opening price for this stock.
      */
     public Stock(String symbol, String name, double price) {
+        this(-1, symbol, name, price);
+    }
+
+    /**
+     * Constructs a new stock with a given symbol id assigned by the
+     * exchange that lists it, and a given symbol, company name, and starting
+     * price.
+     * @param symbolId the exchange's id for this stock.
+     * @param symbol the stock symbol.
+     * @param name full company name.
+     * @param price opening price for this stock.
+     */
+    public Stock(int symbolId, String symbol, String name, double price) {
+        this.symbolId = symbolId;
         stockSymbol = symbol;
         companyName = name;
+        tickSize = DEFAULT_TICK_SIZE;
         loPrice = price;
         hiPrice = price;
         lastPrice = price;
         volume = 0;
-        buyOrders = new PriorityQueue<>(new PriceComparator());
-        sellOrders = new PriorityQueue<>(new PriceComparator());
+        buyOrders = new OrderBook(true);
+        sellOrders = new OrderBook(false);
+        policy = MatchingPolicy.FIFO;
+        allocOrders = new TradeOrder[16];
+        allocFills = new int[16];
+        listeners = new MarketListener[0];
+        subscribers = new Trader[0];
+        published = getTopOfBook();
+        publishQuote();
     }
 
     /**
      * Executes as many pending orders as possible.
      * 1. Examines the top sell order and the top buy order in the respective
-     * priority queues.
+     * sides of the book.
      *   i. If both are limit orders and the buy order price is greater or equal
      *      to the sell order price, executes the order (or a part of it) at the
      *      sell order price.
@@ -62,12 +140,20 @@ public class Stock
      * iii. If both orders are market, executes the order (or a part of it)
      *      at the last sale price.
      * 2. Figures out how many shares can be traded, which is the smallest
-     * of the numbers of shares in the two orders.
+     * of the numbers of shares in the incoming order and at the resting
+     * price level, and lets this stock's matching policy divide them among
+     * the orders at that level (see <code>MatchingPolicy</code>). The
+     * incoming order is the order just placed; otherwise the resting level
+     * is the one whose price the trade is at.
      * 3. Subtracts the traded number of shares from each order; Removes
-     * each of the orders with 0 remaining shares from the respective queue.
-     * 4. Updates the day's low price, high price, and volume.
+     * each of the orders with 0 remaining shares from the respective book
+     * side. An iceberg order whose displayed slice is used up refills it
+     * from its reserve and goes to the back of its price level instead.
+     * 4. Updates the day's low price, high price, and volume, and the
+     * current bar of each bar interval.
      * 5. Sends a message to each of the two traders involved in the
-     * transaction. For example:
+     * transaction, and tells every market listener about the trade.
+     * For example:
      *      You bought: 150 GGGL at 38.00 amt 5700.00
      * Note: The dollar amounts should be formatted to two decimal places
      * (eg. 12.40, not 12.4)
@@ -78,59 +164,551 @@ public class Stock
      * price is higher than the bid price.)
      */
     protected void executeOrders() {
-        while (!buyOrders.isEmpty() && !sellOrders.isEmpty()) {
-            TradeOrder buy = buyOrders.peek();
-            TradeOrder sell = sellOrders.peek();
+        executeOrders(null);
+    }
+
+    /**
+     * Executes as many pending orders as possible, treating a given order as
+     * the incoming one while it is at the head of its side.
+     * @param incoming the order just placed, or null.
+     */
+    private void executeOrders(TradeOrder incoming) {
+        bookLock.lock();
+        try {
+            while (!buyOrders.isEmpty() && !sellOrders.isEmpty()) {
+                TradeOrder buy = buyOrders.peek();
+                TradeOrder sell = sellOrders.peek();
+
+                double price;
+                if (buy.isLimit() && sell.isLimit()) {
+                    if (buy.getPrice() < sell.getPrice()) {
+                        return;
+                    }
+                    price = sell.getPrice();
+                }
+                else if (buy.isMarket() && sell.isMarket()) {
+                    price = lastPrice;
+                    trade(buy, sell, price,
+                            Math.min(buy.getShares(), sell.getShares()));
+                    continue;
+                }
+                else {
+                    price = buy.isLimit() ? buy.getPrice() : sell.getPrice();
+                }
+
+                boolean sellRests = incoming == buy || (incoming != sell
+                        && sell.isLimit());
+                if (sellRests && sell.isLimit()) {
+                    match(buy, sellOrders.bestLevel(), price);
+                }
+                else if (!sellRests && buy.isLimit()) {
+                    match(sell, buyOrders.bestLevel(), price);
+                }
+                else {
+                    trade(buy, sell, price,
+                            Math.min(buy.getShares(), sell.getShares()));
+                }
+            }
+        }
+        finally {
+            bookLock.unlock();
+        }
+    }
+
+    /**
+     * Trades an incoming order with the orders resting at one limit price
+     * level, divided as this stock's matching policy decides.
+     * @param incoming the order at the head of the other side.
+     * @param level the resting price level.
+     * @param price the execution price.
+     */
+    private void match(TradeOrder incoming, PriceLevel level, double price) {
+        int shares = (int)Math.min(incoming.getShares(),
+                level.getVisibleShares());
+        if (allocOrders.length < level.getOrderCount()) {
+            int capacity = allocOrders.length;
+            while (capacity < level.getOrderCount()) {
+                capacity *= 2;
+            }
+            allocOrders = new TradeOrder[capacity];
+            allocFills = new int[capacity];
+        }
+        int count = policy.allocate(level, shares, allocOrders, allocFills);
+        for (int k = 0; k < count; k++) {
+            TradeOrder resting = allocOrders[k];
+            allocOrders[k] = null;
+            if (allocFills[k] > 0) {
+                if (incoming.isBuy()) {
+                    trade(incoming, resting, price, allocFills[k]);
+                }
+                else {
+                    trade(resting, incoming, price, allocFills[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the rule that divides an incoming order among the orders resting
+     * at a price level. The default is <code>MatchingPolicy.FIFO</code>.
+     * @param policy the matching policy.
+     */
+    public void setMatchingPolicy(MatchingPolicy policy) {
+        bookLock.lock();
+        try {
+            this.policy = policy;
+            OrderEventListener sequencer = eventListener;
+            if (sequencer != null) {
+                sequencer.matchingPolicySet(stockSymbol, policy.getName());
+            }
+        }
+        finally {
+            bookLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the rule that divides an incoming order among the orders
+     * resting at a price level.
+     * @return the matching policy.
+     */
+    public MatchingPolicy getMatchingPolicy() {
+        return policy;
+    }
+
+    /**
+     * Starts a call auction (an opening or closing cross). Until
+     * <code>uncross</code> is called, orders placed for this stock are
+     * collected in the book without being matched. The flag is set under
+     * the book lock, as <code>uncross</code> clears it, so no order is
+     * matched after the auction has started.
+     */
+    public void startAuction() {
+        bookLock.lock();
+        try {
+            inAuction = true;
+            OrderEventListener sequencer = eventListener;
+            if (sequencer != null) {
+                sequencer.auctionStarted(stockSymbol);
+            }
+        }
+        finally {
+            bookLock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if this stock is collecting orders for a call auction.
+     * @return true if continuous matching is suspended; false otherwise.
+     */
+    public boolean isInAuction() {
+        return inAuction;
+    }
 
+    /**
+     * Ends a call auction by executing all the orders that can trade at a
+     * single equilibrium price, then resumes continuous matching.
+     * 1. Sweeps the price levels of both sides once in ascending price order,
+     * keeping the cumulative demand (market buys plus buys priced at or above
+     * the current price) and supply (market sells plus sells priced at or
+     * below it), hidden iceberg shares included.
+     * 2. Picks the price that maximizes the executable volume (the smaller of
+     * demand and supply). Ties go to the smaller imbalance, then to the price
+     * closest to the last sale price. If no limit orders rest, the last sale
+     * price is used.
+     * 3. Executes, in book priority, every buy priced at or above and every
+     * sell priced at or below the equilibrium price, all at that price.
+     * @return the number of shares executed.
+     */
+    public int uncross() {
+        bookLock.lock();
+        try {
+            OrderEventListener sequencer = eventListener;
+            if (sequencer != null) {
+                sequencer.auctionUncrossed(stockSymbol);
+            }
+            return uncrossBook();
+        }
+        finally {
+            bookLock.unlock();
+        }
+    }
+
+    private int uncrossBook() {
+        inAuction = false;
+
+        long demand = buyOrders.getMarketLevel().getTotalShares();
+        for (PriceLevel level : buyOrders.getLimitLevels()) {
+            demand += level.getTotalShares();
+        }
+        long supply = sellOrders.getMarketLevel().getTotalShares();
+
+        Iterator<PriceLevel> buys =
+                buyOrders.getLimitLevelsWorstFirst().iterator();
+        Iterator<PriceLevel> sells = sellOrders.getLimitLevels().iterator();
+        PriceLevel buy = buys.hasNext() ? buys.next() : null;
+        PriceLevel sell = sells.hasNext() ? sells.next() : null;
+
+        long bestTicks = OrderBook.toTicks(lastPrice);
+        double bestPrice = lastPrice;
+        long bestVolume = Math.min(demand, supply);
+        long bestImbalance = Math.abs(demand - supply);
+        boolean swept = false;
+        while (buy != null || sell != null) {
+            long ticks;
             double price;
-            if (buy.isLimit() && sell.isLimit() &&
-                    buy.getPrice() >= sell.getPrice()) {
+            if (sell == null || (buy != null &&
+                    buy.getPriceTicks() < sell.getPriceTicks())) {
+                ticks = buy.getPriceTicks();
+                price = buy.getPrice();
+            }
+            else {
+                ticks = sell.getPriceTicks();
                 price = sell.getPrice();
             }
-            else if (buy.isMarket() && sell.isMarket()) {
-                price = lastPrice;
+            while (sell != null && sell.getPriceTicks() == ticks) {
+                supply += sell.getTotalShares();
+                sell = sells.hasNext() ? sells.next() : null;
             }
-            else {
-                price = buy.isLimit() ? buy.getPrice() : sell.getPrice();
+
+            long volume = Math.min(demand, supply);
+            long imbalance = Math.abs(demand - supply);
+            if (!swept || volume > bestVolume || (volume == bestVolume &&
+                    (imbalance < bestImbalance || (imbalance == bestImbalance
+                    && Math.abs(price - lastPrice) <
+                       Math.abs(bestPrice - lastPrice))))) {
+                bestTicks = ticks;
+                bestPrice = price;
+                bestVolume = volume;
+                bestImbalance = imbalance;
+                swept = true;
             }
 
-            int num = Math.min(buy.getShares(), sell.getShares());
+            while (buy != null && buy.getPriceTicks() == ticks) {
+                demand -= buy.getTotalShares();
+                buy = buys.hasNext() ? buys.next() : null;
+            }
+        }
 
-            buy.subtractShares(num);
-            sell.subtractShares(num);
-            if (buyOrders.peek().getShares() == 0) {
-                buyOrders.poll();
+        int executed = 0;
+        while (bestVolume > 0 && !buyOrders.isEmpty() &&
+                !sellOrders.isEmpty()) {
+            TradeOrder top = buyOrders.peek();
+            TradeOrder bottom = sellOrders.peek();
+            if ((top.isLimit() &&
+                    top.getLevel().getPriceTicks() < bestTicks) ||
+                (bottom.isLimit() &&
+                    bottom.getLevel().getPriceTicks() > bestTicks)) {
+                break;
             }
-            if (sellOrders.peek().getShares() == 0) {
-                sellOrders.poll();
+            int num = Math.min(top.getShares(), bottom.getShares());
+            trade(top, bottom, bestPrice, num);
+            executed += num;
+        }
+        bookChanged();
+        return executed;
+    }
+
+    /**
+     * Executes one trade between the orders at the heads of the two sides of
+     * the book: updates both orders, the day's statistics and the bars, and
+     * sends a
+     * message to each of the two traders involved.
+     * @param buy the buy order at the head of the buy side.
+     * @param sell the sell order at the head of the sell side.
+     * @param price the execution price.
+     * @param num the number of shares traded.
+     */
+    private void trade(TradeOrder buy, TradeOrder sell, double price, int num) {
+        buyOrders.fill(buy, num);
+        sellOrders.fill(sell, num);
+
+        loPrice = Math.min(loPrice, price);
+        hiPrice = Math.max(hiPrice, price);
+        lastPrice = price;
+        volume += num;
+        if (bars == null) {
+            bars = new BarSeries[BAR_INTERVALS.length];
+            for (int i = 0; i < bars.length; i++) {
+                bars[i] = new BarSeries(BAR_INTERVALS[i], BAR_CAPACITY);
             }
+        }
+        long now = System.currentTimeMillis();
+        for (BarSeries series : bars) {
+            series.add(now, price, num);
+        }
+
+        String priceStr = money.format(price);
+        String tot = money.format(price * num);
+        buy.getTrader().receiveMessage("You bought: " + num + " " +
+                stockSymbol + " at " + priceStr + " amt " + tot);
+        sell.getTrader().receiveMessage("You sold: " + num + " " +
+                stockSymbol + " at " + priceStr + " amt " + tot);
+        buy.getTrader().receiveFill(buy, price, num);
+        sell.getTrader().receiveFill(sell, price, num);
+        MarketListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].tradeExecuted(this, buy, sell, price, num);
+        }
+    }
 
-            loPrice = Math.min(loPrice, price);
-            hiPrice = Math.max(hiPrice, price);
-            lastPrice = price;
-            volume += num;
+    /**
+     * Tells the market listeners that the book may have changed, and, if the
+     * top of the book did change, publishes one snapshot of it and sends it
+     * to every subscriber.
+     */
+    private void bookChanged() {
+        publishQuote();
+        MarketListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].bookChanged(this);
+        }
+        if (!topChanged()) {
+            return;
+        }
+        TopOfBook top = getTopOfBook();
+        QuoteSnapshot.Clock clock = quoteClock;
+        if (clock != null) {
+            clock.beginWrite();
+            published = top;
+            clock.endWrite();
+        }
+        else {
+            published = top;
+        }
+        Trader[] watchers = subscribers;
+        for (int i = 0; i < watchers.length; i++) {
+            watchers[i].quoteUpdated(top);
+        }
+    }
+
+    /**
+     * Copies the day's statistics and the head of each side of the book for
+     * <code>getQuote</code>. Called only by the thread holding the book
+     * lock; it never waits for readers. The version is made odd before the
+     * copy is changed and even again after, so a reader that sees the same
+     * even version before and after reading the copy read a consistent one.
+     */
+    private void publishQuote() {
+        long version = quoteVersion;
+        QUOTE_VERSION.setOpaque(this, version + 1);
+        VarHandle.storeStoreFence();
+        quoteLast = lastPrice;
+        quoteHi = hiPrice;
+        quoteLo = loPrice;
+        quoteVolume = volume;
+        TradeOrder ask = sellOrders.peek();
+        quoteAsk = ask == null ? 0 : ask.getPrice();
+        quoteAskShares = ask == null ? 0 : ask.getShares();
+        TradeOrder bid = buyOrders.peek();
+        quoteBid = bid == null ? 0 : bid.getPrice();
+        quoteBidShares = bid == null ? 0 : bid.getShares();
+        QUOTE_VERSION.setRelease(this, version + 2);
+    }
+
+    /**
+     * Returns true if the best bid, best ask, their sizes or the last price
+     * differ from the last snapshot published.
+     * @return true if the top of the book changed; false otherwise.
+     */
+    private boolean topChanged() {
+        PriceLevel bid = buyOrders.bestLimitLevel();
+        PriceLevel ask = sellOrders.bestLimitLevel();
+        return (bid == null ? published.hasBid() : bid.getVisibleShares()
+                        != published.getBidSize()
+                        || bid.getPrice() != published.getBidPrice())
+                || (ask == null ? published.hasAsk() : ask.getVisibleShares()
+                        != published.getAskSize()
+                        || ask.getPrice() != published.getAskPrice())
+                || lastPrice != published.getLastPrice();
+    }
 
-            String priceStr = money.format(price);
-            String tot = money.format(price * num);
-            buy.getTrader().receiveMessage("You bought: " + num + " " +
-                    stockSymbol + " at " + priceStr + " amt " + tot);
-            buy.getTrader().receiveMessage("You sold: " + num + " " +
-                    stockSymbol + " at " + priceStr + " amt " + tot);
+    /**
+     * Adds a trader to the subscribers of this stock and sends it the last
+     * published top of the book. Subscribers are kept in an array that is
+     * copied on change, so one snapshot is built per change of the top of
+     * the book however many traders watch it. The trader is added and sent
+     * its first snapshot under the book lock, as every later snapshot is
+     * sent, so it never sees a stale quote after a newer one.
+     * @param trader the subscribing trader.
+     */
+    public void subscribe(Trader trader) {
+        bookLock.lock();
+        try {
+            synchronized (this) {
+                Trader[] current = subscribers;
+                for (Trader t : current) {
+                    if (t == trader) {
+                        return;
+                    }
+                }
+                Trader[] more = Arrays.copyOf(current, current.length + 1);
+                more[current.length] = trader;
+                subscribers = more;
+            }
+            trader.quoteUpdated(published);
+        }
+        finally {
+            bookLock.unlock();
+        }
+    }
 
-            if(buyOrders.peek().isLimit() && sellOrders.peek().isLimit() &&
-                 buyOrders.peek().getPrice() < sellOrders.peek().getPrice()) {
+    /**
+     * Removes a trader from the subscribers of this stock.
+     * @param trader the trader to remove.
+     */
+    public synchronized void unsubscribe(Trader trader) {
+        Trader[] current = subscribers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == trader) {
+                Trader[] fewer = new Trader[current.length - 1];
+                System.arraycopy(current, 0, fewer, 0, i);
+                System.arraycopy(current, i + 1, fewer, i,
+                        fewer.length - i);
+                subscribers = fewer;
                 return;
             }
         }
     }
 
+    /**
+     * Returns the time an order was last placed or cancelled for this stock.
+     * @return the time in milliseconds, or 0 if there has been no order.
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Shrinks the book structures of this stock: trims the backing arrays of
+     * price levels holding more than <code>slack</code> times the slots
+     * their live orders need, and drops the pooled empty levels. Never
+     * waits: if an order is being matched, nothing is done. Matching waits
+     * for a compaction in progress, which touches only this stock.
+     * @param minCapacity the smallest level capacity to keep.
+     * @param slack how many times the needed capacity a level may hold
+     *              before it is trimmed.
+     * @return the estimated number of bytes freed, or -1 if the book was
+     *         busy.
+     */
+    public long compact(int minCapacity, double slack) {
+        if (!bookLock.tryLock()) {
+            return -1;
+        }
+        try {
+            long before = buyOrders.getFootprintBytes()
+                    + sellOrders.getFootprintBytes();
+            buyOrders.compact(minCapacity, slack);
+            sellOrders.compact(minCapacity, slack);
+            return before - buyOrders.getFootprintBytes()
+                    - sellOrders.getFootprintBytes();
+        }
+        finally {
+            bookLock.unlock();
+        }
+    }
+
+    /**
+     * Returns an estimate of the heap used by the book of this stock, or -1
+     * if the book is busy. Never waits for matching.
+     * @return the estimated footprint in bytes, or -1.
+     */
+    public long getBookFootprint() {
+        if (!bookLock.tryLock()) {
+            return -1;
+        }
+        try {
+            return buyOrders.getFootprintBytes()
+                    + sellOrders.getFootprintBytes();
+        }
+        finally {
+            bookLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the estimated footprint of the book of this stock with the
+     * counts behind it, all taken under the book lock, or null if the book
+     * is busy. Never waits for matching.
+     * @return the estimated footprint in bytes, the number of limit price
+     *         levels and the number of order slots allocated, or null.
+     */
+    public long[] getBookFootprintDetails() {
+        if (!bookLock.tryLock()) {
+            return null;
+        }
+        try {
+            return new long[] {
+                    buyOrders.getFootprintBytes()
+                            + sellOrders.getFootprintBytes(),
+                    buyOrders.getLimitLevels().size()
+                            + sellOrders.getLimitLevels().size(),
+                    buyOrders.getSlotCapacity()
+                            + sellOrders.getSlotCapacity() };
+        }
+        finally {
+            bookLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of traders subscribed to this stock.
+     * @return the number of subscribers.
+     */
+    public int getSubscriberCount() {
+        return subscribers.length;
+    }
+
+    /**
+     * Registers a listener to be told about every trade and book change in
+     * this stock. The listeners are kept in an array that is copied on
+     * change, so the matching path never locks or allocates to notify them.
+     * @param listener the listener to add.
+     */
+    public synchronized void addMarketListener(MarketListener listener) {
+        MarketListener[] more = Arrays.copyOf(listeners,
+                listeners.length + 1);
+        more[listeners.length] = listener;
+        listeners = more;
+    }
+
+    /**
+     * Takes this stock's book lock, for a reader that must see the books of
+     * several stocks at one point in time (see
+     * <code>StockExchange.getQuotes</code>). Callers take the locks of
+     * several stocks in symbol id order.
+     */
+    void lockBook() {
+        bookLock.lock();
+    }
+
+    /**
+     * Releases the book lock taken by <code>lockBook</code>.
+     */
+    void unlockBook() {
+        bookLock.unlock();
+    }
+
+    /**
+     * Sets the listener told about every order placed for this stock with
+     * an id (one a brokerage accepted), every such order cancelled, every
+     * auction started and uncrossed, and every change of matching policy.
+     * It is told while the book lock is
+     * held, so it sees them in the order they are matched.
+     * @param listener the listener, or null for none.
+     */
+    void setOrderEventListener(OrderEventListener listener) {
+        eventListener = listener;
+    }
+
     /**
      * Returns a quote string for this stock. The quote includes: the company
      * name for this stock; the stock symbol; last sale price; the lowest and
      * highest day prices; the lowest price in a sell order (or "market") and
      * the number of shares in it (or "none" if there are no sell orders); the
      * highest price in a buy order (or "market") and the number of shares in
-     * it (or "none" if there are no buy orders). For example:
+     * it (or "none" if there are no buy orders). Only the displayed slice of
+     * an iceberg order is shown. For example:
      * Giggle.com (GGGL)
      *   Price: 10.00  hi: 10.00  lo: 10.00  vol: 0
      *   Ask: 12.75 size: 300  Bid: 12.00 size: 500
@@ -138,24 +716,142 @@ public class Stock
      *   Giggle.com (GGGL)
      *   Price: 12.00  hi: 14.50  lo: 9.00  vol: 500
      *   Ask: none  Bid: 12.50 size: 200
+     * The quote may be asked for from any thread while orders are being
+     * matched: it is read from a copy kept under a seqlock, and read again
+     * if the copy changed meanwhile, so it is always consistent and the
+     * matching thread never waits for it.
      * @return the quote for this stock.
      */
     public String getQuote() {
+        double last, hi, lo, ask, bid;
+        int vol, askShares, bidShares;
+        long version;
+        do {
+            version = (long)QUOTE_VERSION.getAcquire(this);
+            while ((version & 1) != 0) {
+                Thread.onSpinWait();
+                version = (long)QUOTE_VERSION.getAcquire(this);
+            }
+            last = quoteLast;
+            hi = quoteHi;
+            lo = quoteLo;
+            vol = quoteVolume;
+            ask = quoteAsk;
+            askShares = quoteAskShares;
+            bid = quoteBid;
+            bidShares = quoteBidShares;
+            VarHandle.loadLoadFence();
+        } while ((long)QUOTE_VERSION.getOpaque(this) != version);
+
         return companyName + " (" + stockSymbol + ")\n" +
-                "Price: " + lastPrice + " hi: " + hiPrice +
-                " lo: " + loPrice + " vol: " + volume + "\n" +
-                "Ask: " + (sellOrders.isEmpty() ? "none " :
-                (sellOrders.peek().getPrice() + " size: " +
-                        sellOrders.peek().getShares() + " ")) +
-                "Bid: " + (buyOrders.isEmpty() ? "none" :
-                (buyOrders.peek().getPrice() + " size: " +
-                        buyOrders.peek().getShares()));
+                "Price: " + last + " hi: " + hi +
+                " lo: " + lo + " vol: " + vol + "\n" +
+                "Ask: " + (askShares == 0 ? "none " :
+                (ask + " size: " + askShares + " ")) +
+                "Bid: " + (bidShares == 0 ? "none" :
+                (bid + " size: " + bidShares));
+
+    }
+
+    /**
+     * Returns the id the listing exchange assigned to this stock, or -1 for
+     * a stock that is not listed on an exchange.
+     * @return the symbol id of this stock.
+     */
+    public int getSymbolId() {
+        return symbolId;
+    }
+
+    /**
+     * Returns the smallest price increment of this stock.
+     * @return the tick size in dollars.
+     */
+    public double getTickSize() {
+        return tickSize;
+    }
+
+    /**
+     * Sets the smallest price increment of this stock. Orders already in
+     * the book are not affected.
+     * The book keeps prices in whole cents, so the tick size must be a
+     * whole number of cents too.
+     * @param tickSize the tick size in dollars.
+     * @throws IllegalArgumentException if the tick size is not a positive
+     *         whole number of cents.
+     */
+    public void setTickSize(double tickSize) {
+        if (!OrderBook.isWholeCents(tickSize)) {
+            throw new IllegalArgumentException(
+                    "tick size must be a whole number of cents");
+        }
+        this.tickSize = tickSize;
+    }
+
+    /**
+     * Returns true if a price is a whole number of ticks.
+     * @param price a limit price.
+     * @return true if the price is on the tick grid; false otherwise.
+     */
+    public boolean isOnTick(double price) {
+        double ticks = price / tickSize;
+        return Math.abs(ticks - Math.rint(ticks)) < 1e-6;
+    }
+
+    /**
+     * Returns the bars of a given interval for this stock.
+     * @param intervalMillis one of <code>BAR_INTERVALS</code>.
+     * @return the series of bars of that interval, or null if the interval
+     *         is not kept or this stock has not traded yet.
+     */
+    public BarSeries getBars(long intervalMillis) {
+        if (bars != null) {
+            for (BarSeries series : bars) {
+                if (series.getInterval() == intervalMillis) {
+                    return series;
+                }
+            }
+        }
+        return null;
+    }
 
+    /**
+     * Returns the last snapshot of the top of the book published by this
+     * stock. Unlike <code>getTopOfBook</code>, it may be called from any
+     * thread while orders are being matched: the snapshot is immutable and
+     * replaced (never changed) when the top of the book changes.
+     * @return the published top of the book.
+     */
+    public TopOfBook getPublishedTopOfBook() {
+        return published;
+    }
+
+    /**
+     * Sets the clock that counts this stock's quote publications, so that
+     * the exchange can take consistent snapshots across stocks.
+     * @param clock the exchange's quote clock.
+     */
+    void setQuoteClock(QuoteSnapshot.Clock clock) {
+        quoteClock = clock;
+    }
+
+    /**
+     * Returns a snapshot of the best limit bid and offer of this stock, with
+     * the displayed size at each, and the last sale price.
+     * @return the top of the book.
+     */
+    public TopOfBook getTopOfBook() {
+        PriceLevel bid = buyOrders.bestLimitLevel();
+        PriceLevel ask = sellOrders.bestLimitLevel();
+        return new TopOfBook(stockSymbol,
+                bid == null ? Double.NaN : bid.getPrice(),
+                bid == null ? 0 : bid.getVisibleShares(),
+                ask == null ? Double.NaN : ask.getPrice(),
+                ask == null ? 0 : ask.getVisibleShares(), lastPrice);
     }
 
     /**
      * Places a trading order for this stock. Adds the order to the
-     * appropriate priority queue depending on whether this is a buy
+     * appropriate side of the book depending on whether this is a buy
      * or sell order. Notifies the trader who placed the order that
      * the order has been placed, by sending a message to that trader.
      * For example:
@@ -164,26 +860,78 @@ public class Stock
      * Or, for market orders:
      *   New order:  Sell GGGL (Giggle.com)
      *   150 shares at market
-     * Executes pending orders by calling executeOrders.
+     * Executes pending orders by calling executeOrders, unless a call
+     * auction is in progress.
      * @param order a trading order to be placed.
      */
     public void placeOrder(TradeOrder order) {
-        if (order.isBuy()) {
-            buyOrders.add(order);
+        bookLock.lock();
+        try {
+            lastActivity = System.currentTimeMillis();
+            if (order.getSymbolId() != symbolId) {
+                order.setSymbolId(symbolId, stockSymbol);
+            }
+            OrderEventListener sequencer = eventListener;
+            if (sequencer != null && order.getId() != 0) {
+                sequencer.orderPlaced(order);
+            }
+            if (order.isBuy()) {
+                buyOrders.add(order);
+            }
+            else {
+                sellOrders.add(order);
+            }
+            order.getTrader().receiveMessage(("New order: " +
+                    ((order.isBuy() ? ("Buy ") : ("Sell ")) +
+                            stockSymbol + " (" + companyName + ")\n") +
+                    order.getTotalShares() + " shares at " +
+                    (order.isMarket() ? "market " :
+                            ("$" + money.format(order.getPrice())))));
+            if (!inAuction) {
+                executeOrders(order);
+            }
+            bookChanged();
         }
-        else {
-            sellOrders.add(order);
+        finally {
+            bookLock.unlock();
+        }
+    }
+
+    /**
+     * Cancels a resting order for this stock. Removes the order from its side
+     * of the book and notifies the trader who placed the order. For example:
+     *   Cancelled:  Buy GGGL (Giggle.com)
+     *   200 shares at $38.00
+     * @param order a trading order resting in this stock's book.
+     * @return true if the order was found and removed; false if it was no
+     *         longer in the book (already filled or cancelled).
+     */
+    public boolean cancelOrder(TradeOrder order) {
+        bookLock.lock();
+        try {
+            lastActivity = System.currentTimeMillis();
+            OrderBook side = order.isBuy() ? buyOrders : sellOrders;
+            if (!side.remove(order)) {
+                return false;
+            }
+            OrderEventListener sequencer = eventListener;
+            if (sequencer != null && order.getId() != 0) {
+                sequencer.orderCancelled(order);
+            }
+            order.getTrader().receiveMessage(("Cancelled: " +
+                    ((order.isBuy() ? ("Buy ") : ("Sell ")) +
+                            stockSymbol + " (" + companyName + ")\n") +
+                    order.getTotalShares() + " shares at " +
+                    (order.isMarket() ? "market " :
+                            ("$" + money.format(order.getPrice())))));
+            bookChanged();
+            return true;
+        }
+        finally {
+            bookLock.unlock();
         }
-        order.getTrader().receiveMessage(("New order: " +
-                ((order.isBuy() ? ("Buy ") : ("Sell ")) +
-                        stockSymbol + " (" + companyName + ")\n") +
-                order.getShares() + " shares at " +
-                (order.isMarket() ? "market " :
-                        ("$" + money.format(order.getPrice())))));
-        executeOrders();
     }
 
-    
     //
     // The following are for test purposes only
     //
@@ -245,7 +993,7 @@ public class Stock
      * Testing purposes only
      * @return testing only
      */
-    protected PriorityQueue<TradeOrder> getBuyOrders()
+    protected OrderBook getBuyOrders()
     {
         return buyOrders;
     }
@@ -254,7 +1002,7 @@ public class Stock
      * Testing purposes only
      * @return testing only
      */
-    protected PriorityQueue<TradeOrder> getSellOrders()
+    protected OrderBook getSellOrders()
     {
         return sellOrders;
     }
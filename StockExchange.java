@@ -1,11 +1,15 @@
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Represents a stock exchange. A <code>StockExchange</code> keeps a
- * <code>HashMap</code> of stocks, keyed by a stock symbol. It has methods to
- * list a new stock, request a quote for a given stock symbol, and to place a
- * specified trade order.
+ * <code>HashMap</code> of stocks, keyed by a stock symbol, and an array of
+ * the same stocks indexed by the dense symbol id each stock gets when it is
+ * listed. It has methods to list a new stock, request a quote for a given
+ * stock symbol, and to place a specified trade order. Orders that carry a
+ * symbol id are routed by array index; the name lookup is kept for the UI
+ * and quote paths.
  * @author William Li
  * @author Edwin Li
  * @version 3/24/23
@@ -15,14 +19,54 @@ import java.util.*;
  */
 public class StockExchange
 {
+    /**
+     * The number of lock-free attempts <code>getQuotes</code> makes before
+     * it collects the quotes under the stocks' book locks.
+     */
+    public static final int QUOTE_ATTEMPTS = 16;
+
     private Map<String, Stock> listedStocks;
+    private SymbolTable symbols;
+    private Stock[] stocksById;
+    private List<MarketListener> listeners;
+    private OrderEventListener eventListener;
+    private QuoteSnapshot.Clock quoteClock;
 
     /**
      * Constructs a new stock exchange object. Initializes listed stocks to
      * an empty map (a HashMap).
      */
     public StockExchange() {
-        listedStocks = new HashMap<String, Stock>();
+        this(new SymbolTable());
+    }
+
+    /**
+     * Constructs a new stock exchange object that takes its symbol ids from
+     * a given symbol table, which may be shared with other exchanges.
+     * Initializes listed stocks to an empty map (a HashMap).
+     * @param symbols the symbol table for this exchange.
+     */
+    public StockExchange(SymbolTable symbols) {
+        this(symbols, 16);
+    }
+
+    /**
+     * Constructs a new stock exchange object with room for a given number
+     * of stocks, so that listing them does not rehash the listed stocks or
+     * grow the symbol id array.
+     * @param expectedStocks the number of stocks to be listed.
+     */
+    public StockExchange(int expectedStocks) {
+        this(new SymbolTable(expectedStocks), expectedStocks);
+    }
+
+    private StockExchange(SymbolTable symbols, int expectedStocks) {
+        this.symbols = symbols;
+        expectedStocks = Math.max(expectedStocks, 16);
+        listedStocks = new HashMap<String, Stock>(expectedStocks * 4 / 3 + 1);
+        stocksById = new Stock[expectedStocks];
+        listeners = new ArrayList<MarketListener>();
+        quoteClock = new QuoteSnapshot.Clock();
     }
 
     /**
@@ -33,40 +77,443 @@ public class StockExchange
      * @return a text message that contains the quote.
      */
     public String getQuote(String symbol) {
-        if (!listedStocks.containsKey(symbol)) {
+        Stock stock = listedStocks.get(symbol);
+        if (stock == null) {
             return symbol + " not found.";
         }
-        return listedStocks.get(symbol).getQuote();
+        return stock.getQuote();
+    }
+
+    /**
+     * Returns the top of the book of several stocks at one point in time.
+     * The quotes are the immutable snapshots the stocks publish as their
+     * books change; they are collected again if any stock published while
+     * they were being collected. After <code>QUOTE_ATTEMPTS</code> failed
+     * attempts the quotes are collected once more while holding the book
+     * locks of the requested stocks, taken in symbol id order, so a busy
+     * exchange cannot keep a reader retrying forever; only then does
+     * matching of those stocks wait for a reader, and only briefly.
+     * @param symbols the stock symbols.
+     * @return the quotes, with null for a symbol that is not listed.
+     */
+    public QuoteSnapshot getQuotes(Collection<String> symbols) {
+        String[] names = symbols.toArray(new String[0]);
+        Stock[] stocks = new Stock[names.length];
+        for (int i = 0; i < names.length; i++) {
+            stocks[i] = listedStocks.get(names[i]);
+        }
+        TopOfBook[] quotes = new TopOfBook[names.length];
+        for (int attempts = 1; attempts <= QUOTE_ATTEMPTS; attempts++) {
+            long version = quoteClock.tryBeginRead();
+            if (version < 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            for (int i = 0; i < stocks.length; i++) {
+                quotes[i] = stocks[i] == null ? null
+                        : stocks[i].getPublishedTopOfBook();
+            }
+            if (quoteClock.validate(version)) {
+                return new QuoteSnapshot(names, quotes, version, attempts);
+            }
+        }
+
+        Stock[] byId = stocks.clone();
+        Arrays.sort(byId, Comparator.nullsLast(
+                Comparator.comparingInt(Stock::getSymbolId)));
+        int held = 0;
+        try {
+            while (held < byId.length && byId[held] != null) {
+                byId[held].lockBook();
+                held++;
+            }
+            long version = quoteClock.getStarted();
+            for (int i = 0; i < stocks.length; i++) {
+                quotes[i] = stocks[i] == null ? null
+                        : stocks[i].getPublishedTopOfBook();
+            }
+            return new QuoteSnapshot(names, quotes, version,
+                    QUOTE_ATTEMPTS + 1, true);
+        }
+        finally {
+            while (held > 0) {
+                held--;
+                byId[held].unlockBook();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the best bid and offer of a given stock.
+     * @param symbol stock symbol.
+     * @return the top of the book, or null if the stock is not listed.
+     */
+    public TopOfBook getTopOfBook(String symbol) {
+        Stock stock = listedStocks.get(symbol);
+        return stock == null ? null : stock.getTopOfBook();
+    }
+
+    /**
+     * Returns the last top of the book published by a given stock. Unlike
+     * <code>getTopOfBook</code>, it may be called from any thread while
+     * orders are being matched.
+     * @param symbol stock symbol.
+     * @return the published top of the book, or null if the stock is not
+     *         listed.
+     */
+    public TopOfBook getPublishedTopOfBook(String symbol) {
+        Stock stock = listedStocks.get(symbol);
+        return stock == null ? null : stock.getPublishedTopOfBook();
+    }
+
+    /**
+     * Sets the rule that divides incoming orders among the orders resting
+     * at a price level of a given stock (see <code>MatchingPolicy</code>).
+     * @param symbol stock symbol.
+     * @param policy the matching policy.
+     * @return true if the policy was set; false if the stock is not listed.
+     */
+    public boolean setMatchingPolicy(String symbol, MatchingPolicy policy) {
+        Stock stock = listedStocks.get(symbol);
+        if (stock == null) {
+            return false;
+        }
+        stock.setMatchingPolicy(policy);
+        return true;
+    }
+
+    /**
+     * Subscribes a trader to the top of the book of a given stock.
+     * @param symbol stock symbol.
+     * @param trader the subscribing trader.
+     * @return true if subscribed; false if the stock is not listed.
+     */
+    public boolean subscribe(String symbol, Trader trader) {
+        Stock stock = listedStocks.get(symbol);
+        if (stock == null) {
+            return false;
+        }
+        stock.subscribe(trader);
+        return true;
+    }
+
+    /**
+     * Cancels a trader's subscription to a given stock.
+     * @param symbol stock symbol.
+     * @param trader the subscribed trader.
+     */
+    public void unsubscribe(String symbol, Trader trader) {
+        Stock stock = listedStocks.get(symbol);
+        if (stock != null) {
+            stock.unsubscribe(trader);
+        }
+    }
+
+    /**
+     * Returns the symbol id assigned to a given stock when it was listed.
+     * Clients can resolve a symbol once and stamp its id on every order
+     * (see <code>TradeOrder.setSymbolId</code>).
+     * @param symbol stock symbol.
+     * @return the symbol id, or -1 if the stock is not listed.
+     */
+    public int getSymbolId(String symbol) {
+        Stock stock = listedStocks.get(symbol);
+        return stock == null ? -1 : stock.getSymbolId();
+    }
+
+    /**
+     * Returns the stock with a given symbol id.
+     * @param symbolId a symbol id.
+     * @return the stock, or null if no stock has that id.
+     */
+    public Stock getStock(int symbolId) {
+        return symbolId >= 0 && symbolId < stocksById.length ?
+                stocksById[symbolId] : null;
+    }
+
+    /**
+     * Returns the listed stocks in symbol id order.
+     * @return a new list of the listed stocks.
+     */
+    public List<Stock> getStocks() {
+        Stock[] current = stocksById;
+        List<Stock> stocks = new ArrayList<Stock>(current.length);
+        for (Stock stock : current) {
+            if (stock != null) {
+                stocks.add(stock);
+            }
+        }
+        return stocks;
     }
 
     /**
-     * Adds a new stock with given parameters to the listed stocks.
+     * Returns the table this exchange takes its symbol ids from.
+     * @return the symbol table.
+     */
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    /**
+     * Returns the open/high/low/close/volume bars of a given interval for a
+     * given stock.
+     * @param symbol stock symbol.
+     * @param intervalMillis one of <code>Stock.BAR_INTERVALS</code>.
+     * @return the series of bars, or null if the stock is not listed, has
+     *         not traded yet, or the interval is not kept.
+     */
+    public BarSeries getBars(String symbol, long intervalMillis) {
+        Stock stock = listedStocks.get(symbol);
+        return stock == null ? null : stock.getBars(intervalMillis);
+    }
+
+    /**
+     * Adds a new stock with given parameters to the listed stocks and gives
+     * it the symbol id from the symbol table (the next id, unless the symbol
+     * was listed before here or on an exchange sharing the table). Listing
+     * a symbol again replaces the stock but keeps its id.
      * @param symbol stock symbol.
      * @param name full company name.
      * @param price opening stock price.
      */
     public void listStock(String symbol, String name, double price) {
-        listedStocks.put(symbol, new Stock(symbol, name, price));
+        listStock(symbol, name, price, Stock.DEFAULT_TICK_SIZE);
+    }
+
+    /**
+     * Adds a new stock with a given tick size to the listed stocks (see
+     * <code>listStock(String, String, double)</code>).
+     * @param symbol stock symbol.
+     * @param name full company name.
+     * @param price opening stock price.
+     * @param tickSize the smallest price increment of the stock.
+     * @throws IllegalArgumentException if the tick size is not a positive
+     *         whole number of cents (see <code>Stock.setTickSize</code>).
+     */
+    public void listStock(String symbol, String name, double price,
+                          double tickSize) {
+        if (!OrderBook.isWholeCents(tickSize)) {
+            throw new IllegalArgumentException(
+                    "tick size must be a whole number of cents");
+        }
+        int id = symbols.intern(symbol);
+        Stock stock = new Stock(id, symbols.getSymbol(id), name, price);
+        stock.setTickSize(tickSize);
+        stock.setQuoteClock(quoteClock);
+        stock.setOrderEventListener(eventListener);
+        for (MarketListener listener : listeners) {
+            stock.addMarketListener(listener);
+        }
+        if (id >= stocksById.length) {
+            stocksById = Arrays.copyOf(stocksById,
+                    Math.max(id + 1, stocksById.length * 2));
+        }
+        stocksById[id] = stock;
+        listedStocks.put(symbol, stock);
+        if (eventListener != null) {
+            eventListener.stockListed(symbol, name, price, tickSize);
+        }
+    }
+
+    /**
+     * Lists every stock in a symbol master file, in file order. Room for
+     * all of them is made first in the symbol table, the symbol id array and
+     * the listed stocks, so none of them grows while listing.
+     * @param master the symbols read from a symbol master file.
+     * @return the number of stocks listed.
+     */
+    public int listStocks(SymbolMaster master) {
+        int count = master.size();
+        int last = Math.max(listedStocks.size(), symbols.size()) + count;
+        symbols.reserve(last);
+        if (last > stocksById.length) {
+            stocksById = Arrays.copyOf(stocksById, last);
+            Map<String, Stock> more =
+                    new HashMap<String, Stock>(last * 4 / 3 + 1);
+            more.putAll(listedStocks);
+            listedStocks = more;
+        }
+        for (int i = 0; i < count; i++) {
+            listStock(master.getSymbol(i), master.getName(i),
+                    master.getPrice(i), master.getTickSize(i));
+        }
+        return count;
+    }
+
+    /**
+     * Sets the listener told about every stock listed on this exchange, and
+     * about every order placed or cancelled here that a brokerage accepted.
+     * Each stock tells it about its orders and cancels while holding its
+     * book lock, so they are sequenced in the order they are matched.
+     * @param listener the listener, or null for none.
+     */
+    public void setOrderEventListener(OrderEventListener listener) {
+        eventListener = listener;
+        for (Stock stock : listedStocks.values()) {
+            stock.setOrderEventListener(listener);
+        }
+    }
+
+    /**
+     * Registers a listener to be told about every trade in every stock
+     * listed on this exchange, now or later.
+     * @param listener the listener to add.
+     */
+    public void addMarketListener(MarketListener listener) {
+        listeners.add(listener);
+        for (Stock stock : listedStocks.values()) {
+            stock.addMarketListener(listener);
+        }
     }
 
     /**
      * Places a trade order by calling stock.placeOrder for the stock
-     * specified by the stock symbol in the trade order. If the stock
-     * (ex. XYZ) is not found in the exchange's list of stocks, then
-     * the exchange sends a message to the trader with the message "XYZ
-     * not found".
+     * specified by the symbol id (or, if the order has none, the stock
+     * symbol) in the trade order. If the stock (ex. XYZ) is not found in
+     * the exchange's list of stocks, then the exchange sends a message to
+     * the trader with the message "XYZ not found".
      * @param tradeOrder a trading order to be placed with this stock exchange.
+     * @return true if the order was placed; false if the stock was not found.
      */
-    public void placeOrder(TradeOrder tradeOrder) {
-        String symbol = tradeOrder.getSymbol();
-        Trader trader = tradeOrder.getTrader();
-        if (!listedStocks.containsKey(symbol)) {
-            trader.receiveMessage(symbol + " not found.");
-            return;
+    public boolean placeOrder(TradeOrder tradeOrder) {
+        Stock stock = getStock(tradeOrder);
+        if (stock == null) {
+            tradeOrder.getTrader().receiveMessage(tradeOrder.getSymbol() +
+                    " not found.");
+            return false;
         }
-        listedStocks.get(symbol).placeOrder(tradeOrder);
+        stock.placeOrder(tradeOrder);
+        return true;
+    }
+
+    /**
+     * Cancels a resting trade order by calling stock.cancelOrder for the
+     * stock specified in the trade order.
+     * @param tradeOrder a trading order placed with this stock exchange.
+     * @return true if the order was cancelled; false if it was not resting
+     *         in a book.
+     */
+    public boolean cancelOrder(TradeOrder tradeOrder) {
+        Stock stock = getStock(tradeOrder);
+        return stock != null && stock.cancelOrder(tradeOrder);
+    }
+
+    /**
+     * Returns the last sale price of a given stock.
+     * @param symbol stock symbol.
+     * @return the last sale price, or NaN if the stock is not listed.
+     */
+    public double getLastPrice(String symbol) {
+        Stock stock = listedStocks.get(symbol);
+        return stock == null ? Double.NaN : stock.getLastPrice();
+    }
+
+    /**
+     * Returns the last sale price of the stock with a given symbol id.
+     * @param symbolId a symbol id.
+     * @return the last sale price, or NaN if no stock has that id.
+     */
+    public double getLastPrice(int symbolId) {
+        Stock stock = getStock(symbolId);
+        return stock == null ? Double.NaN : stock.getLastPrice();
+    }
+
+    /**
+     * Finds the stock for a trade order. An order with a symbol id is routed
+     * by array index; the symbol check is a reference comparison once the
+     * order has been resolved. An order without one (or with an id from
+     * another exchange) is looked up by name once and stamped with the id.
+     * @param tradeOrder a trading order.
+     * @return the stock, or null if it is not listed.
+     */
+    Stock getStock(TradeOrder tradeOrder) {
+        Stock stock = getStock(tradeOrder.getSymbolId());
+        if (stock != null &&
+                stock.getStockSymbol().equals(tradeOrder.getSymbol())) {
+            return stock;
+        }
+        stock = listedStocks.get(tradeOrder.getSymbol());
+        if (stock != null) {
+            tradeOrder.setSymbolId(stock.getSymbolId(),
+                    stock.getStockSymbol());
+        }
+        return stock;
     }
     
+    /**
+     * Starts a call auction (an opening or closing cross) for every listed
+     * stock. Orders are collected without being matched until
+     * <code>uncrossAll</code> is called.
+     */
+    public void startAuction() {
+        for (Stock stock : listedStocks.values()) {
+            stock.startAuction();
+        }
+    }
+
+    /**
+     * Uncrosses every listed stock that is in a call auction, in parallel on
+     * the common ForkJoin pool.
+     * @return the total number of shares executed.
+     */
+    public long uncrossAll() {
+        return uncrossAll(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Uncrosses every listed stock that is in a call auction, in parallel on
+     * a given ForkJoin pool. Each stock is uncrossed by exactly one task,
+     * which still takes that stock's book lock, so orders placed meanwhile
+     * wait. Nothing else is confined to a task: a trader with orders in
+     * several stocks gets fills and messages from several threads at once
+     * (<code>Trader</code> synchronizes them), and every stock's market
+     * listeners, such as a market data publisher, are called from any of the
+     * pool's threads, so they must be thread-safe.
+     * @param pool the pool to run the uncross tasks on.
+     * @return the total number of shares executed.
+     */
+    public long uncrossAll(ForkJoinPool pool) {
+        return pool.invoke(new UncrossTask(stocksById, 0, stocksById.length));
+    }
+
+    /**
+     * Uncrosses a range of stocks, splitting the range in half until it is
+     * small enough to do directly.
+     */
+    private static class UncrossTask extends RecursiveTask<Long>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private static final int THRESHOLD = 64;
+
+        private Stock[] stocks;
+        private int from;
+        private int to;
+
+        UncrossTask(Stock[] stocks, int from, int to) {
+            this.stocks = stocks;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Long compute() {
+            if (to - from <= THRESHOLD) {
+                long executed = 0;
+                for (int i = from; i < to; i++) {
+                    if (stocks[i] != null && stocks[i].isInAuction()) {
+                        executed += stocks[i].uncross();
+                    }
+                }
+                return executed;
+            }
+            int mid = (from + to) >>> 1;
+            UncrossTask left = new UncrossTask(stocks, from, mid);
+            left.fork();
+            long right = new UncrossTask(stocks, mid, to).compute();
+            return right + left.join();
+        }
+    }
+
     //
     // The following are for test purposes only
     //
@@ -0,0 +1,247 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The stocks to list at startup, read from a symbol master file for
+ * <code>StockExchange.listStocks</code>. The file is text, one stock per
+ * line:
+ * <pre>symbol,name,price,tick size</pre>
+ * for example <code>GGGL,Giggle.com,10.00,0.01</code>. The name may contain
+ * commas; the symbol ends at the first comma and the price and tick size
+ * are the last two fields. The tick size must be a whole number of cents,
+ * the unit of the order book. An optional header line starting with
+ * <code>symbol,</code>, blank lines and lines starting with <code>#</code>
+ * are skipped.
+ * <p>
+ * The file is memory-mapped and parsed in place: numbers are read straight
+ * from the mapped bytes, and the only objects created are the symbol and
+ * name of each stock.
+ * </p>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class SymbolMaster
+{
+    private String[] symbols;
+    private String[] names;
+    private double[] prices;
+    private double[] tickSizes;
+
+    /**
+     * Constructs a list of stocks.
+     * @param symbols the stock symbols.
+     * @param names the company names, in the same order.
+     * @param prices the reference prices, in the same order.
+     * @param tickSizes the tick sizes, in the same order.
+     */
+    public SymbolMaster(String[] symbols, String[] names, double[] prices,
+                        double[] tickSizes) {
+        this.symbols = symbols;
+        this.names = names;
+        this.prices = prices;
+        this.tickSizes = tickSizes;
+    }
+
+    /**
+     * Reads a symbol master file.
+     * @param file the symbol master file.
+     * @return the stocks in the file.
+     * @throws IOException if the file cannot be read or a line is not a
+     *         valid listing.
+     */
+    public static SymbolMaster read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            return parse(bytes, file.toString());
+        }
+    }
+
+    private static SymbolMaster parse(MappedByteBuffer bytes, String source)
+            throws IOException {
+        int size = bytes.limit();
+        int expected = Math.max(16, size / 32);
+        List<String> symbols = new ArrayList<String>(expected);
+        List<String> names = new ArrayList<String>(expected);
+        double[] prices = new double[expected];
+        double[] tickSizes = new double[expected];
+        byte[] text = new byte[256];
+        int line = 0;
+        int start = 0;
+        while (start < size) {
+            int end = start;
+            while (end < size && bytes.get(end) != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            line++;
+            if (end > start && bytes.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end == start || bytes.get(start) == '#'
+                    || (line == 1 && startsWith(bytes, start, end,
+                            "symbol,"))) {
+                start = next;
+                continue;
+            }
+            int first = indexOf(bytes, start, end);
+            int last = lastIndexOf(bytes, start, end);
+            int middle = last < 0 ? -1 : lastIndexOf(bytes, start, last);
+            if (first < 0 || middle <= first) {
+                throw new IOException(source + " line " + line
+                        + ": expected symbol,name,price,tick size");
+            }
+            double price = parseDecimal(bytes, middle + 1, last);
+            double tick = parseDecimal(bytes, last + 1, end);
+            if (Double.isNaN(price) || !OrderBook.isWholeCents(tick)) {
+                throw new IOException(source + " line " + line
+                        + ": bad price or tick size");
+            }
+            int count = symbols.size();
+            if (count == prices.length) {
+                prices = Arrays.copyOf(prices, count * 2);
+                tickSizes = Arrays.copyOf(tickSizes, count * 2);
+            }
+            text = ensure(text, Math.max(first - start, middle - first));
+            symbols.add(decode(bytes, start, first, text));
+            names.add(decode(bytes, first + 1, middle, text));
+            prices[count] = price;
+            tickSizes[count] = tick;
+            start = next;
+        }
+        int count = symbols.size();
+        return new SymbolMaster(symbols.toArray(new String[count]),
+                names.toArray(new String[count]),
+                Arrays.copyOf(prices, count), Arrays.copyOf(tickSizes, count));
+    }
+
+    /**
+     * Parses a non-negative decimal number such as 322.45.
+     * @return the number, or NaN if the bytes are not such a number.
+     */
+    private static double parseDecimal(MappedByteBuffer bytes, int from,
+                                       int to) {
+        long digits = 0;
+        int scale = -1;
+        if (from == to || to - from > 18) {
+            return Double.NaN;
+        }
+        for (int i = from; i < to; i++) {
+            int b = bytes.get(i);
+            if (b == '.' && scale < 0) {
+                scale = 0;
+            }
+            else if (b >= '0' && b <= '9') {
+                digits = digits * 10 + (b - '0');
+                if (scale >= 0) {
+                    scale++;
+                }
+            }
+            else {
+                return Double.NaN;
+            }
+        }
+        return scale > 0 ? digits / Math.pow(10, scale) : digits;
+    }
+
+    private static int indexOf(MappedByteBuffer bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes.get(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(MappedByteBuffer bytes, int from,
+                                   int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (bytes.get(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(MappedByteBuffer bytes, int from,
+                                      int to, String prefix) {
+        if (to - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase((char)bytes.get(from + i))
+                    != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ensure(byte[] text, int length) {
+        return text.length >= length ? text : new byte[length];
+    }
+
+    private static String decode(MappedByteBuffer bytes, int from, int to,
+                                 byte[] text) {
+        bytes.get(from, text, 0, to - from);
+        return new String(text, 0, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of stocks.
+     * @return the number of stocks.
+     */
+    public int size() {
+        return symbols.length;
+    }
+
+    /**
+     * Returns the symbol of a stock.
+     * @param i the stock's position in the file, from 0.
+     * @return the stock symbol.
+     */
+    public String getSymbol(int i) {
+        return symbols[i];
+    }
+
+    /**
+     * Returns the company name of a stock.
+     * @param i the stock's position in the file, from 0.
+     * @return the company name.
+     */
+    public String getName(int i) {
+        return names[i];
+    }
+
+    /**
+     * Returns the reference (opening) price of a stock.
+     * @param i the stock's position in the file, from 0.
+     * @return the price.
+     */
+    public double getPrice(int i) {
+        return prices[i];
+    }
+
+    /**
+     * Returns the tick size of a stock.
+     * @param i the stock's position in the file, from 0.
+     * @return the tick size.
+     */
+    public double getTickSize(int i) {
+        return tickSizes[i];
+    }
+
+    /**
+     * Returns the number of stocks, for debugging.
+     * @return a string representation of this list.
+     */
+    public String toString() {
+        return "SymbolMaster[" + symbols.length + " stocks]";
+    }
+}
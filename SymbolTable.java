@@ -0,0 +1,108 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Assigns dense int ids to stock symbols. Every exchange has a symbol table;
+ * exchanges that list the same symbols (venues behind one brokerage) share
+ * one table, so that a symbol id means the same stock on every venue.
+ * Ids are handed out in the order symbols are first listed and are never
+ * reused. A table can also number the screen names of traders for the two
+ * ends of a session (see <code>MessageCodec.Order</code>).
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class SymbolTable
+{
+    private volatile ConcurrentHashMap<String, Integer> ids;
+    private volatile String[] symbols;
+    private int size;
+
+    /**
+     * Constructs an empty symbol table.
+     */
+    public SymbolTable() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty symbol table with room for a given number of
+     * symbols before it has to grow.
+     * @param capacity the expected number of symbols.
+     */
+    public SymbolTable(int capacity) {
+        capacity = Math.max(capacity, 16);
+        ids = new ConcurrentHashMap<>(capacity);
+        symbols = new String[capacity];
+    }
+
+    /**
+     * Makes room for a given number of symbols in all, so that interning up
+     * to that many does not grow the table.
+     * @param capacity the expected number of symbols.
+     */
+    public synchronized void reserve(int capacity) {
+        if (capacity > symbols.length) {
+            symbols = Arrays.copyOf(symbols, capacity);
+            ConcurrentHashMap<String, Integer> more =
+                    new ConcurrentHashMap<>(capacity);
+            more.putAll(ids);
+            ids = more;
+        }
+    }
+
+    /**
+     * Returns the id of a given symbol, assigning the next id the first time
+     * the symbol is seen.
+     * @param symbol stock symbol.
+     * @return the symbol id.
+     */
+    public synchronized int intern(String symbol) {
+        Integer id = ids.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        if (size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, size * 2);
+        }
+        symbols[size] = symbol;
+        ids.put(symbol, size);
+        return size++;
+    }
+
+    /**
+     * Returns the id of a given symbol.
+     * @param symbol stock symbol.
+     * @return the symbol id, or -1 if the symbol has no id.
+     */
+    public int getId(String symbol) {
+        Integer id = ids.get(symbol);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the symbol with a given id.
+     * @param id a symbol id.
+     * @return the symbol, or null if no symbol has that id.
+     */
+    public String getSymbol(int id) {
+        String[] current = symbols;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    /**
+     * Returns the number of symbols with ids.
+     * @return the number of symbols.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of symbols, for debugging.
+     * @return a string representation of this table.
+     */
+    public String toString() {
+        return "SymbolTable[" + size() + " symbols]";
+    }
+}
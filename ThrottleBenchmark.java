@@ -0,0 +1,208 @@
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures how an abusive trader flooding the brokerage with orders affects
+ * the latency of well-behaved traders, with and without an order rate limit
+ * on the abusive trader. The well-behaved traders each place (and cancel)
+ * one order every 100 microseconds; the abusive trader places and cancels
+ * orders as fast as it can. Every request goes through the brokerage one at
+ * a time, as it would through a single order gateway.
+ * <pre>java ThrottleBenchmark [seconds] [traders] [rate]</pre>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class ThrottleBenchmark
+{
+    private static final long INTERVAL_NANOS = 100000;
+
+    private long durationNanos;
+    private int goodTraders;
+    private double abusiveRate;
+    private long abusiveAccepted;
+    private long abusiveRejected;
+
+    /**
+     * Constructs a benchmark.
+     * @param durationMillis how long each run lasts.
+     * @param goodTraders the number of well-behaved traders.
+     * @param abusiveRate the order rate limit of the abusive trader in
+     *                    throttled runs.
+     */
+    public ThrottleBenchmark(long durationMillis, int goodTraders,
+                             double abusiveRate) {
+        durationNanos = durationMillis * 1000000;
+        this.goodTraders = goodTraders;
+        this.abusiveRate = abusiveRate;
+    }
+
+    /**
+     * Runs the well-behaved traders against the abusive one.
+     * @param throttled true to limit the abusive trader's order rate.
+     * @return the latencies of the well-behaved traders' requests in
+     *         nanoseconds, sorted.
+     * @throws InterruptedException if interrupted while waiting for the
+     *         traders to finish.
+     */
+    public long[] run(boolean throttled) throws InterruptedException {
+        StockExchange exchange = new StockExchange();
+        exchange.listStock("ABCD", "ABCD Company", 10.0);
+        Brokerage brokerage = new Brokerage(exchange);
+        brokerage.addUser("abuser", "pw");
+        if (throttled) {
+            brokerage.setRiskLimits("abuser", new RiskLimits(
+                    Integer.MAX_VALUE, Double.POSITIVE_INFINITY,
+                    Integer.MAX_VALUE, Long.MAX_VALUE, abusiveRate,
+                    (int)Math.max(1, abusiveRate / 10)));
+        }
+        Trader abuser = brokerage.getTrader("abuser");
+
+        long end = System.nanoTime() + durationNanos;
+        long[][] latencies = new long[goodTraders][];
+        int[] counts = new int[goodTraders];
+        Thread[] threads = new Thread[goodTraders];
+        for (int t = 0; t < goodTraders; t++) {
+            String name = "good" + t;
+            brokerage.addUser(name, "pw");
+            Trader trader = brokerage.getTrader(name);
+            int slot = t;
+            latencies[t] = new long[(int)(durationNanos / INTERVAL_NANOS) + 1];
+            threads[t] = new Thread(() -> {
+                long due = System.nanoTime();
+                while (due < end && counts[slot] < latencies[slot].length) {
+                    for (long wait = due - System.nanoTime(); wait > 0;
+                            wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    long start = System.nanoTime();
+                    request(brokerage, trader, 9.0);
+                    latencies[slot][counts[slot]++] =
+                            System.nanoTime() - start;
+                    due += INTERVAL_NANOS;
+                }
+            }, name);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long accepted = 0;
+        long rejected = 0;
+        while (System.nanoTime() < end) {
+            if (request(brokerage, abuser, 1.0)) {
+                accepted++;
+            }
+            else {
+                rejected++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        abusiveAccepted = accepted;
+        abusiveRejected = rejected;
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        for (int t = 0, k = 0; t < goodTraders; t++) {
+            System.arraycopy(latencies[t], 0, all, k, counts[t]);
+            k += counts[t];
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    /**
+     * Places an order and, if it was accepted, cancels it, then discards
+     * the trader's messages.
+     * @return true if the order was accepted; false if it was rejected.
+     */
+    private static boolean request(Brokerage brokerage, Trader trader,
+                                   double price) {
+        TradeOrder order = new TradeOrder(trader, "ABCD", true, false, 100,
+                price);
+        synchronized (brokerage) {
+            brokerage.placeOrder(order);
+            if (order.getId() != 0) {
+                brokerage.cancelOrder(order);
+            }
+        }
+        synchronized (trader) {
+            trader.mailbox().clear();
+        }
+        return order.getId() != 0;
+    }
+
+    /**
+     * Returns the number of the abusive trader's orders accepted in the
+     * last run.
+     * @return the number of accepted orders.
+     */
+    public long getAbusiveAccepted() {
+        return abusiveAccepted;
+    }
+
+    /**
+     * Returns the number of the abusive trader's orders rejected in the
+     * last run.
+     * @return the number of rejected orders.
+     */
+    public long getAbusiveRejected() {
+        return abusiveRejected;
+    }
+
+    /**
+     * Returns a percentile of sorted latencies, in microseconds.
+     * @param sorted the latencies in nanoseconds, sorted.
+     * @param p the percentile, from 0 to 100.
+     * @return the latency at that percentile in microseconds.
+     */
+    public static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int i = (int)Math.min(sorted.length - 1, sorted.length * p / 100);
+        return sorted[i] / 1000.0;
+    }
+
+    /**
+     * Runs the benchmark without and with the rate limit and prints the
+     * latency percentiles of the well-behaved traders.
+     * @param args optional run length in seconds (default 3), number of
+     *             well-behaved traders (default 4) and the abusive trader's
+     *             rate limit in orders a second (default 1000).
+     * @throws InterruptedException if interrupted.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 3;
+        int traders = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 1000;
+        ThrottleBenchmark benchmark = new ThrottleBenchmark(seconds * 1000,
+                traders, rate);
+        benchmark.run(false);
+        for (boolean throttled : new boolean[] { false, true }) {
+            long[] latencies = benchmark.run(throttled);
+            System.out.printf("%-11s %d requests, p50 %.1f us, p99 %.1f us,"
+                    + " p99.9 %.1f us, max %.1f us; abuser %d accepted,"
+                    + " %d rejected%n",
+                    throttled ? "throttled" : "unthrottled", latencies.length,
+                    percentile(latencies, 50), percentile(latencies, 99),
+                    percentile(latencies, 99.9),
+                    percentile(latencies, 100),
+                    benchmark.getAbusiveAccepted(),
+                    benchmark.getAbusiveRejected());
+        }
+    }
+
+    /**
+     * Returns the settings of this benchmark.
+     * @return a string representation of this benchmark.
+     */
+    public String toString() {
+        return "ThrottleBenchmark[" + durationNanos / 1000000 + " ms, "
+                + goodTraders + " traders, " + abusiveRate + "/s]";
+    }
+}
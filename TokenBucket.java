@@ -0,0 +1,115 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of some action (for example, orders placed by a trader)
+ * to a given number per second, allowing bursts of up to a given size. The
+ * bucket holds up to <code>burst</code> tokens and refills at
+ * <code>rate</code> tokens a second; each action takes one token.
+ * <p>
+ * The state is a single <code>AtomicLong</code>: the time at which the
+ * bucket will be full again if no more tokens are taken. Taking a token
+ * moves that time forward by one token's worth of refill, with one
+ * compare-and-set, so a check takes constant time and never blocks.
+ * </p>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class TokenBucket
+{
+    private final double rate;
+    private final int burst;
+    private final long interval;
+    private final long capacity;
+    private final AtomicLong fullAt;
+    private final AtomicLong rejected;
+
+    /**
+     * Constructs a full bucket.
+     * @param rate the number of tokens added per second.
+     * @param burst the most tokens the bucket holds.
+     */
+    public TokenBucket(double rate, int burst) {
+        if (!(rate > 0) || burst < 1) {
+            throw new IllegalArgumentException("rate " + rate + ", burst "
+                    + burst);
+        }
+        this.rate = rate;
+        this.burst = burst;
+        interval = Math.max(1, (long)(1e9 / rate));
+        capacity = interval * burst;
+        fullAt = new AtomicLong(System.nanoTime());
+        rejected = new AtomicLong();
+    }
+
+    /**
+     * Takes a token if one is available now.
+     * @return true if a token was taken; false if the bucket is empty.
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * Takes a token if one is available at a given time.
+     * @param now the time in nanoseconds, as given by
+     *            <code>System.nanoTime</code>.
+     * @return true if a token was taken; false if the bucket is empty.
+     */
+    public boolean tryAcquire(long now) {
+        while (true) {
+            long full = fullAt.get();
+            long next = (full - now > 0 ? full : now) + interval;
+            if (next - now > capacity) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (fullAt.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of whole tokens in the bucket at a given time.
+     * @param now the time in nanoseconds.
+     * @return the number of tokens available.
+     */
+    public int getAvailable(long now) {
+        long used = fullAt.get() - now;
+        return used <= 0 ? burst : (int)((capacity - used) / interval);
+    }
+
+    /**
+     * Returns the number of tokens added per second.
+     * @return the refill rate.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns the most tokens the bucket holds.
+     * @return the burst size.
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Returns the number of times a token was asked for and not available.
+     * @return the number of rejections.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the rate, burst and rejections of this bucket.
+     * @return a string representation of this bucket.
+     */
+    public String toString() {
+        return "TokenBucket[" + rate + "/s, burst " + burst + ", rejected "
+                + rejected + "]";
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * An immutable snapshot of the best bid and offer of one stock: the best
+ * limit price on each side with the displayed size resting at that price,
+ * and the last sale price. A side with no limit orders has a NaN price and
+ * zero size.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class TopOfBook
+{
+    private final String symbol;
+    private final double bidPrice;
+    private final long bidSize;
+    private final double askPrice;
+    private final long askSize;
+    private final double lastPrice;
+
+    /**
+     * Constructs a top-of-book snapshot.
+     * @param symbol stock symbol.
+     * @param bidPrice the best bid price, or NaN if there is none.
+     * @param bidSize the displayed shares at the best bid.
+     * @param askPrice the best ask price, or NaN if there is none.
+     * @param askSize the displayed shares at the best ask.
+     * @param lastPrice the last sale price.
+     */
+    public TopOfBook(String symbol, double bidPrice, long bidSize,
+                     double askPrice, long askSize, double lastPrice) {
+        this.symbol = symbol;
+        this.bidPrice = bidPrice;
+        this.bidSize = bidSize;
+        this.askPrice = askPrice;
+        this.askSize = askSize;
+        this.lastPrice = lastPrice;
+    }
+
+    /**
+     * Returns the stock symbol.
+     * @return the stock symbol.
+     */
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Returns the best bid price.
+     * @return the best bid price, or NaN if there is no bid.
+     */
+    public double getBidPrice() {
+        return bidPrice;
+    }
+
+    /**
+     * Returns the displayed size at the best bid.
+     * @return the number of shares bid at the best bid price.
+     */
+    public long getBidSize() {
+        return bidSize;
+    }
+
+    /**
+     * Returns the best ask price.
+     * @return the best ask price, or NaN if there is no offer.
+     */
+    public double getAskPrice() {
+        return askPrice;
+    }
+
+    /**
+     * Returns the displayed size at the best ask.
+     * @return the number of shares offered at the best ask price.
+     */
+    public long getAskSize() {
+        return askSize;
+    }
+
+    /**
+     * Returns the last sale price.
+     * @return the last sale price.
+     */
+    public double getLastPrice() {
+        return lastPrice;
+    }
+
+    /**
+     * Returns true if there is a bid.
+     * @return true if the bid side has a limit order; false otherwise.
+     */
+    public boolean hasBid() {
+        return bidSize > 0;
+    }
+
+    /**
+     * Returns true if there is an offer.
+     * @return true if the ask side has a limit order; false otherwise.
+     */
+    public boolean hasAsk() {
+        return askSize > 0;
+    }
+
+    /**
+     * Returns the quote in one line. For example:
+     *   GGGL bid 12.00 x 500 ask 12.75 x 300 last 12.10
+     * @return a string representation of this quote.
+     */
+    public String toString() {
+        return symbol + " bid " + (hasBid() ? Stock.money.format(bidPrice)
+                + " x " + bidSize : "none") + " ask " + (hasAsk() ?
+                Stock.money.format(askPrice) + " x " + askSize : "none")
+                + " last " + Stock.money.format(lastPrice);
+    }
+}
@@ -10,12 +10,18 @@ import java.lang.reflect.*;
  */
 public class TradeOrder
 {
+    private long    orderId;
     private Trader  trader;
     private String  symbol;
+    private int     symbolId;
     private boolean buyOrder;
     private boolean marketOrder;
     private int     numShares;
     private double  price;
+    private int     displayShares;
+    private int     hiddenShares;
+    private PriceLevel level;
+    private long    slot;
 
     /**
      * Constructs a new TradeOrder for a given trader, stock symbol, a number of
@@ -45,6 +51,7 @@ public class TradeOrder
     {
         this.trader = trader;
         this.symbol = symbol;
+        this.symbolId = -1;
         this.buyOrder = buyOrder;
         this.marketOrder = marketOrder;
         this.numShares = numShares;
@@ -52,6 +59,79 @@ public class TradeOrder
     }
 
 
+    /**
+     * Constructs a new iceberg (reserve) order. Only <code>displayShares</code>
+     * are shown in the book at a time; the rest is held in reserve and
+     * refills the displayed slice each time it is used up. A refilled slice
+     * loses its time priority.
+     * 
+     * @param trader
+     *            - a trader who placed this order.
+     * @param symbol
+     *            - stock symbol.
+     * @param buyOrder
+     *            - if true this is a buy order; otherwise this is a sell order.
+     * @param marketOrder
+     *            - if true this is a market order; otherwise this is a limit
+     *            order.
+     * @param numShares
+     *            - the total number of shares to be traded.
+     * @param price
+     *            - the bid or ask price, if this is a limit order.
+     * @param displayShares
+     *            - the number of shares to display at a time.
+     * @throws java.lang.IllegalArgumentException
+     *             - if displayShares is not positive.
+     */
+    public TradeOrder(
+        Trader trader,
+        String symbol,
+        boolean buyOrder,
+        boolean marketOrder,
+        int numShares,
+        double price,
+        int displayShares)
+    {
+        this(trader, symbol, buyOrder, marketOrder, numShares, price);
+        if (displayShares <= 0)
+        {
+            throw new IllegalArgumentException(
+                "display shares must be positive");
+        }
+        if (displayShares < numShares)
+        {
+            this.displayShares = displayShares;
+            this.numShares = displayShares;
+            this.hiddenShares = numShares - displayShares;
+        }
+    }
+
+
+    /**
+     * Returns the id the brokerage gave this order when it accepted it, or 0
+     * if the order has not been accepted by a brokerage.
+     * 
+     * @return the order id.
+     */
+    public long getId()
+    {
+        return orderId;
+    }
+
+
+    /**
+     * Sets the id of this order. Ids are handed out by the brokerage, which
+     * sequences all orders it accepts.
+     * 
+     * @param id
+     *            - the order id.
+     */
+    void setId(long id)
+    {
+        orderId = id;
+    }
+
+
     /**
      * Returns the price per share for this trade order (used by a limit order).
      * 
@@ -64,7 +144,8 @@ public class TradeOrder
 
 
     /**
-     * Returns the number of shares to be traded in this trade order.
+     * Returns the number of shares to be traded in this trade order. For an
+     * iceberg order this is only the displayed slice.
      * 
      * @return the number of shares to be traded in this trade order.
      */
@@ -74,6 +155,52 @@ public class TradeOrder
     }
 
 
+    /**
+     * Returns the number of shares held in reserve by an iceberg order, or 0
+     * for an ordinary order.
+     * 
+     * @return the number of hidden shares in this trade order.
+     */
+    public int getHiddenShares()
+    {
+        return hiddenShares;
+    }
+
+
+    /**
+     * Returns the number of displayed and hidden shares left in this order.
+     * 
+     * @return the total number of shares left in this trade order.
+     */
+    public int getTotalShares()
+    {
+        return numShares + hiddenShares;
+    }
+
+
+    /**
+     * Returns the number of shares an iceberg order displays at a time, or 0
+     * for an ordinary order.
+     * 
+     * @return the display size of this trade order.
+     */
+    public int getDisplayShares()
+    {
+        return displayShares;
+    }
+
+
+    /**
+     * Returns true if this is an iceberg order; otherwise returns false.
+     * 
+     * @return true if this order shows only part of its size.
+     */
+    public boolean isIceberg()
+    {
+        return displayShares > 0;
+    }
+
+
     /**
      * Returns the stock symbol for this trade order.
      * 
@@ -85,6 +212,36 @@ public class TradeOrder
     }
 
 
+    /**
+     * Returns the exchange's id for the stock of this trade order, or -1 if
+     * the symbol has not been resolved yet.
+     * 
+     * @return the symbol id for this trade order.
+     */
+    public int getSymbolId()
+    {
+        return symbolId;
+    }
+
+
+    /**
+     * Resolves the stock of this trade order to the exchange's symbol id and
+     * replaces the symbol with the exchange's own copy of it, so later
+     * routing is an array index and symbol comparisons are reference
+     * comparisons.
+     * 
+     * @param id
+     *            - the exchange's id for the stock.
+     * @param listedSymbol
+     *            - the exchange's copy of the stock symbol.
+     */
+    public void setSymbolId(int id, String listedSymbol)
+    {
+        symbolId = id;
+        symbol = listedSymbol;
+    }
+
+
     /**
      * Returns true if this is a buy order; otherwise returns false.
      * 
@@ -165,6 +322,55 @@ public class TradeOrder
     }
 
 
+    /**
+     * Moves the next displayed slice of an iceberg order out of its reserve.
+     */
+    void replenish()
+    {
+        int slice = Math.min(displayShares, hiddenShares);
+        hiddenShares -= slice;
+        numShares += slice;
+    }
+
+
+    /**
+     * Returns the price level this order rests at, or null if it is not in a
+     * book.
+     * 
+     * @return the price level of this order.
+     */
+    PriceLevel getLevel()
+    {
+        return level;
+    }
+
+
+    /**
+     * Returns the slot this order occupies within its price level.
+     * 
+     * @return the slot of this order in its level.
+     */
+    long getSlot()
+    {
+        return slot;
+    }
+
+
+    /**
+     * Records where this order rests in a book.
+     * 
+     * @param level
+     *            - the price level, or null when the order leaves the book.
+     * @param slot
+     *            - the slot within the level.
+     */
+    void setLevel(PriceLevel level, long slot)
+    {
+        this.level = level;
+        this.slot = slot;
+    }
+
+
     //
     // The following are for test purposes only
     //
@@ -0,0 +1,437 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.IntConsumer;
+
+/**
+ * Records every trade printed by an exchange in a columnar tape on disk.
+ * Each column (time, symbol id, price in cents, shares, buyer id and seller
+ * id) lives in its own memory-mapped file, so a scan reads only the columns
+ * it needs and the tape never has to fit on the heap. Rows are appended in
+ * time order, which lets time-range queries find their first row with a
+ * binary search over the time column.
+ * <p>
+ * A tape directory holds the six column files, a <code>count</code> file
+ * with the number of rows written, and a <code>symbols</code> file listing
+ * the symbol of each symbol id, one per line, and a <code>traders</code>
+ * file listing the screen name of each trader id the same way. The tape
+ * keeps its own symbol and trader ids so that they stay the same across
+ * sessions; the exchange's symbol ids and the traders' per-process ids are
+ * mapped to them through arrays.
+ * </p>
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class TradeTape implements MarketListener, Closeable
+{
+    private static final int INITIAL_ROWS = 1 << 16;
+
+    private Path dir;
+    private FileChannel[] channels;
+    private MappedByteBuffer[] columns;
+    private MappedByteBuffer countBuffer;
+    private int capacity;
+    private int rows;
+    private long lastTime;
+    private Map<String, Integer> symbolIds;
+    private List<String> symbols;
+    private int[] tapeIds;
+    private Writer symbolWriter;
+    private Map<String, Integer> traderIds;
+    private List<String> traders;
+    private int[] traderTapeIds;
+    private Writer traderWriter;
+
+    private static final int TIME = 0;
+    private static final int SYMBOL = 1;
+    private static final int PRICE = 2;
+    private static final int SHARES = 3;
+    private static final int BUYER = 4;
+    private static final int SELLER = 5;
+    private static final String[] NAMES = { "time", "symbol", "price",
+        "shares", "buyer", "seller" };
+    private static final int[] WIDTHS = { 8, 4, 8, 4, 4, 4 };
+
+    /**
+     * Opens the tape in a given directory, creating it if needed. Rows
+     * already in the tape are kept and new rows are appended after them.
+     * @param dir the directory holding the tape files.
+     * @throws IOException if the files cannot be created or mapped.
+     */
+    public TradeTape(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+
+        FileChannel countChannel = FileChannel.open(dir.resolve("count"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        countBuffer = countChannel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        countChannel.close();
+        rows = (int)countBuffer.getLong(0);
+
+        channels = new FileChannel[NAMES.length];
+        columns = new MappedByteBuffer[NAMES.length];
+        for (int c = 0; c < NAMES.length; c++) {
+            channels[c] = FileChannel.open(dir.resolve(NAMES[c] + ".col"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        int initial = INITIAL_ROWS;
+        while (initial < rows) {
+            initial *= 2;
+        }
+        map(initial);
+        if (rows > 0) {
+            lastTime = getTime(rows - 1);
+        }
+
+        symbolIds = new HashMap<>();
+        symbols = new ArrayList<>();
+        tapeIds = new int[0];
+        symbolWriter = openNames(dir.resolve("symbols"), symbolIds, symbols);
+        traderIds = new HashMap<>();
+        traders = new ArrayList<>();
+        traderTapeIds = new int[0];
+        traderWriter = openNames(dir.resolve("traders"), traderIds, traders);
+    }
+
+    /**
+     * Reads a file of names, one per id, and opens it for appending.
+     * @param file the file of names.
+     * @param ids receives the id of each name.
+     * @param names receives the names in id order.
+     * @return a writer that appends to the file.
+     * @throws IOException if the file cannot be read or opened.
+     */
+    private static Writer openNames(Path file, Map<String, Integer> ids,
+                                    List<String> names) throws IOException {
+        if (Files.exists(file)) {
+            for (String name : Files.readAllLines(file,
+                    StandardCharsets.UTF_8)) {
+                ids.put(name, names.size());
+                names.add(name);
+            }
+        }
+        return Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Appends a trade to the tape, stamped with the current time.
+     * @param stock the stock that traded.
+     * @param buy the buy order.
+     * @param sell the sell order.
+     * @param price the execution price.
+     * @param shares the number of shares traded.
+     */
+    public void tradeExecuted(Stock stock, TradeOrder buy, TradeOrder sell,
+                              double price, int shares) {
+        append(System.currentTimeMillis(), getSymbolId(stock),
+                OrderBook.toTicks(price), shares, getTraderId(buy.getTrader()),
+                getTraderId(sell.getTrader()));
+    }
+
+    /**
+     * Returns the id used in this tape for a given stock, looked up by the
+     * exchange's symbol id so that no string is hashed per trade.
+     * @param stock a stock.
+     * @return the symbol id in this tape.
+     */
+    private synchronized int getSymbolId(Stock stock) {
+        int exchangeId = stock.getSymbolId();
+        if (exchangeId < 0) {
+            return getSymbolId(stock.getStockSymbol());
+        }
+        if (exchangeId >= tapeIds.length) {
+            int old = tapeIds.length;
+            tapeIds = Arrays.copyOf(tapeIds, Math.max(16, exchangeId * 2));
+            Arrays.fill(tapeIds, old, tapeIds.length, -1);
+        }
+        if (tapeIds[exchangeId] < 0) {
+            tapeIds[exchangeId] = getSymbolId(stock.getStockSymbol());
+        }
+        return tapeIds[exchangeId];
+    }
+
+    /**
+     * Returns the id used in this tape for a given trader, looked up by the
+     * trader's per-process id so that no string is hashed per trade.
+     * @param trader a trader.
+     * @return the trader id in this tape.
+     */
+    private synchronized int getTraderId(Trader trader) {
+        int processId = trader.getId();
+        if (processId >= traderTapeIds.length) {
+            int old = traderTapeIds.length;
+            traderTapeIds = Arrays.copyOf(traderTapeIds,
+                    Math.max(16, processId * 2));
+            Arrays.fill(traderTapeIds, old, traderTapeIds.length, -1);
+        }
+        if (traderTapeIds[processId] < 0) {
+            traderTapeIds[processId] = getTraderId(trader.getName());
+        }
+        return traderTapeIds[processId];
+    }
+
+    /**
+     * Appends a row to the tape. A time earlier than the previous row's is
+     * raised to it, so the time column never decreases.
+     * @param time the trade time in milliseconds.
+     * @param symbolId the id of the stock.
+     * @param priceTicks the trade price in cents.
+     * @param shares the number of shares traded.
+     * @param buyerId the tape's id of the buying trader.
+     * @param sellerId the tape's id of the selling trader.
+     */
+    public synchronized void append(long time, int symbolId, long priceTicks,
+                                    int shares, int buyerId, int sellerId) {
+        if (rows == capacity) {
+            map(capacity * 2);
+        }
+        time = Math.max(time, lastTime);
+        lastTime = time;
+        columns[TIME].putLong(rows * 8, time);
+        columns[SYMBOL].putInt(rows * 4, symbolId);
+        columns[PRICE].putLong(rows * 8, priceTicks);
+        columns[SHARES].putInt(rows * 4, shares);
+        columns[BUYER].putInt(rows * 4, buyerId);
+        columns[SELLER].putInt(rows * 4, sellerId);
+        rows++;
+        countBuffer.putLong(0, rows);
+    }
+
+    /**
+     * Returns the id used in this tape for a given symbol, assigning the
+     * next id (and recording it in the symbols file) the first time the
+     * symbol is seen.
+     * @param symbol stock symbol.
+     * @return the symbol id.
+     */
+    public synchronized int getSymbolId(String symbol) {
+        return intern(symbol, symbolIds, symbols, symbolWriter);
+    }
+
+    /**
+     * Returns the id used in this tape for a given trader, assigning the
+     * next id (and recording it in the traders file) the first time the
+     * screen name is seen.
+     * @param name the screen name of a trader.
+     * @return the trader id.
+     */
+    public synchronized int getTraderId(String name) {
+        return intern(name, traderIds, traders, traderWriter);
+    }
+
+    private static int intern(String name, Map<String, Integer> ids,
+                              List<String> names, Writer writer) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+            try {
+                writer.write(name);
+                writer.write('\n');
+                writer.flush();
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns the symbol for a given symbol id.
+     * @param symbolId a symbol id used in this tape.
+     * @return the stock symbol.
+     */
+    public synchronized String getSymbol(int symbolId) {
+        return symbols.get(symbolId);
+    }
+
+    /**
+     * Returns the screen name for a given trader id.
+     * @param traderId a trader id used in this tape.
+     * @return the screen name of the trader.
+     */
+    public synchronized String getTraderName(int traderId) {
+        return traders.get(traderId);
+    }
+
+    /**
+     * Returns the number of rows in the tape.
+     * @return the number of trades recorded.
+     */
+    public synchronized int size() {
+        return rows;
+    }
+
+    /**
+     * Returns the time of a row.
+     * @param row a row number.
+     * @return the trade time in milliseconds.
+     */
+    public long getTime(int row) {
+        return columns[TIME].getLong(row * 8);
+    }
+
+    /**
+     * Returns the symbol id of a row.
+     * @param row a row number.
+     * @return the symbol id.
+     */
+    public int getSymbolIdAt(int row) {
+        return columns[SYMBOL].getInt(row * 4);
+    }
+
+    /**
+     * Returns the price of a row in cents.
+     * @param row a row number.
+     * @return the trade price in cents.
+     */
+    public long getPriceTicks(int row) {
+        return columns[PRICE].getLong(row * 8);
+    }
+
+    /**
+     * Returns the number of shares of a row.
+     * @param row a row number.
+     * @return the number of shares traded.
+     */
+    public int getShares(int row) {
+        return columns[SHARES].getInt(row * 4);
+    }
+
+    /**
+     * Returns the buyer id of a row.
+     * @param row a row number.
+     * @return the tape's id of the buying trader (see
+     *         <code>getTraderName</code>).
+     */
+    public int getBuyerId(int row) {
+        return columns[BUYER].getInt(row * 4);
+    }
+
+    /**
+     * Returns the seller id of a row.
+     * @param row a row number.
+     * @return the tape's id of the selling trader (see
+     *         <code>getTraderName</code>).
+     */
+    public int getSellerId(int row) {
+        return columns[SELLER].getInt(row * 4);
+    }
+
+    /**
+     * Returns the first row with a time at or after a given time.
+     * @param time a time in milliseconds.
+     * @return the first such row, or size() if there is none.
+     */
+    public int findRow(long time) {
+        int lo = 0;
+        int hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getTime(mid) < time) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Calls a visitor with every row whose time is in a given range.
+     * @param from the start of the range in milliseconds, inclusive.
+     * @param to the end of the range in milliseconds, exclusive.
+     * @param visitor called with each row number, in time order.
+     */
+    public void scan(long from, long to, IntConsumer visitor) {
+        int end = size();
+        for (int row = findRow(from); row < end && getTime(row) < to; row++) {
+            visitor.accept(row);
+        }
+    }
+
+    /**
+     * Calls a visitor with every row of a given stock whose time is in a
+     * given range. Only the time and symbol columns are read to find them.
+     * @param from the start of the range in milliseconds, inclusive.
+     * @param to the end of the range in milliseconds, exclusive.
+     * @param symbolId the id of the stock.
+     * @param visitor called with each row number, in time order.
+     */
+    public void scan(long from, long to, int symbolId, IntConsumer visitor) {
+        int end = size();
+        for (int row = findRow(from); row < end && getTime(row) < to; row++) {
+            if (getSymbolIdAt(row) == symbolId) {
+                visitor.accept(row);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of shares of a given stock traded in a time range.
+     * @param from the start of the range in milliseconds, inclusive.
+     * @param to the end of the range in milliseconds, exclusive.
+     * @param symbolId the id of the stock.
+     * @return the volume traded.
+     */
+    public long getVolume(long from, long to, int symbolId) {
+        long volume = 0;
+        int end = size();
+        for (int row = findRow(from); row < end && getTime(row) < to; row++) {
+            if (getSymbolIdAt(row) == symbolId) {
+                volume += getShares(row);
+            }
+        }
+        return volume;
+    }
+
+    /**
+     * Flushes the mapped columns to disk and closes the tape.
+     * @throws IOException if the files cannot be written.
+     */
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer column : columns) {
+            column.force();
+        }
+        countBuffer.force();
+        for (FileChannel channel : channels) {
+            channel.close();
+        }
+        symbolWriter.close();
+        traderWriter.close();
+    }
+
+    private void map(int newCapacity) {
+        if ((long)newCapacity * 8 > Integer.MAX_VALUE) {
+            throw new IllegalStateException("trade tape is full: " + dir);
+        }
+        try {
+            for (int c = 0; c < NAMES.length; c++) {
+                columns[c] = channels[c].map(FileChannel.MapMode.READ_WRITE,
+                        0, (long)newCapacity * WIDTHS[c]);
+            }
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * Returns the location and size of this tape.
+     * @return a string representation of this tape.
+     */
+    public String toString() {
+        return "TradeTape[" + dir + ", " + size() + " rows]";
+    }
+}
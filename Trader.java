@@ -1,15 +1,24 @@
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a stock trader.
  */
 public class Trader implements Comparable<Trader>
 {
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private int id;
     private Brokerage brokerage;
     private String screenName, password;
     private TraderWindow myWindow;
     private Queue<String> mailbox;
+    private TraderRisk risk;
+    private Positions positions;
+    private Map<String, TopOfBook> pendingQuotes;
+    private Set<String> subscriptions;
+    private long lastActive;
 
     /**
      * Constructs a new trader, affiliated with a given brokerage, with a given
@@ -22,9 +31,23 @@ public class Trader implements Comparable<Trader>
     public Trader( Brokerage brokerage, String name, String pswd )
     {
         this.brokerage = brokerage;
+        id = nextId.incrementAndGet();
         screenName = name;
         password = pswd;
-        mailbox = new LinkedList<String>();
+        risk = new TraderRisk( RiskLimits.NONE );
+        positions = new Positions();
+        lastActive = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns a number that identifies this trader in trade records. Every
+     * trader constructed in this process gets a different id.
+     *
+     * @return the id of this trader.
+     */
+    public int getId()
+    {
+        return id;
     }
 
     /**
@@ -47,6 +70,17 @@ public class Trader implements Comparable<Trader>
         return password;
     }
 
+    /**
+     * Returns the pre-trade risk state (limits, open orders and positions)
+     * for this trader.
+     *
+     * @return the risk state for this trader.
+     */
+    public TraderRisk getRisk()
+    {
+        return risk;
+    }
+
     /**
      * Compares this trader to another by comparing their screen names case
      * blind.
@@ -89,10 +123,10 @@ public class Trader implements Comparable<Trader>
      * messages, if any, from this trader's mailbox by calling
      * <code>myWindow.showMessage(msg)</code> for each message.
      */
-    public void openWindow()
+    public synchronized void openWindow()
     {
         myWindow = new TraderWindow( this );
-        while ( !mailbox.isEmpty() )
+        while ( mailbox != null && !mailbox.isEmpty() )
         {
             myWindow.showMessage( mailbox.remove() );
         }
@@ -103,9 +137,9 @@ public class Trader implements Comparable<Trader>
      *
      * @return true if this trader has messages; false otherwise.
      */
-    public boolean hasMessages()
+    public synchronized boolean hasMessages()
     {
-        return !mailbox.isEmpty();
+        return mailbox != null && !mailbox.isEmpty();
     }
 
     /**
@@ -113,12 +147,19 @@ public class Trader implements Comparable<Trader>
      * If this trader is logged in (<code>myWindow</code> is not
      * <code>null</code>) removes and shows all the messages in the mailbox by
      * calling <code>myWindow.showMessage(msg)</code> for each <code>msg</code>
-     * in the mailbox.
+     * in the mailbox. Messages may arrive from several threads (for example
+     * when stocks are uncrossed in parallel), so this method is synchronized.
+     * The mailbox is created with the first message, so traders that never
+     * get one cost no mailbox.
      *
      * @param msg a message to be added to this trader's mailbox.
      */
-    public void receiveMessage( String msg )
+    public synchronized void receiveMessage( String msg )
     {
+        if ( mailbox == null )
+        {
+            mailbox = new LinkedList<String>();
+        }
         mailbox.add( msg );
 
         if ( myWindow != null )
@@ -130,6 +171,78 @@ public class Trader implements Comparable<Trader>
         }
     }
 
+    /**
+     * Records a fill of one of this trader's orders. Called by the stock
+     * after the order has been reduced by the traded shares. Updates the
+     * risk counters and this trader's position, average cost and realized
+     * profit and loss in the stock.
+     *
+     * @param order the order that was filled.
+     * @param price the execution price.
+     * @param shares the number of shares traded.
+     */
+    public synchronized void receiveFill( TradeOrder order, double price,
+        int shares )
+    {
+        risk.orderFilled( order, shares );
+        positions.fill( order.getSymbolId(), order.getSymbol(), order.isBuy(),
+            shares, price );
+    }
+
+    /**
+     * Returns this trader's net position in a given stock.
+     *
+     * @param symbol a stock symbol.
+     * @return shares bought minus shares sold.
+     */
+    public synchronized long getPosition( String symbol )
+    {
+        return positions.getShares( brokerage.getSymbolId( symbol ) );
+    }
+
+    /**
+     * Returns this trader's average cost per share in a given stock.
+     *
+     * @param symbol a stock symbol.
+     * @return the average cost of the open position, or 0 if flat.
+     */
+    public synchronized double getAverageCost( String symbol )
+    {
+        return positions.getAverageCost( brokerage.getSymbolId( symbol ) );
+    }
+
+    /**
+     * Returns the profit and loss this trader has realized so far.
+     *
+     * @return the realized profit and loss across all stocks.
+     */
+    public synchronized double getRealizedPnL()
+    {
+        return positions.getRealizedTotal();
+    }
+
+    /**
+     * Returns the profit and loss on this trader's open positions, each
+     * marked to the last sale price of its stock at the brokerage's
+     * exchange.
+     *
+     * @return the unrealized profit and loss across all stocks.
+     */
+    public synchronized double getUnrealizedPnL()
+    {
+        double pnl = 0;
+        for ( int i = 0; i < positions.getCapacity(); i++ )
+        {
+            if ( positions.getSymbolAt( i ) != null )
+            {
+                int id = positions.getSymbolIdAt( i );
+                pnl += positions.getUnrealized( id,
+                    brokerage.getLastPrice( id ) );
+            }
+        }
+        return pnl;
+    }
+
     /**
      * Requests a quote for a given stock symbol from the brokerage by calling
      * brokerage's <code>getQuote</code>.
@@ -141,6 +254,100 @@ public class Trader implements Comparable<Trader>
         brokerage.getQuote( symbol, this );
     }
 
+    /**
+     * Subscribes this trader to top-of-book updates for a given stock by
+     * calling brokerage's <code>subscribe</code>. The current quote arrives
+     * at once, then a new one each time the top of the book changes.
+     *
+     * @param symbol a stock symbol.
+     */
+    public void subscribe( String symbol )
+    {
+        brokerage.subscribe( symbol, this );
+    }
+
+    /**
+     * Cancels this trader's subscription to a given stock.
+     *
+     * @param symbol a stock symbol.
+     */
+    public void unsubscribe( String symbol )
+    {
+        brokerage.unsubscribe( symbol, this );
+    }
+
+    /**
+     * Receives a top-of-book update for a subscribed stock. Updates are
+     * conflated: only the latest quote of each stock is kept until
+     * <code>pollQuotes</code> is called, so a slow reader never falls behind.
+     *
+     * @param quote the new top of the book.
+     */
+    public synchronized void quoteUpdated( TopOfBook quote )
+    {
+        if ( pendingQuotes == null )
+        {
+            pendingQuotes = new LinkedHashMap<String, TopOfBook>();
+        }
+        pendingQuotes.put( quote.getSymbol(), quote );
+    }
+
+    /**
+     * Records that the brokerage subscribed this trader to a given stock.
+     *
+     * @param symbol a stock symbol.
+     */
+    synchronized void subscribed( String symbol )
+    {
+        if ( subscriptions == null )
+        {
+            subscriptions = new HashSet<String>();
+        }
+        subscriptions.add( symbol );
+    }
+
+    /**
+     * Records that the brokerage cancelled this trader's subscription to a
+     * given stock.
+     *
+     * @param symbol a stock symbol.
+     */
+    synchronized void unsubscribed( String symbol )
+    {
+        if ( subscriptions != null )
+        {
+            subscriptions.remove( symbol );
+        }
+    }
+
+    /**
+     * Returns true if any quote updates are waiting.
+     *
+     * @return true if <code>pollQuotes</code> would return quotes.
+     */
+    public synchronized boolean hasQuotes()
+    {
+        return pendingQuotes != null && !pendingQuotes.isEmpty();
+    }
+
+    /**
+     * Removes and returns the latest quote of each subscribed stock that
+     * changed since the last call, in the order the stocks first changed.
+     *
+     * @return the pending quotes, possibly empty.
+     */
+    public synchronized List<TopOfBook> pollQuotes()
+    {
+        if ( pendingQuotes == null )
+        {
+            return new ArrayList<TopOfBook>();
+        }
+        List<TopOfBook> quotes = new ArrayList<TopOfBook>(
+            pendingQuotes.values() );
+        pendingQuotes.clear();
+        return quotes;
+    }
+
     /**
      * Places a given order with the brokerage by calling brokerage's
      * <code>placeOrder</code>.
@@ -152,6 +359,29 @@ public class Trader implements Comparable<Trader>
         brokerage.placeOrder( order );
     }
 
+    /**
+     * Cancels a given order with the brokerage by calling brokerage's
+     * <code>cancelOrder</code>.
+     *
+     * @param order a trading order to be cancelled.
+     */
+    public void cancelOrder( TradeOrder order )
+    {
+        brokerage.cancelOrder( order );
+    }
+
+    /**
+     * Cancels all of this trader's open orders in a given stock, or in
+     * every stock, by calling brokerage's <code>cancelAll</code>.
+     *
+     * @param symbol a stock symbol, or null for every stock.
+     * @return the number of orders cancelled.
+     */
+    public int cancelAll( String symbol )
+    {
+        return brokerage.cancelAll( this, symbol );
+    }
+
     /**
      * Logs out this trader. Calls <code>brokerage</code>'s <code>logout</code>
      * for this trader. Sets <code>myWindow</code> to <code>null</code> (this
@@ -164,11 +394,52 @@ public class Trader implements Comparable<Trader>
         brokerage.logout( this );
     }
 
+    /**
+     * Returns the time this trader last logged out, or was created.
+     *
+     * @return the time in milliseconds.
+     */
+    long getLastActive()
+    {
+        return lastActive;
+    }
+
+    /**
+     * Records that this trader was active at a given time.
+     *
+     * @param time the time in milliseconds.
+     */
+    void setLastActive( long time )
+    {
+        lastActive = time;
+    }
+
+    /**
+     * Returns true if this trader holds no state beyond its account: no
+     * window, open orders, shares held, waiting messages, quotes or
+     * subscriptions. Such a trader can be dropped and created again from
+     * the account store. (A subscribed trader is still registered with its
+     * stocks, so dropping it would leave it receiving quotes.)
+     *
+     * @return true if this trader can be evicted; false otherwise.
+     */
+    synchronized boolean isIdle()
+    {
+        return myWindow == null && risk.getOpenOrders() == 0
+            && positions.getOpenCount() == 0 && !hasMessages()
+            && !hasQuotes()
+            && ( subscriptions == null || subscriptions.isEmpty() );
+    }
+
     //
     // The following are for test purposes only
     //
     protected Queue<String> mailbox()
     {
+        if ( mailbox == null )
+        {
+            mailbox = new LinkedList<String>();
+        }
         return mailbox;
     }
 
@@ -0,0 +1,340 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Keeps the pre-trade risk state of one trader: the trader's limits, the
+ * number of open orders, an index of those orders by stock, the shares
+ * still open on each side of each stock and the net position in each
+ * stock. Every check and update is a constant number of
+ * atomic operations on this trader's own counters, so traders never
+ * contend with one another and no locks are taken on the order path.
+ * @author William Li
+ * @author Edwin Li
+ * @version 3/24/23
+ */
+public class TraderRisk
+{
+    /**
+     * Error code: the order has too many shares.
+     */
+    public static final int ORDER_SIZE = -1;
+
+    /**
+     * Error code: the order is worth too much.
+     */
+    public static final int NOTIONAL = -2;
+
+    /**
+     * Error code: the trader has too many open orders.
+     */
+    public static final int OPEN_ORDERS = -3;
+
+    /**
+     * Error code: the order could take the trader's position past the limit.
+     */
+    public static final int POSITION = -4;
+
+    /**
+     * Error code: the trader is placing orders too fast.
+     */
+    public static final int THROTTLED = -5;
+
+    /**
+     * Error code: a market order in a stock with no price to value it at.
+     */
+    public static final int NO_PRICE = -6;
+
+    private volatile RiskLimits limits;
+    private volatile TokenBucket throttle;
+    private AtomicInteger openOrders;
+    private ConcurrentHashMap<String, AtomicLong> positions;
+    private ConcurrentHashMap<String, AtomicLong> openBuyShares;
+    private ConcurrentHashMap<String, AtomicLong> openSellShares;
+    private ConcurrentHashMap<String, Set<TradeOrder>> liveOrders;
+
+    /**
+     * Constructs the risk state for a trader with given limits, no open
+     * orders and no positions.
+     * @param limits the trader's risk limits.
+     */
+    public TraderRisk(RiskLimits limits) {
+        setLimits(limits);
+        openOrders = new AtomicInteger();
+        positions = new ConcurrentHashMap<>();
+        openBuyShares = new ConcurrentHashMap<>();
+        openSellShares = new ConcurrentHashMap<>();
+        liveOrders = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the trader's risk limits.
+     * @return the risk limits.
+     */
+    public RiskLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Replaces the trader's risk limits. Orders already accepted are not
+     * affected. If the new limits throttle the order rate, the trader
+     * starts with a full burst.
+     * @param limits the new risk limits.
+     */
+    public void setLimits(RiskLimits limits) {
+        throttle = limits.isThrottled() ? new TokenBucket(
+                limits.getMaxOrderRate(), limits.getMaxBurst()) : null;
+        this.limits = limits;
+    }
+
+    /**
+     * Returns the token bucket that throttles the trader's order rate.
+     * @return the throttle, or null if the order rate is not limited.
+     */
+    public TokenBucket getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Checks an order against the trader's limits and, if it passes, counts
+     * it as an open order. The order rate is checked first, so an order
+     * over the rate is turned away before any other work. The position
+     * limit is checked against the worst case: the position if every open
+     * order on the same side, this one included, were filled. The open
+     * shares and the open-order slot are taken before they are checked, so
+     * two orders racing for the last of either cannot both be accepted.
+     * @param order the order to check.
+     * @param referencePrice the price used to value a market order (the last
+     *                       sale price), or NaN if unknown.
+     * @return 0 if the order is accepted, or an error code (a negative
+     *         integer) if it is rejected:<br>
+     *  -1 -- too many shares<br>
+     *  -2 -- too much notional<br>
+     *  -3 -- too many open orders<br>
+     *  -4 -- position limit<br>
+     *  -5 -- order rate limit<br>
+     *  -6 -- market order with no reference price (only when the notional
+     *        is limited).
+     */
+    public int accept(TradeOrder order, double referencePrice) {
+        TokenBucket bucket = throttle;
+        if (bucket != null && !bucket.tryAcquire()) {
+            return THROTTLED;
+        }
+        RiskLimits lim = limits;
+        int shares = order.getTotalShares();
+        if (shares > lim.getMaxOrderShares()) {
+            return ORDER_SIZE;
+        }
+        double price = order.isLimit() ? order.getPrice() : referencePrice;
+        if (Double.isNaN(price)
+                && lim.getMaxNotional() < Double.POSITIVE_INFINITY) {
+            return NO_PRICE;
+        }
+        if (shares * price > lim.getMaxNotional()) {
+            return NOTIONAL;
+        }
+        AtomicLong pending = openShares(order);
+        long position = getPosition(order.getSymbol());
+        long open = pending.addAndGet(shares);
+        long worst = order.isBuy() ? position + open : position - open;
+        if (Math.abs(worst) > lim.getMaxPosition()) {
+            pending.addAndGet(-shares);
+            return POSITION;
+        }
+        int count;
+        do {
+            count = openOrders.get();
+            if (count >= lim.getMaxOpenOrders()) {
+                pending.addAndGet(-shares);
+                return OPEN_ORDERS;
+            }
+        } while (!openOrders.compareAndSet(count, count + 1));
+        index(order);
+        return 0;
+    }
+
+    /**
+     * Counts one more open order without checking the limits, for an order
+     * the brokerage opens on the trader's behalf (a slice of an accepted
+     * order that was split across venues, or an order accepted by a
+     * replicated primary).
+     * @param order the order.
+     */
+    public void addOpenOrder(TradeOrder order) {
+        openOrders.incrementAndGet();
+        openShares(order).addAndGet(order.getTotalShares());
+        index(order);
+    }
+
+    /**
+     * Releases open shares of an accepted order whose size was cut other
+     * than by a fill (the part the router sent to other venues as slices,
+     * which count their own shares).
+     * @param order the order.
+     * @param shares the number of shares taken off the order.
+     */
+    public void orderReduced(TradeOrder order, int shares) {
+        if (isLive(order)) {
+            openShares(order).addAndGet(-shares);
+        }
+    }
+
+    private AtomicLong openShares(TradeOrder order) {
+        ConcurrentHashMap<String, AtomicLong> side = order.isBuy()
+                ? openBuyShares : openSellShares;
+        AtomicLong shares = side.get(order.getSymbol());
+        if (shares == null) {
+            shares = side.computeIfAbsent(order.getSymbol(),
+                    s -> new AtomicLong());
+        }
+        return shares;
+    }
+
+    private boolean isLive(TradeOrder order) {
+        Set<TradeOrder> orders = liveOrders.get(order.getSymbol());
+        return orders != null && orders.contains(order);
+    }
+
+    private void index(TradeOrder order) {
+        Set<TradeOrder> orders = liveOrders.get(order.getSymbol());
+        if (orders == null) {
+            orders = liveOrders.computeIfAbsent(order.getSymbol(),
+                    s -> ConcurrentHashMap.newKeySet());
+        }
+        orders.add(order);
+    }
+
+    private boolean unindex(TradeOrder order) {
+        Set<TradeOrder> orders = liveOrders.get(order.getSymbol());
+        return orders != null && orders.remove(order);
+    }
+
+    /**
+     * Records a fill of an order. Updates the position in the order's stock
+     * and, for an order accepted here, its open shares and, if the order is
+     * now completely filled, its open-order slot. Orders placed directly on
+     * the exchange hold no slot, so none is released for them.
+     * @param order the order that was filled (already reduced by the fill).
+     * @param shares the number of shares traded.
+     */
+    public void orderFilled(TradeOrder order, int shares) {
+        AtomicLong position = positions.get(order.getSymbol());
+        if (position == null) {
+            position = positions.computeIfAbsent(order.getSymbol(),
+                    s -> new AtomicLong());
+        }
+        position.addAndGet(order.isBuy() ? shares : -shares);
+        if (!isLive(order)) {
+            return;
+        }
+        openShares(order).addAndGet(-shares);
+        if (order.getTotalShares() == 0 && unindex(order)) {
+            openOrders.decrementAndGet();
+        }
+    }
+
+    /**
+     * Releases the open-order slot and open shares of an accepted order that
+     * was cancelled or never reached a book. Does nothing for an order that
+     * was not accepted here or was already released.
+     * @param order the order that was cancelled.
+     */
+    public void orderCancelled(TradeOrder order) {
+        if (unindex(order)) {
+            openOrders.decrementAndGet();
+            openShares(order).addAndGet(-order.getTotalShares());
+        }
+    }
+
+    /**
+     * Returns the trader's open orders, in no particular order. Finding
+     * them takes time in proportion to their number, whatever the size of
+     * the books they rest in.
+     * @return a new list of the open orders.
+     */
+    public List<TradeOrder> getLiveOrders() {
+        List<TradeOrder> orders = new ArrayList<TradeOrder>();
+        for (Set<TradeOrder> symbolOrders : liveOrders.values()) {
+            orders.addAll(symbolOrders);
+        }
+        return orders;
+    }
+
+    /**
+     * Returns the trader's open orders in a given stock.
+     * @param symbol a stock symbol.
+     * @return a new list of the open orders in that stock.
+     */
+    public List<TradeOrder> getLiveOrders(String symbol) {
+        Set<TradeOrder> orders = liveOrders.get(symbol);
+        return orders == null ? new ArrayList<TradeOrder>()
+                : new ArrayList<TradeOrder>(orders);
+    }
+
+    /**
+     * Returns the number of accepted orders that are not yet filled or
+     * cancelled.
+     * @return the number of open orders.
+     */
+    public int getOpenOrders() {
+        return openOrders.get();
+    }
+
+    /**
+     * Returns the shares of the trader's open orders on one side of a given
+     * stock: the most the position can still move that way.
+     * @param symbol a stock symbol.
+     * @param buy true for buy orders; false for sell orders.
+     * @return the open shares.
+     */
+    public long getOpenShares(String symbol, boolean buy) {
+        AtomicLong shares = (buy ? openBuyShares : openSellShares).get(symbol);
+        return shares == null ? 0 : shares.get();
+    }
+
+    /**
+     * Returns the trader's net position in a given stock: shares bought
+     * minus shares sold.
+     * @param symbol a stock symbol.
+     * @return the net position in that stock.
+     */
+    public long getPosition(String symbol) {
+        AtomicLong position = positions.get(symbol);
+        return position == null ? 0 : position.get();
+    }
+
+    /**
+     * Returns a message explaining an error code returned by
+     * <code>accept</code>.
+     * @param code an error code.
+     * @return the reason for the rejection.
+     */
+    public static String reason(int code) {
+        switch (code) {
+            case ORDER_SIZE:
+                return "order size limit";
+            case NOTIONAL:
+                return "order notional limit";
+            case OPEN_ORDERS:
+                return "open orders limit";
+            case POSITION:
+                return "position limit";
+            case THROTTLED:
+                return "rate limit";
+            case NO_PRICE:
+                return "no reference price";
+            default:
+                return "risk limit";
+        }
+    }
+
+    /**
+     * Returns a short description of this trader's risk state.
+     * @return a string representation of this risk state.
+     */
+    public String toString() {
+        return "TraderRisk[" + limits + ", open " + openOrders + ", positions "
+                + positions + "]";
+    }
+}
@@ -16,6 +16,8 @@
 //    private JRadioButton buyBtn, sellBtn, limitBtn, marketBtn;
 //    private JTextField symbText, nsText, priceText;
 //    private JTextArea msgArea;
+//    private MessageModel messages;
+//    private java.util.ArrayDeque<Integer> shownLengths;
 //
 //    /**
 //     * Constructs a new trading window for a trader.
@@ -185,6 +187,28 @@
 //        msgArea.setEditable( false );
 //        msgArea.setBorder( new EmptyBorder( 5, 10, 5, 10 ) );
 //        JScrollPane areaScrollPane = new JScrollPane( msgArea );
+//        shownLengths = new java.util.ArrayDeque<Integer>();
+//        messages = new MessageModel( SwingUtilities::invokeLater,
+//            ( added, removed ) -> {
+//                // a message may wrap or contain line breaks, so the
+//                // characters each one took are kept rather than lines
+//                int chars = 0;
+//                for ( int i = 0; i < removed && !shownLengths.isEmpty(); i++ )
+//                {
+//                    chars += shownLengths.remove();
+//                }
+//                if ( chars > 0 )
+//                {
+//                    msgArea.replaceRange( "", 0, chars );
+//                }
+//                StringBuilder text = new StringBuilder();
+//                for ( String msg : added )
+//                {
+//                    text.append( msg ).append( "\n\n" );
+//                    shownLengths.add( msg.length() + 2 );
+//                }
+//                msgArea.append( text.toString() );
+//            } );
 //        areaScrollPane
 //            .setVerticalScrollBarPolicy( JScrollPane.VERTICAL_SCROLLBAR_ALWAYS );
 //        areaScrollPane.setBorder( new EmptyBorder( 5, 0, 5, 0 ) );
@@ -202,13 +226,14 @@
 //    }
 //
 //    /**
-//     * Displays a message in this window's text area.
+//     * Displays a message in this window's text area. Messages are batched
+//     * by the message model, which appends them at most once per frame.
 //     *
 //     * @param msg the message to be displayed.
 //     */
 //    public void showMessage( String msg )
 //    {
-//        msgArea.append( msg + "\n\n" );
+//        messages.post( msg );
 //    }
 //
 //    /**
@@ -330,18 +355,27 @@
 //    }
 //}
 
-// Provides stub TraderWindow for a trader for testing.
+// Provides stub TraderWindow for a trader for testing. Messages go to a
+// headless message model, updated on the posting thread.
 public class TraderWindow
 {
     //private Trader myTrader;
+    private MessageModel messages;
 
     public TraderWindow( Trader trader )
     {
         //myTrader = trader;
+        messages = new MessageModel( Runnable::run, null );
     }
 
     public void showMessage( String msg )
     {
+        messages.post( msg );
+    }
+
+    public MessageModel getMessageModel()
+    {
+        return messages;
     }
 }
 